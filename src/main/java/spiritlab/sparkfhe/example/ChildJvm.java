@@ -0,0 +1,78 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds the command running a main class in a new JVM with the classpath and native library
+ * path of this one. SparkFHE is a per-process singleton, work that needs a SparkFHE of its own,
+ * e.g. other keys, runs in a child JVM.
+ */
+public class ChildJvm {
+
+    /**
+     * @param main the class whose main method is run
+     * @param args the arguments of main
+     * @return the command, for a ProcessBuilder
+     */
+    public static List<String> command(Class<?> main, String... args) {
+        return command(new ArrayList<String>(), main, args);
+    }
+
+    /**
+     * @param options the options of the JVM, e.g. -Xmx256m
+     * @param main the class whose main method is run
+     * @param args the arguments of main
+     * @return the command, for a ProcessBuilder
+     */
+    public static List<String> command(List<String> options, Class<?> main, String... args) {
+        List<String> command = new ArrayList<String>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(options);
+        command.add("-cp");
+        command.add(classpath());
+        String library_path = System.getProperty("java.library.path");
+        if (library_path != null) {
+            command.add("-Djava.library.path=" + library_path);
+        }
+        command.add(main.getName());
+        for (String arg : args) {
+            command.add(arg);
+        }
+        return command;
+    }
+
+    // under mvn exec:java the classes are loaded by a URLClassLoader, not from java.class.path
+    private static String classpath() {
+        Set<String> entries = new LinkedHashSet<String>();
+        for (ClassLoader loader = ChildJvm.class.getClassLoader(); loader != null; loader = loader.getParent()) {
+            if (loader instanceof URLClassLoader) {
+                for (URL url : ((URLClassLoader) loader).getURLs()) {
+                    try {
+                        if ("file".equals(url.getProtocol())) {
+                            entries.add(Paths.get(url.toURI()).toString());
+                        }
+                    } catch (URISyntaxException e) {
+                        // not a usable path, skip it
+                    }
+                }
+            }
+        }
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            entries.add(entry);
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+}
@@ -0,0 +1,155 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example;
+
+import org.apache.spark.SparkEnv;
+import spiritlab.sparkfhe.example.backend.FHEBackend;
+import spiritlab.sparkfhe.example.backend.FHEBackends;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Folds streams of ciphertexts with as few native calls as possible. Ciphertexts are collected
+ * into one pre-sized StringVector and passed to a single vector call (fhe_total_sum,
+ * do_FHE_dot_product), so that a partition takes one native operator call instead of one
+ * fhe_add per element. Filling the vector still costs one SWIG add, i.e. one JNI crossing and one
+ * copy, per ciphertext: the SparkFHE API only takes ciphertexts as Java strings in SWIG vectors,
+ * there is no bulk, Arrow or off-heap entry point to hand them over at once.
+ *
+ * Ciphertexts are collected until they exceed a byte bound, then the vector is folded, cleared
+ * and reused for the rest, with the running result carried over, which costs an extra vector
+ * call per batch (and an fhe_add per batch for dot products). The bound is set with
+ * spark.sparkfhe.batch.maxBytes. The vector comes from the backend selected with {@link FHEBackends#init}, which
+ * must have been called.
+ */
+public class CiphertextBatches {
+
+    public static final String MAX_BATCH_BYTES_CONF = "spark.sparkfhe.batch.maxBytes";
+    // a sixth of Spark's minimum spark.executor.memoryOverhead, for a few tasks and their results
+    public static final long DEFAULT_MAX_BATCH_BYTES = 64L * 1024 * 1024;
+    // the vector grows past it when needed
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * A native batch holds its ciphertexts off the heap, in the StringVector, and the Java strings
+     * added are garbage at once: the bound is on the native memory of each running task, which
+     * spark.executor.memoryOverhead covers, not on the heap.
+     * @return the bound of the ciphertext bytes per native call, from spark.sparkfhe.batch.maxBytes
+     * on the executors, 64m by default
+     */
+    public static long default_max_batch_bytes() {
+        SparkEnv env = SparkEnv.get();
+        return env == null ? DEFAULT_MAX_BATCH_BYTES : env.conf().getSizeAsBytes(MAX_BATCH_BYTES_CONF, DEFAULT_MAX_BATCH_BYTES);
+    }
+
+    /**
+     * Homomorphically add up a stream of ciphertexts, in one native call per batch of the default bound.
+     * @param items the items holding the ciphertexts
+     * @param ctxt_of extracts the serialized ciphertext of an item
+     * @return the serialized sum, or null if there were no items
+     */
+    public static <T> String sum(Iterator<T> items, Function<T, String> ctxt_of) {
+        return sum(null, items, ctxt_of, default_max_batch_bytes());
+    }
+
+    /**
+     * Homomorphically add a stream of ciphertexts to a running sum.
+     * @param initial the running sum, may be null
+     * @param items the items holding the ciphertexts
+     * @param ctxt_of extracts the serialized ciphertext of an item
+     * @param max_batch_bytes the ciphertext bytes after which a batch is folded, at least two
+     *                        ciphertexts go into every native call
+     * @return the serialized sum, or initial if there were no items
+     */
+    public static <T> String sum(String initial, Iterator<T> items, Function<T, String> ctxt_of, long max_batch_bytes) {
+        return sum(FHEBackends.get(), initial, items, ctxt_of, max_batch_bytes);
+    }
+
+    /**
+     * Homomorphically add a stream of ciphertexts to a running sum, with the given backend.
+     * @see #sum(String, Iterator, Function, long)
+     */
+    public static <T> String sum(FHEBackend backend, String initial, Iterator<T> items, Function<T, String> ctxt_of,
+                                 long max_batch_bytes) {
+        if (max_batch_bytes <= 0) {
+            throw new IllegalArgumentException("The batch bytes must be positive, got " + max_batch_bytes);
+        }
+        String partial = initial;
+        List<String> vec = backend.new_batch(INITIAL_CAPACITY);
+        try {
+            while (items.hasNext()) {
+                vec.clear();
+                long bytes = 0;
+                if (partial != null) {
+                    vec.add(partial);
+                    bytes += partial.length();
+                }
+                while (items.hasNext() && (vec.size() < 2 || bytes < max_batch_bytes)) {
+                    String ctxt = ctxt_of.apply(items.next());
+                    vec.add(ctxt);
+                    bytes += ctxt.length();
+                }
+                // a single ciphertext is its own sum, skip the native call
+                partial = vec.size() == 1 ? vec.get(0) : backend.fhe_total_sum(vec);
+            }
+        } finally {
+            backend.release(vec);
+        }
+        return partial;
+    }
+
+    /**
+     * Homomorphic dot product of a stream of ciphertext pairs, in one native call per batch of the default bound.
+     * @param items the items holding the pairs of ciphertexts
+     * @param a_of extracts the left ciphertext of an item
+     * @param b_of extracts the right ciphertext of an item
+     * @return the serialized dot product, or null if there were no items
+     */
+    public static <T> String dot_product(Iterator<T> items, Function<T, String> a_of, Function<T, String> b_of) {
+        return dot_product(FHEBackends.get(), items, a_of, b_of, default_max_batch_bytes());
+    }
+
+    /**
+     * Homomorphic dot product of a stream of ciphertext pairs, with the given backend.
+     * @param backend the backend running the native calls
+     * @param items the items holding the pairs of ciphertexts
+     * @param a_of extracts the left ciphertext of an item
+     * @param b_of extracts the right ciphertext of an item
+     * @param max_batch_bytes the ciphertext bytes of both sides after which a batch is folded
+     * @return the serialized dot product, or null if there were no items
+     */
+    public static <T> String dot_product(FHEBackend backend, Iterator<T> items, Function<T, String> a_of,
+                                         Function<T, String> b_of, long max_batch_bytes) {
+        if (max_batch_bytes <= 0) {
+            throw new IllegalArgumentException("The batch bytes must be positive, got " + max_batch_bytes);
+        }
+        String partial = null;
+        List<String> a = backend.new_batch(INITIAL_CAPACITY);
+        List<String> b = backend.new_batch(INITIAL_CAPACITY);
+        try {
+            while (items.hasNext()) {
+                a.clear();
+                b.clear();
+                long bytes = 0;
+                while (items.hasNext() && (a.isEmpty() || bytes < max_batch_bytes)) {
+                    T item = items.next();
+                    String ctxt_a = a_of.apply(item), ctxt_b = b_of.apply(item);
+                    a.add(ctxt_a);
+                    b.add(ctxt_b);
+                    bytes += ctxt_a.length() + ctxt_b.length();
+                }
+                String batch = backend.do_FHE_dot_product(a, b);
+                partial = partial == null ? batch : backend.fhe_add(partial, batch);
+            }
+        } finally {
+            backend.release(a);
+            backend.release(b);
+        }
+        return partial;
+    }
+}
@@ -27,6 +27,9 @@ public class Config {
     public static final String DEFAULT_SECRET_KEY_FILE="my_secret_key.txt";
 
     private static final String DEFAULT_RECORDS_DIRECTORY="/gen/records";
+    private static final String DEFAULT_CHECKPOINTS_DIRECTORY="/gen/checkpoints";
+    private static final String DEFAULT_AGGREGATES_DIRECTORY="/gen/aggregates";
+    private static final String DEFAULT_PROFILES_DIRECTORY="/gen/profiles";
     public static int NUM_OF_VECTOR_ELEMENTS = 5;
 
     public static final String Ciphertext_Label = "ctxt";
@@ -102,6 +105,18 @@ public class Config {
         return get_current_directory() + DEFAULT_RECORDS_DIRECTORY;
     }
 
+    public static String get_checkpoints_directory() {
+        return get_current_directory() + DEFAULT_CHECKPOINTS_DIRECTORY;
+    }
+
+    public static String get_aggregates_directory() {
+        return get_current_directory() + DEFAULT_AGGREGATES_DIRECTORY;
+    }
+
+    public static String get_profiles_directory() {
+        return get_current_directory() + DEFAULT_PROFILES_DIRECTORY;
+    }
+
     public static String get_crypto_param_directory() {
         return get_current_directory() + DEFAULT_CRYPTO_PARAMS_DIRECTORY;
     }
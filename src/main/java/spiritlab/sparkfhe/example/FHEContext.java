@@ -0,0 +1,74 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example;
+
+import org.apache.spark.broadcast.Broadcast;
+import spiritlab.sparkfhe.example.backend.FHEBackend;
+
+import java.io.Serializable;
+
+/**
+ * The settings needed to init the FHE backend on an executor, for functions that are shipped to
+ * the executors as objects (SQL functions, aggregators) rather than as lambdas. The backend is
+ * initialized through the {@link FHEContextCache} of the JVM, i.e. once per executor and key set
+ * as long as it stays cached, instead of once per row.
+ */
+public class FHEContext implements Serializable {
+
+    private final String library;
+    private final String scheme;
+    private final Broadcast<String> pk_b;
+    private final Broadcast<String> sk_b;
+
+    private transient String key_id;
+
+    /**
+     * @param library the HE library name
+     * @param scheme  the HE scheme name
+     * @param pk_b broadcast variable for public key
+     * @param sk_b broadcast variable for secret key
+     */
+    public FHEContext(String library, String scheme, Broadcast<String> pk_b, Broadcast<String> sk_b) {
+        this.library = library;
+        this.scheme = scheme;
+        this.pk_b = pk_b;
+        this.sk_b = sk_b;
+    }
+
+    public String get_library() {
+        return library;
+    }
+
+    public String get_scheme() {
+        return scheme;
+    }
+
+    /**
+     * The backend stays initialized with this context's keys until the end of the running task,
+     * whatever other tasks of the executor run meanwhile, see {@link FHEContextCache#task_backend}.
+     * @return the backend of this context's library, initialized with this context's keys
+     */
+    public FHEBackend get() {
+        return FHEContextCache.get_instance().task_backend(get_key_id(), library, scheme, pk_b.getValue(), sk_b.getValue());
+    }
+
+    /**
+     * Keep this context's keys loaded until the lease is closed, for work outside of a task or
+     * shorter than one.
+     * @return the lease, whose backend is initialized with this context's keys
+     */
+    public FHEContextCache.Lease lease() {
+        return FHEContextCache.get_instance().lease(get_key_id(), library, scheme, pk_b.getValue(), sk_b.getValue());
+    }
+
+    // computed once per task, the keys may be large
+    private String get_key_id() {
+        if (key_id == null) {
+            key_id = FHEContextCache.key_id(library, scheme, pk_b.getValue(), sk_b.getValue());
+        }
+        return key_id;
+    }
+}
@@ -0,0 +1,462 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import org.apache.spark.SparkEnv;
+import org.apache.spark.TaskContext;
+import org.apache.spark.util.TaskCompletionListener;
+import spiritlab.sparkfhe.example.backend.FHEBackend;
+import spiritlab.sparkfhe.example.backend.FHEBackends;
+import spiritlab.sparkfhe.example.backend.PlaintextBackend;
+import spiritlab.sparkfhe.example.backend.RemoteBackend;
+import spiritlab.sparkfhe.example.metrics.BucketReservoir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The FHE contexts initialized in this JVM, one per key set, so that the tasks of a job reuse
+ * the context of their keys instead of initializing the backend again in every task, and so
+ * that tasks of tenants with different keys can share an executor.
+ *
+ * SparkFHE is a per-process singleton, it holds the keys of one key set at a time, and its
+ * native memory is only freed when the process exits. So by default every SparkFHE key set of
+ * the cache is loaded into a child JVM of its own, a {@link RemoteBackend}: key sets run
+ * concurrently, evicting a context stops its child JVM and frees its native memory, and the
+ * SparkFHE of this JVM is left to the code calling FHEBackends.init directly, whose keys the
+ * cache never sees. The memory of the child JVMs is not counted in the executor's heap nor in
+ * NativeMemory: each holds its native context and at most spark.sparkfhe.contextCache.childJvmHeap
+ * of heap, to be covered by spark.executor.memoryOverhead, capacity times over.
+ *
+ * With spark.sparkfhe.contextCache.childJvms=false no process is started: the cache loads key
+ * sets into the SparkFHE of this JVM, one at a time, and a task leasing another key set waits
+ * until the tasks of the loaded one are done, then reinits SparkFHE with its keys. Evicting
+ * that context frees nothing. Only use it when the executors run FHEContext tasks alone, as
+ * FHEBackends.init calls of other tasks would reinit SparkFHE under them. PLAINTEXT key sets
+ * need no native state and get a backend each, in both cases.
+ *
+ * A {@link Lease} keeps its context from being evicted until closed. At most a configured number
+ * of contexts are loaded, the least recently used one without leases is evicted to load another
+ * key set; while all of them are leased, a task leasing another key set waits for a lease to be
+ * closed. A task cannot lease more key sets at once than the cache can load. The settings are
+ * read from the Spark conf of the executors. Its metrics, published by FHEMetricsPlugin, are:
+ *  context.loads          the number of times a key set was loaded, i.e. a backend initialized
+ *  context.load_time_us   the distribution of the time a load took, in microseconds
+ *  context.hits           the number of leases of a key set already loaded
+ *  context.evictions      the number of contexts evicted
+ *  context.waits          the number of leases that waited, for another task loading the same
+ *                         key set or for a context to be released
+ *  context.cached         the number of contexts held
+ *  context.child_jvms     the number of child JVMs running
+ */
+public class FHEContextCache {
+
+    public static final String CAPACITY_CONF = "spark.sparkfhe.contextCache.capacity";
+    public static final int DEFAULT_CAPACITY = 4;
+    public static final String CHILD_JVMS_CONF = "spark.sparkfhe.contextCache.childJvms";
+    public static final boolean DEFAULT_CHILD_JVMS = true;
+    public static final String CHILD_JVM_HEAP_CONF = "spark.sparkfhe.contextCache.childJvmHeap";
+    public static final String DEFAULT_CHILD_JVM_HEAP = "512m";
+
+    /**
+     * Initializes a backend with the keys of a key set.
+     */
+    interface Loader {
+        /**
+         * @param in_process true to init the SparkFHE of this JVM with the key set, false to load
+         *                   it into a native context of its own
+         */
+        FHEBackend load(String library, String scheme, String pk, String sk, boolean in_process) throws IOException;
+    }
+
+    /**
+     * Keeps the context of a key set from being evicted until closed, see {@link #lease}.
+     */
+    public static final class Lease implements AutoCloseable {
+        private final FHEContextCache cache;
+        private final Entry entry;
+        private boolean closed;
+
+        private Lease(FHEContextCache cache, Entry entry) {
+            this.cache = cache;
+            this.entry = entry;
+        }
+
+        /**
+         * @return the backend, initialized with the keys of the lease while it is open
+         */
+        public FHEBackend backend() {
+            return entry.backend;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                cache.release(entry);
+            }
+        }
+    }
+
+    private static final class Entry {
+        final String key_id;
+        final boolean in_process;
+        // null while loading
+        FHEBackend backend;
+        int leases;
+
+        Entry(String key_id, boolean in_process) {
+            this.key_id = key_id;
+            this.in_process = in_process;
+        }
+    }
+
+    private static volatile FHEContextCache instance;
+
+    private final int capacity;
+    private final boolean child_jvms;
+    private final Loader loader;
+    // in access order, the least recently used first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    // the context using the SparkFHE of this JVM, if any, without child JVMs
+    private Entry in_process;
+    // the leases held by the running tasks, by task attempt, and by the driver
+    private final ConcurrentHashMap<Long, Map<String, Lease>> task_leases = new ConcurrentHashMap<Long, Map<String, Lease>>();
+    private final Map<String, Lease> driver_leases = new ConcurrentHashMap<String, Lease>();
+
+    private final Counter loads = new Counter();
+    private final Histogram load_time = new Histogram(new BucketReservoir());
+    private final Counter hits = new Counter();
+    private final Counter evictions = new Counter();
+    private final Counter waits = new Counter();
+
+    /**
+     * @param capacity the number of contexts loaded at most
+     * @param child_jvms true to load the SparkFHE key sets into child JVMs, false to take turns
+     *                   in the SparkFHE of this JVM
+     */
+    FHEContextCache(int capacity, boolean child_jvms, Loader loader) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The context cache capacity must be positive, got " + capacity);
+        }
+        this.capacity = capacity;
+        this.child_jvms = child_jvms;
+        this.loader = loader;
+    }
+
+    /**
+     * @return the cache of this JVM, with the capacity set in the Spark conf, if any
+     */
+    public static FHEContextCache get_instance() {
+        FHEContextCache cache = instance;
+        if (cache == null) {
+            synchronized (FHEContextCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    SparkEnv env = SparkEnv.get();
+                    int capacity = env == null ? DEFAULT_CAPACITY : env.conf().getInt(CAPACITY_CONF, DEFAULT_CAPACITY);
+                    boolean child_jvms = env == null ? DEFAULT_CHILD_JVMS : env.conf().getBoolean(CHILD_JVMS_CONF, DEFAULT_CHILD_JVMS);
+                    String max_heap = env == null ? DEFAULT_CHILD_JVM_HEAP : env.conf().get(CHILD_JVM_HEAP_CONF, DEFAULT_CHILD_JVM_HEAP);
+                    cache = instance = new FHEContextCache(capacity, child_jvms,
+                            (library, scheme, pk, sk, in_process) -> load(library, scheme, pk, sk, in_process, max_heap));
+                }
+            }
+        }
+        return cache;
+    }
+
+    private static FHEBackend load(String library, String scheme, String pk, String sk, boolean in_process, String max_heap) throws IOException {
+        if (FHEBackends.is_plaintext(library)) {
+            return PlaintextBackend.parse(library, scheme);
+        }
+        if (in_process) {
+            FHEBackends.init(library, scheme, pk, sk);
+            return FHEBackends.get();
+        }
+        return RemoteBackend.start(library, scheme, pk, sk, max_heap);
+    }
+
+    /**
+     * @return the identity of a key set, a digest of the library, scheme and keys
+     */
+    public static String key_id(String library, String scheme, String pk, String sk) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{library, scheme, pk, sk}) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * The backend of a key set for the rest of the running task: the first call of a task takes
+     * a lease, closed when the task completes, the next calls reuse it. On the driver, outside of
+     * tasks, the lease is held until the JVM exits.
+     * @param key_id the identity of the key set, from key_id()
+     * @return the backend, initialized with the keys
+     */
+    public FHEBackend task_backend(String key_id, String library, String scheme, String pk, String sk) {
+        TaskContext task = TaskContext.get();
+        Map<String, Lease> leases;
+        if (task == null) {
+            leases = driver_leases;
+        } else {
+            long attempt = task.taskAttemptId();
+            leases = task_leases.get(attempt);
+            if (leases == null) {
+                leases = new ConcurrentHashMap<String, Lease>();
+                task_leases.put(attempt, leases);
+                task.addTaskCompletionListener((TaskCompletionListener) completed -> release_task(completed.taskAttemptId()));
+            }
+        }
+        Lease lease = leases.get(key_id);
+        if (lease == null) {
+            lease = lease(key_id, library, scheme, pk, sk, leases.keySet());
+            leases.put(key_id, lease);
+        }
+        return lease.backend();
+    }
+
+    private void release_task(long attempt) {
+        Map<String, Lease> leases = task_leases.remove(attempt);
+        if (leases != null) {
+            for (Lease lease : leases.values()) {
+                lease.close();
+            }
+        }
+    }
+
+    /**
+     * Load the context of a key set, unless cached, and keep it until the lease is closed.
+     * @param key_id the identity of the key set, from key_id()
+     * @return the lease, to be closed
+     */
+    public Lease lease(String key_id, String library, String scheme, String pk, String sk) {
+        return lease(key_id, library, scheme, pk, sk, Collections.<String>emptySet());
+    }
+
+    /**
+     * @param held the key sets leased by the caller, whose leases it cannot close while waiting
+     */
+    private Lease lease(String key_id, String library, String scheme, String pk, String sk, Set<String> held) {
+        boolean use_process = !child_jvms && !FHEBackends.is_plaintext(library);
+        Entry entry;
+        synchronized (this) {
+            boolean waited = false;
+            while (true) {
+                entry = entries.get(key_id);
+                if (entry != null) {
+                    entry.leases++;
+                    if (entry.backend == null) {
+                        // another task is loading it
+                        if (!waited) {
+                            waits.inc();
+                        }
+                        while (entry.backend == null && entries.get(key_id) == entry) {
+                            await(entry);
+                        }
+                        if (entry.backend == null) {
+                            throw new IllegalStateException("Failed to load the FHE context of a key set of " + library + " " + scheme);
+                        }
+                    }
+                    hits.inc();
+                    return new Lease(this, entry);
+                }
+                if (make_room(use_process)) {
+                    break;
+                }
+                if (held_only(held)) {
+                    throw new IllegalStateException("A task cannot lease more key sets at once than the FHE context cache loads ("
+                            + (use_process ? "1 without child JVMs" : capacity + "") + ")");
+                }
+                // every context is leased, or the SparkFHE of this JVM is
+                if (!waited) {
+                    waits.inc();
+                    waited = true;
+                }
+                await(null);
+            }
+            entry = new Entry(key_id, use_process);
+            entry.leases++;
+            entries.put(key_id, entry);
+            if (use_process) {
+                in_process = entry;
+            }
+        }
+
+        // loaded outside of the lock, the tasks of the cached key sets go on meanwhile
+        long start = System.nanoTime();
+        FHEBackend backend = null;
+        try {
+            backend = loader.load(library, scheme, pk, sk, entry.in_process);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load the FHE context of a key set of " + library + " " + scheme, e);
+        } finally {
+            synchronized (this) {
+                if (backend == null) {
+                    entries.remove(key_id);
+                    if (in_process == entry) {
+                        in_process = null;
+                    }
+                } else {
+                    entry.backend = backend;
+                    load_time.update((System.nanoTime() - start) / 1000);
+                    loads.inc();
+                }
+                notifyAll();
+            }
+        }
+        return new Lease(this, entry);
+    }
+
+    // called with the lock held, waits for a load to end or a lease to be closed
+    private void await(Entry leased) {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            if (leased != null) {
+                leased.leases--;
+            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an FHE context", e);
+        }
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.leases--;
+        // the context stays loaded, waiting tasks may evict it now
+        notifyAll();
+    }
+
+    // called with the lock held, evicts the least recently used contexts without leases until
+    // another one can be loaded, in the SparkFHE of this JVM or not
+    private boolean make_room(boolean use_process) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (!has_room(use_process) && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entry.leases == 0 && entry.backend != null && (entries.size() >= capacity || entry == in_process)) {
+                it.remove();
+                close(entry);
+                evictions.inc();
+            }
+        }
+        return has_room(use_process);
+    }
+
+    private boolean has_room(boolean use_process) {
+        return entries.size() < capacity && !(use_process && in_process != null);
+    }
+
+    // called with the lock held, true if the caller holds every lease, waiting would never end
+    private boolean held_only(Set<String> held) {
+        for (Entry entry : entries.values()) {
+            if (entry.leases > (held.contains(entry.key_id) ? 1 : 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void close(Entry entry) {
+        if (entry == in_process) {
+            // SparkFHE keeps its keys and memory, the next key set loaded inits it with its keys
+            in_process = null;
+        }
+        if (entry.backend instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) entry.backend).close();
+            } catch (Exception e) {
+                System.err.println("Failed to close the FHE context of a key set: " + e);
+            }
+        }
+    }
+
+    public int get_capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of child JVMs running, one per context loaded into its own
+     */
+    public synchronized int child_jvms() {
+        int count = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.backend instanceof RemoteBackend) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of contexts held
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return true if the key set has a context in the cache
+     */
+    public synchronized boolean contains(String key_id) {
+        return entries.containsKey(key_id);
+    }
+
+    public long get_loads() {
+        return loads.getCount();
+    }
+
+    public long get_hits() {
+        return hits.getCount();
+    }
+
+    public long get_evictions() {
+        return evictions.getCount();
+    }
+
+    public long get_waits() {
+        return waits.getCount();
+    }
+
+    public Histogram get_load_time() {
+        return load_time;
+    }
+
+    /**
+     * Add the metrics of the cache of this JVM to a registry.
+     * @param registry the registry, e.g. the one of a Spark plugin
+     */
+    public static void register(MetricRegistry registry) {
+        FHEContextCache cache = get_instance();
+        registry.register("context.loads", cache.loads);
+        registry.register("context.load_time_us", cache.load_time);
+        registry.register("context.hits", cache.hits);
+        registry.register("context.evictions", cache.evictions);
+        registry.register("context.waits", cache.waits);
+        registry.register("context.cached", (Gauge<Integer>) cache::size);
+        registry.register("context.child_jvms", (Gauge<Integer>) cache::child_jvms);
+    }
+}
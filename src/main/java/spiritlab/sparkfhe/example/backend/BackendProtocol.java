@@ -0,0 +1,102 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.backend;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The wire format between {@link RemoteBackend} and {@link BackendServer}. A connection starts
+ * with the token of the server, then carries calls one at a time: the operation and its
+ * arguments, answered by OK and the result, or by ERROR and a message. Strings are sent as
+ * their length and UTF-8 bytes, ciphertexts are MBs, more than writeUTF takes.
+ */
+final class BackendProtocol {
+
+    static final byte SUFFIX = 1;
+    static final byte ENCRYPT = 2;
+    static final byte ENCRYPT_LONGS = 3;
+    static final byte ENCRYPT_DOUBLES = 4;
+    static final byte DECRYPT = 5;
+    static final byte DECRYPT_AND_PRINT = 6;
+    static final byte ADD = 7;
+    static final byte MULTIPLY = 8;
+    static final byte SUBTRACT = 9;
+    static final byte TOTAL_SUM = 10;
+    static final byte TOTAL_SUM_BATCH = 11;
+    static final byte DOT_PRODUCT = 12;
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    // printed by the server process once it listens, followed by the port
+    static final String PORT_PREFIX = "BACKEND_PORT ";
+
+    private BackendProtocol() {
+    }
+
+    static void write_string(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String read_string(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void write_strings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            write_string(out, value);
+        }
+    }
+
+    static List<String> read_strings(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<String> values = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(read_string(in));
+        }
+        return values;
+    }
+
+    static void write_longs(DataOutputStream out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+
+    static long[] read_longs(DataInputStream in) throws IOException {
+        long[] values = new long[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readLong();
+        }
+        return values;
+    }
+
+    static void write_doubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    static double[] read_doubles(DataInputStream in) throws IOException {
+        double[] values = new double[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+}
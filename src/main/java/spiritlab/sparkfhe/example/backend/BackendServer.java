@@ -0,0 +1,192 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.backend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+import static spiritlab.sparkfhe.example.backend.BackendProtocol.*;
+
+/**
+ * Serves the calls of {@link RemoteBackend} with a backend of this process, on a loopback
+ * socket. SparkFHE is a per-process singleton: a JVM running main below holds the context of one
+ * key set, so that a JVM serving tasks of several key sets keeps each of them initialized
+ * instead of initializing SparkFHE again at every switch. Every connection is served by a
+ * thread of its own, and must start with the token the server was given.
+ */
+public class BackendServer implements AutoCloseable {
+
+    private final FHEBackend backend;
+    private final byte[] token;
+    private ServerSocket socket;
+
+    /**
+     * @param backend the backend serving the calls
+     * @param token the secret the connections must start with
+     */
+    public BackendServer(FHEBackend backend, String token) {
+        this.backend = backend;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Listen on a free loopback port.
+     * @return the port
+     * @throws IOException if no port could be bound
+     */
+    public synchronized int start() throws IOException {
+        socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "fhe-backend-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return socket.getLocalPort();
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            try {
+                Socket connection = socket.accept();
+                Thread thread = new Thread(() -> serve(connection), "fhe-backend-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        try (Socket s = connection;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setTcpNoDelay(true);
+            if (!MessageDigest.isEqual(token, read_string(in).getBytes(StandardCharsets.UTF_8))) {
+                return;
+            }
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                String result;
+                try {
+                    result = call(op, in);
+                } catch (RuntimeException e) {
+                    out.writeByte(ERROR);
+                    write_string(out, String.valueOf(e));
+                    out.flush();
+                    continue;
+                }
+                out.writeByte(OK);
+                write_string(out, result == null ? "" : result);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the client went away
+        }
+    }
+
+    // the arguments are read in full before the backend is called, so that a failing call leaves the stream in sync
+    private String call(byte op, DataInputStream in) throws IOException {
+        switch (op) {
+            case SUFFIX:
+                return backend.generate_crypto_params_suffix();
+            case ENCRYPT: {
+                String value = read_string(in);
+                return backend.encrypt(value);
+            }
+            case ENCRYPT_LONGS: {
+                long[] slots = read_longs(in);
+                return backend.encrypt(slots);
+            }
+            case ENCRYPT_DOUBLES: {
+                double[] slots = read_doubles(in);
+                return backend.encrypt(slots);
+            }
+            case DECRYPT: {
+                String ctxt = read_string(in);
+                return backend.decrypt(ctxt);
+            }
+            case DECRYPT_AND_PRINT: {
+                String scheme = read_string(in), label = read_string(in), ctxt = read_string(in);
+                boolean is_vector = in.readBoolean();
+                int num_of_elements = in.readInt();
+                backend.decrypt_and_print(scheme, label, ctxt, is_vector, num_of_elements);
+                return null;
+            }
+            case ADD: {
+                String a = read_string(in), b = read_string(in);
+                return backend.fhe_add(a, b);
+            }
+            case MULTIPLY: {
+                String a = read_string(in), b = read_string(in);
+                return backend.fhe_multiply(a, b);
+            }
+            case SUBTRACT: {
+                String a = read_string(in), b = read_string(in);
+                return backend.fhe_subtract(a, b);
+            }
+            case TOTAL_SUM: {
+                String ctxt = read_string(in);
+                return backend.fhe_total_sum(ctxt);
+            }
+            case TOTAL_SUM_BATCH: {
+                List<String> ctxts = read_strings(in);
+                return backend.fhe_total_sum(ctxts);
+            }
+            case DOT_PRODUCT: {
+                List<String> a = read_strings(in), b = read_strings(in);
+                return backend.do_FHE_dot_product(a, b);
+            }
+            default:
+                throw new IOException("Unknown backend operation " + op);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    /**
+     * Serves a backend to the RemoteBackend that started this JVM, until it closes our stdin.
+     * The token and keys are read from stdin, the port is printed on stdout.
+     * Usage: BackendServer [library] [scheme]
+     */
+    public static void main(String[] args) throws IOException {
+        String library = args[0], scheme = args[1];
+        InputStream stdin = System.in;
+        DataInputStream in = new DataInputStream(stdin);
+        String token = read_string(in), pk = read_string(in), sk = read_string(in);
+
+        // load our shared library and create the SparkFHE object with the keys of the key set
+        FHEBackends.init(library, scheme, pk, sk);
+        BackendServer server = new BackendServer(FHEBackends.get(), token);
+        System.out.println(PORT_PREFIX + server.start());
+        System.out.flush();
+
+        // the parent closes our stdin when it evicts the key set, or when it dies
+        while (stdin.read() >= 0) {
+        }
+        server.close();
+        System.exit(0);
+    }
+}
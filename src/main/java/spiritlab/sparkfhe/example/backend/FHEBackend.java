@@ -0,0 +1,100 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.backend;
+
+import java.util.List;
+
+/**
+ * The homomorphic operations the examples rely on, on serialized ciphertexts. Implemented by
+ * {@link NativeBackend} on top of SparkFHE, and by {@link PlaintextBackend} with plaintext
+ * arithmetic. Ciphertexts are stored and read through CiphertextStore, which works on the
+ * serialized form and is the same for every backend.
+ */
+public interface FHEBackend {
+
+    /**
+     * @return the HE library name the backend was selected with
+     */
+    String get_library();
+
+    /**
+     * @return a suffix identifying the crypto params, used to name ciphertext files
+     */
+    String generate_crypto_params_suffix();
+
+    /**
+     * @param value a single value
+     * @return the serialized ciphertext of the value
+     */
+    String encrypt(String value);
+
+    /**
+     * @param slots the values of the slots, for BGV and BFV
+     * @return the serialized ciphertext packing the values
+     */
+    String encrypt(long[] slots);
+
+    /**
+     * @param slots the values of the slots, for CKKS
+     * @return the serialized ciphertext packing the values
+     */
+    String encrypt(double[] slots);
+
+    /**
+     * @param ctxt a serialized ciphertext
+     * @return the decrypted values, as text
+     */
+    String decrypt(String ctxt);
+
+    /**
+     * Decrypt a ciphertext and print its values.
+     * @param scheme the HE scheme name
+     * @param label printed before the values
+     * @param ctxt a serialized ciphertext
+     * @param is_vector true to print the first num_of_elements slots, false to print the first slot only
+     * @param num_of_elements the number of slots to print
+     */
+    void decrypt_and_print(String scheme, String label, String ctxt, boolean is_vector, int num_of_elements);
+
+    String fhe_add(String ctxt_a, String ctxt_b);
+
+    String fhe_multiply(String ctxt_a, String ctxt_b);
+
+    String fhe_subtract(String ctxt_a, String ctxt_b);
+
+    /**
+     * @param ctxt a serialized ciphertext
+     * @return a ciphertext holding the sum of all slots in every slot
+     */
+    String fhe_total_sum(String ctxt);
+
+    /**
+     * @param capacity the number of ciphertexts the batch will hold
+     * @return an empty batch of ciphertexts, in the form the backend's vector operations take
+     * without copying, to be cleared and reused across calls, and released at the end
+     */
+    List<String> new_batch(int capacity);
+
+    /**
+     * Free a batch from {@link #new_batch(int)} once it is no longer used.
+     * @param batch the batch
+     */
+    default void release(List<String> batch) {
+    }
+
+    /**
+     * @param ctxts a batch of serialized ciphertexts, preferably from {@link #new_batch(int)}
+     * @return the slot-wise sum of the ciphertexts
+     */
+    String fhe_total_sum(List<String> ctxts);
+
+    /**
+     * @param ctxts_a a batch of serialized ciphertexts, preferably from {@link #new_batch(int)}
+     * @param ctxts_b a batch of as many serialized ciphertexts
+     * @return the slot-wise sum of the products of the pairs
+     */
+    String do_FHE_dot_product(List<String> ctxts_a, List<String> ctxts_b);
+}
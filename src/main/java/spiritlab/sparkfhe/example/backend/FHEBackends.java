@@ -0,0 +1,66 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.backend;
+
+import org.apache.spark.spiritlab.sparkfhe.SparkFHEPlugin;
+import spiritlab.sparkfhe.api.SparkFHE;
+
+/**
+ * Selects the backend from the library argument of the examples: PLAINTEXT (optionally
+ * PLAINTEXT:[bytes]) for {@link PlaintextBackend}, any library of SparkFHE otherwise. Like
+ * SparkFHE.init, init is called on the driver and again on the executors before use.
+ */
+public class FHEBackends {
+
+    public static final String PLAINTEXT = "PLAINTEXT";
+
+    private static volatile FHEBackend instance;
+
+    /**
+     * @param library the HE library name
+     * @return true if the library selects the plaintext backend
+     */
+    public static boolean is_plaintext(String library) {
+        return library != null && library.toUpperCase().startsWith(PLAINTEXT);
+    }
+
+    /**
+     * Select and initialize the backend of a library. For SparkFHE libraries this loads the
+     * shared library and inits SparkFHE with the keys.
+     * @param library the HE library name
+     * @param scheme  the HE scheme name
+     * @param pk the public key file, or the public key, as taken by SparkFHE.init
+     * @param sk the secret key file, or the secret key, as taken by SparkFHE.init
+     */
+    public static synchronized void init(String library, String scheme, String pk, String sk) {
+        if (is_plaintext(library)) {
+            // the padding is generated once, keep the instance as long as the settings are the same
+            if (!(instance instanceof PlaintextBackend) || !instance.get_library().equals(library)
+                    || !((PlaintextBackend) instance).get_scheme().equals(scheme)) {
+                instance = PlaintextBackend.parse(library, scheme);
+            }
+        } else {
+            // we need to load the shared library and init a copy of SparkFHE
+            SparkFHEPlugin.setup();
+            SparkFHE.init(library, scheme, pk, sk);
+            if (!(instance instanceof NativeBackend) || !instance.get_library().equals(library)
+                    || !((NativeBackend) instance).get_scheme().equals(scheme)) {
+                instance = new NativeBackend(library, scheme);
+            }
+        }
+    }
+
+    /**
+     * @return the backend selected by the last call to init
+     */
+    public static FHEBackend get() {
+        FHEBackend backend = instance;
+        if (backend == null) {
+            throw new IllegalStateException("No FHE backend, FHEBackends.init must be called first");
+        }
+        return backend;
+    }
+}
@@ -0,0 +1,219 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.backend;
+
+import spiritlab.sparkfhe.api.Ciphertext;
+import spiritlab.sparkfhe.api.DoubleVector;
+import spiritlab.sparkfhe.api.LongVector;
+import spiritlab.sparkfhe.api.Plaintext;
+import spiritlab.sparkfhe.api.SparkFHE;
+import spiritlab.sparkfhe.api.StringVector;
+import spiritlab.sparkfhe.api.Util;
+import spiritlab.sparkfhe.example.memory.NativeArena;
+import spiritlab.sparkfhe.example.metrics.FHEMetrics;
+import spiritlab.sparkfhe.example.metrics.FHEOperation;
+import spiritlab.sparkfhe.example.metrics.FHEOperationEvent;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * The backend of the HE libraries of SparkFHE (HELIB, SEAL, ...). Every call goes to the
+ * SparkFHE instance, which must have been initialized, see {@link FHEBackends#init}, and is
+ * recorded in {@link FHEMetrics} and as a {@link FHEOperationEvent} for Flight Recorder.
+ */
+public class NativeBackend implements FHEBackend {
+
+    private final String library;
+    private final String scheme;
+
+    public NativeBackend(String library, String scheme) {
+        this.library = library;
+        this.scheme = scheme;
+    }
+
+    @Override
+    public String get_library() {
+        return library;
+    }
+
+    public String get_scheme() {
+        return scheme;
+    }
+
+    @Override
+    public String generate_crypto_params_suffix() {
+        return SparkFHE.getInstance().generate_crypto_params_suffix();
+    }
+
+    // the vectors, plaintexts and ciphertexts are only needed until the ciphertext is serialized
+    @Override
+    public String encrypt(String value) {
+        try (NativeArena arena = new NativeArena()) {
+            return encrypt(arena, encode(arena, () -> SparkFHE.getInstance().encode(value), value.length()));
+        }
+    }
+
+    @Override
+    public String encrypt(long[] slots) {
+        try (NativeArena arena = new NativeArena()) {
+            LongVector vec = arena.track(new LongVector(), 8L * slots.length);
+            vec.reserve(slots.length);
+            for (long slot : slots) {
+                vec.add(slot);
+            }
+            return encrypt(arena, encode(arena, () -> SparkFHE.getInstance().encode(vec), 8L * slots.length));
+        }
+    }
+
+    @Override
+    public String encrypt(double[] slots) {
+        try (NativeArena arena = new NativeArena()) {
+            DoubleVector vec = arena.track(new DoubleVector(), 8L * slots.length);
+            vec.reserve(slots.length);
+            for (double slot : slots) {
+                vec.add(slot);
+            }
+            return encrypt(arena, encode(arena, () -> SparkFHE.getInstance().encode(vec), 8L * slots.length));
+        }
+    }
+
+    private Plaintext encode(NativeArena arena, Supplier<Plaintext> encode, long input_bytes) {
+        FHEOperationEvent event = FHEOperationEvent.start();
+        long start = FHEMetrics.start();
+        // the plaintext holds the encoded slots, at least the size of the input
+        Plaintext ptxt = arena.track(encode.get(), input_bytes);
+        FHEMetrics.record(FHEOperation.ENCODE, start, -1);
+        event.complete(FHEOperation.ENCODE, library, scheme, input_bytes, -1);
+        return ptxt;
+    }
+
+    private String encrypt(NativeArena arena, Plaintext ptxt) {
+        return timed(FHEOperation.ENCRYPT, -1, () -> {
+            Ciphertext ctxt = arena.track(SparkFHE.getInstance().encrypt(ptxt));
+            String serialized = ctxt.toString();
+            // the size is known once serialized, the native ciphertext is about as large
+            arena.account(serialized.length());
+            return serialized;
+        });
+    }
+
+    @Override
+    public String decrypt(String ctxt) {
+        FHEOperationEvent event = FHEOperationEvent.start();
+        long start = FHEMetrics.start();
+        String values = SparkFHE.getInstance().decrypt(ctxt, true);
+        FHEMetrics.record(FHEOperation.DECRYPT, start, -1);
+        event.complete(FHEOperation.DECRYPT, library, scheme, ctxt.length(), -1);
+        return values;
+    }
+
+    @Override
+    public void decrypt_and_print(String scheme, String label, String ctxt, boolean is_vector, int num_of_elements) {
+        // includes the decoding and the printing
+        FHEOperationEvent event = FHEOperationEvent.start();
+        long start = FHEMetrics.start();
+        try (NativeArena arena = new NativeArena()) {
+            Util.decrypt_and_print(scheme, label, arena.track(new Ciphertext(ctxt), ctxt.length()), is_vector, num_of_elements);
+        }
+        FHEMetrics.record(FHEOperation.DECRYPT, start, -1);
+        event.complete(FHEOperation.DECRYPT, library, scheme, ctxt.length(), -1);
+    }
+
+    @Override
+    public String fhe_add(String ctxt_a, String ctxt_b) {
+        return timed(FHEOperation.FHE_ADD, ctxt_a.length() + ctxt_b.length(), () -> SparkFHE.getInstance().fhe_add(ctxt_a, ctxt_b));
+    }
+
+    @Override
+    public String fhe_multiply(String ctxt_a, String ctxt_b) {
+        return timed(FHEOperation.FHE_MULTIPLY, ctxt_a.length() + ctxt_b.length(), () -> SparkFHE.getInstance().fhe_multiply(ctxt_a, ctxt_b));
+    }
+
+    @Override
+    public String fhe_subtract(String ctxt_a, String ctxt_b) {
+        return timed(FHEOperation.FHE_SUBTRACT, ctxt_a.length() + ctxt_b.length(), () -> SparkFHE.getInstance().fhe_subtract(ctxt_a, ctxt_b));
+    }
+
+    @Override
+    public String fhe_total_sum(String ctxt) {
+        return timed(FHEOperation.FHE_TOTAL_SUM, ctxt.length(), () -> SparkFHE.getInstance().fhe_total_sum(ctxt));
+    }
+
+    /**
+     * @return a pre-sized StringVector, which the vector operations take as is, freed by release
+     */
+    @Override
+    public List<String> new_batch(int capacity) {
+        return new NativeBatch(capacity);
+    }
+
+    @Override
+    public void release(List<String> batch) {
+        if (batch instanceof NativeBatch) {
+            ((NativeBatch) batch).close();
+        }
+    }
+
+    @Override
+    public String fhe_total_sum(List<String> ctxts) {
+        try (NativeArena arena = new NativeArena()) {
+            StringVector vec = as_vector(arena, ctxts);
+            return timed(FHEOperation.FHE_TOTAL_SUM, size_of(ctxts), () -> SparkFHE.getInstance().fhe_total_sum(vec));
+        }
+    }
+
+    @Override
+    public String do_FHE_dot_product(List<String> ctxts_a, List<String> ctxts_b) {
+        try (NativeArena arena = new NativeArena()) {
+            StringVector vec_a = as_vector(arena, ctxts_a), vec_b = as_vector(arena, ctxts_b);
+            long input_bytes = size_of(ctxts_a) < 0 || size_of(ctxts_b) < 0 ? -1 : size_of(ctxts_a) + size_of(ctxts_b);
+            return timed(FHEOperation.DO_FHE_DOT_PRODUCT, input_bytes,
+                    () -> SparkFHE.getInstance().do_FHE_dot_product(vec_a, vec_b));
+        }
+    }
+
+    // run an operation returning a ciphertext, recording it in the metrics and for Flight Recorder
+    private String timed(FHEOperation op, long input_bytes, Supplier<String> call) {
+        FHEOperationEvent event = FHEOperationEvent.start();
+        long start = FHEMetrics.start();
+        String ctxt = call.get();
+        FHEMetrics.record(op, start, ctxt.length());
+        event.complete(op, library, scheme, input_bytes, ctxt.length());
+        return ctxt;
+    }
+
+    // -1 for native vectors, sizing them would copy every ciphertext out of native memory
+    private static long size_of(List<String> ctxts) {
+        if (ctxts instanceof NativeBatch) {
+            return ((NativeBatch) ctxts).get_bytes();
+        }
+        if (ctxts instanceof StringVector) {
+            return -1;
+        }
+        long bytes = 0;
+        for (String ctxt : ctxts) {
+            bytes += ctxt.length();
+        }
+        return bytes;
+    }
+
+    // batches from new_batch are passed through, other lists are copied into a native vector freed with the arena
+    private static StringVector as_vector(NativeArena arena, List<String> ctxts) {
+        if (ctxts instanceof NativeBatch) {
+            return ((NativeBatch) ctxts).get_vector();
+        }
+        if (ctxts instanceof StringVector) {
+            return (StringVector) ctxts;
+        }
+        StringVector vec = arena.track(new StringVector(), size_of(ctxts));
+        vec.reserve(ctxts.size());
+        for (String ctxt : ctxts) {
+            vec.add(ctxt);
+        }
+        return vec;
+    }
+}
@@ -0,0 +1,72 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.backend;
+
+import spiritlab.sparkfhe.api.StringVector;
+import spiritlab.sparkfhe.example.memory.NativeArena;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A batch of ciphertexts held in a StringVector, keeping count of the native bytes it holds
+ * without copying the ciphertexts back out of the vector. Freed by {@link NativeBackend#release}.
+ */
+class NativeBatch extends AbstractList<String> implements RandomAccess, AutoCloseable {
+
+    private final NativeArena arena = new NativeArena();
+    private final StringVector vec;
+    private long bytes;
+
+    NativeBatch(int capacity) {
+        vec = arena.track(new StringVector());
+        vec.reserve(capacity);
+    }
+
+    StringVector get_vector() {
+        return vec;
+    }
+
+    /**
+     * @return the size of the serialized ciphertexts in the batch
+     */
+    long get_bytes() {
+        return bytes;
+    }
+
+    @Override
+    public boolean add(String ctxt) {
+        vec.add(ctxt);
+        bytes += ctxt.length();
+        arena.account(ctxt.length());
+        return true;
+    }
+
+    @Override
+    public String get(int index) {
+        return vec.get(index);
+    }
+
+    @Override
+    public int size() {
+        return vec.size();
+    }
+
+    /**
+     * Empty the batch, the vector keeps its capacity for the next one.
+     */
+    @Override
+    public void clear() {
+        vec.clear();
+        arena.unaccount(bytes);
+        bytes = 0;
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
@@ -0,0 +1,237 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.backend;
+
+import spiritlab.sparkfhe.api.FHEScheme;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A backend doing plaintext arithmetic on the slots of fake ciphertexts, selected with the
+ * library name PLAINTEXT, or PLAINTEXT:[bytes] to pad every ciphertext to a given size.
+ *
+ * Running a job on it measures everything but the cost of the cryptography: Spark scheduling,
+ * serialization, shuffles and I/O of ciphertexts of a realistic size. Its results are exact,
+ * which makes it a correctness oracle for the pipelines, except that the plaintext modulus of
+ * BGV/BFV is not applied. It needs neither keys nor the shared library.
+ *
+ * A fake ciphertext is the comma-separated values of its slots, then '|' and the padding.
+ */
+public class PlaintextBackend implements FHEBackend {
+
+    public static final int DEFAULT_CIPHERTEXT_BYTES = 0;
+
+    private static final char SEPARATOR = '|';
+    private static final String PADDING_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private final String library;
+    private final String scheme;
+    private final int ciphertext_bytes;
+    // random rather than repeated, so that compressing the ciphertexts does not shrink them
+    private final String padding;
+
+    public PlaintextBackend(String library, String scheme, int ciphertext_bytes) {
+        this.library = library;
+        this.scheme = scheme;
+        this.ciphertext_bytes = ciphertext_bytes;
+        Random random = new Random(ciphertext_bytes);
+        char[] chars = new char[Math.max(0, ciphertext_bytes)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = PADDING_CHARS.charAt(random.nextInt(PADDING_CHARS.length()));
+        }
+        this.padding = new String(chars);
+    }
+
+    /**
+     * @param library PLAINTEXT or PLAINTEXT:[bytes]
+     * @param scheme the HE scheme whose value types are used, CKKS for doubles and BGV or BFV for integers
+     * @return the backend
+     */
+    public static PlaintextBackend parse(String library, String scheme) {
+        int separator = library.indexOf(':');
+        int ciphertext_bytes = separator < 0 ? DEFAULT_CIPHERTEXT_BYTES : Integer.parseInt(library.substring(separator + 1));
+        return new PlaintextBackend(library, scheme, ciphertext_bytes);
+    }
+
+    public String get_scheme() {
+        return scheme;
+    }
+
+    public int get_ciphertext_bytes() {
+        return ciphertext_bytes;
+    }
+
+    @Override
+    public String get_library() {
+        return library;
+    }
+
+    @Override
+    public String generate_crypto_params_suffix() {
+        return FHEBackends.PLAINTEXT + "_" + scheme + "_" + ciphertext_bytes;
+    }
+
+    @Override
+    public String encrypt(String value) {
+        return serialize(new double[]{Double.parseDouble(value.trim())});
+    }
+
+    @Override
+    public String encrypt(long[] slots) {
+        double[] values = new double[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            values[i] = slots[i];
+        }
+        return serialize(values);
+    }
+
+    @Override
+    public String encrypt(double[] slots) {
+        return serialize(slots.clone());
+    }
+
+    @Override
+    public String decrypt(String ctxt) {
+        return format(parse_slots(ctxt), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void decrypt_and_print(String scheme, String label, String ctxt, boolean is_vector, int num_of_elements) {
+        System.out.println(label + (label.isEmpty() ? "" : ": ") + format(parse_slots(ctxt), is_vector ? num_of_elements : 1));
+    }
+
+    @Override
+    public String fhe_add(String ctxt_a, String ctxt_b) {
+        double[] a = parse_slots(ctxt_a), b = parse_slots(ctxt_b);
+        double[] result = new double[Math.max(a.length, b.length)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = slot(a, i) + slot(b, i);
+        }
+        return serialize(result);
+    }
+
+    @Override
+    public String fhe_multiply(String ctxt_a, String ctxt_b) {
+        double[] a = parse_slots(ctxt_a), b = parse_slots(ctxt_b);
+        double[] result = new double[Math.max(a.length, b.length)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = slot(a, i) * slot(b, i);
+        }
+        return serialize(result);
+    }
+
+    @Override
+    public String fhe_subtract(String ctxt_a, String ctxt_b) {
+        double[] a = parse_slots(ctxt_a), b = parse_slots(ctxt_b);
+        double[] result = new double[Math.max(a.length, b.length)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = slot(a, i) - slot(b, i);
+        }
+        return serialize(result);
+    }
+
+    @Override
+    public String fhe_total_sum(String ctxt) {
+        double[] slots = parse_slots(ctxt);
+        double sum = 0;
+        for (double slot : slots) {
+            sum += slot;
+        }
+        Arrays.fill(slots, sum);
+        return serialize(slots);
+    }
+
+    @Override
+    public List<String> new_batch(int capacity) {
+        return new ArrayList<String>(capacity);
+    }
+
+    @Override
+    public String fhe_total_sum(List<String> ctxts) {
+        double[] result = new double[0];
+        for (String ctxt : ctxts) {
+            double[] slots = parse_slots(ctxt);
+            if (slots.length > result.length) {
+                result = Arrays.copyOf(result, slots.length);
+            }
+            for (int i = 0; i < slots.length; i++) {
+                result[i] += slots[i];
+            }
+        }
+        return serialize(result);
+    }
+
+    @Override
+    public String do_FHE_dot_product(List<String> ctxts_a, List<String> ctxts_b) {
+        if (ctxts_a.size() != ctxts_b.size()) {
+            throw new IllegalArgumentException("Cannot multiply " + ctxts_a.size() + " by " + ctxts_b.size() + " ciphertexts");
+        }
+        double[] result = new double[0];
+        for (int j = 0; j < ctxts_a.size(); j++) {
+            double[] a = parse_slots(ctxts_a.get(j)), b = parse_slots(ctxts_b.get(j));
+            if (Math.max(a.length, b.length) > result.length) {
+                result = Arrays.copyOf(result, Math.max(a.length, b.length));
+            }
+            for (int i = 0; i < result.length; i++) {
+                result[i] += slot(a, i) * slot(b, i);
+            }
+        }
+        return serialize(result);
+    }
+
+    /**
+     * @param ctxt a fake ciphertext
+     * @return the values of its slots
+     */
+    public static double[] parse_slots(String ctxt) {
+        int end = ctxt.indexOf(SEPARATOR);
+        String values = end < 0 ? ctxt : ctxt.substring(0, end);
+        if (values.isEmpty()) {
+            return new double[0];
+        }
+        String[] fields = values.split(",");
+        double[] slots = new double[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            slots[i] = Double.parseDouble(fields[i]);
+        }
+        return slots;
+    }
+
+    // a missing slot is a zero, like the unused slots of a packed ciphertext
+    private static double slot(double[] slots, int i) {
+        return i < slots.length ? slots[i] : 0;
+    }
+
+    private String value(double slot) {
+        return FHEScheme.CKKS.equalsIgnoreCase(scheme) ? String.valueOf(slot) : String.valueOf((long) slot);
+    }
+
+    private String serialize(double[] slots) {
+        StringBuilder sb = new StringBuilder(Math.max(ciphertext_bytes, slots.length * 4));
+        for (int i = 0; i < slots.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(value(slots[i]));
+        }
+        sb.append(SEPARATOR);
+        // pad up to the configured size, results stay as large as their operands like real ciphertexts
+        if (sb.length() < ciphertext_bytes) {
+            sb.append(padding, 0, ciphertext_bytes - sb.length());
+        }
+        return sb.toString();
+    }
+
+    private String format(double[] slots, int num_of_elements) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < Math.min(slots.length, num_of_elements); i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(value(slots[i]));
+        }
+        return sb.append(']').toString();
+    }
+}
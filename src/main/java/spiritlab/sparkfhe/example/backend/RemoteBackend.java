@@ -0,0 +1,314 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.backend;
+
+import spiritlab.sparkfhe.example.ChildJvm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static spiritlab.sparkfhe.example.backend.BackendProtocol.*;
+
+/**
+ * A backend whose calls run in another process, a {@link BackendServer} holding the SparkFHE
+ * context of one key set. Started by {@link #start} in a child JVM, which lives until the
+ * backend is closed, or until this JVM exits. Concurrent callers get a connection each, so the
+ * calls of parallel tasks run in parallel in the server.
+ *
+ * Every call copies its ciphertexts over a loopback socket, which is cheap next to the HE
+ * operators, not next to initializing SparkFHE again with other keys. The calls are recorded
+ * in the metrics of the server process, not of this one.
+ */
+public class RemoteBackend implements FHEBackend, AutoCloseable {
+
+    private static final class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+    }
+
+    private interface Request {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final String library;
+    private final String scheme;
+    private final int port;
+    private final String token;
+    private final Process process;
+    private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<Connection>();
+    private volatile boolean closed;
+
+    /**
+     * Use a backend served on a local port.
+     * @param library the HE library name
+     * @param scheme the HE scheme name
+     * @param port the port of the server
+     * @param token the token the server was started with
+     */
+    public RemoteBackend(String library, String scheme, int port, String token) {
+        this(library, scheme, port, token, null);
+    }
+
+    private RemoteBackend(String library, String scheme, int port, String token, Process process) {
+        this.library = library;
+        this.scheme = scheme;
+        this.port = port;
+        this.token = token;
+        this.process = process;
+    }
+
+    /**
+     * Start a backend server in a child JVM, with the keys of a key set.
+     * @param library the HE library name
+     * @param scheme the HE scheme name
+     * @param pk the public key file, or the public key, as taken by SparkFHE.init
+     * @param sk the secret key file, or the secret key, as taken by SparkFHE.init
+     * @return the backend, to be closed
+     * @throws IOException if the child JVM could not be started
+     */
+    public static RemoteBackend start(String library, String scheme, String pk, String sk) throws IOException {
+        return start(library, scheme, pk, sk, null);
+    }
+
+    /**
+     * Start a backend server in a child JVM, with the keys of a key set and a bounded heap.
+     * @param library the HE library name
+     * @param scheme the HE scheme name
+     * @param pk the public key file, or the public key, as taken by SparkFHE.init
+     * @param sk the secret key file, or the secret key, as taken by SparkFHE.init
+     * @param max_heap the maximum heap of the child JVM, as taken by -Xmx, null for the default
+     * @return the backend, to be closed
+     * @throws IOException if the child JVM could not be started
+     */
+    public static RemoteBackend start(String library, String scheme, String pk, String sk, String max_heap) throws IOException {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        StringBuilder token = new StringBuilder();
+        for (byte b : secret) {
+            token.append(String.format("%02x", b));
+        }
+
+        Process process = new ProcessBuilder(ChildJvm.command(max_heap == null ? Collections.<String>emptyList()
+                : Collections.singletonList("-Xmx" + max_heap), BackendServer.class, library, scheme))
+                .redirectErrorStream(true).start();
+        try {
+            // the keys go through stdin, not the command line other users can see
+            DataOutputStream stdin = new DataOutputStream(process.getOutputStream());
+            write_string(stdin, token.toString());
+            write_string(stdin, pk);
+            write_string(stdin, sk);
+            stdin.flush();
+
+            BufferedReader stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = stdout.readLine()) != null && !line.startsWith(PORT_PREFIX)) {
+                System.out.println(line);
+            }
+            if (line == null) {
+                throw new IOException("The backend process of " + library + " " + scheme + " exited with " + process.waitFor());
+            }
+            int port = Integer.parseInt(line.substring(PORT_PREFIX.length()).trim());
+            // the output of the server, e.g. of decrypt_and_print, goes to ours
+            Thread pump = new Thread(() -> {
+                try {
+                    String out;
+                    while ((out = stdout.readLine()) != null) {
+                        System.out.println(out);
+                    }
+                } catch (IOException e) {
+                    // the process is gone
+                }
+            }, "fhe-backend-output");
+            pump.setDaemon(true);
+            pump.start();
+            return new RemoteBackend(library, scheme, port, token.toString(), process);
+        } catch (IOException | RuntimeException e) {
+            process.destroyForcibly();
+            throw e;
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while starting the backend process", e);
+        }
+    }
+
+    @Override
+    public String get_library() {
+        return library;
+    }
+
+    public String get_scheme() {
+        return scheme;
+    }
+
+    private String call(byte op, Request request) {
+        if (closed) {
+            throw new IllegalStateException("The backend of " + library + " " + scheme + " is closed");
+        }
+        Connection connection = idle.poll();
+        try {
+            if (connection == null) {
+                connection = new Connection(new Socket(InetAddress.getLoopbackAddress(), port));
+                write_string(connection.out, token);
+            }
+            connection.out.writeByte(op);
+            request.write(connection.out);
+            connection.out.flush();
+            byte status = connection.in.readByte();
+            String result = read_string(connection.in);
+            if (closed) {
+                connection.socket.close();
+            } else {
+                idle.add(connection);
+            }
+            if (status != OK) {
+                throw new IllegalStateException("The backend of " + library + " " + scheme + " failed: " + result);
+            }
+            return result;
+        } catch (IOException e) {
+            if (connection != null) {
+                try {
+                    connection.socket.close();
+                } catch (IOException ignored) {
+                    // already broken
+                }
+            }
+            throw new IllegalStateException("Lost the backend of " + library + " " + scheme + " on port " + port, e);
+        }
+    }
+
+    @Override
+    public String generate_crypto_params_suffix() {
+        return call(SUFFIX, out -> {
+        });
+    }
+
+    @Override
+    public String encrypt(String value) {
+        return call(ENCRYPT, out -> write_string(out, value));
+    }
+
+    @Override
+    public String encrypt(long[] slots) {
+        return call(ENCRYPT_LONGS, out -> write_longs(out, slots));
+    }
+
+    @Override
+    public String encrypt(double[] slots) {
+        return call(ENCRYPT_DOUBLES, out -> write_doubles(out, slots));
+    }
+
+    @Override
+    public String decrypt(String ctxt) {
+        return call(DECRYPT, out -> write_string(out, ctxt));
+    }
+
+    @Override
+    public void decrypt_and_print(String scheme, String label, String ctxt, boolean is_vector, int num_of_elements) {
+        call(DECRYPT_AND_PRINT, out -> {
+            write_string(out, scheme);
+            write_string(out, label);
+            write_string(out, ctxt);
+            out.writeBoolean(is_vector);
+            out.writeInt(num_of_elements);
+        });
+    }
+
+    @Override
+    public String fhe_add(String ctxt_a, String ctxt_b) {
+        return call(ADD, out -> {
+            write_string(out, ctxt_a);
+            write_string(out, ctxt_b);
+        });
+    }
+
+    @Override
+    public String fhe_multiply(String ctxt_a, String ctxt_b) {
+        return call(MULTIPLY, out -> {
+            write_string(out, ctxt_a);
+            write_string(out, ctxt_b);
+        });
+    }
+
+    @Override
+    public String fhe_subtract(String ctxt_a, String ctxt_b) {
+        return call(SUBTRACT, out -> {
+            write_string(out, ctxt_a);
+            write_string(out, ctxt_b);
+        });
+    }
+
+    @Override
+    public String fhe_total_sum(String ctxt) {
+        return call(TOTAL_SUM, out -> write_string(out, ctxt));
+    }
+
+    /**
+     * @return a list, the ciphertexts are copied to the server at the vector call
+     */
+    @Override
+    public List<String> new_batch(int capacity) {
+        return new ArrayList<String>(capacity);
+    }
+
+    @Override
+    public String fhe_total_sum(List<String> ctxts) {
+        return call(TOTAL_SUM_BATCH, out -> write_strings(out, ctxts));
+    }
+
+    @Override
+    public String do_FHE_dot_product(List<String> ctxts_a, List<String> ctxts_b) {
+        return call(DOT_PRODUCT, out -> {
+            write_strings(out, ctxts_a);
+            write_strings(out, ctxts_b);
+        });
+    }
+
+    /**
+     * Close the connections, and stop the child JVM if started by {@link #start}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            try {
+                connection.socket.close();
+            } catch (IOException e) {
+                // already broken
+            }
+        }
+        if (process != null) {
+            // the server exits once its stdin is closed
+            try {
+                process.getOutputStream().close();
+            } catch (IOException e) {
+                process.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.batching;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.sql.SparkSession;
+import scala.Tuple2;
+import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.FHEContext;
+import spiritlab.sparkfhe.example.backend.FHEBackends;
+import spiritlab.sparkfhe.example.packing.PackedBatch;
+import spiritlab.sparkfhe.example.packing.PackedResult;
+import spiritlab.sparkfhe.example.packing.QueryCoalescer;
+import spiritlab.sparkfhe.example.packing.SlotRange;
+import spiritlab.sparkfhe.example.planning.HomomorphicOp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * This is an example for SparkFHE project. Created to compare many small dot product queries
+ * run one ciphertext pair each, against the same queries packed side by side into the slots of
+ * shared ciphertexts by a QueryCoalescer. A batch costs two encryptions and one multiplication
+ * for all its queries, and the packed product is decrypted once for them. Optionally the queries
+ * are isolated, each gets a ciphertext holding only its own dot product, at the cost of a mask
+ * encryption, a multiplication and a total sum per query, spread over the cores.
+ */
+public class CoalescedQueriesExample {
+
+    public static final int DEFAULT_QUERIES = 200;
+    // set it to the number of slots of the params in use
+    public static final int DEFAULT_SLOTS = 1024;
+
+    private static int num_of_queries = DEFAULT_QUERIES;
+    private static int slots = DEFAULT_SLOTS;
+    private static boolean isolate = false;
+
+    /**
+     * This method generates the small queries, Config.NUM_OF_VECTOR_ELEMENTS values per operand
+     * @return the pairs of operands
+     */
+    public static List<Tuple2<double[], double[]>> generate_queries() {
+        Random random = new Random(42);
+        List<Tuple2<double[], double[]>> queries = new ArrayList<Tuple2<double[], double[]>>();
+        for (int i = 0; i < num_of_queries; i++) {
+            double[] a = new double[Config.NUM_OF_VECTOR_ELEMENTS], b = new double[Config.NUM_OF_VECTOR_ELEMENTS];
+            for (int j = 0; j < a.length; j++) {
+                a[j] = random.nextInt(10);
+                b[j] = random.nextInt(10);
+            }
+            queries.add(new Tuple2<double[], double[]>(a, b));
+        }
+        return queries;
+    }
+
+    /**
+     * This method runs every query on its own pair of ciphertexts
+     * @param jsc spark context which allows the communication with worker nodes
+     * @param slices the number of time a task is split up
+     * @param context the backend settings of the executors
+     * @param queries the pairs of operands
+     * @return the encrypted dot product of every query
+     */
+    public static List<PackedResult> test_dot_product_per_query(JavaSparkContext jsc, int slices, FHEContext context,
+                                                               List<Tuple2<double[], double[]>> queries) {
+        System.out.println("test_dot_product_per_query");
+        long start = System.nanoTime();
+        List<Tuple2<Integer, Tuple2<double[], double[]>>> indexed = new ArrayList<Tuple2<Integer, Tuple2<double[], double[]>>>();
+        for (int i = 0; i < queries.size(); i++) {
+            indexed.add(new Tuple2<Integer, Tuple2<double[], double[]>>(i, queries.get(i)));
+        }
+        // the static field is not shipped to the executors
+        int num_of_slots = slots;
+        List<PackedResult> results = jsc.parallelize(indexed, slices).map(query -> {
+            // a batch of a single query, i.e. a ciphertext pair of its own
+            QueryCoalescer coalescer = new QueryCoalescer(HomomorphicOp.DOT_PRODUCT, context.get_scheme(), num_of_slots);
+            coalescer.submit(String.valueOf(query._1()), query._2()._1(), query._2()._2());
+            return coalescer.drain().get(0).run(context.get(), false).get(0);
+        }).collect();
+        print_throughput(queries.size(), queries.size(), start);
+        return results;
+    }
+
+    /**
+     * This method packs the queries into shared ciphertexts and runs every batch once
+     * @param jsc spark context which allows the communication with worker nodes
+     * @param slices the number of time a task is split up
+     * @param context the backend settings of the executors
+     * @param queries the pairs of operands
+     * @return the encrypted dot product of every query
+     */
+    public static List<PackedResult> test_dot_product_coalesced(JavaSparkContext jsc, int slices, FHEContext context,
+                                                               List<Tuple2<double[], double[]>> queries) {
+        System.out.println("test_dot_product_coalesced");
+        long start = System.nanoTime();
+        QueryCoalescer coalescer = new QueryCoalescer(HomomorphicOp.DOT_PRODUCT, context.get_scheme(), slots);
+        for (int i = 0; i < queries.size(); i++) {
+            coalescer.submit(String.valueOf(i), queries.get(i)._1(), queries.get(i)._2());
+        }
+        List<PackedBatch> batches = coalescer.drain();
+        System.out.println(batches.size() + " batches, e.g. " + batches.get(0));
+
+        JavaRDD<Tuple2<PackedBatch, String>> packed = jsc.parallelize(batches, Math.min(slices, batches.size()))
+                .map(batch -> new Tuple2<PackedBatch, String>(batch, batch.apply(context.get())));
+        List<PackedResult> results;
+        if (isolate) {
+            // the per query masks, multiplications and total sums are spread over the cores: the
+            // packed products are broadcast, once per executor, and the tasks only get the indices
+            // of their queries, instead of a copy of the batch and its product per query
+            Broadcast<List<Tuple2<PackedBatch, String>>> packed_b = jsc.broadcast(packed.collect());
+            List<Tuple2<Integer, Integer>> indices = new ArrayList<Tuple2<Integer, Integer>>();
+            for (int b = 0; b < batches.size(); b++) {
+                for (int i = 0; i < batches.get(b).size(); i++) {
+                    indices.add(new Tuple2<Integer, Integer>(b, i));
+                }
+            }
+            results = jsc.parallelize(indices, slices).map(query -> {
+                Tuple2<PackedBatch, String> batch = packed_b.getValue().get(query._1());
+                return batch._1().isolate(context.get(), batch._2(), query._2());
+            }).collect();
+            packed_b.destroy();
+        } else {
+            results = packed.flatMap(batch -> batch._1().share(batch._2()).iterator()).collect();
+        }
+        print_throughput(queries.size(), batches.size(), start);
+        return results;
+    }
+
+    /**
+     * This method decrypts the results and compares them with the plaintext dot products
+     * @param label printed with the number of mismatches
+     * @param results the encrypted dot products, identified by the index of their query
+     * @param queries the pairs of operands
+     */
+    public static void verify(String label, List<PackedResult> results, List<Tuple2<double[], double[]>> queries) {
+        int mismatches = 0;
+        // the queries of a batch share their ciphertext unless isolated, it is decrypted once for all of them
+        Map<String, double[]> decrypted = new HashMap<String, double[]>();
+        for (PackedResult result : results) {
+            Tuple2<double[], double[]> query = queries.get(Integer.parseInt(result.get_id()));
+            double expected = 0;
+            for (int i = 0; i < query._1().length; i++) {
+                expected += query._1()[i] * query._2()[i];
+            }
+            double[] slots = decrypted.computeIfAbsent(result.get_ctxt(),
+                    ctxt -> PackedResult.parse_values(FHEBackends.get().decrypt(ctxt)));
+            if (Math.abs(result.extract(slots)[0] - expected) > 1e-3) {
+                mismatches++;
+            }
+        }
+        SlotRange range = results.get(results.size() - 1).get_range();
+        System.out.println(label + ": " + results.size() + " results, " + mismatches + " mismatches, last query in slots " + range);
+    }
+
+    private static void print_throughput(int queries, int ciphertext_pairs, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d queries on %d ciphertext pairs in %.2f s, %.1f queries/s",
+                queries, ciphertext_pairs, seconds, queries / seconds));
+    }
+
+    public static void main(String[] args) throws IOException {
+        String scheme="", library = "", pk="", sk="";
+
+        // Create a SparkConf that loads defaults from system properties and the classpath
+        SparkConf sparkConf = new SparkConf();
+        //Provides the Spark driver application a name for easy identification in the Spark or Yarn UI
+        sparkConf.setAppName("CoalescedQueriesExample");
+
+        // Decide whether to run the task locally or on the clusters
+        Config.setExecutionEnvironment(args[0]);
+        switch (Config.currentExecutionEnvironment) {
+            case CLUSTER:
+                Config.set_HDFS_NAME_NODE(args[1]);
+                library = args[2];
+                scheme = args[3];
+                pk = args[4];
+                sk = args[5];
+                if (args.length > 6) num_of_queries = Integer.parseInt(args[6]);
+                if (args.length > 7) slots = Integer.parseInt(args[7]);
+                if (args.length > 8) isolate = Boolean.parseBoolean(args[8]);
+                break;
+            case LOCAL:
+                sparkConf.setMaster("local[*]");
+                library = args[1];
+                scheme = args[2];
+                pk = args[3];
+                sk = args[4];
+                if (args.length > 5) num_of_queries = Integer.parseInt(args[5]);
+                if (args.length > 6) slots = Integer.parseInt(args[6]);
+                if (args.length > 7) isolate = Boolean.parseBoolean(args[7]);
+                break;
+            default:
+                break;
+        }
+        System.out.println("CURRENT_DIRECTORY = "+Config.get_current_directory());
+
+        // Creating a session to Spark. The session allows the creation of the
+        // various data abstractions such as RDDs, DataFrame, and more.
+        SparkSession spark = SparkSession.builder().config(sparkConf).getOrCreate();
+
+        // Creating spark context which allows the communication with worker nodes
+        JavaSparkContext jsc = new JavaSparkContext(spark.sparkContext());
+
+        // The variable slices represent the number of time a task is split up
+        int slices = jsc.defaultParallelism();
+
+        // load our shared library and create the SparkFHE object, or select the plaintext backend
+        FHEBackends.init(library, scheme, pk, sk);
+
+        Broadcast<String> pk_b = jsc.broadcast(pk);
+        Broadcast<String> sk_b = jsc.broadcast(sk);
+        FHEContext context = new FHEContext(library, scheme, pk_b, sk_b);
+
+        List<Tuple2<double[], double[]>> queries = generate_queries();
+        verify("Per query", test_dot_product_per_query(jsc, slices, context, queries), queries);
+        verify("Coalesced", test_dot_product_coalesced(jsc, slices, context, queries), queries);
+
+        // Stop existing spark context
+        jsc.close();
+
+        // Stop existing spark session
+        spark.close();
+    }
+}
@@ -5,129 +5,113 @@
 
 package spiritlab.sparkfhe.example.batching;
 
-import org.apache.spark.spiritlab.sparkfhe.SparkFHEPlugin;
-import spiritlab.sparkfhe.api.*;
+import spiritlab.sparkfhe.api.FHEScheme;
 import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.backend.FHEBackend;
+import spiritlab.sparkfhe.example.backend.FHEBackends;
+import spiritlab.sparkfhe.example.storage.CatalogEntry;
+import spiritlab.sparkfhe.example.storage.CiphertextCatalog;
+import spiritlab.sparkfhe.example.storage.CiphertextCodec;
+import spiritlab.sparkfhe.example.storage.CiphertextParams;
+import spiritlab.sparkfhe.example.storage.CiphertextStore;
+import spiritlab.sparkfhe.example.storage.CiphertextWriter;
 
 /**
  * This is an example for SparkFHE project. Created to test the functionality
  * of the encryption and decryption features.
  */
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 
 public class EncDecExample {
 
+    // compression applied to the stored ciphertexts, readers detect it automatically
+    private static CiphertextCodec.Compression compression = CiphertextCodec.Compression.NONE;
+    // when the ciphertexts written through a CiphertextWriter are forced to stable storage
+    private static CiphertextWriter.SyncPolicy sync = CiphertextWriter.SyncPolicy.NONE;
+
     private static void encrypt_data(){
+        FHEBackend backend = FHEBackends.get();
         // store the ciphertexts to the pre-defined file location
         for (int l=0; l<2; l++) {
-            System.out.println("Storing ciphertext to "+Config.get_records_directory()+"/packed_ptxt_long_"+String.valueOf(l)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl");
-            SparkFHE.getInstance().store_ciphertext_to_file(
+            System.out.println("Storing ciphertext to "+Config.get_records_directory()+"/packed_ptxt_long_"+String.valueOf(l)+"_"+backend.generate_crypto_params_suffix()+ ".jsonl");
+            CiphertextStore.store_ciphertext_to_file(
                     Config.Ciphertext_Label,
-                    SparkFHE.getInstance().encrypt(SparkFHE.getInstance().encode(String.valueOf(l))).toString(),
-                    Config.get_records_directory()+"/packed_ptxt_long_"+String.valueOf(l)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl");
+                    backend.encrypt(String.valueOf(l)),
+                    Config.get_records_directory()+"/packed_ptxt_long_"+String.valueOf(l)+"_"+backend.generate_crypto_params_suffix()+ ".jsonl", compression);
+        }
+    }
+
+    // encrypt the values into a single ciphertext, as doubles for CKKS and as longs for BGV or BFV
+    private static String encrypt_slots(String scheme, long[] slots) {
+        if (scheme.equalsIgnoreCase(FHEScheme.CKKS)){
+            double[] values = new double[slots.length];
+            for (int i = 0; i < slots.length; i++) {
+                values[i] = slots[i];
+            }
+            return FHEBackends.get().encrypt(values);
         }
+        return FHEBackends.get().encrypt(slots);
     }
 
     private static void encrypt_vector(String scheme){
+        FHEBackend backend = FHEBackends.get();
         /* generating vectors of ctxt */
-        Plaintext ptxt_1, ptxt_2;
         int ptxtMod_half = 10;
-        if (scheme.equalsIgnoreCase(FHEScheme.CKKS)){
-            DoubleVector input_vec_1 = new DoubleVector();
-            DoubleVector input_vec_2 = new DoubleVector();
-            // create 2 StringVectors
-            for (double i = 0; i < Config.NUM_OF_VECTOR_ELEMENTS; ++i) {
-                input_vec_1.add(i%ptxtMod_half);
-                input_vec_2.add((Config.NUM_OF_VECTOR_ELEMENTS-1-i)%ptxtMod_half);
-            }
-            ptxt_1 = SparkFHE.getInstance().encode(input_vec_1);
-            ptxt_2 = SparkFHE.getInstance().encode(input_vec_2);
-        } else { // BGV or BFV
-            LongVector input_vec_1 = new LongVector();
-            LongVector input_vec_2 = new LongVector();
-            // create 2 StringVectors
-            for (int i = 0; i < Config.NUM_OF_VECTOR_ELEMENTS; ++i) {
-                input_vec_1.add(i%ptxtMod_half);
-                input_vec_2.add((Config.NUM_OF_VECTOR_ELEMENTS-1-i)%ptxtMod_half);
-            }
-            ptxt_1 = SparkFHE.getInstance().encode(input_vec_1);
-            ptxt_2 = SparkFHE.getInstance().encode(input_vec_2);
+        long[] input_vec_1 = new long[Config.NUM_OF_VECTOR_ELEMENTS];
+        long[] input_vec_2 = new long[Config.NUM_OF_VECTOR_ELEMENTS];
+        for (int i = 0; i < Config.NUM_OF_VECTOR_ELEMENTS; ++i) {
+            input_vec_1[i] = i%ptxtMod_half;
+            input_vec_2[i] = (Config.NUM_OF_VECTOR_ELEMENTS-1-i)%ptxtMod_half;
         }
 
         // encrypt them and store to pre-defined location
-        Ciphertext ctxt_1 = SparkFHE.getInstance().encrypt(ptxt_1);
-        SparkFHE.getInstance().store_ciphertext_to_file(Config.Ciphertext_Label, ctxt_1.toString(), Config.get_records_directory()+"/packed_ctxt_a_"+String.valueOf(Config.NUM_OF_VECTOR_ELEMENTS)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl");
+        String ctxt_1 = encrypt_slots(scheme, input_vec_1);
+        CiphertextStore.store_ciphertext_to_file(Config.Ciphertext_Label, ctxt_1, Config.get_records_directory()+"/packed_ctxt_a_"+String.valueOf(Config.NUM_OF_VECTOR_ELEMENTS)+"_"+backend.generate_crypto_params_suffix()+ ".jsonl", compression);
 
         // encrypt them and store to pre-defined location
-        Ciphertext ctxt_2 = SparkFHE.getInstance().encrypt(ptxt_2);
-        SparkFHE.getInstance().store_ciphertext_to_file(Config.Ciphertext_Label, ctxt_2.toString(), Config.get_records_directory()+"/packed_ctxt_b_"+String.valueOf(Config.NUM_OF_VECTOR_ELEMENTS)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl");
+        String ctxt_2 = encrypt_slots(scheme, input_vec_2);
+        CiphertextStore.store_ciphertext_to_file(Config.Ciphertext_Label, ctxt_2, Config.get_records_directory()+"/packed_ctxt_b_"+String.valueOf(Config.NUM_OF_VECTOR_ELEMENTS)+"_"+backend.generate_crypto_params_suffix()+ ".jsonl", compression);
 
         // Generate a vector of 100 elements (for total sum)
-        Plaintext ptxt;
-        if (scheme.equalsIgnoreCase(FHEScheme.CKKS)){
-            DoubleVector input_vec = new DoubleVector();
-            for (double i = 1; i <= 100; i++){
-                input_vec.add(1.0);
-            }
-            ptxt = SparkFHE.getInstance().encode(input_vec);
-        } else { // BGV or BFV
-            LongVector input_vec = new LongVector();
-            for (int i = 1; i <= 100; i++){
-                input_vec.add(1);
-            }
-            ptxt = SparkFHE.getInstance().encode(input_vec);
-        }
-        Ciphertext ctxt = SparkFHE.getInstance().encrypt(ptxt);
-        SparkFHE.getInstance().store_ciphertext_to_file(Config.Ciphertext_Label, ctxt.toString(), Config.get_records_directory()+"/packed_ctxt_"+String.valueOf(100)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+".jsonl");
+        long[] input_vec = new long[100];
+        Arrays.fill(input_vec, 1);
+        String ctxt = encrypt_slots(scheme, input_vec);
+        CiphertextStore.store_ciphertext_to_file(Config.Ciphertext_Label, ctxt, Config.get_records_directory()+"/packed_ctxt_"+String.valueOf(100)+"_"+backend.generate_crypto_params_suffix()+".jsonl", compression);
     }
 
-    private static void encrypt_matrix(String scheme){
-        /* generating two matrices of ctxt of size 10x10 */
-        PlaintextVector ptxt_mat_1 = new PlaintextVector();
-        PlaintextVector ptxt_mat_2 = new PlaintextVector();
-
-        if (scheme.equalsIgnoreCase(FHEScheme.CKKS)){
-            DoubleMatrix input_mat_1 = new DoubleMatrix();
-            DoubleMatrix input_mat_2 = new DoubleMatrix();
-            for (int i = 0; i < 10; i++){
-                DoubleVector input_vec_1 = new DoubleVector();
-                DoubleVector input_vec_2 = new DoubleVector();
-                for (double j = 0; j < 10; j++){
-                    input_vec_1.add(1.0);
-                    input_vec_2.add(0.0);
-                }
-                input_mat_1.add(input_vec_1);
-                input_mat_2.add(input_vec_2);
-            }
-            ptxt_mat_1 = SparkFHE.getInstance().encode_many(input_mat_1);
-            ptxt_mat_2 = SparkFHE.getInstance().encode_many(input_mat_2);
-        } else { // BGV or BFV
-            LongMatrix input_mat_1 = new LongMatrix();
-            LongMatrix input_mat_2 = new LongMatrix();
+    private static void encrypt_matrix(String scheme) throws IOException {
+        FHEBackend backend = FHEBackends.get();
+        /* generating two matrices of ctxt of size 10x10, one ciphertext per row */
+        long[] input_vec_1 = new long[10];
+        long[] input_vec_2 = new long[10];
+        Arrays.fill(input_vec_1, 1);
+        Arrays.fill(input_vec_2, 0);
+
+        // keep both files open while the rows are encrypted, rather than reopening them for every row
+        try (CiphertextWriter matrix_a = CiphertextWriter.open(Config.get_records_directory()+"/packed_matrix_a_"+String.valueOf(10*10)+"_"+backend.generate_crypto_params_suffix()+".jsonl", Config.Ciphertext_Label, compression, sync);
+             CiphertextWriter matrix_b = CiphertextWriter.open(Config.get_records_directory()+"/packed_matrix_b_"+String.valueOf(10*10)+"_"+backend.generate_crypto_params_suffix()+".jsonl", Config.Ciphertext_Label, compression, sync)) {
             for (int i = 0; i < 10; i++){
-                LongVector input_vec_1 = new LongVector();
-                LongVector input_vec_2 = new LongVector();
-                for (int j = 0; j < 10; j++){
-                    input_vec_1.add(1);
-                    input_vec_2.add(0);
-                }
-                input_mat_1.add(input_vec_1);
-                input_mat_2.add(input_vec_2);
+                matrix_a.write(encrypt_slots(scheme, input_vec_1));
+                matrix_b.write(encrypt_slots(scheme, input_vec_2));
             }
-            ptxt_mat_1 = SparkFHE.getInstance().encode_many(input_mat_1);
-            ptxt_mat_2 = SparkFHE.getInstance().encode_many(input_mat_2);
         }
+    }
 
-        for (int i = 0; i < ptxt_mat_1.size(); i++){
-            Ciphertext ctxt_mat_1 = SparkFHE.getInstance().encrypt(ptxt_mat_1.get(i));
-            SparkFHE.getInstance().store_ciphertext_to_file(Config.Ciphertext_Label, ctxt_mat_1.toString(), Config.get_records_directory()+"/packed_matrix_a_"+String.valueOf(10*10)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+".jsonl");
-
-            Ciphertext ctxt_mat_2 = SparkFHE.getInstance().encrypt(ptxt_mat_2.get(i));
-            SparkFHE.getInstance().store_ciphertext_to_file(Config.Ciphertext_Label, ctxt_mat_2.toString(), Config.get_records_directory()+"/packed_matrix_b_"+String.valueOf(10*10)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+".jsonl");
+    private static void register_datasets(String library, String scheme) throws IOException {
+        // record what was written, so the other examples can resolve their inputs through the catalog
+        String suffix = FHEBackends.get().generate_crypto_params_suffix();
+        CiphertextCatalog catalog = CiphertextCatalog.open(Config.get_records_directory());
+        String[] names = {"packed_ptxt_long_0", "packed_ptxt_long_1",
+                "packed_ctxt_a_"+Config.NUM_OF_VECTOR_ELEMENTS, "packed_ctxt_b_"+Config.NUM_OF_VECTOR_ELEMENTS,
+                "packed_ctxt_100", "packed_matrix_a_100", "packed_matrix_b_100"};
+        for (String name : names) {
+            catalog.register(name, catalog.default_path(name, suffix), CatalogEntry.FORMAT_JSONL, new CiphertextParams(suffix, library, scheme));
         }
     }
 
-    public static void main(String args[]) {
+    public static void main(String args[]) throws IOException {
         String scheme="", library = "", pk="", sk="";
 
         Config.setExecutionEnvironment(args[0]);
@@ -138,22 +122,24 @@ public class EncDecExample {
                 scheme = args[3];
                 pk = args[4];
                 sk = args[5];
+                if (args.length > 6) compression = CiphertextCodec.parse_compression(args[6]);
+                if (args.length > 7) sync = CiphertextWriter.SyncPolicy.parse(args[7]);
                 break;
             case LOCAL:
                 library = args[1];
                 scheme = args[2];
                 pk = args[3];
                 sk = args[4];
+                if (args.length > 5) compression = CiphertextCodec.parse_compression(args[5]);
+                if (args.length > 6) sync = CiphertextWriter.SyncPolicy.parse(args[6]);
                 break;
             default:
                 break;
         }
         System.out.println("CURRENT_DIRECTORY = "+Config.get_current_directory());
 
-        // required to load our shared library
-        SparkFHEPlugin.setup();
-        // create SparkFHE object
-        SparkFHE.init(library, scheme, pk, sk);
+        // load our shared library and create the SparkFHE object, or select the plaintext backend
+        FHEBackends.init(library, scheme, pk, sk);
 
         new File(Config.get_records_directory()).mkdirs();
 
@@ -161,32 +147,23 @@ public class EncDecExample {
         encrypt_data();
         encrypt_vector(scheme);
         encrypt_matrix(scheme);
+        register_datasets(library, scheme);
 
-        String CTXT_0_FILE = Config.get_records_directory() + "/packed_ptxt_long_0_"+ SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl";
-        String CTXT_1_FILE = Config.get_records_directory() +"/packed_ptxt_long_1_"+SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl";
+        String CTXT_0_FILE = Config.get_records_directory() + "/packed_ptxt_long_0_"+ FHEBackends.get().generate_crypto_params_suffix()+ ".jsonl";
+        String CTXT_1_FILE = Config.get_records_directory() +"/packed_ptxt_long_1_"+FHEBackends.get().generate_crypto_params_suffix()+ ".jsonl";
 
         // initialize a literal 1, encrypt it and decrypted it to verify the cryptography functions
         String inputNumberString="1";
-        Plaintext inputNumberPtxt = SparkFHE.getInstance().encode(inputNumberString);
-        Ciphertext inputNumberCtxt = SparkFHE.getInstance().encrypt(inputNumberPtxt);
-        Plaintext inputNumberPtxt_returned = SparkFHE.getInstance().decrypt(inputNumberCtxt);
-        if (scheme.equalsIgnoreCase(FHEScheme.CKKS)){
-            DoubleVector outputNumberPtxt = new DoubleVector();
-            SparkFHE.getInstance().decode(outputNumberPtxt, inputNumberPtxt_returned);
-            System.out.println("InputNumber=" + inputNumberString + ", result of dec(enc(InputNumber))=" + String.valueOf(outputNumberPtxt.get(0)));
-        } else {
-            LongVector outputNumberPtxt = new LongVector();
-            SparkFHE.getInstance().decode(outputNumberPtxt, inputNumberPtxt_returned);
-            System.out.println("InputNumber=" + inputNumberString + ", result of dec(enc(InputNumber))=" + String.valueOf(outputNumberPtxt.get(0)));
-        }
+        String inputNumberCtxt = FHEBackends.get().encrypt(inputNumberString);
+        FHEBackends.get().decrypt_and_print(scheme, "InputNumber=" + inputNumberString + ", result of dec(enc(InputNumber))", inputNumberCtxt, false, 0);
 
         // read in the cipher text from file and store them as Strings
-        String ctxt_0_string = SparkFHE.getInstance().read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_0_FILE);
-        String ctxt_1_string = SparkFHE.getInstance().read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_1_FILE);
+        String ctxt_0_string = CiphertextStore.read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_0_FILE);
+        String ctxt_1_string = CiphertextStore.read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_1_FILE);
 
         // perform homomorphic addition on the ciphertext
-        Ciphertext ctxtresult = new Ciphertext(SparkFHE.getInstance().fhe_add(ctxt_0_string, ctxt_1_string));
+        String ctxtresult = FHEBackends.get().fhe_add(ctxt_0_string, ctxt_1_string);
         // decrypt the result and display it
-        Util.decrypt_and_print(scheme, "0 + 1", ctxtresult );
+        FHEBackends.get().decrypt_and_print(scheme, "0 + 1", ctxtresult, false, 0);
     }
 }
@@ -0,0 +1,169 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.batching;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.sql.SparkSession;
+import spiritlab.sparkfhe.api.*;
+import spiritlab.sparkfhe.example.CiphertextBatches;
+import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.backend.FHEBackends;
+import spiritlab.sparkfhe.example.storage.AggregateCheckpoint;
+import spiritlab.sparkfhe.example.storage.CiphertextCodec;
+import spiritlab.sparkfhe.example.storage.CiphertextStore;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * This is an example for SparkFHE project. Created to show incremental total sums over an
+ * append-only directory of packed ciphertext files. The encrypted partial sum and the list of
+ * files it covers are checkpointed after every run, so a later run only reads and adds up the
+ * files that arrived since, and then adds the result to the stored aggregate.
+ */
+public class IncrementalTotalSumExample {
+
+    /**
+     * This method folds the new files of an input directory into a checkpointed encrypted sum
+     * @param spark the spark session which allows the creation of the various data abstractions such
+     *              as RDDs, DataFrame, and more.
+     * @param input_directory the append-only directory of JSON-lines ciphertext files
+     * @param checkpoint_directory where the aggregate and its manifest are kept
+     * @param library the HE library name
+     * @param scheme  the HE scheme name
+     * @param pk_b broadcast variable for public key
+     * @param sk_b broadcast variable for secret key
+     * @return the encrypted sum of every ciphertext in the input directory, or null if it is empty
+     * @throws IOException if the checkpoint cannot be read or written
+     */
+    public static SerializedCiphertext incremental_total_sum(SparkSession spark, String input_directory, String checkpoint_directory,
+                                                             String library, String scheme, Broadcast<String> pk_b,
+                                                             Broadcast<String> sk_b) throws IOException {
+        System.out.println("incremental_total_sum");
+
+        String crypto_params = FHEBackends.get().generate_crypto_params_suffix();
+        AggregateCheckpoint checkpoint = AggregateCheckpoint.load(checkpoint_directory);
+        if (checkpoint.getCryptoParams() != null && !checkpoint.getCryptoParams().equals(crypto_params)) {
+            throw new IllegalStateException("Checkpoint " + checkpoint_directory + " was written with crypto params "
+                    + checkpoint.getCryptoParams() + ", not " + crypto_params);
+        }
+        checkpoint.setCryptoParams(crypto_params);
+
+        String previous = checkpoint.getAggregateFile() == null ? null : CiphertextStore.read_ciphertext_from_file_as_string(
+                Config.Ciphertext_Label, checkpoint_directory + "/" + checkpoint.getAggregateFile());
+
+        Map<String, Long> inputs = AggregateCheckpoint.list_inputs(input_directory);
+        List<String> pending = checkpoint.pending_files(inputs);
+        System.out.println("Files already aggregated: " + checkpoint.getFiles().size() + ", new files: " + pending.size());
+        if (pending.isEmpty()) {
+            return previous == null ? null : new SerializedCiphertext(previous);
+        }
+
+        // only the new files are read, the rest of the dataset is covered by the stored aggregate
+        JavaRDD<SerializedCiphertext> ctxt_vec_rdd = CiphertextStore.read_ciphertexts(spark, pending.toArray(new String[0])).javaRDD();
+        // call homomorphic array sum operator on every partition, empty partitions yield nothing
+        JavaRDD<String> collection = ctxt_vec_rdd.mapPartitions(records -> {
+            if (!records.hasNext()) {
+                return Collections.<String>emptyIterator();
+            }
+            // we need to load the shared library and init a copy of SparkFHE on the executor
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            return Collections.singletonList(CiphertextBatches.sum(records, SerializedCiphertext::getCtxt)).iterator();
+        });
+
+        // add the partition sums, one per non-empty partition, to the previous aggregate in one
+        // native call; the new files may hold no ciphertext at all
+        String aggregate = CiphertextBatches.sum(previous, collection.collect().iterator(), Function.identity(),
+                CiphertextBatches.default_max_batch_bytes());
+
+        Map<String, Long> folded = new LinkedHashMap<>();
+        for (String file : pending) {
+            folded.put(file, inputs.get(file));
+        }
+        checkpoint.commit(checkpoint_directory, Config.Ciphertext_Label, aggregate, folded, CiphertextCodec.Compression.NONE);
+        System.out.println("Checkpoint version " + checkpoint.getVersion() + " covers " + checkpoint.getFiles().size() + " files");
+        return new SerializedCiphertext(aggregate);
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        String scheme="", library = "", pk="", sk="";
+        String input_directory = null;
+
+        // Create a SparkConf that loads defaults from system properties and the classpath
+        SparkConf sparkConf = new SparkConf();
+        //Provides the Spark driver application a name for easy identification in the Spark or Yarn UI
+        sparkConf.setAppName("IncrementalTotalSumExample");
+
+        // Decide whether to run the task locally or on the clusters
+        Config.setExecutionEnvironment(args[0]);
+        switch (Config.currentExecutionEnvironment) {
+            case CLUSTER:
+                Config.set_HDFS_NAME_NODE(args[1]);
+                library = args[2];
+                scheme = args[3];
+                pk = args[4];
+                sk = args[5];
+                if (args.length > 6) input_directory = args[6];
+                break;
+            case LOCAL:
+                sparkConf.setMaster("local");
+                library = args[1];
+                scheme = args[2];
+                pk = args[3];
+                sk = args[4];
+                if (args.length > 5) input_directory = args[5];
+                break;
+            default:
+                break;
+        }
+        System.out.println("CURRENT_DIRECTORY = "+ Config.get_current_directory());
+
+        if (input_directory == null) {
+            input_directory = Config.get_records_directory() + "/incoming";
+        }
+
+        // Creating a session to Spark. The session allows the creation of the
+        // various data abstractions such as RDDs, DataFrame, and more.
+        SparkSession spark = SparkSession.builder().config(sparkConf).getOrCreate();
+
+        // Creating spark context which allows the communication with worker nodes
+        JavaSparkContext jsc = new JavaSparkContext(spark.sparkContext());
+
+        // load our shared library and create the SparkFHE object, or select the plaintext backend
+        FHEBackends.init(library, scheme, pk, sk);
+
+        Broadcast<String> pk_b = jsc.broadcast(pk);
+        Broadcast<String> sk_b = jsc.broadcast(sk);
+
+        // one checkpoint per crypto params, an aggregate written with other keys cannot be extended
+        String checkpoint_directory = Config.get_aggregates_directory() + "/total_sum_"
+                + FHEBackends.get().generate_crypto_params_suffix();
+
+        SerializedCiphertext res = incremental_total_sum(spark, input_directory, checkpoint_directory, library, scheme, pk_b, sk_b);
+        if (res == null) {
+            System.out.println("No ciphertext files found in " + input_directory);
+        } else {
+            // sum up the slots of the result and display to verify it
+            String total_sum_ctxt = FHEBackends.get().fhe_total_sum(res.getCtxt());
+            FHEBackends.get().decrypt_and_print(scheme, "Total Sum", total_sum_ctxt, false, 0);
+        }
+
+        // Stop existing spark context
+        jsc.close();
+
+        // Stop existing spark session
+        spark.close();
+    }
+
+}
@@ -6,10 +6,14 @@
 package spiritlab.sparkfhe.example.batching;
 
 import org.apache.spark.spiritlab.sparkfhe.SparkFHEPlugin;
-import spiritlab.sparkfhe.api.*;
+import spiritlab.sparkfhe.api.SparkFHE;
 import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.backend.FHEBackends;
+import spiritlab.sparkfhe.example.keys.KeyPool;
+import spiritlab.sparkfhe.example.keys.KeySet;
 
 import java.io.File;
+import java.io.IOException;
 
 
 /**
@@ -17,8 +21,33 @@ import java.io.File;
  */
 public class KeyGenExample {
 
-    public static void main(String args[]) {
-        String scheme="", library = "";
+    /**
+     * Fill the key pool of the library and scheme, or acquire a key set from it.
+     * @param command "pool" to generate key sets until the pool holds [argument] of them, in
+     *                parallel on the local cores, or "acquire" to take one for the tenant [argument]
+     */
+    private static void key_pool(String library, String scheme, String command, String argument) throws IOException {
+        KeyPool pool = KeyPool.open(Config.get_keys_directory() + "/pool", library, scheme,
+                Config.get_batch_crypto_params_file(library, scheme));
+        if ("pool".equalsIgnoreCase(command)) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            for (KeySet key_set : pool.fill(Integer.parseInt(argument), cores)) {
+                System.out.println("Generated key set " + key_set);
+            }
+            System.out.println(pool.available() + " key sets ready");
+        } else if ("acquire".equalsIgnoreCase(command)) {
+            long start = System.nanoTime();
+            KeySet key_set = pool.acquire_or_generate(argument);
+            System.out.println("Acquired key set " + key_set + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+            System.out.println("PUBLIC_KEY = " + key_set.get_public_key_file());
+            System.out.println("SECRET_KEY = " + key_set.get_secret_key_file());
+        } else {
+            throw new IllegalArgumentException("Unknown key pool command '" + command + "', expected one of: pool, acquire");
+        }
+    }
+
+    public static void main(String args[]) throws IOException {
+        String scheme="", library = "", command = null, argument = null;
 
         Config.setExecutionEnvironment(args[0]);
 
@@ -27,48 +56,58 @@ public class KeyGenExample {
                 Config.set_HDFS_NAME_NODE(args[1]);
                 library = args[2];
                 scheme = args[3];
+                if (args.length > 5) {
+                    command = args[4];
+                    argument = args[5];
+                }
                 break;
             case LOCAL:
                 library = args[1];
                 scheme = args[2];
+                if (args.length > 4) {
+                    command = args[3];
+                    argument = args[4];
+                }
                 break;
             default:
                 break;
         }
         System.out.println("CURRENT_DIRECTORY = "+Config.get_current_directory());
 
-        // Load C++ shared library
-        SparkFHEPlugin.setup();
-        // Create SparkFHE object with library
-        SparkFHE.init(library, scheme);
+        // key sets are generated by child JVMs, this one does not need the shared library
+        if (command != null) {
+            key_pool(library, scheme, command, argument);
+            return;
+        }
+
+        // the plaintext backend needs no keys
+        if (FHEBackends.is_plaintext(library)) {
+            System.out.println(library + " needs no keys");
+        } else {
+            // Load C++ shared library
+            SparkFHEPlugin.setup();
+            // Create SparkFHE object with library
+            SparkFHE.init(library, scheme);
+
+            // Creates the directory named by the pathname - current_directiory/gen/keys,
+            // and including any necessary parent directories.
+            new File(Config.get_keys_directory()).mkdirs();
 
-        // Creates the directory named by the pathname - current_directiory/gen/keys,
-        // and including any necessary parent directories.
-         new File(Config.get_keys_directory()).mkdirs();
+            // Using the object created to call the C++ function to generate the keys.
+            SparkFHE.getInstance().generate_key_pair(
+                    Config.get_batch_crypto_params_file(library, scheme),
+                    Config.get_default_public_key_file(),
+                    Config.get_default_secret_key_file());
+        }
 
-        // Using the object created to call the C++ function to generate the keys.
-        SparkFHE.getInstance().generate_key_pair(
-                Config.get_batch_crypto_params_file(library, scheme),
-                Config.get_default_public_key_file(),
-                Config.get_default_secret_key_file());
+        // select the backend with the generated keys
+        FHEBackends.init(library, scheme, Config.get_default_public_key_file(), Config.get_default_secret_key_file());
 
         // Encrypting the literal 1, and decrypting it to verify the keys' accuracy.
         String inputNumberString="1";
-        Plaintext inputNumberPtxt = SparkFHE.getInstance().encode(inputNumberString);
-        Ciphertext ctxt = SparkFHE.getInstance().encrypt(inputNumberPtxt);
-        Plaintext ptxt = SparkFHE.getInstance().decrypt(ctxt);
-
-        if (scheme.equalsIgnoreCase(FHEScheme.CKKS)){
-            DoubleVector outputNumberPtxt = new DoubleVector();
-            SparkFHE.getInstance().decode(outputNumberPtxt, ptxt);
-            // Printing out the result
-            System.out.println("InputNumber=" + inputNumberString + ", result of dec(enc(InputNumber))=" + String.valueOf(outputNumberPtxt.get(0)));
-        } else { // BGV or BFV
-            LongVector outputNumberPtxt = new LongVector();
-            SparkFHE.getInstance().decode(outputNumberPtxt, ptxt);
-            // Printing out the result
-            System.out.println("InputNumber=" + inputNumberString + ", result of dec(enc(InputNumber))=" + String.valueOf(outputNumberPtxt.get(0)));
-        }
+        String ctxt = FHEBackends.get().encrypt(inputNumberString);
 
+        // Printing out the result
+        FHEBackends.get().decrypt_and_print(scheme, "InputNumber=" + inputNumberString + ", result of dec(enc(InputNumber))", ctxt, false, 0);
     }
 }
@@ -0,0 +1,128 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.batching;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.spiritlab.sparkfhe.SparkFHEPlugin;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import spiritlab.sparkfhe.api.SparkFHE;
+import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.sql.CiphertextColumns;
+import spiritlab.sparkfhe.example.storage.CiphertextParams;
+import spiritlab.sparkfhe.example.storage.CiphertextParquet;
+
+import java.io.IOException;
+
+import static org.apache.spark.sql.functions.col;
+import static org.apache.spark.sql.functions.count;
+import static org.apache.spark.sql.functions.length;
+import static org.apache.spark.sql.functions.sum;
+
+/**
+ * This is an example for SparkFHE project. Created to convert the JSON-lines ciphertext files
+ * produced by EncDecExample into the Parquet ciphertext layout, and to compare how long both
+ * layouts take to load.
+ */
+public class ParquetLayoutExample {
+
+    /**
+     * Convert a JSON-lines ciphertext file into a Parquet ciphertext dataset.
+     * @param spark the spark session
+     * @param json_file the JSON-lines ciphertext file
+     * @param parquet_directory the dataset directory to write
+     * @param params the params of the ciphertexts
+     */
+    public static void convert(SparkSession spark, String json_file, String parquet_directory, CiphertextParams params) {
+        Dataset<Row> ctxts = CiphertextColumns.read_ciphertexts(spark, json_file);
+        params.setElements(ctxts.count());
+        CiphertextParquet.write(ctxts, parquet_directory, params);
+        System.out.println("Converted " + json_file + " to " + parquet_directory + ": " + params);
+    }
+
+    /**
+     * Load every ciphertext of a DataFrame, and print how long it took.
+     * @param label the name of the layout
+     * @param ctxts the ciphertexts
+     */
+    public static void time_load(String label, Dataset<Row> ctxts) {
+        long start = System.nanoTime();
+        // summing the lengths forces every ciphertext to be read
+        Row totals = ctxts.agg(count(col(Config.Ciphertext_Label)), sum(length(col(Config.Ciphertext_Label)))).first();
+        long elapsed_ms = (System.nanoTime() - start) / 1000000;
+        System.out.println(label + ": loaded " + totals.getLong(0) + " ciphertexts, " + totals.get(1) + " bytes in " + elapsed_ms + " ms");
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        String scheme="", library = "", pk="", sk="";
+        String json_file = null;
+
+        // Create a SparkConf that loads defaults from system properties and the classpath
+        SparkConf sparkConf = new SparkConf();
+        //Provides the Spark driver application a name for easy identification in the Spark or Yarn UI
+        sparkConf.setAppName("ParquetLayoutExample");
+
+        // Decide whether to run the task locally or on the clusters
+        Config.setExecutionEnvironment(args[0]);
+        switch (Config.currentExecutionEnvironment) {
+            case CLUSTER:
+                Config.set_HDFS_NAME_NODE(args[1]);
+                library = args[2];
+                scheme = args[3];
+                pk = args[4];
+                sk = args[5];
+                if (args.length > 6) json_file = args[6];
+                break;
+            case LOCAL:
+                sparkConf.setMaster("local");
+                library = args[1];
+                scheme = args[2];
+                pk = args[3];
+                sk = args[4];
+                if (args.length > 5) json_file = args[5];
+                break;
+            default:
+                break;
+        }
+        System.out.println("CURRENT_DIRECTORY = "+ Config.get_current_directory());
+
+        // Creating a session to Spark. The session allows the creation of the
+        // various data abstractions such as RDDs, DataFrame, and more.
+        SparkSession spark = SparkSession.builder().config(sparkConf).getOrCreate();
+
+        // Creating spark context which allows the communication with worker nodes
+        JavaSparkContext jsc = new JavaSparkContext(spark.sparkContext());
+
+        // required to load our shared library
+        SparkFHEPlugin.setup();
+        // create SparkFHE object
+        SparkFHE.init(library, scheme, pk, sk);
+
+        String suffix = SparkFHE.getInstance().generate_crypto_params_suffix();
+        if (json_file == null) {
+            json_file = Config.get_records_directory()+"/packed_ctxt_"+String.valueOf(100)+"_"+suffix+".jsonl";
+        }
+        // the dataset is named after the file it was converted from
+        String parquet_directory = Config.get_records_directory()+"/parquet/"+new Path(json_file).getName().replaceFirst("\\.jsonl$", "");
+
+        CiphertextParams params = new CiphertextParams(suffix, library, scheme);
+        convert(spark, json_file, parquet_directory, params);
+
+        // the JSON files are parsed in full, the Parquet files are checked by footer first
+        time_load("JSON-lines", CiphertextColumns.read_ciphertexts(spark, json_file));
+        time_load("Parquet", CiphertextParquet.read_ciphertexts(spark, parquet_directory, params));
+
+        // Stop existing spark context
+        jsc.close();
+
+        // Stop existing spark session
+        spark.close();
+    }
+}
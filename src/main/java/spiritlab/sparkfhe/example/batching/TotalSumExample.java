@@ -9,16 +9,24 @@ import org.apache.spark.SparkConf;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.broadcast.Broadcast;
-import org.apache.spark.spiritlab.sparkfhe.SparkFHEPlugin;
 import org.apache.spark.sql.Dataset;
-import org.apache.spark.sql.Encoder;
-import org.apache.spark.sql.Encoders;
+import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SparkSession;
 import spiritlab.sparkfhe.api.*;
+import spiritlab.sparkfhe.example.CiphertextBatches;
 import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.backend.FHEBackends;
+import spiritlab.sparkfhe.example.planning.CostProfile;
+import spiritlab.sparkfhe.example.planning.HomomorphicOp;
+import spiritlab.sparkfhe.example.planning.PartitionPlanner;
+import spiritlab.sparkfhe.example.sql.CiphertextColumns;
+import spiritlab.sparkfhe.example.sql.FHESumAggregator;
+import spiritlab.sparkfhe.example.storage.CiphertextCatalog;
+import spiritlab.sparkfhe.example.storage.CiphertextStore;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 
 /**
@@ -27,6 +35,11 @@ import java.util.LinkedList;
  */
 public class TotalSumExample {
 
+    // resolves the input datasets written by EncDecExample
+    private static CiphertextCatalog catalog;
+    // plans the partitions of the ciphertext stages
+    private static PartitionPlanner planner;
+
     // declare variable to hold a ciphertext vector
     private static String ctxt_vec;
 
@@ -53,8 +66,6 @@ public class TotalSumExample {
 
         // sum up the values and display
         System.out.println("values_RDD:"+values_RDD.reduce((x, y) -> {
-            // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
             return (x+y);
         }));
     }
@@ -74,23 +85,20 @@ public class TotalSumExample {
         System.out.println("test_FHE_total_sum_via_lambda");
 
         /* Spark example for FHE calculations */
-        // Encoders are created for Java beans
-        Encoder<SerializedCiphertext> ctxtJSONEncoder = Encoders.bean(SerializedCiphertext.class);
 
-        JavaRDD<SerializedCiphertext> ctxt_vec_rdd = spark.read().json(ctxt_vec).as(ctxtJSONEncoder).javaRDD();
+        JavaRDD<SerializedCiphertext> ctxt_vec_rdd = CiphertextStore.read_ciphertexts(spark, ctxt_vec).javaRDD();
         // causes n = slice tasks to be started using NODE_LOCAL data locality.
         System.out.println("Partitions:"+ctxt_vec_rdd.partitions().size());
 
         ctxt_vec_rdd.reduce((x, y) -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            return new SerializedCiphertext(SparkFHE.getInstance().fhe_add(x.getCtxt(), y.getCtxt()));
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            return new SerializedCiphertext(FHEBackends.get().fhe_add(x.getCtxt(), y.getCtxt()));
         });
 
         // sum up the slots of the result and display
-        Ciphertext total_sum_ctxt = new Ciphertext(SparkFHE.getInstance().fhe_total_sum(ctxt_vec_rdd.first().getCtxt()));
-        Util.decrypt_and_print(scheme, "Total Sum", total_sum_ctxt, false, 0);
+        String total_sum_ctxt = FHEBackends.get().fhe_total_sum(ctxt_vec_rdd.first().getCtxt());
+        FHEBackends.get().decrypt_and_print(scheme, "Total Sum", total_sum_ctxt, false, 0);
     }
 
     /**
@@ -107,47 +115,47 @@ public class TotalSumExample {
                                                           Broadcast<String> sk_b) {
         System.out.println("test_FHE_total_sum_via_native_code");
         /* Spark example for FHE calculations */
-        /* Encoders are created for Java beans */
-        Encoder<SerializedCiphertext> ctxtJSONEncoder = Encoders.bean(SerializedCiphertext.class);
 
-        JavaRDD<SerializedCiphertext> ctxt_vec_rdd = spark.read().json(ctxt_vec).as(ctxtJSONEncoder).javaRDD();
+        JavaRDD<SerializedCiphertext> ctxt_vec_rdd = CiphertextStore.read_ciphertexts(spark, ctxt_vec).javaRDD();
         // print out the cipher text vectors after decryption for verification purposes
-        System.out.println("ctxt_vec_rdd.count() = " + ctxt_vec_rdd.count());
+        long count = ctxt_vec_rdd.count();
+        System.out.println("ctxt_vec_rdd.count() = " + count);
+        if (count == 0) {
+            System.out.println("No ciphertexts to sum up");
+            return;
+        }
 
         ctxt_vec_rdd.foreach(data -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            Util.decrypt_and_print(scheme, "", new Ciphertext(data.getCtxt()), true, 100);
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            FHEBackends.get().decrypt_and_print(scheme, "", data.getCtxt(), true, 100);
         });
 
-        // call homomorphic array sum operator on the rdd
-        JavaRDD<SerializedCiphertext> collection = ctxt_vec_rdd.mapPartitions(records -> {
-            // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-
-            LinkedList<SerializedCiphertext> sum = new LinkedList<SerializedCiphertext>();
-            StringVector vec = new StringVector();
-            while (records.hasNext()) {
-                SerializedCiphertext rec = records.next();
-                vec.add(rec.getCtxt());
+        // spread the ciphertexts over the cores before adding them up
+        ctxt_vec_rdd = PartitionPlanner.apply(ctxt_vec_rdd, planner.plan(
+                catalog.lookup("packed_ctxt_100", FHEBackends.get().generate_crypto_params_suffix()), slices,
+                HomomorphicOp.ADD));
+
+        // call homomorphic array sum operator on every partition, empty partitions yield nothing
+        JavaRDD<String> collection = ctxt_vec_rdd.mapPartitions(records -> {
+            if (!records.hasNext()) {
+                return Collections.<String>emptyIterator();
             }
-            sum.add(new SerializedCiphertext(SparkFHE.getInstance().fhe_total_sum(vec)));
-            return sum.iterator();
+            // we need to load the shared library and init a copy of SparkFHE on the executor
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            return Collections.singletonList(CiphertextBatches.sum(records, SerializedCiphertext::getCtxt)).iterator();
         });
 
-        // sum up the results from the previous operation
-        SerializedCiphertext res = collection.reduce((x, y) -> {
+        // sum up the results from the previous operation, only the non-empty partitions yielded one
+        String res = collection.reduce((x, y) -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            return new SerializedCiphertext(SparkFHE.getInstance().fhe_add(x.getCtxt(), y.getCtxt()));
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            return FHEBackends.get().fhe_add(x, y);
         });
 
         // sum up the slots of the result and display to verify it
-        Ciphertext total_sum_ctxt = new Ciphertext(SparkFHE.getInstance().fhe_total_sum(res.getCtxt()));
-        Util.decrypt_and_print(scheme, "Total Sum", total_sum_ctxt, false, 0);
+        String total_sum_ctxt = FHEBackends.get().fhe_total_sum(res);
+        FHEBackends.get().decrypt_and_print(scheme, "Total Sum", total_sum_ctxt, false, 0);
     }
 
     /**
@@ -162,85 +170,26 @@ public class TotalSumExample {
      */
     public static void test_FHE_total_sum_via_sql(SparkSession spark, int slices, String library, String scheme, Broadcast<String> pk_b,
                                                   Broadcast<String> sk_b) {
-        /*
         System.out.println("test_FHE_total_sum_via_sql");
-        // Spark example for FHE calculations //
-        // Encoders are created for Java beans
-        Encoder<SerializedCiphertext> ctxtJSONEncoder = Encoders.bean(SerializedCiphertext.class);
-        Dataset<SerializedCiphertext> ctxt_vec_ds = spark.read().json(ctxt_vec).as(ctxtJSONEncoder);
-
-        // col - Returns a Column based on the given column name, ctxt.
-        // explode - Creates a new row for each element in the given array or map column
-        // select - select the newly created column, and alias it accordingly
-        Dataset<String> ctxt_vec_ds2 = ctxt_vec_ds.select(ctxt_vec_ds.col("ctxt").as("ctxt_a")).as(Encoders.STRING());
-        Dataset<String> ctxt_b_ds2 = ctxt_b_ds.select(ctxt_b_ds.col("ctxt").as("ctxt_b")).as(Encoders.STRING());
-
-        // withColumn - create a new DataFrame with a column added or renamed.
-        // monotonically_increasing_id - A column that generates monotonically increasing 64-bit integers
-        Dataset<Row> ctxt_a_ds3 = ctxt_a_ds2.withColumn("id", functions.monotonically_increasing_id());
-        // orderBy - creates a window specification that defines the partitioning, ordering, and frame boundaries with
-        // the ordering defined. add this column as "id" and same it to the dataFrame ctxt_a_ds3
-        ctxt_a_ds3 = ctxt_a_ds3.withColumn("id", functions.row_number().over(Window.orderBy("id")));
-
-        // repeat the process for the other cipher text
-        Dataset<Row> ctxt_b_ds3 = ctxt_b_ds2.withColumn("id", functions.monotonically_increasing_id());
-        ctxt_b_ds3 = ctxt_b_ds3.withColumn("id", functions.row_number().over(Window.orderBy("id")));
-
-        // join - cartesian join between ctxt_a_ds3's id column and ctxt_b_ds3
-        // equalTo - A filter that evaluates to true iff the attribute evaluates to a value equal to value.
-        Dataset<Row> joined = ctxt_a_ds3.join(ctxt_b_ds3, ctxt_a_ds3.col("id").equalTo(ctxt_b_ds3.col("id")));
-        Dataset<Row> fin = joined.select(col("ctxt_a"), col("ctxt_b"));
-
-        fin.printSchema();
-
-        StructType structType = new StructType();
-        // Creates a new StructType by adding a new field with no metadata where the dataType is specified as a String.
-        structType = structType.add("ctxt_a", DataTypes.StringType, false);
-        structType = structType.add("ctxt_b", DataTypes.StringType, false);
-
-        // RowEncoder - is part of the Encoder framework and acts as the encoder for DataFrames, i.e. Dataset[Row] 
-        // — Datasets of Rows.
-        // ExpressionEncoder[T] - is a generic Encoder of JVM objects of the type T to and from internal binary rows.
-        ExpressionEncoder<Row> encoder = RowEncoder.apply(structType);
-        ExpressionEncoder<Row> encoder2 = RowEncoder.apply(structType);
-
-        // mapPartition - converts each partition of the source RDD into multiple elements of the result
-        // perform dot product on each pair (StringVector) of the dataFrame, and saving the rcesults to a LinkedList
-        Dataset<SerializedCiphertext> collection = fin.mapPartitions((MapPartitionsFunction<Row, SerializedCiphertext>)  iter -> {
-            // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-
-            LinkedList<SerializedCiphertext> v = new LinkedList<SerializedCiphertext>();
-            StringVector a = new StringVector();
-            StringVector b = new StringVector();
-            while (iter.hasNext()) {
-                Row row = iter.next();
-                a.add((String)row.getAs("ctxt_a"));
-                b.add((String)row.getAs("ctxt_b"));
-            }
-            v.add(new SerializedCiphertext(SparkFHE.getInstance().do_FHE_dot_product(a, b)));
-            return v.iterator();
-        }, Encoders.kryo(SerializedCiphertext.class));
+        /* Spark example for FHE calculations */
+        // ciphertexts are read into a binary column, which is what the SQL functions operate on
+        Dataset<Row> ctxt_vec_df = CiphertextColumns.read_ciphertexts(spark, ctxt_vec);
+        ctxt_vec_df.createOrReplaceTempView("ctxt_vec");
 
-        // sum up the results from the previous operation and display
-        SerializedCiphertext res = collection.javaRDD().reduce((x, y) -> {
-            // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            return new SerializedCiphertext(SparkFHE.getInstance().do_FHE_basic_op(x.getCtxt(), y.getCtxt(), SparkFHE.FHE_ADD));
-        });
+        // fhe_sum is planned as a partial aggregation on every partition followed by a final merge,
+        // both adding ciphertexts with fhe_add
+        FHESumAggregator.register(spark, library, scheme, pk_b, sk_b);
+        String res = CiphertextColumns.to_string(
+                spark.sql("SELECT fhe_sum(ctxt) AS ctxt FROM ctxt_vec").as(CiphertextColumns.ENCODER).first());
 
-        // decrypt the result to verify it
-        System.out.println("Dot product: " + SparkFHE.getInstance().decrypt(res.getCtxt(), true));
-    */
+        // sum up the slots of the result and display to verify it
+        String total_sum_ctxt = FHEBackends.get().fhe_total_sum(res);
+        FHEBackends.get().decrypt_and_print(scheme, "Total Sum", total_sum_ctxt, false, 0);
     }
 
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         String scheme="", library = "", pk="", sk="";
-        // The variable slices represent the number of time a task is split up
-        int slices=2;
 
         // Create a SparkConf that loads defaults from system properties and the classpath
         SparkConf sparkConf = new SparkConf();
@@ -251,7 +200,6 @@ public class TotalSumExample {
         Config.setExecutionEnvironment(args[0]);
         switch (Config.currentExecutionEnvironment) {
             case CLUSTER:
-                slices = Integer.parseInt(args[0]);
                 Config.set_HDFS_NAME_NODE(args[1]);
                 library = args[2];
                 scheme = args[3];
@@ -277,12 +225,19 @@ public class TotalSumExample {
         // Creating spark context which allows the communication with worker nodes
         JavaSparkContext jsc = new JavaSparkContext(spark.sparkContext());
 
-        // required to load our shared library
-        SparkFHEPlugin.setup();
-        // create SparkFHE object
-        SparkFHE.init(library, scheme, pk, sk);
+        // load our shared library and create the SparkFHE object, or select the plaintext backend
+        FHEBackends.init(library, scheme, pk, sk);
+
+        catalog = CiphertextCatalog.open(Config.get_records_directory());
+
+        // ciphertext stages are planned from the size of their inputs and the calibrated costs of
+        // the params, if CostCalibration was run for them, the plaintext ones are split across the cores
+        planner = PartitionPlanner.for_context(jsc,
+                CostProfile.load(Config.get_profiles_directory(), FHEBackends.get().generate_crypto_params_suffix()));
+        // The variable slices represent the number of time a task is split up
+        int slices = planner.get_cores();
 
-        ctxt_vec = Config.get_records_directory()+"/packed_ctxt_"+String.valueOf(100)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+".jsonl";
+        ctxt_vec = catalog.resolve("packed_ctxt_100", FHEBackends.get().generate_crypto_params_suffix());
 
         Broadcast<String> pk_b = jsc.broadcast(pk);
         Broadcast<String> sk_b = jsc.broadcast(sk);
@@ -293,7 +248,7 @@ public class TotalSumExample {
          // testing the total sum operation on ciphertext vector.
         test_FHE_total_sum_via_lambda(spark, slices, library, scheme, pk_b, sk_b);
         test_FHE_total_sum_via_native_code(spark, slices, library, scheme, pk_b, sk_b);
-//        test_FHE_total_sum_via_sql(spark, slices, library, scheme, pk_b, sk_b);
+        test_FHE_total_sum_via_sql(spark, slices, library, scheme, pk_b, sk_b);
 
         // Normally, the Spark web UI at http://127.0.0.1:4040 will be shutdown after the experiment run.
         // Uncomment the following block of code to paused the shutdown so that you have a chance to check the Spark web UI.
@@ -0,0 +1,320 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.keys;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.spark.spiritlab.sparkfhe.SparkFHEPlugin;
+import spiritlab.sparkfhe.api.SparkFHE;
+import spiritlab.sparkfhe.example.ChildJvm;
+import spiritlab.sparkfhe.example.storage.CiphertextParams;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * A pool of pre-generated key sets for one library, scheme and params file, in a local
+ * directory, so that jobs acquire a ready key set instead of waiting for generate_key_pair.
+ *
+ *   [directory]/[library]_[scheme]/staging   key sets being generated
+ *   [directory]/[library]_[scheme]/ready     generated key sets, oldest first
+ *   [directory]/[library]_[scheme]/acquired  key sets handed out, with their tenant
+ *
+ * {@link #fill(int, int)} generates key sets in parallel. SparkFHE is a per-process singleton,
+ * so each key set is generated by its own JVM, as many at once as requested. Key sets move
+ * between the directories with atomic renames: a key set is only ever in ready once complete,
+ * and is acquired by exactly one caller, even across processes sharing the directory.
+ *
+ * The directories of the pool are only accessible to their owner (0700) and the files of the
+ * key sets only readable by their owner (0600), on file systems with POSIX permissions.
+ */
+public class KeyPool {
+
+    public static final String STAGING = "staging";
+    public static final String READY = "ready";
+    public static final String ACQUIRED = "acquired";
+
+    // a tenant is part of a file name under acquired, it cannot name another directory
+    private static final Pattern TENANT = Pattern.compile("[A-Za-z0-9._-]+");
+    private static final Set<PosixFilePermission> PRIVATE_DIRECTORY = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> PRIVATE_FILE = PosixFilePermissions.fromString("rw-------");
+
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * Generates the keys of a key set into its directory.
+     */
+    public interface Generator {
+        /**
+         * @param library the HE library name
+         * @param scheme the HE scheme name
+         * @param params_file the crypto params file
+         * @param directory the directory of the key set, to write the keys and key_set.json to
+         * @throws Exception if the keys could not be generated
+         */
+        void generate(String library, String scheme, String params_file, Path directory) throws Exception;
+    }
+
+    private final Path root;
+    private final String library;
+    private final String scheme;
+    private final String params_file;
+    private final Generator generator;
+
+    KeyPool(Path directory, String library, String scheme, String params_file, Generator generator) throws IOException {
+        this.root = directory.resolve(library + "_" + scheme);
+        this.library = library;
+        this.scheme = scheme;
+        this.params_file = params_file;
+        this.generator = generator;
+        create_private_directory(root);
+        create_private_directory(root.resolve(STAGING));
+        create_private_directory(root.resolve(READY));
+        create_private_directory(root.resolve(ACQUIRED));
+    }
+
+    /**
+     * Open the pool of a library and scheme, generating its key sets in child JVMs.
+     * @param directory the local directory of the pools, e.g. gen/keys/pool
+     * @param library the HE library name
+     * @param scheme the HE scheme name
+     * @param params_file the crypto params file the keys are generated with
+     * @return the pool
+     * @throws IOException if the directories cannot be created
+     */
+    public static KeyPool open(String directory, String library, String scheme, String params_file) throws IOException {
+        return new KeyPool(Paths.get(directory), library, scheme, params_file, KeyPool::generate_in_child_jvm);
+    }
+
+    /**
+     * @return the number of key sets ready to be acquired
+     */
+    public int available() throws IOException {
+        return list(root.resolve(READY)).size();
+    }
+
+    /**
+     * Generate key sets until the pool holds a number of them.
+     * @param target the number of ready key sets wanted
+     * @param parallelism the number of key sets generated at once, e.g. the number of cores
+     * @return the key sets generated
+     * @throws IOException if a key set could not be generated, the others are kept
+     */
+    public List<KeySet> fill(int target, int parallelism) throws IOException {
+        int missing = target - available();
+        List<KeySet> generated = new ArrayList<KeySet>();
+        if (missing <= 0) {
+            return generated;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, missing)));
+        try {
+            List<Future<KeySet>> futures = new ArrayList<Future<KeySet>>();
+            for (int i = 0; i < missing; i++) {
+                futures.add(pool.submit(this::generate_one));
+            }
+            IOException failure = null;
+            for (Future<KeySet> future : futures) {
+                try {
+                    generated.add(future.get());
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = new IOException("Failed to generate a key set for " + library + " " + scheme, e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while generating key sets", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return generated;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private KeySet generate_one() throws Exception {
+        String id = System.currentTimeMillis() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        Path staging = root.resolve(STAGING).resolve(id);
+        create_private_directory(staging);
+        long start = System.nanoTime();
+        try {
+            generator.generate(library, scheme, params_file, staging);
+            // the keys are written by the HE library with the default permissions
+            for (Path file : list(staging)) {
+                restrict(file, PRIVATE_FILE);
+            }
+        } catch (Exception e) {
+            delete(staging);
+            throw e;
+        }
+        KeySet key_set = read(staging);
+        key_set.setId(id);
+        key_set.setParamsFile(params_file);
+        key_set.setGeneratedAt(System.currentTimeMillis());
+        key_set.setGenerationMillis((System.nanoTime() - start) / 1000000);
+        write(staging, key_set);
+        Path ready = root.resolve(READY).resolve(id);
+        Files.move(staging, ready, StandardCopyOption.ATOMIC_MOVE);
+        key_set.set_directory(ready);
+        return key_set;
+    }
+
+    /**
+     * Take a ready key set out of the pool.
+     * @param tenant who the key set is for, recorded with it, letters, digits, '.', '_' and '-'
+     * @return the oldest ready key set, now under acquired, or null if the pool is empty
+     * @throws IOException if the pool cannot be read
+     * @throws IllegalArgumentException if the tenant is not a valid file name
+     */
+    public KeySet acquire(String tenant) throws IOException {
+        check_tenant(tenant);
+        for (Path ready : list(root.resolve(READY))) {
+            Path acquired = root.resolve(ACQUIRED).resolve(tenant + "-" + ready.getFileName());
+            try {
+                Files.move(ready, acquired, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException | FileAlreadyExistsException e) {
+                // taken by another caller meanwhile
+                continue;
+            } catch (AtomicMoveNotSupportedException e) {
+                throw new IOException("The key pool needs a file system with atomic renames, " + root + " has none", e);
+            }
+            KeySet key_set = read(acquired);
+            key_set.setTenant(tenant);
+            key_set.setAcquiredAt(System.currentTimeMillis());
+            write(acquired, key_set);
+            return key_set;
+        }
+        return null;
+    }
+
+    /**
+     * Take a ready key set out of the pool, or generate one if the pool is empty.
+     * @param tenant who the key set is for, recorded with it, letters, digits, '.', '_' and '-'
+     * @return the key set, under acquired
+     * @throws IOException if the pool cannot be read or a key set cannot be generated
+     * @throws IllegalArgumentException if the tenant is not a valid file name
+     */
+    public KeySet acquire_or_generate(String tenant) throws IOException {
+        check_tenant(tenant);
+        KeySet key_set = acquire(tenant);
+        while (key_set == null) {
+            // generated into ready, another caller may take it first
+            fill(1, 1);
+            key_set = acquire(tenant);
+        }
+        return key_set;
+    }
+
+    static void check_tenant(String tenant) {
+        if (tenant == null || !TENANT.matcher(tenant).matches() || tenant.equals(".") || tenant.equals("..")) {
+            throw new IllegalArgumentException("Invalid tenant '" + tenant + "', expected letters, digits, '.', '_' and '-'");
+        }
+    }
+
+    private static void create_private_directory(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        restrict(directory, PRIVATE_DIRECTORY);
+    }
+
+    private static void restrict(Path path, Set<PosixFilePermission> permissions) throws IOException {
+        try {
+            Files.setPosixFilePermissions(path, permissions);
+        } catch (UnsupportedOperationException e) {
+            // no POSIX permissions, e.g. on Windows
+        }
+    }
+
+    // the key sets of a directory, oldest first as their ids start with the time they were created
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> paths = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        paths.sort(null);
+        return paths;
+    }
+
+    static KeySet read(Path directory) throws IOException {
+        Path file = directory.resolve(KeySet.METADATA_FILE);
+        KeySet key_set = Files.exists(file) ? mapper.readValue(file.toFile(), KeySet.class) : new KeySet();
+        key_set.set_directory(directory);
+        return key_set;
+    }
+
+    static void write(Path directory, KeySet key_set) throws IOException {
+        Path tmp = directory.resolve(KeySet.METADATA_FILE + ".tmp");
+        mapper.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), key_set);
+        restrict(tmp, PRIVATE_FILE);
+        Files.move(tmp, directory.resolve(KeySet.METADATA_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        for (Path path : list(directory)) {
+            Files.deleteIfExists(path);
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    // run main below in a new JVM with the classpath and native library path of this one
+    private static void generate_in_child_jvm(String library, String scheme, String params_file, Path directory) throws Exception {
+        List<String> command = ChildJvm.command(KeyPool.class, library, scheme, params_file, directory.toString());
+        File log = directory.resolve("keygen.log").toFile();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+        int status = process.waitFor();
+        if (status != 0) {
+            throw new IOException("Key generation exited with " + status + ", see " + log);
+        }
+    }
+
+    /**
+     * Generates one key set, run by fill in a child JVM.
+     * Usage: KeyPool [library] [scheme] [params file] [key set directory]
+     */
+    public static void main(String args[]) throws IOException {
+        String library = args[0], scheme = args[1], params_file = args[2];
+        Path directory = Paths.get(args[3]);
+
+        // Load C++ shared library
+        SparkFHEPlugin.setup();
+        // Create SparkFHE object with library
+        SparkFHE.init(library, scheme);
+        SparkFHE.getInstance().generate_key_pair(params_file,
+                directory.resolve(KeySet.PUBLIC_KEY_FILE).toString(),
+                directory.resolve(KeySet.SECRET_KEY_FILE).toString());
+
+        KeySet key_set = new KeySet();
+        key_set.setParams(new CiphertextParams(SparkFHE.getInstance().generate_crypto_params_suffix(), library, scheme));
+        write(directory, key_set);
+        // the parent restricts them too, before the key set is ready
+        restrict(directory.resolve(KeySet.PUBLIC_KEY_FILE), PRIVATE_FILE);
+        restrict(directory.resolve(KeySet.SECRET_KEY_FILE), PRIVATE_FILE);
+        System.out.println("Generated key set " + directory);
+    }
+}
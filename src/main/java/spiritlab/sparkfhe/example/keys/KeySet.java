@@ -0,0 +1,124 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.keys;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import spiritlab.sparkfhe.example.storage.CiphertextParams;
+
+import java.nio.file.Path;
+
+/**
+ * A key set of the {@link KeyPool}: a directory holding a public and a secret key, with the
+ * params they were generated with in key_set.json. The public key of SparkFHE carries the
+ * evaluation keys (relinearization, rotations) the params call for.
+ */
+public class KeySet {
+
+    public static final String METADATA_FILE = "key_set.json";
+    public static final String PUBLIC_KEY_FILE = "public_key.txt";
+    public static final String SECRET_KEY_FILE = "secret_key.txt";
+
+    private String id;
+    private CiphertextParams params;
+    private String paramsFile;
+    private long generatedAt;
+    private long generationMillis;
+    private String tenant;
+    private long acquiredAt;
+
+    @JsonIgnore
+    private Path directory;
+
+    public KeySet() {
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public CiphertextParams getParams() {
+        return params;
+    }
+
+    public void setParams(CiphertextParams params) {
+        this.params = params;
+    }
+
+    public String getParamsFile() {
+        return paramsFile;
+    }
+
+    public void setParamsFile(String paramsFile) {
+        this.paramsFile = paramsFile;
+    }
+
+    public long getGeneratedAt() {
+        return generatedAt;
+    }
+
+    public void setGeneratedAt(long generatedAt) {
+        this.generatedAt = generatedAt;
+    }
+
+    public long getGenerationMillis() {
+        return generationMillis;
+    }
+
+    public void setGenerationMillis(long generationMillis) {
+        this.generationMillis = generationMillis;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    public long getAcquiredAt() {
+        return acquiredAt;
+    }
+
+    public void setAcquiredAt(long acquiredAt) {
+        this.acquiredAt = acquiredAt;
+    }
+
+    @JsonIgnore
+    public Path get_directory() {
+        return directory;
+    }
+
+    void set_directory(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the public key file, as taken by SparkFHE.init
+     */
+    @JsonIgnore
+    public String get_public_key_file() {
+        return directory.resolve(PUBLIC_KEY_FILE).toString();
+    }
+
+    /**
+     * @return the secret key file, as taken by SparkFHE.init
+     */
+    @JsonIgnore
+    public String get_secret_key_file() {
+        return directory.resolve(SECRET_KEY_FILE).toString();
+    }
+
+    @Override
+    public String toString() {
+        return id + " (" + params + ", generated in " + generationMillis + " ms)"
+                + (tenant == null ? "" : " for " + tenant) + " at " + directory;
+    }
+}
@@ -0,0 +1,153 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.memory;
+
+import spiritlab.sparkfhe.api.Ciphertext;
+import spiritlab.sparkfhe.api.DoubleMatrix;
+import spiritlab.sparkfhe.api.DoubleVector;
+import spiritlab.sparkfhe.api.LongMatrix;
+import spiritlab.sparkfhe.api.LongVector;
+import spiritlab.sparkfhe.api.Plaintext;
+import spiritlab.sparkfhe.api.PlaintextVector;
+import spiritlab.sparkfhe.api.StringVector;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Frees the SWIG objects of SparkFHE deterministically instead of leaving them to finalizers,
+ * which only run when the heap is under pressure, long after the native memory behind the
+ * small Java objects has grown the RSS. Use it with try-with-resources:
+ *
+ *  try (NativeArena arena = new NativeArena()) {
+ *      StringVector vec = arena.track(new StringVector());
+ *      vec.add(ctxt);
+ *      arena.account(ctxt.length());
+ *      ...
+ *  } // vec is deleted here
+ *
+ * The objects are deleted in the reverse order of tracking. The sizes declared with track or
+ * account are reported to {@link NativeMemory}, and an arena opened in a Spark task makes the
+ * task report its native memory when it completes, see {@link TaskNativeMemory}. The first
+ * arena of a JVM starts sampling its RSS, see {@link NativeMemory#start_rss_sampling}.
+ */
+public class NativeArena implements AutoCloseable {
+
+    private final Deque<Object> objects = new ArrayDeque<Object>();
+    private long bytes;
+    private boolean closed;
+
+    public NativeArena() {
+        NativeMemory.start_rss_sampling();
+        TaskNativeMemory.track_current_task();
+    }
+
+    /**
+     * @param object a SWIG object of SparkFHE, deleted when the arena is closed
+     * @return the object
+     */
+    public <T> T track(T object) {
+        return track(object, 0);
+    }
+
+    /**
+     * @param object a SWIG object of SparkFHE, deleted when the arena is closed
+     * @param bytes the native bytes the object holds
+     * @return the object
+     */
+    public <T> T track(T object, long bytes) {
+        if (closed) {
+            throw new IllegalStateException("Arena is closed");
+        }
+        if (!is_native(object)) {
+            throw new IllegalArgumentException("Not a SWIG object of SparkFHE: " + (object == null ? null : object.getClass().getName()));
+        }
+        objects.push(object);
+        NativeMemory.object_created();
+        account(bytes);
+        return object;
+    }
+
+    /**
+     * @param bytes native bytes the tracked objects now hold in addition, e.g. a ciphertext added to a vector
+     */
+    public void account(long bytes) {
+        if (bytes > 0) {
+            this.bytes += bytes;
+            NativeMemory.allocate(bytes);
+        }
+    }
+
+    /**
+     * @param bytes native bytes the tracked objects no longer hold, e.g. after clearing a vector
+     */
+    public void unaccount(long bytes) {
+        bytes = Math.min(bytes, this.bytes);
+        if (bytes > 0) {
+            this.bytes -= bytes;
+            NativeMemory.release(bytes);
+        }
+    }
+
+    /**
+     * @return the number of objects still to delete
+     */
+    public int size() {
+        return objects.size();
+    }
+
+    /**
+     * @return the native bytes declared for the objects still to delete
+     */
+    public long get_bytes() {
+        return bytes;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        while (!objects.isEmpty()) {
+            delete(objects.pop());
+            NativeMemory.object_deleted();
+        }
+        NativeMemory.release(bytes);
+        bytes = 0;
+    }
+
+    /**
+     * @param object any object
+     * @return true if it is a SWIG object of SparkFHE that an arena can delete
+     */
+    public static boolean is_native(Object object) {
+        return object instanceof StringVector || object instanceof LongVector || object instanceof DoubleVector
+                || object instanceof LongMatrix || object instanceof DoubleMatrix || object instanceof PlaintextVector
+                || object instanceof Plaintext || object instanceof Ciphertext;
+    }
+
+    // the SWIG classes have no common type, each has its own delete
+    static void delete(Object object) {
+        if (object instanceof StringVector) {
+            ((StringVector) object).delete();
+        } else if (object instanceof LongVector) {
+            ((LongVector) object).delete();
+        } else if (object instanceof DoubleVector) {
+            ((DoubleVector) object).delete();
+        } else if (object instanceof LongMatrix) {
+            ((LongMatrix) object).delete();
+        } else if (object instanceof DoubleMatrix) {
+            ((DoubleMatrix) object).delete();
+        } else if (object instanceof PlaintextVector) {
+            ((PlaintextVector) object).delete();
+        } else if (object instanceof Plaintext) {
+            ((Plaintext) object).delete();
+        } else if (object instanceof Ciphertext) {
+            ((Ciphertext) object).delete();
+        }
+    }
+}
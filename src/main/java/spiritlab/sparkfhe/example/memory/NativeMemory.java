@@ -0,0 +1,243 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.memory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import spiritlab.sparkfhe.example.metrics.BucketReservoir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accounting of the native memory held by the SWIG objects of SparkFHE, which the JVM neither
+ * sees nor bounds: executors are sized by the heap, and YARN kills the containers whose RSS grows
+ * past heap + spark.executor.memoryOverhead. The sizes are those declared to {@link NativeArena},
+ * i.e. the ciphertexts and values held, not counting the allocator overhead, so the RSS of the
+ * process is sampled as well, periodically, and is what the suggested overhead is based on.
+ *
+ * Counters are kept for the JVM and for the current thread, which is the task on an executor,
+ * see {@link TaskNativeMemory}.
+ */
+public class NativeMemory {
+
+    // Spark's minimum for spark.executor.memoryOverhead
+    public static final long MIN_MEMORY_OVERHEAD_MB = 384;
+    // headroom over the peak measured, for the allocator and the task that was not measured
+    public static final double MEMORY_OVERHEAD_HEADROOM = 1.2;
+
+    // the RSS peaks in the middle of the tasks, not at their start or completion
+    public static final long RSS_SAMPLE_INTERVAL_MS = 500;
+
+    private static final Path PROC_STATUS = Paths.get("/proc/self/status");
+    private static final long MB = 1024 * 1024;
+
+    private static final AtomicLong live_bytes = new AtomicLong();
+    private static final AtomicLong peak_bytes = new AtomicLong();
+    private static final AtomicLong live_objects = new AtomicLong();
+    private static final LongAdder allocated_bytes = new LongAdder();
+    private static final AtomicLong peak_rss_bytes = new AtomicLong(-1);
+    private static final AtomicBoolean rss_sampling = new AtomicBoolean();
+    private static final Histogram task_peak_bytes = new Histogram(new BucketReservoir());
+
+    private static final ThreadLocal<Usage> thread_usage = ThreadLocal.withInitial(Usage::new);
+
+    /**
+     * The native memory allocated by a thread since its last reset.
+     */
+    public static class Usage {
+        long allocated_bytes;
+        long live_bytes;
+        long peak_bytes;
+        long objects_created;
+        long objects_deleted;
+
+        public long get_allocated_bytes() {
+            return allocated_bytes;
+        }
+
+        public long get_live_bytes() {
+            return live_bytes;
+        }
+
+        public long get_peak_bytes() {
+            return peak_bytes;
+        }
+
+        public long get_objects_created() {
+            return objects_created;
+        }
+
+        /**
+         * @return the objects created and not deleted yet
+         */
+        public long get_live_objects() {
+            return objects_created - objects_deleted;
+        }
+
+        void reset() {
+            allocated_bytes = live_bytes = peak_bytes = objects_created = objects_deleted = 0;
+        }
+    }
+
+    /**
+     * @param bytes native bytes now held by live objects
+     */
+    public static void allocate(long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        allocated_bytes.add(bytes);
+        long live = live_bytes.addAndGet(bytes);
+        long peak;
+        while (live > (peak = peak_bytes.get()) && !peak_bytes.compareAndSet(peak, live)) {
+            // retry, another thread allocated at the same time
+        }
+        Usage usage = thread_usage.get();
+        usage.allocated_bytes += bytes;
+        usage.live_bytes += bytes;
+        usage.peak_bytes = Math.max(usage.peak_bytes, usage.live_bytes);
+    }
+
+    /**
+     * @param bytes native bytes freed, as declared to allocate
+     */
+    public static void release(long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        live_bytes.addAndGet(-bytes);
+        thread_usage.get().live_bytes -= bytes;
+    }
+
+    static void object_created() {
+        live_objects.incrementAndGet();
+        thread_usage.get().objects_created++;
+    }
+
+    static void object_deleted() {
+        live_objects.decrementAndGet();
+        thread_usage.get().objects_deleted++;
+    }
+
+    public static long get_live_bytes() {
+        return live_bytes.get();
+    }
+
+    public static long get_peak_bytes() {
+        return peak_bytes.get();
+    }
+
+    public static long get_live_objects() {
+        return live_objects.get();
+    }
+
+    public static long get_allocated_bytes() {
+        return allocated_bytes.sum();
+    }
+
+    /**
+     * @return the usage of the current thread
+     */
+    public static Usage thread_usage() {
+        return thread_usage.get();
+    }
+
+    static void record_task_peak(long bytes) {
+        task_peak_bytes.update(bytes);
+    }
+
+    /**
+     * @return the resident set size of this process, or -1 where /proc is not available
+     */
+    public static long rss_bytes() {
+        try {
+            for (String line : Files.readAllLines(PROC_STATUS, StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmRSS:")) {
+                    // e.g. "VmRSS:	  123456 kB"
+                    String[] fields = line.substring("VmRSS:".length()).trim().split("\\s+");
+                    long rss = Long.parseLong(fields[0]) * 1024;
+                    long peak;
+                    while (rss > (peak = peak_rss_bytes.get()) && !peak_rss_bytes.compareAndSet(peak, rss)) {
+                        // retry, another thread sampled at the same time
+                    }
+                    return rss;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not Linux, or not readable
+        }
+        return -1;
+    }
+
+    /**
+     * Sample the RSS every {@link #RSS_SAMPLE_INTERVAL_MS} on a daemon thread, so that the peak
+     * RSS is measured while the tasks run. Started once per JVM, not where /proc is not available.
+     */
+    public static void start_rss_sampling() {
+        if (rss_sampling.get() || !rss_sampling.compareAndSet(false, true) || rss_bytes() < 0) {
+            return;
+        }
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "native-memory-rss");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(NativeMemory::rss_bytes, RSS_SAMPLE_INTERVAL_MS, RSS_SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the largest RSS sampled by rss_bytes, or -1 if none was
+     */
+    public static long get_peak_rss_bytes() {
+        return peak_rss_bytes.get();
+    }
+
+    /**
+     * @param peak_rss_bytes the peak RSS of an executor
+     * @param max_heap_bytes the maximum heap of the executor, i.e. spark.executor.memory
+     * @return the spark.executor.memoryOverhead, in MB, that would have held the memory outside the heap
+     */
+    public static long suggested_memory_overhead_mb(long peak_rss_bytes, long max_heap_bytes) {
+        if (peak_rss_bytes < 0) {
+            return MIN_MEMORY_OVERHEAD_MB;
+        }
+        long outside_heap = Math.max(0, peak_rss_bytes - max_heap_bytes);
+        return Math.max(MIN_MEMORY_OVERHEAD_MB, (long) Math.ceil(outside_heap * MEMORY_OVERHEAD_HEADROOM / MB));
+    }
+
+    /**
+     * @return the suggested spark.executor.memoryOverhead for this JVM, from the peak RSS sampled so far
+     */
+    public static long suggested_memory_overhead_mb() {
+        return suggested_memory_overhead_mb(get_peak_rss_bytes(), Runtime.getRuntime().maxMemory());
+    }
+
+    /**
+     * Add the native memory gauges to a registry.
+     * @param registry the registry, e.g. the one of a Spark plugin
+     */
+    public static void register(MetricRegistry registry) {
+        start_rss_sampling();
+        registry.register("native.live_bytes", (Gauge<Long>) NativeMemory::get_live_bytes);
+        registry.register("native.peak_bytes", (Gauge<Long>) NativeMemory::get_peak_bytes);
+        registry.register("native.live_objects", (Gauge<Long>) NativeMemory::get_live_objects);
+        registry.register("native.allocated_bytes", (Gauge<Long>) NativeMemory::get_allocated_bytes);
+        registry.register("native.task_peak_bytes", task_peak_bytes);
+        registry.register("process.rss_bytes", (Gauge<Long>) NativeMemory::rss_bytes);
+        registry.register("process.suggested_memory_overhead_mb", (Gauge<Long>) NativeMemory::suggested_memory_overhead_mb);
+    }
+}
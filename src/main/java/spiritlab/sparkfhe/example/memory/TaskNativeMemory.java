@@ -0,0 +1,62 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.memory;
+
+import org.apache.spark.TaskContext;
+import org.apache.spark.util.TaskCompletionListener;
+
+/**
+ * Reports the native memory of every Spark task that opens a {@link NativeArena}: what it
+ * allocated, its peak, the objects it left alive (leaked to the finalizers, or kept on purpose
+ * in state), and the RSS of the executor before and after it. The report is printed to the
+ * executor log when the task completes, with the spark.executor.memoryOverhead suggested by the
+ * peak RSS of the executor so far.
+ */
+public class TaskNativeMemory {
+
+    private static final double MB = 1024 * 1024;
+
+    // the task attempt the current thread reports for, the thread is reused across tasks
+    private static final ThreadLocal<Long> tracked_attempt = new ThreadLocal<Long>();
+
+    /**
+     * Start reporting for the task running on this thread, if any and if not started yet.
+     */
+    static void track_current_task() {
+        TaskContext context = TaskContext.get();
+        if (context == null) {
+            return;
+        }
+        Long attempt = tracked_attempt.get();
+        if (attempt != null && attempt == context.taskAttemptId()) {
+            return;
+        }
+        tracked_attempt.set(context.taskAttemptId());
+        NativeMemory.thread_usage().reset();
+        long rss_before = NativeMemory.rss_bytes();
+        // completion listeners run on the task thread, so the thread usage is the task's
+        context.addTaskCompletionListener((TaskCompletionListener) completed -> {
+            tracked_attempt.remove();
+            NativeMemory.Usage usage = NativeMemory.thread_usage();
+            NativeMemory.record_task_peak(usage.get_peak_bytes());
+            System.out.println(report(completed.stageId(), completed.partitionId(), completed.taskAttemptId(),
+                    usage, rss_before, NativeMemory.rss_bytes(), NativeMemory.suggested_memory_overhead_mb()));
+        });
+    }
+
+    static String report(int stage, int partition, long attempt, NativeMemory.Usage usage,
+                         long rss_before, long rss_after, long suggested_overhead_mb) {
+        StringBuilder sb = new StringBuilder(String.format("Native memory of task %d.%d (TID %d): allocated %.1f MB in %d objects, peak %.1f MB",
+                stage, partition, attempt, usage.get_allocated_bytes() / MB, usage.get_objects_created(), usage.get_peak_bytes() / MB));
+        if (usage.get_live_objects() > 0) {
+            sb.append(String.format(", %d objects (%.1f MB) not freed", usage.get_live_objects(), usage.get_live_bytes() / MB));
+        }
+        if (rss_before >= 0 && rss_after >= 0) {
+            sb.append(String.format(", RSS %.1f -> %.1f MB", rss_before / MB, rss_after / MB));
+        }
+        return sb.append(String.format(", suggested spark.executor.memoryOverhead=%dm", suggested_overhead_mb)).toString();
+    }
+}
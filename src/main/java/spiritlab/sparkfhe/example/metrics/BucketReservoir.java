@@ -0,0 +1,205 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.metrics;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free reservoir counting non-negative values into log-linear buckets: 16 buckets per
+ * power of two, so quantiles are within 1/16 of the true value, and values below 16 are exact.
+ * An update is a few atomic increments, cheap enough to leave on around every native call,
+ * unlike the default reservoir of Dropwizard which takes a lock to rescale.
+ *
+ * Values are kept since the start of the JVM, there is no decay.
+ */
+public class BucketReservoir implements Reservoir {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // exact buckets for 0..15, then 16 buckets for each exponent from 4 to 62
+    private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub_bucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub_bucket;
+    }
+
+    static long lower_bound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    // the middle of the bucket, used as the value of everything counted in it
+    static long representative(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return lower_bound(bucket) + ((1L << (exponent - SUB_BUCKET_BITS)) >>> 1);
+    }
+
+    @Override
+    public int size() {
+        long size = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            size += counts.get(i);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    @Override
+    public void update(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(bucket(value));
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry, another thread recorded a value at the same time
+        }
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+            // retry, another thread recorded a value at the same time
+        }
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return new BucketSnapshot(snapshot, min.get(), max.get());
+    }
+
+    /**
+     * A copy of the bucket counts. Only the extremes are exact, the other statistics use the
+     * middle of the buckets.
+     */
+    static class BucketSnapshot extends Snapshot {
+
+        private final long[] counts;
+        private final long total;
+        private final long min;
+        private final long max;
+
+        BucketSnapshot(long[] counts, long min, long max) {
+            this.counts = counts;
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.total = total;
+            this.min = total == 0 ? 0 : min;
+            this.max = total == 0 ? 0 : max;
+        }
+
+        @Override
+        public double getValue(double quantile) {
+            if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+                throw new IllegalArgumentException(quantile + " is not in [0..1]");
+            }
+            if (total == 0) {
+                return 0.0;
+            }
+            // the rank of the value, as in Dropwizard's snapshots
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) {
+                    return Math.max(min, Math.min(max, representative(i)));
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @return the middle of every bucket holding values, once per bucket
+         */
+        @Override
+        public long[] getValues() {
+            int buckets = 0;
+            for (long count : counts) {
+                if (count > 0) buckets++;
+            }
+            long[] values = new long[buckets];
+            int j = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) values[j++] = representative(i);
+            }
+            return values;
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(Integer.MAX_VALUE, total);
+        }
+
+        @Override
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public double getMean() {
+            if (total == 0) {
+                return 0.0;
+            }
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                sum += (double) counts[i] * representative(i);
+            }
+            return sum / total;
+        }
+
+        @Override
+        public long getMin() {
+            return min;
+        }
+
+        @Override
+        public double getStdDev() {
+            if (total <= 1) {
+                return 0.0;
+            }
+            double mean = getMean();
+            double variance = 0;
+            for (int i = 0; i < counts.length; i++) {
+                double diff = representative(i) - mean;
+                variance += counts[i] * diff * diff;
+            }
+            return Math.sqrt(variance / (total - 1));
+        }
+
+        @Override
+        public void dump(OutputStream output) {
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] > 0) {
+                        out.printf("%d %d%n", representative(i), counts[i]);
+                    }
+                }
+            }
+        }
+    }
+}
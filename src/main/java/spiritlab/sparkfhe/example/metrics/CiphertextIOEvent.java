@@ -0,0 +1,69 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event spanning the storing or reading of ciphertext files by CiphertextStore.
+ */
+@Name(CiphertextIOEvent.NAME)
+@Label("Ciphertext I/O")
+@Category({"SparkFHE"})
+@Description("Ciphertexts stored to or read from a file")
+@StackTrace(false)
+public class CiphertextIOEvent extends jdk.jfr.Event {
+
+    public static final String NAME = "spiritlab.sparkfhe.CiphertextIO";
+
+    public static final String STORE = "store_ciphertext_to_file";
+    public static final String READ = "read_ciphertext_from_file_as_string";
+
+    @Label("Operation")
+    String operation;
+
+    @Label("File")
+    String file;
+
+    @Label("Ciphertexts")
+    int ciphertexts;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    /**
+     * @return an event started now, to be completed once the I/O is done
+     */
+    public static CiphertextIOEvent start() {
+        CiphertextIOEvent event = new CiphertextIOEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * End the event and commit it if the recording wants it.
+     * @param operation STORE or READ
+     * @param file the file stored to or read from
+     * @param ciphertexts the number of ciphertexts
+     * @param bytes the size of the serialized ciphertexts, before compression
+     */
+    public void complete(String operation, String file, int ciphertexts, long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.operation = operation;
+            this.file = file;
+            this.ciphertexts = ciphertexts;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The latency and output size of every native operation run in this JVM, one pair of
+ * histograms per operation. Recording is lock-free (see {@link BucketReservoir}), the
+ * histograms are published by {@link FHEMetricsPlugin} through the metrics system of Spark,
+ * so its sinks (CSV, JMX, ...) export them per driver and executor.
+ *
+ * For each operation, e.g. fhe_add, the metrics are:
+ *  fhe_add.latency_us   the count of calls and the distribution of their latency, in microseconds
+ *  fhe_add.output_bytes the distribution of the size of the serialized results, in bytes
+ */
+public class FHEMetrics {
+
+    public static final String LATENCY_SUFFIX = "latency_us";
+    public static final String OUTPUT_BYTES_SUFFIX = "output_bytes";
+
+    private static final Map<FHEOperation, Histogram> latencies = new EnumMap<FHEOperation, Histogram>(FHEOperation.class);
+    private static final Map<FHEOperation, Histogram> output_bytes = new EnumMap<FHEOperation, Histogram>(FHEOperation.class);
+
+    private static volatile boolean enabled = true;
+
+    static {
+        for (FHEOperation op : FHEOperation.values()) {
+            latencies.put(op, new Histogram(new BucketReservoir()));
+            output_bytes.put(op, new Histogram(new BucketReservoir()));
+        }
+    }
+
+    /**
+     * @param on false to stop recording, e.g. to time the operations without the metrics
+     */
+    public static void set_enabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean is_enabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the time to pass to record once the operation is done
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record a call of an operation.
+     * @param op the operation
+     * @param start_nanos the value of start() before the call
+     * @param result_bytes the size of the serialized result, or a negative value if it has none
+     */
+    public static void record(FHEOperation op, long start_nanos, long result_bytes) {
+        if (!enabled) {
+            return;
+        }
+        latencies.get(op).update((System.nanoTime() - start_nanos) / 1000);
+        if (result_bytes >= 0) {
+            output_bytes.get(op).update(result_bytes);
+        }
+    }
+
+    public static Histogram latency(FHEOperation op) {
+        return latencies.get(op);
+    }
+
+    public static Histogram output_bytes(FHEOperation op) {
+        return output_bytes.get(op);
+    }
+
+    /**
+     * Add the histograms of every operation to a registry.
+     * @param registry the registry, e.g. the one of a Spark plugin
+     */
+    public static void register(MetricRegistry registry) {
+        for (FHEOperation op : FHEOperation.values()) {
+            registry.register(MetricRegistry.name(op.metric_name(), LATENCY_SUFFIX), latencies.get(op));
+            registry.register(MetricRegistry.name(op.metric_name(), OUTPUT_BYTES_SUFFIX), output_bytes.get(op));
+        }
+    }
+}
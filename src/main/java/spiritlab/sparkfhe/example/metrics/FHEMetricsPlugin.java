@@ -0,0 +1,55 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.metrics;
+
+import org.apache.spark.SparkContext;
+import org.apache.spark.api.plugin.DriverPlugin;
+import org.apache.spark.api.plugin.ExecutorPlugin;
+import org.apache.spark.api.plugin.PluginContext;
+import org.apache.spark.api.plugin.SparkPlugin;
+import spiritlab.sparkfhe.example.FHEContextCache;
+import spiritlab.sparkfhe.example.memory.NativeMemory;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Publishes {@link FHEMetrics}, {@link NativeMemory} and {@link FHEContextCache} on the driver and on every executor, under the namespace
+ * plugin.spiritlab.sparkfhe.example.metrics.FHEMetricsPlugin of the metrics system of Spark.
+ * Enable it with
+ *  --conf spark.plugins=spiritlab.sparkfhe.example.metrics.FHEMetricsPlugin
+ * and export the metrics with any Spark sink, e.g.
+ *  --conf spark.metrics.conf.*.sink.csv.class=org.apache.spark.metrics.sink.CsvSink
+ *  --conf spark.metrics.conf.*.sink.csv.directory=gen/metrics
+ *  --conf spark.metrics.conf.*.sink.jmx.class=org.apache.spark.metrics.sink.JmxSink
+ */
+public class FHEMetricsPlugin implements SparkPlugin {
+
+    @Override
+    public DriverPlugin driverPlugin() {
+        return new DriverPlugin() {
+            @Override
+            public Map<String, String> init(SparkContext sc, PluginContext ctx) {
+                FHEMetrics.register(ctx.metricRegistry());
+                NativeMemory.register(ctx.metricRegistry());
+                FHEContextCache.register(ctx.metricRegistry());
+                return Collections.emptyMap();
+            }
+        };
+    }
+
+    @Override
+    public ExecutorPlugin executorPlugin() {
+        return new ExecutorPlugin() {
+            @Override
+            public void init(PluginContext ctx, Map<String, String> extraConf) {
+                FHEMetrics.register(ctx.metricRegistry());
+                NativeMemory.register(ctx.metricRegistry());
+                FHEContextCache.register(ctx.metricRegistry());
+            }
+        };
+    }
+}
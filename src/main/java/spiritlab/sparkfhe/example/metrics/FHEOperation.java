@@ -0,0 +1,33 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.metrics;
+
+/**
+ * The native operations of SparkFHE that are metered, named after their SparkFHE methods.
+ */
+public enum FHEOperation {
+    ENCODE("encode"),
+    ENCRYPT("encrypt"),
+    DECRYPT("decrypt"),
+    FHE_ADD("fhe_add"),
+    FHE_MULTIPLY("fhe_multiply"),
+    FHE_SUBTRACT("fhe_subtract"),
+    FHE_TOTAL_SUM("fhe_total_sum"),
+    DO_FHE_DOT_PRODUCT("do_FHE_dot_product");
+
+    private final String metric_name;
+
+    FHEOperation(String metric_name) {
+        this.metric_name = metric_name;
+    }
+
+    /**
+     * @return the prefix of the metrics of the operation
+     */
+    public String metric_name() {
+        return metric_name;
+    }
+}
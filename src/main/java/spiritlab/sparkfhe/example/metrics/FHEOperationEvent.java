@@ -0,0 +1,74 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event spanning a native operation of SparkFHE, so that the time spent in
+ * the opaque JNI frames can be told apart and lined up with GC pauses and safepoints.
+ * Summarize a recording with {@link JfrSummary}.
+ */
+@Name(FHEOperationEvent.NAME)
+@Label("FHE Operation")
+@Category({"SparkFHE"})
+@Description("A native operation of SparkFHE")
+@StackTrace(false)
+public class FHEOperationEvent extends jdk.jfr.Event {
+
+    public static final String NAME = "spiritlab.sparkfhe.FHEOperation";
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Library")
+    String library;
+
+    @Label("Scheme")
+    String scheme;
+
+    @Label("Input Size")
+    @DataAmount
+    long inputBytes;
+
+    @Label("Output Size")
+    @DataAmount
+    long outputBytes;
+
+    /**
+     * @return an event started now, to be completed once the operation returns
+     */
+    public static FHEOperationEvent start() {
+        FHEOperationEvent event = new FHEOperationEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * End the event and commit it if the recording wants it.
+     * @param op the operation
+     * @param library the HE library name
+     * @param scheme the HE scheme name
+     * @param input_bytes the size of the serialized operands, or -1 if unknown
+     * @param output_bytes the size of the serialized result, or -1 if it has none
+     */
+    public void complete(FHEOperation op, String library, String scheme, long input_bytes, long output_bytes) {
+        end();
+        if (shouldCommit()) {
+            this.operation = op.metric_name();
+            this.library = library;
+            this.scheme = scheme;
+            this.inputBytes = input_bytes;
+            this.outputBytes = output_bytes;
+            commit();
+        }
+    }
+}
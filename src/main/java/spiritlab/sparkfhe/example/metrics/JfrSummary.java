@@ -0,0 +1,211 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.metrics;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summarizes a Flight Recorder file into a report of the native operations and ciphertext I/O
+ * it holds, one line per operation, with the time of each spent while the JVM was paused for a
+ * GC or a safepoint. Record an executor with e.g.
+ *  --conf spark.executor.extraJavaOptions=-XX:StartFlightRecording=filename=executor.jfr,settings=profile
+ * then run this class on the file.
+ */
+public class JfrSummary {
+
+    public static final String[] PAUSE_EVENTS = {"jdk.GCPhasePause", "jdk.SafepointBegin"};
+
+    /**
+     * The statistics of one operation.
+     */
+    public static class OpSummary {
+        private final String operation;
+        private final List<Long> durations = new ArrayList<Long>();
+        private long input_bytes;
+        private long output_bytes;
+        private long paused_nanos;
+
+        OpSummary(String operation) {
+            this.operation = operation;
+        }
+
+        public String get_operation() {
+            return operation;
+        }
+
+        public int get_count() {
+            return durations.size();
+        }
+
+        public long get_total_nanos() {
+            long total = 0;
+            for (long duration : durations) {
+                total += duration;
+            }
+            return total;
+        }
+
+        /**
+         * @param quantile a quantile in [0..1]
+         * @return the duration at the quantile, in nanoseconds
+         */
+        public long get_quantile_nanos(double quantile) {
+            if (durations.isEmpty()) {
+                return 0;
+            }
+            List<Long> sorted = new ArrayList<Long>(durations);
+            Collections.sort(sorted);
+            int rank = (int) Math.ceil(quantile * sorted.size());
+            return sorted.get(Math.max(0, rank - 1));
+        }
+
+        public long get_input_bytes() {
+            return input_bytes;
+        }
+
+        public long get_output_bytes() {
+            return output_bytes;
+        }
+
+        /**
+         * @return the time the operation spent while the JVM was paused, in nanoseconds
+         */
+        public long get_paused_nanos() {
+            return paused_nanos;
+        }
+    }
+
+    /**
+     * @param recording a .jfr file
+     * @return the summary of every operation, the most expensive first
+     * @throws IOException if the file cannot be read
+     */
+    public static List<OpSummary> summarize(Path recording) throws IOException {
+        List<RecordedEvent> operations = new ArrayList<RecordedEvent>();
+        List<long[]> pauses = new ArrayList<long[]>();
+        List<String> pause_events = Arrays.asList(PAUSE_EVENTS);
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                RecordedEvent event = file.readEvent();
+                String name = event.getEventType().getName();
+                if (FHEOperationEvent.NAME.equals(name) || CiphertextIOEvent.NAME.equals(name)) {
+                    operations.add(event);
+                } else if (pause_events.contains(name)) {
+                    long start = nanos(event.getStartTime());
+                    pauses.add(new long[]{start, start + event.getDuration().toNanos()});
+                }
+            }
+        }
+        long[][] paused = merge(pauses);
+
+        Map<String, OpSummary> summaries = new LinkedHashMap<String, OpSummary>();
+        for (RecordedEvent event : operations) {
+            String operation = event.getString("operation");
+            OpSummary summary = summaries.computeIfAbsent(operation, OpSummary::new);
+            long start = nanos(event.getStartTime());
+            long duration = event.getDuration().toNanos();
+            summary.durations.add(duration);
+            summary.paused_nanos += overlap_nanos(paused, start, start + duration);
+            if (FHEOperationEvent.NAME.equals(event.getEventType().getName())) {
+                summary.input_bytes += Math.max(0, event.getLong("inputBytes"));
+                summary.output_bytes += Math.max(0, event.getLong("outputBytes"));
+            } else if (CiphertextIOEvent.STORE.equals(operation)) {
+                summary.input_bytes += Math.max(0, event.getLong("bytes"));
+            } else {
+                summary.output_bytes += Math.max(0, event.getLong("bytes"));
+            }
+        }
+        List<OpSummary> sorted = new ArrayList<OpSummary>(summaries.values());
+        sorted.sort(Comparator.comparingLong(OpSummary::get_total_nanos).reversed());
+        return sorted;
+    }
+
+    /**
+     * @param intervals [start, end) intervals, in any order
+     * @return the same time covered by sorted disjoint intervals
+     */
+    static long[][] merge(List<long[]> intervals) {
+        List<long[]> sorted = new ArrayList<long[]>(intervals);
+        sorted.sort(Comparator.comparingLong(interval -> interval[0]));
+        List<long[]> merged = new ArrayList<long[]>();
+        for (long[] interval : sorted) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && interval[0] <= last[1]) {
+                last[1] = Math.max(last[1], interval[1]);
+            } else {
+                merged.add(new long[]{interval[0], interval[1]});
+            }
+        }
+        return merged.toArray(new long[0][]);
+    }
+
+    /**
+     * @param merged sorted disjoint intervals, see merge
+     * @param start the start of the span
+     * @param end the end of the span
+     * @return the time of the span covered by the intervals
+     */
+    static long overlap_nanos(long[][] merged, long start, long end) {
+        // the first interval ending after the start
+        int low = 0, high = merged.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (merged[mid][1] <= start) low = mid + 1; else high = mid;
+        }
+        long overlap = 0;
+        for (int i = low; i < merged.length && merged[i][0] < end; i++) {
+            overlap += Math.min(end, merged[i][1]) - Math.max(start, merged[i][0]);
+        }
+        return overlap;
+    }
+
+    private static long nanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    /**
+     * @param summaries the summaries of the operations
+     * @return a table of the summaries, times in milliseconds and sizes in megabytes
+     */
+    public static String format(List<OpSummary> summaries) {
+        StringBuilder sb = new StringBuilder(String.format("%-36s %8s %12s %10s %10s %10s %10s %10s %10s %12s%n",
+                "operation", "count", "total_ms", "mean_ms", "p50_ms", "p99_ms", "max_ms", "in_MB", "out_MB", "paused_ms"));
+        for (OpSummary summary : summaries) {
+            sb.append(String.format("%-36s %8d %12.1f %10.3f %10.3f %10.3f %10.3f %10.1f %10.1f %12.1f%n",
+                    summary.get_operation(), summary.get_count(),
+                    summary.get_total_nanos() / 1e6, summary.get_total_nanos() / 1e6 / summary.get_count(),
+                    summary.get_quantile_nanos(0.5) / 1e6, summary.get_quantile_nanos(0.99) / 1e6, summary.get_quantile_nanos(1.0) / 1e6,
+                    summary.get_input_bytes() / 1e6, summary.get_output_bytes() / 1e6, summary.get_paused_nanos() / 1e6));
+        }
+        return sb.toString();
+    }
+
+    public static void main(String args[]) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: JfrSummary <recording.jfr>");
+            return;
+        }
+        List<OpSummary> summaries = summarize(Paths.get(args[0]));
+        if (summaries.isEmpty()) {
+            System.out.println("No SparkFHE events in " + args[0] + ", was the recording made with FHE operations running?");
+            return;
+        }
+        System.out.print(format(summaries));
+    }
+}
@@ -10,10 +10,19 @@ import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.broadcast.Broadcast;
-import org.apache.spark.spiritlab.sparkfhe.SparkFHEPlugin;
 import org.apache.spark.sql.*;
 import spiritlab.sparkfhe.api.*;
 import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.backend.FHEBackends;
+import spiritlab.sparkfhe.example.planning.CostProfile;
+import spiritlab.sparkfhe.example.planning.HomomorphicOp;
+import spiritlab.sparkfhe.example.planning.PartitionPlanner;
+import spiritlab.sparkfhe.example.storage.CiphertextCache;
+import spiritlab.sparkfhe.example.storage.CiphertextCatalog;
+import spiritlab.sparkfhe.example.storage.CiphertextCodec;
+import spiritlab.sparkfhe.example.storage.CiphertextStore;
+
+import java.io.IOException;
 
 /**
  * This is an example for SparkFHE project. Created to test the functionality
@@ -21,6 +30,13 @@ import spiritlab.sparkfhe.example.Config;
  */
 public class BasicOPsExample {
 
+    // resolves the input datasets written by EncDecExample
+    private static CiphertextCatalog catalog;
+    // plans the partitions of the ciphertext stages
+    private static PartitionPlanner planner;
+    // compression of the ciphertexts cached for the operators
+    private static CiphertextCodec.Compression cache_compression = CiphertextCodec.Compression.NONE;
+
     private static String CTXT_0_FILE;
     private static String CTXT_1_FILE;
 
@@ -44,47 +60,46 @@ public class BasicOPsExample {
     public static void test_FHE_basic_op(SparkSession spark, int slices, String library, String scheme, Broadcast<String> pk_b,
                                          Broadcast<String> sk_b) {
         /* Spark example for FHE calculations */
-        // Encoders are created for Java beans
-        Encoder<SerializedCiphertext> ctxtJSONEncoder = Encoders.bean(SerializedCiphertext.class);
 
         // https://spark.apache.org/docs/latest/sql-programming-guide.html#untyped-dataset-operations-aka-dataframe-operations
         // Create dataset with json file.
         // if CtxtString a row? Dataset<Row> is the Dataframe in Java
-        JavaRDD<SerializedCiphertext> ctxt_zero_rdd = spark.read().json(CTXT_0_FILE).as(ctxtJSONEncoder).javaRDD();
-        System.out.println("Ciphertext Zero:"+SparkFHE.getInstance().decrypt(ctxt_zero_rdd.first().getCtxt(), true));
+        JavaRDD<SerializedCiphertext> ctxt_zero_rdd = CiphertextStore.read_ciphertexts(spark, CTXT_0_FILE).javaRDD();
+        System.out.println("Ciphertext Zero:"+FHEBackends.get().decrypt(ctxt_zero_rdd.first().getCtxt()));
 
-        JavaRDD<SerializedCiphertext> ctxt_one_rdd = spark.read().json(CTXT_1_FILE).as(ctxtJSONEncoder).javaRDD();
-        System.out.println("Ciphertext One:"+SparkFHE.getInstance().decrypt(ctxt_one_rdd.first().getCtxt(), true));
+        JavaRDD<SerializedCiphertext> ctxt_one_rdd = CiphertextStore.read_ciphertexts(spark, CTXT_1_FILE).javaRDD();
+        System.out.println("Ciphertext One:"+FHEBackends.get().decrypt(ctxt_one_rdd.first().getCtxt()));
 
-        // combine both rdds as a pair
-        JavaPairRDD<SerializedCiphertext, SerializedCiphertext> Combined_ctxt_RDD = ctxt_one_rdd.zip(ctxt_zero_rdd).cache();
+        // combine both rdds as a pair, cached as the three operators below read it
+        CiphertextCache combined_cache = CiphertextCache.of_pairs(JavaSparkContext.fromSparkContext(spark.sparkContext()),
+                "combined_ctxt", ctxt_one_rdd.zip(ctxt_zero_rdd), cache_compression);
+        JavaPairRDD<SerializedCiphertext, SerializedCiphertext> Combined_ctxt_RDD = combined_cache.pairs();
 
         // call homomorphic addition operators on the rdds
         JavaRDD<SerializedCiphertext> Addition_ctxt_RDD = Combined_ctxt_RDD.map(tuple -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            return new SerializedCiphertext(SparkFHE.getInstance().fhe_add(tuple._1().getCtxt(), tuple._2().getCtxt()));
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            return new SerializedCiphertext(FHEBackends.get().fhe_add(tuple._1().getCtxt(), tuple._2().getCtxt()));
         });
-        System.out.println("Homomorphic Addition:"+ SparkFHE.getInstance().decrypt(Addition_ctxt_RDD.first().getCtxt(), true));
+        System.out.println("Homomorphic Addition:"+ FHEBackends.get().decrypt(Addition_ctxt_RDD.first().getCtxt()));
 
         // call homomorphic multiply operators on the rdds
         JavaRDD<SerializedCiphertext> Multiplication_ctxt_RDD = Combined_ctxt_RDD.map(tuple -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            return new SerializedCiphertext(SparkFHE.getInstance().fhe_multiply(tuple._1().getCtxt(), tuple._2().getCtxt()));
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            return new SerializedCiphertext(FHEBackends.get().fhe_multiply(tuple._1().getCtxt(), tuple._2().getCtxt()));
         });
-        System.out.println("Homomorphic Multiplication:"+ SparkFHE.getInstance().decrypt(Multiplication_ctxt_RDD.first().getCtxt(), true));
+        System.out.println("Homomorphic Multiplication:"+ FHEBackends.get().decrypt(Multiplication_ctxt_RDD.first().getCtxt()));
 
         // call homomorphic subtraction operators on the rdds
         JavaRDD<SerializedCiphertext> Subtraction_ctxt_RDD = Combined_ctxt_RDD.map(tuple -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            return new SerializedCiphertext(SparkFHE.getInstance().fhe_subtract(tuple._1().getCtxt(), tuple._2().getCtxt()));
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            return new SerializedCiphertext(FHEBackends.get().fhe_subtract(tuple._1().getCtxt(), tuple._2().getCtxt()));
         });
-        System.out.println("Homomorphic Subtraction:"+SparkFHE.getInstance().decrypt(Subtraction_ctxt_RDD.first().getCtxt(), true));
+        System.out.println("Homomorphic Subtraction:"+FHEBackends.get().decrypt(Subtraction_ctxt_RDD.first().getCtxt()));
+        System.out.println(combined_cache.report());
+        combined_cache.unpersist();
     }
 
     /**
@@ -97,75 +112,76 @@ public class BasicOPsExample {
     public static void test_FHE_vector_op(SparkSession spark, int slices, String library, String scheme, Broadcast<String> pk_b,
                                           Broadcast<String> sk_b) {
         /* Spark example for FHE calculations on vectors */
-        // Encoders are created for Java beans
-        Encoder<SerializedCiphertext> ctxtJSONEncoder = Encoders.bean(SerializedCiphertext.class);
 
         // FHE Ops on vectors
-        String packed_a_ctxt = Config.get_records_directory()+"/vec_a_"+String.valueOf(Config.NUM_OF_VECTOR_ELEMENTS)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl";
-        String packed_b_ctxt = Config.get_records_directory()+"/vec_b_"+String.valueOf(Config.NUM_OF_VECTOR_ELEMENTS)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl";
+        String packed_a_ctxt = catalog.resolve("vec_a_"+Config.NUM_OF_VECTOR_ELEMENTS, FHEBackends.get().generate_crypto_params_suffix());
+        String packed_b_ctxt = catalog.resolve("vec_b_"+Config.NUM_OF_VECTOR_ELEMENTS, FHEBackends.get().generate_crypto_params_suffix());
 
         // https://spark.apache.org/docs/latest/sql-programming-guide.html#untyped-dataset-operations-aka-dataframe-operations
         // Create dataset with json file. See http://jsonlines.org
-        JavaRDD<SerializedCiphertext> ctxt_a_rdd = spark.read().json(packed_a_ctxt).as(ctxtJSONEncoder).javaRDD();
-        JavaRDD<SerializedCiphertext> ctxt_b_rdd = spark.read().json(packed_b_ctxt).as(ctxtJSONEncoder).javaRDD();
+        JavaRDD<SerializedCiphertext> ctxt_a_rdd = CiphertextStore.read_ciphertexts(spark, packed_a_ctxt).javaRDD();
+        JavaRDD<SerializedCiphertext> ctxt_b_rdd = CiphertextStore.read_ciphertexts(spark, packed_b_ctxt).javaRDD();
 
         // combine both rdds as a pair
         JavaPairRDD<SerializedCiphertext, SerializedCiphertext> combined_ctxt_rdd = ctxt_a_rdd.zip(ctxt_b_rdd);
+        // spread the pairs over the cores before the homomorphic stages, planned after the zip
+        // so that the pairs stay aligned
+        combined_ctxt_rdd = PartitionPlanner.apply(combined_ctxt_rdd, planner.plan(
+                catalog.lookup("vec_a_"+Config.NUM_OF_VECTOR_ELEMENTS, FHEBackends.get().generate_crypto_params_suffix()), slices,
+                HomomorphicOp.ADD, HomomorphicOp.MULTIPLY, HomomorphicOp.SUBTRACT));
+        // cached as the three operators below read it
+        CiphertextCache combined_cache = CiphertextCache.of_pairs(JavaSparkContext.fromSparkContext(spark.sparkContext()),
+                "combined_vector", combined_ctxt_rdd, cache_compression);
+        combined_ctxt_rdd = combined_cache.pairs();
         System.out.println("combined_ctxt_rdd.count() = " + combined_ctxt_rdd.count());
 
         // call homomorphic addition operators on the rdds
         JavaRDD<SerializedCiphertext> Addition_ctxt_RDD = combined_ctxt_rdd.map(tuple -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            return new SerializedCiphertext(SparkFHE.getInstance().fhe_add(tuple._1().getCtxt(), tuple._2().getCtxt()));
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            return new SerializedCiphertext(FHEBackends.get().fhe_add(tuple._1().getCtxt(), tuple._2().getCtxt()));
         });
 
         System.out.println("Vector Homomorphic Addition");
         Addition_ctxt_RDD.foreach(data -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            System.out.println(SparkFHE.getInstance().decrypt(data.getCtxt(), true));
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            System.out.println(FHEBackends.get().decrypt(data.getCtxt()));
         });
 
         // call homomorphic multiply operators on the rdds
         JavaRDD<SerializedCiphertext> Multiplication_ctxt_RDD = combined_ctxt_rdd.map(tuple -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            return new SerializedCiphertext(SparkFHE.getInstance().fhe_multiply(tuple._1().getCtxt(), tuple._2().getCtxt()));
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            return new SerializedCiphertext(FHEBackends.get().fhe_multiply(tuple._1().getCtxt(), tuple._2().getCtxt()));
         });
         System.out.println("Vector Homomorphic Multiplication");
         Multiplication_ctxt_RDD.foreach(data -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            System.out.println(SparkFHE.getInstance().decrypt(data.getCtxt(), true));
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            System.out.println(FHEBackends.get().decrypt(data.getCtxt()));
         });
 
         // call homomorphic subtraction operators on the rdds
         JavaRDD<SerializedCiphertext> Subtraction_ctxt_RDD = combined_ctxt_rdd.map(tuple -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            return new SerializedCiphertext(SparkFHE.getInstance().fhe_subtract(tuple._1().getCtxt(), tuple._2().getCtxt()));
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            return new SerializedCiphertext(FHEBackends.get().fhe_subtract(tuple._1().getCtxt(), tuple._2().getCtxt()));
         });
         System.out.println("Vector Homomorphic Subtraction");
         Subtraction_ctxt_RDD.foreach(data -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            System.out.println(SparkFHE.getInstance().decrypt(data.getCtxt(), true));
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            System.out.println(FHEBackends.get().decrypt(data.getCtxt()));
         });
+        System.out.println(combined_cache.report());
+        combined_cache.unpersist();
     }
 
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         String scheme="", library = "", pk="", sk="";
 
-        // The variable slices represent the number of time a task is split up
-        int slices = 2;
         // Create a SparkConf that loads defaults from system properties and the classpath
         SparkConf sparkConf = new SparkConf();
         //Provides the Spark driver application a name for easy identification in the Spark or Yarn UI
@@ -175,12 +191,12 @@ public class BasicOPsExample {
         Config.setExecutionEnvironment(args[0]);
         switch (Config.currentExecutionEnvironment) {
             case CLUSTER:
-                slices = Integer.parseInt(args[0]);
                 Config.set_HDFS_NAME_NODE(args[1]);
                 library = args[2];
                 scheme = args[3];
                 pk = args[4];
                 sk = args[5];
+                if (args.length > 6) cache_compression = CiphertextCodec.parse_compression(args[6]);
                 break;
             case LOCAL:
                 sparkConf.setMaster("local");
@@ -188,6 +204,7 @@ public class BasicOPsExample {
                 scheme = args[2];
                 pk = args[3];
                 sk = args[4];
+                if (args.length > 5) cache_compression = CiphertextCodec.parse_compression(args[5]);
                 break;
             default:
                 break;
@@ -202,14 +219,21 @@ public class BasicOPsExample {
         JavaSparkContext jsc = new JavaSparkContext(spark.sparkContext());
 
         // Note, the following loading of shared library and init are done on driver only. We need to do the same on the executors.
-        // Load C++ shared library
-        SparkFHEPlugin.setup();
-        // Create SparkFHE object with FHE library
-        SparkFHE.init(library, scheme, pk, sk);
+        // load our shared library and create the SparkFHE object, or select the plaintext backend
+        FHEBackends.init(library, scheme, pk, sk);
+
+        catalog = CiphertextCatalog.open(Config.get_records_directory());
+
+        // ciphertext stages are planned from the size of their inputs and the calibrated costs of
+        // the params, if CostCalibration was run for them, the plaintext ones are split across the cores
+        planner = PartitionPlanner.for_context(jsc,
+                CostProfile.load(Config.get_profiles_directory(), FHEBackends.get().generate_crypto_params_suffix()));
+        // The variable slices represent the number of time a task is split up
+        int slices = planner.get_cores();
 
 
-        CTXT_0_FILE = Config.get_records_directory() + "/ptxt_long_0_"+ SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl";
-        CTXT_1_FILE = Config.get_records_directory() +"/ptxt_long_1_"+SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl";
+        CTXT_0_FILE = catalog.resolve("ptxt_long_0", FHEBackends.get().generate_crypto_params_suffix());
+        CTXT_1_FILE = catalog.resolve("ptxt_long_1", FHEBackends.get().generate_crypto_params_suffix());
 
         Broadcast<String> pk_b = jsc.broadcast(pk);
         Broadcast<String> sk_b = jsc.broadcast(sk);
@@ -9,22 +9,30 @@ import org.apache.spark.SparkConf;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
-import org.apache.spark.api.java.function.MapPartitionsFunction;
 import org.apache.spark.broadcast.Broadcast;
-import org.apache.spark.spiritlab.sparkfhe.SparkFHEPlugin;
 import org.apache.spark.sql.*;
-import org.apache.spark.sql.catalyst.encoders.ExpressionEncoder;
-import org.apache.spark.sql.catalyst.encoders.RowEncoder;
 import org.apache.spark.sql.expressions.Window;
-import org.apache.spark.sql.types.DataTypes;
-import org.apache.spark.sql.types.StructType;
 import scala.Tuple2;
 import spiritlab.sparkfhe.api.*;
+import spiritlab.sparkfhe.example.CiphertextBatches;
 import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.backend.FHEBackends;
+import spiritlab.sparkfhe.example.planning.CostBalancedPartitioner;
+import spiritlab.sparkfhe.example.planning.CostProfile;
+import spiritlab.sparkfhe.example.planning.HomomorphicOp;
+import spiritlab.sparkfhe.example.planning.PartitionPlanner;
+import spiritlab.sparkfhe.example.planning.PipelineEstimate;
+import spiritlab.sparkfhe.example.sql.CiphertextColumns;
+import spiritlab.sparkfhe.example.sql.FHEFunctions;
+import spiritlab.sparkfhe.example.storage.CatalogEntry;
+import spiritlab.sparkfhe.example.storage.CiphertextCatalog;
+import spiritlab.sparkfhe.example.storage.CiphertextStore;
 
 import java.io.IOException;
 import java.util.*;
 import static org.apache.spark.sql.functions.col;
+import static spiritlab.sparkfhe.example.sql.FHEFunctions.fhe_mul;
+import static spiritlab.sparkfhe.example.sql.FHEFunctions.fhe_sum;
 
 /**
  * This is an example for SparkFHE project. Created to test the functionality
@@ -32,6 +40,11 @@ import static org.apache.spark.sql.functions.col;
  */
 public class DotProductExample {
 
+    // resolves the input datasets written by EncDecExample
+    private static CiphertextCatalog catalog;
+    // plans the partitions of the ciphertext stages
+    private static PartitionPlanner planner;
+
     // declare variables to hold cipher-text
     private static String vec_a_ctxt;
     private static String vec_b_ctxt;
@@ -58,15 +71,11 @@ public class DotProductExample {
 
         // perform the multiply operator on each of the pairs
         JavaRDD<Integer> Result_RDD = Combined_RDD.map(tuple -> {
-            // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
             return (tuple._1()*tuple._2());
         });
 
         // sum up the results from the previous operation and display
         System.out.println("Result_RDD:"+Result_RDD.reduce((x, y) -> {
-            // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
             return (x+y);
         }));
     }
@@ -86,13 +95,11 @@ public class DotProductExample {
         System.out.println("test_FHE_dot_product_via_lambda");
 
         /* Spark example for FHE calculations */
-        // Encoders are created for Java beans
-        Encoder<SerializedCiphertext> ctxtJSONEncoder = Encoders.bean(SerializedCiphertext.class);
 
         // https://spark.apache.org/docs/latest/sql-programming-guide.html#untyped-dataset-operations-aka-dataframe-operations
         // Create dataset with json line file. See http://jsonlines.org
-        JavaRDD<SerializedCiphertext> ctxt_a_rdd = spark.read().json(vec_a_ctxt).as(ctxtJSONEncoder).javaRDD();
-        JavaRDD<SerializedCiphertext> ctxt_b_rdd = spark.read().json(vec_b_ctxt).as(ctxtJSONEncoder).javaRDD();
+        JavaRDD<SerializedCiphertext> ctxt_a_rdd = CiphertextStore.read_ciphertexts(spark, vec_a_ctxt).javaRDD();
+        JavaRDD<SerializedCiphertext> ctxt_b_rdd = CiphertextStore.read_ciphertexts(spark, vec_b_ctxt).javaRDD();
 
         // causes n = slice tasks to be started using NODE_LOCAL data locality.
         System.out.println("Partitions:"+ctxt_a_rdd.partitions().size());
@@ -103,18 +110,16 @@ public class DotProductExample {
         // perform the multiply operator on each of the pairs
         JavaRDD<SerializedCiphertext> result_rdd = combined_ctxt_rdd.map(tuple -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            return new SerializedCiphertext(SparkFHE.getInstance().fhe_multiply(tuple._1().getCtxt(), tuple._2().getCtxt()));
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            return new SerializedCiphertext(FHEBackends.get().fhe_multiply(tuple._1().getCtxt(), tuple._2().getCtxt()));
         });
 
         // sum up the results from the previous operation and display
-        System.out.println("Dot product: " + SparkFHE.getInstance().decrypt(result_rdd.reduce((x, y) -> {
+        System.out.println("Dot product: " + FHEBackends.get().decrypt(result_rdd.reduce((x, y) -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            return new SerializedCiphertext(SparkFHE.getInstance().fhe_add(x.getCtxt(), y.getCtxt()));
-        }).getCtxt(), true));
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            return new SerializedCiphertext(FHEBackends.get().fhe_add(x.getCtxt(), y.getCtxt()));
+        }).getCtxt()));
     }
 
 
@@ -132,62 +137,77 @@ public class DotProductExample {
                                                             Broadcast<String> sk_b) {
         System.out.println("test_FHE_dot_product_via_native_code");
         /* Spark example for FHE calculations */
-        // Encoders are created for Java beans
-        Encoder<SerializedCiphertext> ctxtJSONEncoder = Encoders.bean(SerializedCiphertext.class);
 
         // https://spark.apache.org/docs/latest/sql-programming-guide.html#untyped-dataset-operations-aka-dataframe-operations
         // Create dataset with json file. See http://jsonlines.org
-        JavaRDD<SerializedCiphertext> ctxt_a_rdd = spark.read().json(vec_a_ctxt).as(ctxtJSONEncoder).javaRDD();
-        JavaRDD<SerializedCiphertext> ctxt_b_rdd = spark.read().json(vec_b_ctxt).as(ctxtJSONEncoder).javaRDD();
+        JavaRDD<SerializedCiphertext> ctxt_a_rdd = CiphertextStore.read_ciphertexts(spark, vec_a_ctxt).javaRDD();
+        JavaRDD<SerializedCiphertext> ctxt_b_rdd = CiphertextStore.read_ciphertexts(spark, vec_b_ctxt).javaRDD();
 
         // print out the cipher text vectors after decryption for verification purposes
         System.out.println("ctxt_a_rdd.count() = " + ctxt_a_rdd.count());
         ctxt_a_rdd.foreach(data -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            System.out.println(SparkFHE.getInstance().decrypt(data.getCtxt(), true));
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            System.out.println(FHEBackends.get().decrypt(data.getCtxt()));
         });
         System.out.println("ctxt_b_rdd.count() = " + ctxt_b_rdd.count());
         ctxt_b_rdd.foreach(data -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            System.out.println(SparkFHE.getInstance().decrypt(data.getCtxt(), true));
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            System.out.println(FHEBackends.get().decrypt(data.getCtxt()));
         });
 
-        // combine both rdds as a pair
-        JavaPairRDD<SerializedCiphertext, SerializedCiphertext> combined_ctxt_rdd = ctxt_a_rdd.zip(ctxt_b_rdd);
+        // combine both rdds as pairs, spread over the cores in partitions of balanced work, since
+        // larger ciphertexts take longer to multiply
+        JavaPairRDD<SerializedCiphertext, SerializedCiphertext> combined_ctxt_rdd = CostBalancedPartitioner.balanced_zip(
+                ctxt_a_rdd, ctxt_b_rdd, ctxt -> (long) ctxt.getCtxt().length(), ctxt -> (long) ctxt.getCtxt().length(),
+                planner.cost(HomomorphicOp.DOT_PRODUCT), planner.plan(
+                        catalog.lookup("vec_a_"+Config.NUM_OF_VECTOR_ELEMENTS, FHEBackends.get().generate_crypto_params_suffix()), slices,
+                        HomomorphicOp.DOT_PRODUCT));
         System.out.println("combined_ctxt_rdd.count() = " + combined_ctxt_rdd.count());
 
         // call homomorphic doc product operators on the rdds
         JavaRDD<SerializedCiphertext> collection = combined_ctxt_rdd.mapPartitions(records -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
 
+            // the pairs of the partition are handed to a single native dot product call
             LinkedList<SerializedCiphertext> v = new LinkedList<SerializedCiphertext>();
-            StringVector a = new StringVector();
-            StringVector b = new StringVector();
-            while (records.hasNext()) {
-                Tuple2<SerializedCiphertext, SerializedCiphertext> rec = records.next();
-                a.add(rec._1.getCtxt());
-                b.add(rec._2.getCtxt());
+            String partition_dot_product = CiphertextBatches.dot_product(records, rec -> rec._1.getCtxt(),
+                    rec -> rec._2.getCtxt());
+            if (partition_dot_product != null) {
+                v.add(new SerializedCiphertext(partition_dot_product));
             }
-            v.add(new SerializedCiphertext(SparkFHE.getInstance().do_FHE_dot_product(a, b)));
             return v.iterator();
         });
 
         // sum up the results from the previous operation and display
         SerializedCiphertext res = collection.reduce((x, y) -> {
             // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            return new SerializedCiphertext(SparkFHE.getInstance().fhe_add(x.getCtxt(), y.getCtxt()));
+            FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+            return new SerializedCiphertext(FHEBackends.get().fhe_add(x.getCtxt(), y.getCtxt()));
         });
 
         // decrypt the result and verify it
-        System.out.println("Dot product: " + SparkFHE.getInstance().decrypt(res.getCtxt(), true));
+        System.out.println("Dot product: " + FHEBackends.get().decrypt(res.getCtxt()));
+    }
+
+
+    /**
+     * This method estimates how long the homomorphic operators of test_FHE_dot_product_via_native_code take, from
+     * calibrated costs and before running it
+     * @param profile the calibrated costs of the params in use
+     * @param pairs the number of pairs of ciphertexts
+     * @param partitions the number of partitions the pairs are split into
+     * @param cores the number of cores
+     * @return the estimate
+     */
+    public static PipelineEstimate estimate_FHE_dot_product_via_native_code(CostProfile profile, long pairs, int partitions, int cores) {
+        return new PipelineEstimate(profile, cores)
+                // one dot product per pair, in parallel over the partitions
+                .stage(HomomorphicOp.DOT_PRODUCT, pairs, partitions)
+                // the partial result of every partition added up by the reduce
+                .stage(HomomorphicOp.ADD, partitions - 1, 1);
     }
 
 
@@ -205,18 +225,14 @@ public class DotProductExample {
                                                     Broadcast<String> sk_b) {
         System.out.println("test_FHE_dot_product_via_sql");
         /* Spark example for FHE calculations */
-        // Encoders are created for Java beans
-        Encoder<SerializedCiphertext> ctxtJSONEncoder = Encoders.bean(SerializedCiphertext.class);
         // https://spark.apache.org/docs/latest/sql-programming-guide.html#untyped-dataset-operations-aka-dataframe-operations\
         // Create a dataset from a json line file. See http://jsonlines.org
-        Dataset<SerializedCiphertext> ctxt_a_ds = spark.read().json(vec_a_ctxt).as(ctxtJSONEncoder);
-        Dataset<SerializedCiphertext> ctxt_b_ds = spark.read().json(vec_b_ctxt).as(ctxtJSONEncoder);
+        Dataset<SerializedCiphertext> ctxt_a_ds = CiphertextStore.read_ciphertexts(spark, vec_a_ctxt);
+        Dataset<SerializedCiphertext> ctxt_b_ds = CiphertextStore.read_ciphertexts(spark, vec_b_ctxt);
 
-        // col - Returns a Column based on the given column name, ctxt.
-        // explode - Creates a new row for each element in the given array or map column
-        // select - select the newly created column, and alias it accordingly
-        Dataset<String> ctxt_a_ds2 = ctxt_a_ds.select(ctxt_a_ds.col("ctxt").as("ctxt_a")).as(Encoders.STRING());
-        Dataset<String> ctxt_b_ds2 = ctxt_b_ds.select(ctxt_b_ds.col("ctxt").as("ctxt_b")).as(Encoders.STRING());
+        // select the ctxt column as a binary ciphertext column, and alias it accordingly
+        Dataset<Row> ctxt_a_ds2 = CiphertextColumns.to_binary(ctxt_a_ds, "ctxt_a");
+        Dataset<Row> ctxt_b_ds2 = CiphertextColumns.to_binary(ctxt_b_ds, "ctxt_b");
 
         // withColumn - create a new DataFrame with a column added or renamed.
         // monotonically_increasing_id - A column that generates monotonically increasing 64-bit integers
@@ -236,53 +252,19 @@ public class DotProductExample {
 
         fin.printSchema();
 
-        StructType structType = new StructType();
-        // Creates a new StructType by adding a new field with no metadata where the dataType is specified as a String.
-        structType = structType.add("ctxt_a", DataTypes.StringType, false);
-        structType = structType.add("ctxt_b", DataTypes.StringType, false);
-
-        // RowEncoder - is part of the Encoder framework and acts as the encoder for DataFrames, i.e. Dataset[Row] 
-        // — Datasets of Rows.
-        // ExpressionEncoder[T] - is a generic Encoder of JVM objects of the type T to and from internal binary rows.
-        ExpressionEncoder<Row> encoder = RowEncoder.apply(structType);
-        ExpressionEncoder<Row> encoder2 = RowEncoder.apply(structType);
-
-        // mapPartition - converts each partition of the source RDD into multiple elements of the result
-        // perform dot product on each pair (StringVector) of the dataFrame, and saving the rcesults to a LinkedList
-        Dataset<SerializedCiphertext> collection = fin.mapPartitions((MapPartitionsFunction<Row, SerializedCiphertext>)  iter -> {
-            // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-
-            LinkedList<SerializedCiphertext> v = new LinkedList<SerializedCiphertext>();
-            StringVector a = new StringVector();
-            StringVector b = new StringVector();
-            while (iter.hasNext()) {
-                Row row = iter.next();
-                a.add((String)row.getAs("ctxt_a"));
-                b.add((String)row.getAs("ctxt_b"));
-            }
-            v.add(new SerializedCiphertext(SparkFHE.getInstance().do_FHE_dot_product(a, b)));
-            return v.iterator();
-        }, Encoders.kryo(SerializedCiphertext.class));
-
-        // sum up the results from the previous operation and display
-        SerializedCiphertext res = collection.javaRDD().reduce((x, y) -> {
-            // we need to load the shared library and init a copy of SparkFHE on the executor
-            SparkFHEPlugin.setup();
-            SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
-            return new SerializedCiphertext(SparkFHE.getInstance().fhe_add(x.getCtxt(), y.getCtxt()));
-        });
+        // multiply the pairs and add the products up, both as SQL functions so the native
+        // calls run inside the query plan
+        FHEFunctions.register(spark, library, scheme, pk_b, sk_b);
+        String res = CiphertextColumns.to_string(
+                fin.select(fhe_sum(fhe_mul(col("ctxt_a"), col("ctxt_b")))).as(CiphertextColumns.ENCODER).first());
 
         // decrypt the result to verify it
-        System.out.println("Dot product: " + SparkFHE.getInstance().decrypt(res.getCtxt(), true));
+        System.out.println("Dot product: " + FHEBackends.get().decrypt(res));
     }
 
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         String scheme="", library = "", pk="", sk="";
-        // The variable slices represent the number of time a task is split up
-        int slices=2;
 
         // Create a SparkConf that loads defaults from system properties and the classpath
         SparkConf sparkConf = new SparkConf();
@@ -293,7 +275,6 @@ public class DotProductExample {
         Config.setExecutionEnvironment(args[0]);
         switch (Config.currentExecutionEnvironment) {
             case CLUSTER:
-                slices = Integer.parseInt(args[0]);
                 Config.set_HDFS_NAME_NODE(args[1]);
                 library = args[2];
                 scheme = args[3];
@@ -322,17 +303,31 @@ public class DotProductExample {
         // Creating spark context which allows the communication with worker nodes
         JavaSparkContext jsc = new JavaSparkContext(spark.sparkContext());
 
-        // required to load our shared library
-        SparkFHEPlugin.setup();
-        // create SparkFHE object
-        SparkFHE.init(library, scheme, pk, sk);
+        // load our shared library and create the SparkFHE object, or select the plaintext backend
+        FHEBackends.init(library, scheme, pk, sk);
+
+        catalog = CiphertextCatalog.open(Config.get_records_directory());
+
+        // ciphertext stages are planned from the size of their inputs and the calibrated costs of
+        // the params, if CostCalibration was run for them, the plaintext ones are split across the cores
+        planner = PartitionPlanner.for_context(jsc,
+                CostProfile.load(Config.get_profiles_directory(), FHEBackends.get().generate_crypto_params_suffix()));
+        // The variable slices represent the number of time a task is split up
+        int slices = planner.get_cores();
 
-        vec_a_ctxt = Config.get_records_directory()+"/vec_a_"+String.valueOf(Config.NUM_OF_VECTOR_ELEMENTS)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl";
-        vec_b_ctxt = Config.get_records_directory()+"/vec_b_"+String.valueOf(Config.NUM_OF_VECTOR_ELEMENTS)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl";
+        vec_a_ctxt = catalog.resolve("vec_a_"+Config.NUM_OF_VECTOR_ELEMENTS, FHEBackends.get().generate_crypto_params_suffix());
+        vec_b_ctxt = catalog.resolve("vec_b_"+Config.NUM_OF_VECTOR_ELEMENTS, FHEBackends.get().generate_crypto_params_suffix());
 
         Broadcast<String> pk_b = jsc.broadcast(pk);
         Broadcast<String> sk_b = jsc.broadcast(sk);
 
+        // estimate the native dot product first, if the params were calibrated
+        CatalogEntry vec_a_entry = catalog.lookup("vec_a_"+Config.NUM_OF_VECTOR_ELEMENTS, FHEBackends.get().generate_crypto_params_suffix());
+        if (planner.get_profile() != null && vec_a_entry != null && vec_a_entry.elements() > 0) {
+            System.out.println(estimate_FHE_dot_product_via_native_code(planner.get_profile(), vec_a_entry.elements(),
+                    planner.plan(vec_a_entry, slices, HomomorphicOp.DOT_PRODUCT), planner.get_cores()));
+        }
+
         // testing the dot product operation on plaintext vector.
         test_basic_dot_product(jsc, slices);
 
@@ -5,9 +5,15 @@
 
 package spiritlab.sparkfhe.example.nonbatching;
 
-import org.apache.spark.spiritlab.sparkfhe.SparkFHEPlugin;
-import spiritlab.sparkfhe.api.*;
 import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.backend.FHEBackend;
+import spiritlab.sparkfhe.example.backend.FHEBackends;
+import spiritlab.sparkfhe.example.storage.CatalogEntry;
+import spiritlab.sparkfhe.example.storage.CiphertextCatalog;
+import spiritlab.sparkfhe.example.storage.CiphertextCodec;
+import spiritlab.sparkfhe.example.storage.CiphertextParams;
+import spiritlab.sparkfhe.example.storage.CiphertextStore;
+import spiritlab.sparkfhe.example.storage.CiphertextWriter;
 
 /**
  * This is an example for SparkFHE project. Created to test the functionality
@@ -15,55 +21,59 @@ import spiritlab.sparkfhe.example.Config;
  */
 
 import java.io.File;
+import java.io.IOException;
 
 public class EncDecExample {
 
+    // compression applied to the stored ciphertexts, readers detect it automatically
+    private static CiphertextCodec.Compression compression = CiphertextCodec.Compression.NONE;
+
     private static void encrypt_data(){
+        FHEBackend backend = FHEBackends.get();
         // store the ciphertexts to the pre-defined file location
         for (int l=0; l<2; l++) {
-            System.out.println("Storing ciphertext to "+Config.get_records_directory()+"/ptxt_long_"+String.valueOf(l)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl");
-            SparkFHE.getInstance().store_ciphertext_to_file(
+            System.out.println("Storing ciphertext to "+Config.get_records_directory()+"/ptxt_long_"+String.valueOf(l)+"_"+backend.generate_crypto_params_suffix()+ ".jsonl");
+            CiphertextStore.store_ciphertext_to_file(
                     Config.Ciphertext_Label,
-                    SparkFHE.getInstance().encrypt(new Plaintext(l)).toString(),
-                    Config.get_records_directory()+"/ptxt_long_"+String.valueOf(l)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl");
+                    backend.encrypt(String.valueOf(l)),
+                    Config.get_records_directory()+"/ptxt_long_"+String.valueOf(l)+"_"+backend.generate_crypto_params_suffix()+ ".jsonl", compression);
         }
     }
 
-    private static void encrypt_vector(){
-        /* generating vectors of ctxt */
+    private static void encrypt_vector() throws IOException {
+        FHEBackend backend = FHEBackends.get();
+        /* generating vectors of ctxt, one ciphertext per element */
         int ptxtMod_half = 10;
-        StringVector vec_ptxt_1 = new StringVector();
-        StringVector vec_ptxt_2 = new StringVector();
-        StringVector vec_ctxt_1 = new StringVector();
-        StringVector vec_ctxt_2 = new StringVector();
-
-        // create 2 StringVectors
-        for (int i = 0; i < Config.NUM_OF_VECTOR_ELEMENTS; ++i) {
-            vec_ptxt_1.add(String.valueOf(i%ptxtMod_half));
-            vec_ptxt_2.add(String.valueOf((Config.NUM_OF_VECTOR_ELEMENTS-1-i)%ptxtMod_half));
-        }
-
-        // encrypt them and store to pre-defined location
-        vec_ctxt_1=SparkFHE.getInstance().encrypt(vec_ptxt_1);
-        SparkFHE.getInstance().store_ciphertexts_to_file(Config.Ciphertext_Label, vec_ctxt_1, Config.get_records_directory()+"/vec_a_"+String.valueOf(Config.NUM_OF_VECTOR_ELEMENTS)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl");
-
-        // encrypt them and store to pre-defined location
-        vec_ctxt_2=SparkFHE.getInstance().encrypt(vec_ptxt_2);
-        SparkFHE.getInstance().store_ciphertexts_to_file(Config.Ciphertext_Label, vec_ctxt_2, Config.get_records_directory()+"/vec_b_"+String.valueOf(Config.NUM_OF_VECTOR_ELEMENTS)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl");
 
+        // encrypt them and store to pre-defined location, every ciphertext is written as soon as it is encrypted
+        try (CiphertextWriter vec_a = CiphertextWriter.open(Config.get_records_directory()+"/vec_a_"+String.valueOf(Config.NUM_OF_VECTOR_ELEMENTS)+"_"+backend.generate_crypto_params_suffix()+ ".jsonl", Config.Ciphertext_Label, compression);
+             CiphertextWriter vec_b = CiphertextWriter.open(Config.get_records_directory()+"/vec_b_"+String.valueOf(Config.NUM_OF_VECTOR_ELEMENTS)+"_"+backend.generate_crypto_params_suffix()+ ".jsonl", Config.Ciphertext_Label, compression)) {
+            for (int i = 0; i < Config.NUM_OF_VECTOR_ELEMENTS; ++i) {
+                vec_a.write(backend.encrypt(String.valueOf(i%ptxtMod_half)));
+                vec_b.write(backend.encrypt(String.valueOf((Config.NUM_OF_VECTOR_ELEMENTS-1-i)%ptxtMod_half)));
+            }
+        }
 
         // Generate a vector of 100 elements (for total sum)
-        StringVector ptxt_vec = new StringVector();
-        StringVector ctxt_vec = new StringVector();
-        for (int i = 1; i <= 100; i++){
-            ptxt_vec.add(String.valueOf(i));
+        try (CiphertextWriter vec = CiphertextWriter.open(Config.get_records_directory()+"/vec_ctxt_"+String.valueOf(100)+"_"+backend.generate_crypto_params_suffix()+".jsonl", Config.Ciphertext_Label, compression)) {
+            for (int i = 1; i <= 100; i++){
+                vec.write(backend.encrypt(String.valueOf(i)));
+            }
         }
+    }
 
-        ctxt_vec = SparkFHE.getInstance().encrypt(ptxt_vec);
-        SparkFHE.getInstance().store_ciphertexts_to_file(Config.Ciphertext_Label, ctxt_vec, Config.get_records_directory()+"/vec_ctxt_"+String.valueOf(100)+"_"+SparkFHE.getInstance().generate_crypto_params_suffix()+".jsonl");
+    private static void register_datasets(String library, String scheme) throws IOException {
+        // record what was written, so the other examples can resolve their inputs through the catalog
+        String suffix = FHEBackends.get().generate_crypto_params_suffix();
+        CiphertextCatalog catalog = CiphertextCatalog.open(Config.get_records_directory());
+        String[] names = {"ptxt_long_0", "ptxt_long_1",
+                "vec_a_"+Config.NUM_OF_VECTOR_ELEMENTS, "vec_b_"+Config.NUM_OF_VECTOR_ELEMENTS, "vec_ctxt_100"};
+        for (String name : names) {
+            catalog.register(name, catalog.default_path(name, suffix), CatalogEntry.FORMAT_JSONL, new CiphertextParams(suffix, library, scheme));
+        }
     }
 
-    public static void main(String args[]) {
+    public static void main(String args[]) throws IOException {
         String scheme="", library = "", pk="", sk="";
 
         Config.setExecutionEnvironment(args[0]);
@@ -74,46 +84,45 @@ public class EncDecExample {
                 scheme = args[3];
                 pk = args[4];
                 sk = args[5];
+                if (args.length > 6) compression = CiphertextCodec.parse_compression(args[6]);
                 break;
             case LOCAL:
                 library = args[1];
                 scheme = args[2];
                 pk = args[3];
                 sk = args[4];
+                if (args.length > 5) compression = CiphertextCodec.parse_compression(args[5]);
                 break;
             default:
                 break;
         }
         System.out.println("CURRENT_DIRECTORY = "+Config.get_current_directory());
 
-        // required to load our shared library
-        SparkFHEPlugin.setup();
-        // create SparkFHE object
-        SparkFHE.init(library, scheme, pk, sk);
+        // load our shared library and create the SparkFHE object, or select the plaintext backend
+        FHEBackends.init(library, scheme, pk, sk);
 
         new File(Config.get_records_directory()).mkdirs();
 
         // generate encrypted digits and vectors required for the nonbatching examples
         encrypt_data();
         encrypt_vector();
+        register_datasets(library, scheme);
 
-        String CTXT_0_FILE = Config.get_records_directory() + "/ptxt_long_0_"+ SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl";
-        String CTXT_1_FILE = Config.get_records_directory() +"/ptxt_long_1_"+SparkFHE.getInstance().generate_crypto_params_suffix()+ ".jsonl";
+        String CTXT_0_FILE = Config.get_records_directory() + "/ptxt_long_0_"+ FHEBackends.get().generate_crypto_params_suffix()+ ".jsonl";
+        String CTXT_1_FILE = Config.get_records_directory() +"/ptxt_long_1_"+FHEBackends.get().generate_crypto_params_suffix()+ ".jsonl";
 
         // initialize a literal 1, encrypt it and decrypted it to verify the cryptography functions
         String inputNumberString="1";
-        Plaintext inputNumberPtxt = new Plaintext(inputNumberString);
-        Ciphertext inputNumberCtxt = SparkFHE.getInstance().encrypt(inputNumberPtxt);
-        Plaintext inputNumberPtxt_returned = SparkFHE.getInstance().decrypt(inputNumberCtxt, true);
-        System.out.println("InputNumber="+inputNumberString + ", result of dec(enc(InputNumber))="+inputNumberPtxt_returned.toString());
+        String inputNumberCtxt = FHEBackends.get().encrypt(inputNumberString);
+        System.out.println("InputNumber="+inputNumberString + ", result of dec(enc(InputNumber))="+FHEBackends.get().decrypt(inputNumberCtxt));
 
         // read in the cipher text from file and store them as Strings
-        String ctxt_0_string = SparkFHE.getInstance().read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_0_FILE);
-        String ctxt_1_string = SparkFHE.getInstance().read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_1_FILE);
+        String ctxt_0_string = CiphertextStore.read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_0_FILE);
+        String ctxt_1_string = CiphertextStore.read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_1_FILE);
 
         // perform homomorphic addition on the cipertext
-        Ciphertext ctxtresult = new Ciphertext(SparkFHE.getInstance().fhe_add(ctxt_0_string, ctxt_1_string));
+        String ctxtresult = FHEBackends.get().fhe_add(ctxt_0_string, ctxt_1_string);
         // decrypt the result and display it
-        System.out.println("0+1="+SparkFHE.getInstance().decrypt(ctxtresult, true).toString());
+        System.out.println("0+1="+FHEBackends.get().decrypt(ctxtresult));
     }
 }
@@ -6,10 +6,9 @@
 package spiritlab.sparkfhe.example.nonbatching;
 
 import org.apache.spark.spiritlab.sparkfhe.SparkFHEPlugin;
-import spiritlab.sparkfhe.api.Ciphertext;
-import spiritlab.sparkfhe.api.Plaintext;
 import spiritlab.sparkfhe.api.SparkFHE;
 import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.backend.FHEBackends;
 
 import java.io.File;
 
@@ -39,29 +38,34 @@ public class KeyGenExample {
         }
         System.out.println("CURRENT_DIRECTORY = "+Config.get_current_directory());
 
-        // Load C++ shared library
-        SparkFHEPlugin.setup();
-        // Create SparkFHE object with library
-        SparkFHE.init(library, scheme);
+        // the plaintext backend needs no keys
+        if (FHEBackends.is_plaintext(library)) {
+            System.out.println(library + " needs no keys");
+        } else {
+            // Load C++ shared library
+            SparkFHEPlugin.setup();
+            // Create SparkFHE object with library
+            SparkFHE.init(library, scheme);
 
-        // Creates the directory named by the pathname - current_directiory/gen/keys,
-        // and including any necessary parent directories.
-         new File(Config.get_keys_directory()).mkdirs();
+            // Creates the directory named by the pathname - current_directiory/gen/keys,
+            // and including any necessary parent directories.
+            new File(Config.get_keys_directory()).mkdirs();
 
-        // Using the object created to call the C++ function to generate the keys.
-        SparkFHE.getInstance().generate_key_pair(
-                Config.get_default_crypto_params_file(library),
-                Config.get_default_public_key_file(),
-                Config.get_default_secret_key_file());
+            // Using the object created to call the C++ function to generate the keys.
+            SparkFHE.getInstance().generate_key_pair(
+                    Config.get_default_crypto_params_file(library),
+                    Config.get_default_public_key_file(),
+                    Config.get_default_secret_key_file());
+        }
+
+        // select the backend with the generated keys
+        FHEBackends.init(library, scheme, Config.get_default_public_key_file(), Config.get_default_secret_key_file());
 
         // Encrypting the literal 1, and decrypting it to verify the keys' accuracy.
         String inputNumberString="1";
-        Plaintext inputNumberPtxt = new Plaintext(inputNumberString);
-
-        Ciphertext ctxt = SparkFHE.getInstance().encrypt(inputNumberPtxt);
-        Plaintext ptxt = SparkFHE.getInstance().decrypt(ctxt, true);
+        String ctxt = FHEBackends.get().encrypt(inputNumberString);
 
         // Printing out the result
-        System.out.println("InputNumber="+inputNumberString + ", result of dec(enc(InputNumber))="+ptxt.toString());
+        System.out.println("InputNumber="+inputNumberString + ", result of dec(enc(InputNumber))="+FHEBackends.get().decrypt(ctxt));
     }
 }
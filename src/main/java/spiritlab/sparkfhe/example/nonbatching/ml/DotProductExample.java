@@ -26,6 +26,7 @@ import spiritlab.sparkfhe.api.Ciphertext;
 import spiritlab.sparkfhe.api.FHELibrary;
 import spiritlab.sparkfhe.api.SparkFHE;
 import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.storage.CiphertextStore;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -43,8 +44,8 @@ public class DotProductExample {
                                       Broadcast<String> sk_b) {
         System.out.println("RunCtxtExample");
         // Create some vector data; also works for sparse vectors
-        String zero_ctxt = SparkFHE.getInstance().read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_0_FILE);
-        String one_ctxt = SparkFHE.getInstance().read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_1_FILE);
+        String zero_ctxt = CiphertextStore.read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_0_FILE);
+        String one_ctxt = CiphertextStore.read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_1_FILE);
         List<Row> data = Arrays.asList(
                 RowFactory.create("a", org.apache.spark.ml_fhe.linalg.CtxtVectors.dense(one_ctxt, one_ctxt, one_ctxt))
         );
@@ -86,8 +87,8 @@ public class DotProductExample {
     public static void RunCtxtRDDExample(JavaSparkContext jsc, int slices, String library, String scheme, Broadcast<String> pk_b,
                                          Broadcast<String> sk_b) {
         System.out.println("RunCtxtRDDExample");
-        String zero_ctxt = SparkFHE.getInstance().read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_0_FILE);
-        String one_ctxt = SparkFHE.getInstance().read_ciphertext_from_file_as_string(Config.Ciphertext_Label,CTXT_1_FILE);
+        String zero_ctxt = CiphertextStore.read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_0_FILE);
+        String one_ctxt = CiphertextStore.read_ciphertext_from_file_as_string(Config.Ciphertext_Label,CTXT_1_FILE);
         JavaRDD<CtxtVector> data = jsc.parallelize(Arrays.asList(
                 CtxtVectors.dense(one_ctxt, one_ctxt, one_ctxt)
         ));
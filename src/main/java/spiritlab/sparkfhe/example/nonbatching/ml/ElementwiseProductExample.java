@@ -31,6 +31,7 @@ import scala.runtime.BoxedUnit;
 
 import spiritlab.sparkfhe.api.*;
 import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.storage.CiphertextStore;
 // $example off$
 
 public class ElementwiseProductExample {
@@ -75,8 +76,8 @@ public class ElementwiseProductExample {
                                       Broadcast<String> sk_b) {
         System.out.println("RunCtxtExample");
         // Create some vector data; also works for sparse vectors
-        String zero_ctxt = SparkFHE.getInstance().read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_0_FILE);
-        String one_ctxt = SparkFHE.getInstance().read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_1_FILE);
+        String zero_ctxt = CiphertextStore.read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_0_FILE);
+        String one_ctxt = CiphertextStore.read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_1_FILE);
         List<Row> data = Arrays.asList(
                 RowFactory.create("a", org.apache.spark.ml_fhe.linalg.CtxtVectors.dense(one_ctxt, zero_ctxt, one_ctxt)),
                 RowFactory.create("b", org.apache.spark.ml_fhe.linalg.CtxtVectors.dense(zero_ctxt, one_ctxt, one_ctxt))
@@ -140,8 +141,8 @@ public class ElementwiseProductExample {
     public static void RunCtxtRDDExample(JavaSparkContext jsc, int slices, String library, String scheme, Broadcast<String> pk_b,
                                          Broadcast<String> sk_b) {
         System.out.println("RunCtxtRDDExample");
-        String zero_ctxt = SparkFHE.getInstance().read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_0_FILE);
-        String one_ctxt = SparkFHE.getInstance().read_ciphertext_from_file_as_string(Config.Ciphertext_Label,CTXT_1_FILE);
+        String zero_ctxt = CiphertextStore.read_ciphertext_from_file_as_string(Config.Ciphertext_Label, CTXT_0_FILE);
+        String one_ctxt = CiphertextStore.read_ciphertext_from_file_as_string(Config.Ciphertext_Label,CTXT_1_FILE);
         JavaRDD<CtxtVector> data = jsc.parallelize(Arrays.asList(
                 CtxtVectors.dense(one_ctxt, zero_ctxt, one_ctxt), CtxtVectors.dense(zero_ctxt, one_ctxt, one_ctxt)));
         CtxtVector transformingVector = CtxtVectors.dense(zero_ctxt, one_ctxt, zero_ctxt);
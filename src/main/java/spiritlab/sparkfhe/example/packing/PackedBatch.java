@@ -0,0 +1,196 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.packing;
+
+import spiritlab.sparkfhe.api.FHEScheme;
+import spiritlab.sparkfhe.example.backend.FHEBackend;
+import spiritlab.sparkfhe.example.planning.HomomorphicOp;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Queries of the same operator packed side by side into the slots of one pair of ciphertexts,
+ * built by {@link QueryCoalescer}. Running the batch encrypts each operand once and applies the
+ * operator once for all its queries; every query gets the packed result and its slots in it:
+ *
+ *   ADD, SUBTRACT, MULTIPLY  the slot-wise result, in the slots of the query
+ *   DOT_PRODUCT, TOTAL_SUM   the slot-wise products, or values, summed over the slots of the
+ *                            query once decrypted, see {@link PackedResult#decrypt}
+ *
+ * The packed result holds the results of all queries of the batch, which is fine as long as
+ * they are decrypted by the same party. Isolating the queries gives each its own ciphertext,
+ * holding nothing of the others: the packed result is multiplied with an encrypted slot mask
+ * of the query, and sums are computed homomorphically with fhe_total_sum. SparkFHE has no
+ * plaintext-ciphertext multiplication, so this costs an encryption and a ciphertext
+ * multiplication per query, see {@link #isolate}.
+ */
+public class PackedBatch implements Serializable {
+
+    private final HomomorphicOp op;
+    private final String scheme;
+    private final int slots;
+    private final List<String> ids = new ArrayList<String>();
+    private final List<SlotRange> ranges = new ArrayList<SlotRange>();
+    private final double[] slots_a;
+    private final double[] slots_b;
+    private int used;
+
+    PackedBatch(HomomorphicOp op, String scheme, int slots) {
+        this.op = op;
+        this.scheme = scheme;
+        this.slots = slots;
+        this.slots_a = new double[slots];
+        this.slots_b = op == HomomorphicOp.TOTAL_SUM ? null : new double[slots];
+    }
+
+    /**
+     * Pack a query after the queries already in the batch.
+     * @return the slots of the query, or null if the batch has too few slots left
+     */
+    SlotRange add(String id, double[] a, double[] b) {
+        if (used + a.length > slots) {
+            return null;
+        }
+        SlotRange range = new SlotRange(used, a.length);
+        range.place(a, slots_a);
+        if (slots_b != null) {
+            range.place(b, slots_b);
+        }
+        ids.add(id);
+        ranges.add(range);
+        used = range.get_end();
+        return range;
+    }
+
+    public HomomorphicOp get_op() {
+        return op;
+    }
+
+    /**
+     * @return the number of queries in the batch
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * @return the number of slots the queries occupy
+     */
+    public int get_used_slots() {
+        return used;
+    }
+
+    public int get_slots() {
+        return slots;
+    }
+
+    public List<String> get_ids() {
+        return Collections.unmodifiableList(ids);
+    }
+
+    public List<SlotRange> get_ranges() {
+        return Collections.unmodifiableList(ranges);
+    }
+
+    /**
+     * Run the operator once for all queries of the batch.
+     * @param backend the backend, initialized with the keys the results are for
+     * @param isolate true to give every query a ciphertext of its own, see {@link #isolate};
+     *                the queries are isolated in parallel
+     * @return the result of every query, in the order they were packed
+     */
+    public List<PackedResult> run(FHEBackend backend, boolean isolate) {
+        String packed = apply(backend);
+        if (isolate) {
+            return IntStream.range(0, ids.size()).parallel()
+                    .mapToObj(i -> isolate(backend, packed, i)).collect(Collectors.toList());
+        }
+        return share(packed);
+    }
+
+    /**
+     * @param packed the packed result, from {@link #apply}
+     * @return the result of every query, all sharing the packed result, in the order they were packed
+     */
+    public List<PackedResult> share(String packed) {
+        List<PackedResult> results = new ArrayList<PackedResult>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            results.add(new PackedResult(ids.get(i), ranges.get(i), packed, is_summed(), false));
+        }
+        return results;
+    }
+
+    /**
+     * Encrypt the operands and apply the operator once for all queries of the batch.
+     * @param backend the backend, initialized with the keys the results are for
+     * @return the packed result, the slot-wise result of every query in its slots
+     */
+    public String apply(FHEBackend backend) {
+        String ctxt_a = encrypt(backend, slots_a);
+        switch (op) {
+            case ADD:
+                return backend.fhe_add(ctxt_a, encrypt(backend, slots_b));
+            case SUBTRACT:
+                return backend.fhe_subtract(ctxt_a, encrypt(backend, slots_b));
+            case MULTIPLY:
+            case DOT_PRODUCT:
+                return backend.fhe_multiply(ctxt_a, encrypt(backend, slots_b));
+            case TOTAL_SUM:
+                return ctxt_a;
+            default:
+                throw new IllegalStateException("Cannot pack queries of " + op);
+        }
+    }
+
+    /**
+     * Give a query a ciphertext holding only its result: the packed result masked to the slots
+     * of the query, and summed over them for DOT_PRODUCT and TOTAL_SUM.
+     * @param backend the backend, initialized with the keys the results are for
+     * @param packed the packed result, from {@link #apply}
+     * @param index the position of the query in the batch
+     * @return the result of the query
+     */
+    public PackedResult isolate(FHEBackend backend, String packed, int index) {
+        SlotRange range = ranges.get(index);
+        String ctxt = packed;
+        // the unused slots are zeros, a lone query needs no mask
+        if (ids.size() > 1) {
+            ctxt = backend.fhe_multiply(packed, encrypt(backend, range.mask()));
+        }
+        if (is_summed()) {
+            ctxt = backend.fhe_total_sum(ctxt);
+        }
+        return new PackedResult(ids.get(index), range, ctxt, is_summed(), true);
+    }
+
+    private boolean is_summed() {
+        return op == HomomorphicOp.DOT_PRODUCT || op == HomomorphicOp.TOTAL_SUM;
+    }
+
+    // only the used slots are encoded, the remaining ones are zeros
+    private String encrypt(FHEBackend backend, double[] values) {
+        int length = Math.min(values.length, used);
+        if (FHEScheme.CKKS.equalsIgnoreCase(scheme)) {
+            return backend.encrypt(Arrays.copyOf(values, length));
+        }
+        long[] integers = new long[length];
+        for (int i = 0; i < length; i++) {
+            integers[i] = (long) values[i];
+        }
+        return backend.encrypt(integers);
+    }
+
+    @Override
+    public String toString() {
+        return op + " batch of " + ids.size() + " queries in " + used + "/" + slots + " slots";
+    }
+}
@@ -0,0 +1,111 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.packing;
+
+import spiritlab.sparkfhe.example.backend.FHEBackend;
+
+import java.io.Serializable;
+
+/**
+ * The result of one query of a {@link PackedBatch}: a ciphertext and the slots of the query in
+ * it, either the packed result shared with the other queries of the batch, or a ciphertext of
+ * its own once isolated.
+ */
+public class PackedResult implements Serializable {
+
+    private final String id;
+    private final SlotRange range;
+    private final String ctxt;
+    private final boolean summed;
+    private final boolean isolated;
+
+    public PackedResult(String id, SlotRange range, String ctxt, boolean summed, boolean isolated) {
+        this.id = id;
+        this.range = range;
+        this.ctxt = ctxt;
+        this.summed = summed;
+        this.isolated = isolated;
+    }
+
+    public String get_id() {
+        return id;
+    }
+
+    public SlotRange get_range() {
+        return range;
+    }
+
+    /**
+     * @return the result ciphertext, shared with the other queries of the batch unless isolated
+     */
+    public String get_ctxt() {
+        return ctxt;
+    }
+
+    /**
+     * @return true if the result of the query is the sum over its slots
+     */
+    public boolean is_summed() {
+        return summed;
+    }
+
+    /**
+     * @return true if the ciphertext holds the result of this query only, a sum in every slot
+     */
+    public boolean is_isolated() {
+        return isolated;
+    }
+
+    /**
+     * Decrypt the result of the query.
+     * @param backend the backend, initialized with the secret key
+     * @return the values of the slots of the query, or the single value of a sum
+     */
+    public double[] decrypt(FHEBackend backend) {
+        return extract(parse_values(backend.decrypt(ctxt)));
+    }
+
+    /**
+     * @param slots the decrypted slots of the ciphertext, e.g. decrypted once for all the
+     *              queries sharing it
+     * @return the values of the slots of the query, or the single value of a sum
+     */
+    public double[] extract(double[] slots) {
+        if (!summed) {
+            return range.slice(slots);
+        }
+        if (isolated) {
+            return new double[]{slots.length == 0 ? 0 : slots[0]};
+        }
+        double sum = 0;
+        for (double value : range.slice(slots)) {
+            sum += value;
+        }
+        return new double[]{sum};
+    }
+
+    /**
+     * @param decrypted the decrypted values of a ciphertext, as text, e.g. "[1, 2, 3]"
+     * @return the values
+     */
+    public static double[] parse_values(String decrypted) {
+        String trimmed = decrypted.replaceAll("[\\[\\]]", " ").trim();
+        if (trimmed.isEmpty()) {
+            return new double[0];
+        }
+        String[] fields = trimmed.split("[\\s,]+");
+        double[] values = new double[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            values[i] = Double.parseDouble(fields[i]);
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return id + " in slots " + range + (summed ? ", summed" : "") + (isolated ? ", isolated" : "");
+    }
+}
@@ -0,0 +1,116 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.packing;
+
+import spiritlab.sparkfhe.example.planning.HomomorphicOp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects small independent queries of one operator and packs them into disjoint slot ranges
+ * of shared ciphertexts, see {@link PackedBatch}. A query of 5 values otherwise takes a whole
+ * ciphertext of thousands of slots, with its own encryptions and operator.
+ *
+ * The queries are packed first-fit, longest first, so that the batches come out as full as
+ * possible; a batch runs anywhere a backend is available, e.g. one per task on the executors.
+ * All queries share the keys of the backend, i.e. they come from the same trust domain.
+ */
+public class QueryCoalescer {
+
+    private static class Query {
+        final String id;
+        final double[] a;
+        final double[] b;
+
+        Query(String id, double[] a, double[] b) {
+            this.id = id;
+            this.a = a;
+            this.b = b;
+        }
+    }
+
+    private final HomomorphicOp op;
+    private final String scheme;
+    private final int slots;
+    private final List<Query> pending = new ArrayList<Query>();
+
+    /**
+     * @param op the operator of the queries: ADD, SUBTRACT, MULTIPLY, DOT_PRODUCT or TOTAL_SUM
+     * @param scheme the HE scheme name, CKKS packs doubles and BGV or BFV integers
+     * @param slots the number of slots of a ciphertext under the params in use
+     */
+    public QueryCoalescer(HomomorphicOp op, String scheme, int slots) {
+        switch (op) {
+            case ADD:
+            case SUBTRACT:
+            case MULTIPLY:
+            case DOT_PRODUCT:
+            case TOTAL_SUM:
+                break;
+            default:
+                throw new IllegalArgumentException("Cannot pack queries of " + op);
+        }
+        if (slots <= 0) {
+            throw new IllegalArgumentException("The number of slots must be positive, got " + slots);
+        }
+        this.op = op;
+        this.scheme = scheme;
+        this.slots = slots;
+    }
+
+    /**
+     * Queue a query for the next batches.
+     * @param id identifies the query in its result
+     * @param a the values of the first operand, at most as many as a ciphertext has slots
+     * @param b as many values of the second operand, null for TOTAL_SUM
+     */
+    public void submit(String id, double[] a, double[] b) {
+        if (a.length == 0 || a.length > slots) {
+            throw new IllegalArgumentException("Query " + id + " has " + a.length + " values, expected 1 to " + slots);
+        }
+        if ((op == HomomorphicOp.TOTAL_SUM) != (b == null) || (b != null && b.length != a.length)) {
+            throw new IllegalArgumentException("Query " + id + " of " + op + " has "
+                    + (b == null ? "no" : String.valueOf(b.length)) + " values for its second operand");
+        }
+        pending.add(new Query(id, a, b));
+    }
+
+    /**
+     * @return the number of queries waiting to be packed
+     */
+    public int pending() {
+        return pending.size();
+    }
+
+    /**
+     * Pack the queued queries and empty the queue.
+     * @return the batches, every query in exactly one of them
+     */
+    public List<PackedBatch> drain() {
+        List<Query> queries = new ArrayList<Query>(pending);
+        pending.clear();
+        // stable, the queries of the same length stay in the order they were submitted
+        queries.sort((x, y) -> Integer.compare(y.a.length, x.a.length));
+
+        List<PackedBatch> batches = new ArrayList<PackedBatch>();
+        for (Query query : queries) {
+            SlotRange range = null;
+            for (PackedBatch batch : batches) {
+                range = batch.add(query.id, query.a, query.b);
+                if (range != null) {
+                    break;
+                }
+            }
+            if (range == null) {
+                PackedBatch batch = new PackedBatch(op, scheme, slots);
+                batch.add(query.id, query.a, query.b);
+                batches.add(batch);
+            }
+        }
+        return batches;
+    }
+}
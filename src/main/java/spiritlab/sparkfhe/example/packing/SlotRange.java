@@ -0,0 +1,92 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.packing;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The slots a query occupies in a packed ciphertext, from offset on, disjoint from the slots of
+ * the other queries of the ciphertext.
+ */
+public class SlotRange implements Serializable {
+
+    private final int offset;
+    private final int length;
+
+    public SlotRange(int offset, int length) {
+        if (offset < 0 || length <= 0) {
+            throw new IllegalArgumentException("Invalid slot range of " + length + " slots at " + offset);
+        }
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int get_offset() {
+        return offset;
+    }
+
+    public int get_length() {
+        return length;
+    }
+
+    /**
+     * @return the slot after the range
+     */
+    public int get_end() {
+        return offset + length;
+    }
+
+    /**
+     * Copy the values of a query into its slots.
+     * @param values the values, as many as the range has slots
+     * @param slots the slots of the packed ciphertext
+     */
+    public void place(double[] values, double[] slots) {
+        if (values.length != length) {
+            throw new IllegalArgumentException("Cannot place " + values.length + " values in " + length + " slots");
+        }
+        System.arraycopy(values, 0, slots, offset, length);
+    }
+
+    /**
+     * @param slots the decrypted slots of a packed ciphertext, missing trailing slots are zeros
+     * @return the values of the range
+     */
+    public double[] slice(double[] slots) {
+        double[] values = new double[length];
+        System.arraycopy(slots, Math.min(offset, slots.length), values, 0, Math.max(0, Math.min(length, slots.length - offset)));
+        return values;
+    }
+
+    /**
+     * @return the slot mask of the range: ones in its slots, zeros before it, nothing after it
+     */
+    public double[] mask() {
+        double[] mask = new double[get_end()];
+        Arrays.fill(mask, offset, get_end(), 1);
+        return mask;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SlotRange)) {
+            return false;
+        }
+        SlotRange other = (SlotRange) o;
+        return offset == other.offset && length == other.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * offset + length;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + offset + ", " + get_end() + ")";
+    }
+}
@@ -0,0 +1,184 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.planning;
+
+import org.apache.spark.Partitioner;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.storage.StorageLevel;
+import scala.Tuple2;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Partitions the elements of an RDD by position, into contiguous ranges of roughly equal
+ * estimated homomorphic work rather than equal counts or equal bytes of input text.
+ *
+ * Ciphertext sizes differ by orders of magnitude between schemes, levels and packed or single
+ * values, and the time of a homomorphic operator grows with the size of its operands, so a
+ * partition of large ciphertexts takes much longer than one of small ones with as many records.
+ * The work of an element is estimated as its size times the cost of the operators applied to it.
+ *
+ * Elements are keyed by their index and sorted within their partition, so two RDDs of the same
+ * length balanced with the same partitioner have the same number of elements in every partition,
+ * in the same order, which is what zip() needs. Balancing costs a pass over the input to measure
+ * the elements, and a shuffle.
+ *
+ * Measuring, indexing and shuffling each read the input, so balanced_zip persists the inputs
+ * that are not already for the duration of the call, and runs the shuffle before releasing them.
+ */
+public class CostBalancedPartitioner extends Partitioner {
+
+    // exclusive upper bound of the element indexes of every partition
+    private final long[] upper_bounds;
+
+    public CostBalancedPartitioner(long[] upper_bounds) {
+        this.upper_bounds = upper_bounds.clone();
+    }
+
+    @Override
+    public int numPartitions() {
+        return upper_bounds.length;
+    }
+
+    @Override
+    public int getPartition(Object key) {
+        long index = (Long) key;
+        int pos = Arrays.binarySearch(upper_bounds, index);
+        // an index equal to a bound belongs to the next partition
+        int partition = pos >= 0 ? pos + 1 : -pos - 1;
+        return Math.min(partition, upper_bounds.length - 1);
+    }
+
+    /**
+     * @return the exclusive upper bound of the element indexes of every partition
+     */
+    public long[] get_upper_bounds() {
+        return upper_bounds.clone();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        // spark skips the shuffle when an RDD is already partitioned by an equal partitioner
+        return other instanceof CostBalancedPartitioner && Arrays.equals(upper_bounds, ((CostBalancedPartitioner) other).upper_bounds);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(upper_bounds);
+    }
+
+    /**
+     * Split a sequence of elements into contiguous ranges of roughly equal cost. An element goes
+     * to the partition its midpoint falls into, so a single element costlier than a partition's
+     * share is kept alone rather than pulling its neighbours along.
+     * @param costs the estimated cost of every element, in order
+     * @param partitions the number of partitions
+     * @return the partitioner
+     */
+    public static CostBalancedPartitioner from_costs(double[] costs, int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Number of partitions must be positive, got " + partitions);
+        }
+        double total = 0;
+        for (double cost : costs) {
+            total += cost;
+        }
+        long[] upper_bounds = new long[partitions];
+        int partition = 0;
+        double before = 0;
+        for (int i = 0; i < costs.length; i++) {
+            int target = total > 0 ? (int) Math.min(partitions - 1, (long) ((before + costs[i] / 2) / total * partitions))
+                    : (int) ((long) i * partitions / costs.length);
+            while (partition < target) {
+                upper_bounds[partition++] = i;
+            }
+            before += costs[i];
+        }
+        while (partition < partitions) {
+            upper_bounds[partition++] = costs.length;
+        }
+        return new CostBalancedPartitioner(upper_bounds);
+    }
+
+    /**
+     * Estimate the work of every element of an RDD, in the order of the RDD.
+     * @param rdd the RDD
+     * @param size_of the size of an element, e.g. the length of its serialized ciphertext
+     * @param op_cost the cost of the operators applied to the elements, e.g. from PartitionPlanner.cost()
+     * @return the estimated cost of every element
+     */
+    public static <T> double[] estimate_costs(JavaRDD<T> rdd, Function<T, Long> size_of, double op_cost) {
+        List<Long> sizes = rdd.map(size_of).collect();
+        double[] costs = new double[sizes.size()];
+        for (int i = 0; i < costs.length; i++) {
+            costs[i] = sizes.get(i) * op_cost;
+        }
+        return costs;
+    }
+
+    /**
+     * Redistribute the elements of an RDD with a partitioner, keeping their order.
+     * @param rdd the RDD
+     * @param partitioner the partitioner, built for an RDD of the same length
+     * @return the redistributed RDD
+     */
+    public static <T> JavaRDD<T> balance(JavaRDD<T> rdd, CostBalancedPartitioner partitioner) {
+        return rdd.zipWithIndex()
+                .mapToPair(element -> new Tuple2<Long, T>(element._2(), element._1()))
+                .repartitionAndSortWithinPartitions(partitioner)
+                .values();
+    }
+
+    /**
+     * Pair up the elements of two RDDs by position, in partitions of balanced cost. Unlike a
+     * plain zip, the RDDs do not need to be partitioned alike beforehand, only to be of the same
+     * length, as is the case of two ciphertext files read with different splits.
+     * @param a the first RDD
+     * @param b the second RDD
+     * @param size_of_a the size of an element of the first RDD
+     * @param size_of_b the size of an element of the second RDD
+     * @param op_cost the cost of the operators applied to the pairs
+     * @param partitions the number of partitions, e.g. from PartitionPlanner.plan()
+     * @return the pairs
+     */
+    public static <A, B> JavaPairRDD<A, B> balanced_zip(JavaRDD<A> a, JavaRDD<B> b, Function<A, Long> size_of_a,
+                                                        Function<B, Long> size_of_b, double op_cost, int partitions) {
+        boolean persist_a = a.getStorageLevel().equals(StorageLevel.NONE());
+        boolean persist_b = b.getStorageLevel().equals(StorageLevel.NONE());
+        if (persist_a) {
+            a.persist(StorageLevel.MEMORY_AND_DISK_SER());
+        }
+        if (persist_b) {
+            b.persist(StorageLevel.MEMORY_AND_DISK_SER());
+        }
+        try {
+            double[] costs = estimate_costs(a, size_of_a, op_cost);
+            double[] costs_b = estimate_costs(b, size_of_b, op_cost);
+            if (costs.length != costs_b.length) {
+                throw new IllegalArgumentException("Cannot zip RDDs of " + costs.length + " and " + costs_b.length + " elements");
+            }
+            for (int i = 0; i < costs.length; i++) {
+                costs[i] += costs_b[i];
+            }
+            CostBalancedPartitioner partitioner = from_costs(costs, Math.max(1, Math.min(partitions, costs.length)));
+            System.out.println("Balanced " + costs.length + " pairs over " + partitioner.numPartitions() + " partitions");
+            JavaPairRDD<A, B> pairs = balance(a, partitioner).zip(balance(b, partitioner));
+            // writes the shuffle files while the inputs are persisted, the jobs on the pairs read them instead
+            pairs.count();
+            return pairs;
+        } finally {
+            if (persist_a) {
+                a.unpersist(false);
+            }
+            if (persist_b) {
+                b.unpersist(false);
+            }
+        }
+    }
+}
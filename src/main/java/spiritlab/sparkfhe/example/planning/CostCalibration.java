@@ -0,0 +1,130 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.planning;
+
+import org.apache.spark.spiritlab.sparkfhe.SparkFHEPlugin;
+import spiritlab.sparkfhe.api.SparkFHE;
+import spiritlab.sparkfhe.api.StringVector;
+import spiritlab.sparkfhe.example.Config;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Measures the latency and output size of every homomorphic operator for the library, scheme
+ * and keys given on the command line, on the local machine, and stores them as a
+ * {@link CostProfile} in the profiles directory. Run it once per combination of library, scheme
+ * and params, on a machine like the executors; the examples pick the profile matching their
+ * params up when they start.
+ */
+public class CostCalibration {
+
+    public static final int DEFAULT_REPETITIONS = 10;
+    public static final int DEFAULT_VECTOR_LENGTH = 100;
+
+    /**
+     * Time an operator, after a warm-up call, and record the median latency in the profile.
+     * @param profile the profile to record into
+     * @param op the operator
+     * @param repetitions the number of timed calls
+     * @param per_call the number of operator applications done by one call
+     * @param call runs the operator and returns its serialized result
+     */
+    public static void measure(CostProfile profile, HomomorphicOp op, int repetitions, int per_call, Supplier<String> call) {
+        String output = call.get();
+        double[] latencies_ms = new double[repetitions];
+        for (int i = 0; i < repetitions; i++) {
+            long start = System.nanoTime();
+            output = call.get();
+            latencies_ms[i] = (System.nanoTime() - start) / 1e6 / per_call;
+        }
+        Arrays.sort(latencies_ms);
+        double median_ms = latencies_ms[repetitions / 2];
+        profile.record(op, median_ms, output == null ? 0 : output.length(), repetitions);
+        System.out.println(String.format("%-12s %10.3f ms (min %.3f, max %.3f)", op, median_ms,
+                latencies_ms[0], latencies_ms[repetitions - 1]));
+    }
+
+    /**
+     * Calibrate the library SparkFHE was initialized with.
+     * @param library the HE library name
+     * @param scheme the HE scheme name
+     * @param repetitions the number of timed calls per operator
+     * @param vector_length the number of pairs of the dot product
+     * @return the profile
+     * @throws IOException if the host name cannot be resolved
+     */
+    public static CostProfile calibrate(String library, String scheme, int repetitions, int vector_length) throws IOException {
+        SparkFHE fhe = SparkFHE.getInstance();
+        CostProfile profile = new CostProfile(library, scheme, fhe.generate_crypto_params_suffix());
+        profile.setHost(InetAddress.getLocalHost().getHostName());
+
+        String ctxt_a = fhe.encrypt(fhe.encode("2")).toString();
+        String ctxt_b = fhe.encrypt(fhe.encode("3")).toString();
+        StringVector vec_a = new StringVector();
+        StringVector vec_b = new StringVector();
+        vec_a.reserve(vector_length);
+        vec_b.reserve(vector_length);
+        for (int i = 0; i < vector_length; i++) {
+            vec_a.add(ctxt_a);
+            vec_b.add(ctxt_b);
+        }
+
+        measure(profile, HomomorphicOp.ENCRYPT, repetitions, 1, () -> fhe.encrypt(fhe.encode("1")).toString());
+        measure(profile, HomomorphicOp.DECRYPT, repetitions, 1, () -> fhe.decrypt(ctxt_a, true));
+        measure(profile, HomomorphicOp.ADD, repetitions, 1, () -> fhe.fhe_add(ctxt_a, ctxt_b));
+        measure(profile, HomomorphicOp.SUBTRACT, repetitions, 1, () -> fhe.fhe_subtract(ctxt_a, ctxt_b));
+        measure(profile, HomomorphicOp.MULTIPLY, repetitions, 1, () -> fhe.fhe_multiply(ctxt_a, ctxt_b));
+        measure(profile, HomomorphicOp.TOTAL_SUM, repetitions, 1, () -> fhe.fhe_total_sum(ctxt_a));
+        measure(profile, HomomorphicOp.DOT_PRODUCT, repetitions, vector_length, () -> fhe.do_FHE_dot_product(vec_a, vec_b));
+
+        profile.setCalibratedAt(System.currentTimeMillis());
+        return profile;
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        String scheme="", library = "", pk="", sk="";
+        int repetitions = DEFAULT_REPETITIONS;
+        int vector_length = DEFAULT_VECTOR_LENGTH;
+
+        // Decide whether to store the profile locally or on HDFS
+        Config.setExecutionEnvironment(args[0]);
+        switch (Config.currentExecutionEnvironment) {
+            case CLUSTER:
+                Config.set_HDFS_NAME_NODE(args[1]);
+                library = args[2];
+                scheme = args[3];
+                pk = args[4];
+                sk = args[5];
+                if (args.length > 6) repetitions = Integer.parseInt(args[6]);
+                if (args.length > 7) vector_length = Integer.parseInt(args[7]);
+                break;
+            case LOCAL:
+                library = args[1];
+                scheme = args[2];
+                pk = args[3];
+                sk = args[4];
+                if (args.length > 5) repetitions = Integer.parseInt(args[5]);
+                if (args.length > 6) vector_length = Integer.parseInt(args[6]);
+                break;
+            default:
+                break;
+        }
+        System.out.println("CURRENT_DIRECTORY = "+Config.get_current_directory());
+
+        // required to load our shared library
+        SparkFHEPlugin.setup();
+        // create SparkFHE object
+        SparkFHE.init(library, scheme, pk, sk);
+
+        CostProfile profile = calibrate(library, scheme, repetitions, vector_length);
+        System.out.println(profile);
+        System.out.println("Stored cost profile in " + profile.save(Config.get_profiles_directory()));
+    }
+}
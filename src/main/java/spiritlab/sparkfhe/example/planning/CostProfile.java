@@ -0,0 +1,236 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.planning;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The measured cost of the homomorphic operators for one library, scheme and set of crypto
+ * params on one machine, as calibrated by {@link CostCalibration}. Profiles are kept as
+ * cost_profile_[crypto params suffix].json in the profiles directory.
+ *
+ * Latencies are per ciphertext, or per pair of ciphertexts for the dot product, whose profiled
+ * latency is that of a whole vector divided by its length.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class CostProfile {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * The measurements of one operator.
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class OpCost {
+        private double latencyMs;
+        private long outputBytes;
+        private int samples;
+
+        public OpCost() {
+        }
+
+        public OpCost(double latencyMs, long outputBytes, int samples) {
+            this.latencyMs = latencyMs;
+            this.outputBytes = outputBytes;
+            this.samples = samples;
+        }
+
+        public double getLatencyMs() {
+            return latencyMs;
+        }
+
+        public void setLatencyMs(double latencyMs) {
+            this.latencyMs = latencyMs;
+        }
+
+        public long getOutputBytes() {
+            return outputBytes;
+        }
+
+        public void setOutputBytes(long outputBytes) {
+            this.outputBytes = outputBytes;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+
+        public void setSamples(int samples) {
+            this.samples = samples;
+        }
+    }
+
+    private String library;
+    private String scheme;
+    private String cryptoParams;
+    private String host;
+    private long calibratedAt;
+    private Map<String, OpCost> ops = new TreeMap<>();
+
+    public CostProfile() {
+    }
+
+    public CostProfile(String library, String scheme, String cryptoParams) {
+        this.library = library;
+        this.scheme = scheme;
+        this.cryptoParams = cryptoParams;
+    }
+
+    public String getLibrary() {
+        return library;
+    }
+
+    public void setLibrary(String library) {
+        this.library = library;
+    }
+
+    public String getScheme() {
+        return scheme;
+    }
+
+    public void setScheme(String scheme) {
+        this.scheme = scheme;
+    }
+
+    public String getCryptoParams() {
+        return cryptoParams;
+    }
+
+    public void setCryptoParams(String cryptoParams) {
+        this.cryptoParams = cryptoParams;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public long getCalibratedAt() {
+        return calibratedAt;
+    }
+
+    public void setCalibratedAt(long calibratedAt) {
+        this.calibratedAt = calibratedAt;
+    }
+
+    public Map<String, OpCost> getOps() {
+        return ops;
+    }
+
+    public void setOps(Map<String, OpCost> ops) {
+        this.ops = new TreeMap<>(ops);
+    }
+
+    /**
+     * Record the measurements of an operator, replacing earlier ones.
+     * @param op the operator
+     * @param latency_ms the latency per ciphertext
+     * @param output_bytes the size of the resulting serialized ciphertext
+     * @param samples the number of measurements the latency was taken from
+     */
+    public void record(HomomorphicOp op, double latency_ms, long output_bytes, int samples) {
+        ops.put(op.name(), new OpCost(latency_ms, output_bytes, samples));
+    }
+
+    /**
+     * @param op an operator
+     * @return the measurements of the operator, or null if it was not calibrated
+     */
+    public OpCost get(HomomorphicOp op) {
+        return ops.get(op.name());
+    }
+
+    /**
+     * @param op an operator
+     * @return the measured latency of the operator, or the default cost scaled by the latency of
+     * fhe_add if it was not calibrated, or -1 if neither was
+     */
+    public double latency_ms(HomomorphicOp op) {
+        OpCost cost = get(op);
+        if (cost != null) {
+            return cost.getLatencyMs();
+        }
+        OpCost add = get(HomomorphicOp.ADD);
+        return add == null ? -1 : add.getLatencyMs() * op.default_cost();
+    }
+
+    /**
+     * @param op an operator
+     * @return the cost of the operator in units of fhe_add, the default cost if not calibrated
+     */
+    public double relative_cost(HomomorphicOp op) {
+        OpCost cost = get(op);
+        OpCost add = get(HomomorphicOp.ADD);
+        if (cost == null || add == null || add.getLatencyMs() <= 0) {
+            return op.default_cost();
+        }
+        return cost.getLatencyMs() / add.getLatencyMs();
+    }
+
+    /**
+     * @param crypto_params the crypto params suffix
+     * @return the name of the profile file for the params
+     */
+    public static String file_name(String crypto_params) {
+        return "cost_profile_" + crypto_params + ".json";
+    }
+
+    /**
+     * Load the profile of a set of crypto params.
+     * @param directory the profiles directory, usually Config.get_profiles_directory()
+     * @param crypto_params the crypto params suffix
+     * @return the profile, or null if these params were not calibrated
+     * @throws IOException if the profile cannot be read
+     */
+    public static CostProfile load(String directory, String crypto_params) throws IOException {
+        Path file = new Path(directory, file_name(crypto_params));
+        FileSystem fs = file.getFileSystem(new Configuration());
+        if (!fs.exists(file)) {
+            return null;
+        }
+        try (InputStream in = fs.open(file)) {
+            return mapper.readValue(in, CostProfile.class);
+        }
+    }
+
+    /**
+     * Store the profile in a profiles directory, replacing the previous one for the same params.
+     * @param directory the profiles directory
+     * @return the path of the profile
+     * @throws IOException if the profile cannot be written
+     */
+    public String save(String directory) throws IOException {
+        Path file = new Path(directory, file_name(cryptoParams));
+        FileSystem fs = file.getFileSystem(new Configuration());
+        try (OutputStream out = fs.create(file, true)) {
+            mapper.writerWithDefaultPrettyPrinter().writeValue(out, this);
+        }
+        return file.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(library + "/" + scheme + " " + cryptoParams + " on " + host + ":");
+        for (Map.Entry<String, OpCost> entry : ops.entrySet()) {
+            sb.append(String.format("%n  %-12s %10.3f ms %10d bytes (%d samples)", entry.getKey(),
+                    entry.getValue().getLatencyMs(), entry.getValue().getOutputBytes(), entry.getValue().getSamples()));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,34 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.planning;
+
+/**
+ * The homomorphic operators the examples run, with a default estimate of their cost per
+ * ciphertext relative to fhe_add. The defaults are rough orders of magnitude for BGV/CKKS,
+ * where a multiplication includes relinearization and a total sum a series of rotations.
+ */
+public enum HomomorphicOp {
+    ADD(1),
+    SUBTRACT(1),
+    MULTIPLY(20),
+    TOTAL_SUM(12),
+    DOT_PRODUCT(21),
+    ENCRYPT(8),
+    DECRYPT(4);
+
+    private final double default_cost;
+
+    HomomorphicOp(double default_cost) {
+        this.default_cost = default_cost;
+    }
+
+    /**
+     * @return the default cost of the operator on one ciphertext, in units of fhe_add
+     */
+    public double default_cost() {
+        return default_cost;
+    }
+}
@@ -0,0 +1,171 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.planning;
+
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import spiritlab.sparkfhe.example.storage.CatalogEntry;
+
+/**
+ * Decides how many partitions a homomorphic stage should run with, from the number and size of
+ * its ciphertexts, the cost of the operators it applies and the cores available.
+ *
+ * Partition counts otherwise come from how Spark splits the input files, which for a few hundred
+ * MB-sized ciphertexts in one JSON file is one or two tasks however many cores there are.
+ * The planner aims for a few tasks per core when there is enough work to share, keeps cheap
+ * stages on small inputs from being spread thinner than the scheduling overhead is worth, never
+ * plans more partitions than ciphertexts, and plans at least enough partitions to keep the
+ * ciphertexts of one task within a bounded amount of memory. Operator costs come from a
+ * {@link CostProfile} when the params were calibrated, and from rough defaults otherwise.
+ */
+public class PartitionPlanner {
+
+    // Spark's tuning guide recommends 2-3 tasks per core, a task taking longer than the others is
+    // then made up for by the rest of the wave
+    public static final int DEFAULT_TASKS_PER_CORE = 3;
+    // a task is worth scheduling if it does at least this much work, in units of fhe_add
+    public static final double DEFAULT_MIN_WORK_PER_PARTITION = 64;
+    public static final long DEFAULT_MAX_PARTITION_BYTES = 128L * 1024 * 1024;
+
+    private final int cores;
+    private final int tasks_per_core;
+    private final double min_work_per_partition;
+    private final long max_partition_bytes;
+    private final CostProfile profile;
+
+    public PartitionPlanner(int cores) {
+        this(cores, null);
+    }
+
+    public PartitionPlanner(int cores, CostProfile profile) {
+        this(cores, DEFAULT_TASKS_PER_CORE, DEFAULT_MIN_WORK_PER_PARTITION, DEFAULT_MAX_PARTITION_BYTES, profile);
+    }
+
+    public PartitionPlanner(int cores, int tasks_per_core, double min_work_per_partition, long max_partition_bytes,
+                            CostProfile profile) {
+        if (cores < 1 || tasks_per_core < 1 || min_work_per_partition <= 0 || max_partition_bytes < 1) {
+            throw new IllegalArgumentException("Invalid planner settings: " + cores + " cores, " + tasks_per_core
+                    + " tasks per core, " + min_work_per_partition + " work per partition, " + max_partition_bytes + " bytes per partition");
+        }
+        this.cores = cores;
+        this.tasks_per_core = tasks_per_core;
+        this.min_work_per_partition = min_work_per_partition;
+        this.max_partition_bytes = max_partition_bytes;
+        this.profile = profile;
+    }
+
+    /**
+     * @param jsc the spark context
+     * @return a planner for the cores of the application, as given by spark.default.parallelism
+     * or the total number of executor cores
+     */
+    public static PartitionPlanner for_context(JavaSparkContext jsc) {
+        return for_context(jsc, null);
+    }
+
+    /**
+     * @param jsc the spark context
+     * @param profile the calibrated costs of the params in use, may be null
+     * @return a planner for the cores of the application, using the calibrated costs
+     */
+    public static PartitionPlanner for_context(JavaSparkContext jsc, CostProfile profile) {
+        return new PartitionPlanner(jsc.defaultParallelism(), profile);
+    }
+
+    /**
+     * @return the number of cores the planner plans for
+     */
+    public int get_cores() {
+        return cores;
+    }
+
+    /**
+     * @return the calibrated costs the planner uses, or null if it uses the defaults
+     */
+    public CostProfile get_profile() {
+        return profile;
+    }
+
+    /**
+     * @param op an operator
+     * @return the estimated cost of the operator on one ciphertext, in units of fhe_add
+     */
+    public double cost(HomomorphicOp op) {
+        return profile == null ? op.default_cost() : profile.relative_cost(op);
+    }
+
+    /**
+     * Plan the partitions of a stage.
+     * @param elements the number of ciphertexts (or pairs of ciphertexts) the stage processes
+     * @param bytes the total size of those ciphertexts
+     * @param ops the operators the stage applies to every element
+     * @return the number of partitions, between 1 and the number of elements
+     */
+    public int plan(long elements, long bytes, HomomorphicOp... ops) {
+        if (elements <= 1) {
+            return 1;
+        }
+        double work_per_element = 0;
+        for (HomomorphicOp op : ops) {
+            work_per_element += cost(op);
+        }
+        long by_work = (long) Math.ceil(elements * work_per_element / min_work_per_partition);
+        long partitions = Math.min(by_work, (long) cores * tasks_per_core);
+        // past one wave, round up to whole waves so the last one does not leave cores idle
+        if (partitions > cores) {
+            partitions = (partitions + cores - 1) / cores * cores;
+        }
+        partitions = Math.max(partitions, (bytes + max_partition_bytes - 1) / max_partition_bytes);
+        return (int) Math.max(1, Math.min(partitions, elements));
+    }
+
+    /**
+     * Plan the partitions of a stage over a cataloged dataset.
+     * @param entry the dataset, may be null if it was not registered
+     * @param fallback the number of partitions to use if the size of the dataset is not known
+     * @param ops the operators the stage applies to every ciphertext
+     * @return the number of partitions
+     */
+    public int plan(CatalogEntry entry, int fallback, HomomorphicOp... ops) {
+        if (entry == null || entry.elements() < 0) {
+            return fallback;
+        }
+        return plan(entry.elements(), entry.getSizeBytes(), ops);
+    }
+
+    /**
+     * Bring an RDD to the planned number of partitions. Fewer partitions are obtained by coalescing,
+     * which avoids a shuffle, more by repartitioning. Repartitioning does not keep the order of
+     * the elements, so RDDs that are going to be zipped are to be planned after the zip.
+     * @param rdd the RDD
+     * @param partitions the planned number of partitions
+     * @return the RDD with the planned number of partitions
+     */
+    public static <T> JavaRDD<T> apply(JavaRDD<T> rdd, int partitions) {
+        int current = rdd.getNumPartitions();
+        if (current == partitions) {
+            return rdd;
+        }
+        System.out.println("Planned " + partitions + " partitions, was " + current);
+        return partitions < current ? rdd.coalesce(partitions) : rdd.repartition(partitions);
+    }
+
+    /**
+     * Bring a pair RDD, such as zipped ciphertexts, to the planned number of partitions.
+     * @param rdd the pair RDD
+     * @param partitions the planned number of partitions
+     * @return the pair RDD with the planned number of partitions
+     */
+    public static <K, V> JavaPairRDD<K, V> apply(JavaPairRDD<K, V> rdd, int partitions) {
+        int current = rdd.getNumPartitions();
+        if (current == partitions) {
+            return rdd;
+        }
+        System.out.println("Planned " + partitions + " partitions, was " + current);
+        return partitions < current ? rdd.coalesce(partitions) : rdd.repartition(partitions);
+    }
+}
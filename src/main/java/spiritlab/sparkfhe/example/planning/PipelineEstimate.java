@@ -0,0 +1,79 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.planning;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Estimates how long a pipeline of homomorphic stages will take from a {@link CostProfile},
+ * before running it. A stage applies one operator a number of times, in parallel over the
+ * partitions of the stage, so its wall time is counted in waves of as many operations as
+ * there are cores. Spark overhead, I/O and serialization are not included.
+ */
+public class PipelineEstimate {
+
+    private final CostProfile profile;
+    private final int cores;
+    private final List<String> stages = new ArrayList<String>();
+    private double cpu_ms;
+    private double wall_ms;
+
+    /**
+     * @param profile the calibrated costs
+     * @param cores the cores the pipeline runs on
+     */
+    public PipelineEstimate(CostProfile profile, int cores) {
+        this.profile = profile;
+        this.cores = Math.max(1, cores);
+    }
+
+    /**
+     * Add a stage to the pipeline.
+     * @param op the operator of the stage
+     * @param count the number of times the operator is applied
+     * @param partitions the number of partitions the stage runs with, at most count
+     * @return this estimate
+     */
+    public PipelineEstimate stage(HomomorphicOp op, long count, int partitions) {
+        double latency_ms = profile.latency_ms(op);
+        if (latency_ms < 0) {
+            throw new IllegalStateException("No calibrated cost for " + op + " in " + profile.getCryptoParams());
+        }
+        int parallelism = (int) Math.max(1, Math.min(Math.min(partitions, cores), count));
+        double stage_cpu_ms = count * latency_ms;
+        double stage_wall_ms = Math.ceil((double) count / parallelism) * latency_ms;
+        cpu_ms += stage_cpu_ms;
+        wall_ms += stage_wall_ms;
+        stages.add(String.format("%-12s x%-8d on %3d partitions: %12.1f ms cpu, %12.1f ms wall",
+                op, count, partitions, stage_cpu_ms, stage_wall_ms));
+        return this;
+    }
+
+    /**
+     * @return the total time spent in homomorphic operators, over all cores
+     */
+    public double cpu_ms() {
+        return cpu_ms;
+    }
+
+    /**
+     * @return the time the pipeline is expected to take
+     */
+    public double wall_ms() {
+        return wall_ms;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.format("Estimated %.1f ms (%.1f ms cpu on %d cores) with %s %s",
+                wall_ms, cpu_ms, cores, profile.getLibrary(), profile.getCryptoParams()));
+        for (String stage : stages) {
+            sb.append(String.format("%n  ")).append(stage);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,88 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.server;
+
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import spiritlab.sparkfhe.api.SerializedCiphertext;
+import spiritlab.sparkfhe.example.CiphertextBatches;
+import spiritlab.sparkfhe.example.FHEContext;
+import spiritlab.sparkfhe.example.planning.CostBalancedPartitioner;
+import spiritlab.sparkfhe.example.planning.HomomorphicOp;
+import spiritlab.sparkfhe.example.planning.PartitionPlanner;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The encrypted jobs of {@link FHEServer}, on RDDs of ciphertexts. Every task runs its native
+ * calls on the backend the context holds for it, see {@link FHEContext#get()}.
+ */
+public class FHEJobs {
+
+    /**
+     * @param ctxts the ciphertexts
+     * @param context the backend settings of the executors
+     * @param partitions the number of partitions, e.g. from PartitionPlanner.plan()
+     * @return a ciphertext holding the sum of all slots of all ciphertexts in every slot
+     */
+    public static String total_sum(JavaRDD<SerializedCiphertext> ctxts, FHEContext context, int partitions) {
+        // one native call per partition, then the partial sums are added up
+        SerializedCiphertext sum = PartitionPlanner.apply(ctxts, partitions).mapPartitions(records -> {
+            if (!records.hasNext()) {
+                return Collections.<SerializedCiphertext>emptyIterator();
+            }
+            return Collections.singletonList(new SerializedCiphertext(CiphertextBatches.sum(context.get(), null,
+                    records, SerializedCiphertext::getCtxt, CiphertextBatches.default_max_batch_bytes()))).iterator();
+        }).reduce((x, y) -> new SerializedCiphertext(context.get().fhe_add(x.getCtxt(), y.getCtxt())));
+        return context.get().fhe_total_sum(sum.getCtxt());
+    }
+
+    /**
+     * @param ctxts_a the ciphertexts of the first vector
+     * @param ctxts_b as many ciphertexts of the second vector
+     * @param context the backend settings of the executors
+     * @param planner plans the partitions
+     * @param partitions the number of partitions, e.g. from PartitionPlanner.plan()
+     * @return a ciphertext holding the dot product of the vectors in every slot
+     */
+    public static String dot_product(JavaRDD<SerializedCiphertext> ctxts_a, JavaRDD<SerializedCiphertext> ctxts_b,
+                                     FHEContext context, PartitionPlanner planner, int partitions) {
+        JavaPairRDD<SerializedCiphertext, SerializedCiphertext> pairs = zip(ctxts_a, ctxts_b, planner, HomomorphicOp.DOT_PRODUCT, partitions);
+        SerializedCiphertext product = pairs.mapPartitions(records -> {
+            if (!records.hasNext()) {
+                return Collections.<SerializedCiphertext>emptyIterator();
+            }
+            // the pairs of the partition are handed to a single native dot product call
+            return Collections.singletonList(new SerializedCiphertext(CiphertextBatches.dot_product(context.get(), records,
+                    rec -> rec._1.getCtxt(), rec -> rec._2.getCtxt(), CiphertextBatches.default_max_batch_bytes()))).iterator();
+        }).reduce((x, y) -> new SerializedCiphertext(context.get().fhe_add(x.getCtxt(), y.getCtxt())));
+        return context.get().fhe_total_sum(product.getCtxt());
+    }
+
+    /**
+     * @param ctxts_a the ciphertexts of the first vector
+     * @param ctxts_b as many ciphertexts of the second vector
+     * @param context the backend settings of the executors
+     * @param planner plans the partitions
+     * @param partitions the number of partitions, e.g. from PartitionPlanner.plan()
+     * @return the slot-wise products of the pairs of ciphertexts, in order
+     */
+    public static List<String> elementwise_product(JavaRDD<SerializedCiphertext> ctxts_a, JavaRDD<SerializedCiphertext> ctxts_b,
+                                                   FHEContext context, PartitionPlanner planner, int partitions) {
+        return zip(ctxts_a, ctxts_b, planner, HomomorphicOp.MULTIPLY, partitions)
+                .map(pair -> context.get().fhe_multiply(pair._1().getCtxt(), pair._2().getCtxt()))
+                .collect();
+    }
+
+    // pairs up the ciphertexts over partitions of balanced work, since larger ciphertexts take longer
+    private static JavaPairRDD<SerializedCiphertext, SerializedCiphertext> zip(JavaRDD<SerializedCiphertext> ctxts_a,
+                                                                               JavaRDD<SerializedCiphertext> ctxts_b,
+                                                                               PartitionPlanner planner, HomomorphicOp op, int partitions) {
+        return CostBalancedPartitioner.balanced_zip(ctxts_a, ctxts_b, ctxt -> (long) ctxt.getCtxt().length(),
+                ctxt -> (long) ctxt.getCtxt().length(), planner.cost(op), partitions);
+    }
+}
@@ -0,0 +1,540 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.sql.SparkSession;
+import spiritlab.sparkfhe.api.SerializedCiphertext;
+import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.FHEContext;
+import spiritlab.sparkfhe.example.backend.FHEBackend;
+import spiritlab.sparkfhe.example.backend.FHEBackends;
+import spiritlab.sparkfhe.example.planning.CostProfile;
+import spiritlab.sparkfhe.example.planning.HomomorphicOp;
+import spiritlab.sparkfhe.example.planning.PartitionPlanner;
+import spiritlab.sparkfhe.example.storage.CatalogEntry;
+import spiritlab.sparkfhe.example.storage.CiphertextCache;
+import spiritlab.sparkfhe.example.storage.CiphertextCatalog;
+import spiritlab.sparkfhe.example.storage.CiphertextCodec;
+import spiritlab.sparkfhe.example.storage.CiphertextParams;
+import spiritlab.sparkfhe.example.storage.CiphertextStore;
+import spiritlab.sparkfhe.example.storage.CiphertextWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A long-running SparkFHE server, keeping the SparkSession, the shared library and the keys
+ * loaded across jobs, so that a query pays for its homomorphic operators only. The datasets of
+ * the catalog are cached the first time a job reads them, see {@link CiphertextCache}, and
+ * recached when registered again. It listens on a local HTTP endpoint:
+ *
+ *   GET  /status                                       the library, scheme and cached datasets
+ *   GET  /datasets                                     the datasets of the catalog for the keys' params
+ *   POST /jobs/total_sum?dataset=..                    the encrypted sum of the slots of a dataset
+ *   POST /jobs/dot_product?a=..&amp;b=..                   the encrypted dot product of two datasets
+ *   POST /jobs/elementwise_product?a=..&amp;b=..&amp;output=..  the products of the pairs, stored and registered as output
+ *   POST /shutdown                                     stops the server
+ *
+ * Every request must carry the token of the server, as "Authorization: Bearer &lt;token&gt;", or
+ * is answered 401: the server holds the secret key, and any local user can reach the port. The
+ * token is written to gen/keys/fheserver.token, readable by the user running the server only.
+ *
+ * Jobs answer with JSON, holding the result ciphertext and the time the job took. Add
+ * decrypt=true to also get the decrypted values, if the server was started with
+ * -Dfheserver.decrypt=true; it refuses to decrypt otherwise. Requests are
+ * served concurrently and share catalog.json: registrations are serialized, and no lookup
+ * runs while the catalog is being rewritten. Output datasets are written aside and renamed into
+ * place, so jobs reading a dataset while it is replaced see either version in full.
+ */
+public class FHEServer {
+
+    public static final int DEFAULT_PORT = 8090;
+    // concurrent requests, each running its Spark jobs
+    public static final int DEFAULT_THREADS = 4;
+
+    // the file the token is written to, under the current directory
+    public static final String TOKEN_FILE = "gen/keys/fheserver.token";
+    // the system property enabling decrypt=true
+    public static final String DECRYPT_PROPERTY = "fheserver.decrypt";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final String BEARER = "Bearer ";
+
+    /**
+     * Answers a request from its query parameters.
+     */
+    interface Route {
+        Object handle(Map<String, String> params) throws Exception;
+    }
+
+    /**
+     * Runs the encrypted jobs on registered datasets.
+     */
+    interface Jobs {
+        String total_sum(CatalogEntry entry) throws IOException;
+
+        String dot_product(CatalogEntry entry_a, CatalogEntry entry_b) throws IOException;
+
+        List<String> elementwise_product(CatalogEntry entry_a, CatalogEntry entry_b) throws IOException;
+
+        /**
+         * Add the state of the jobs, e.g. the cached datasets, to the status.
+         */
+        void describe(Map<String, Object> status);
+
+        void close();
+    }
+
+    private final String library;
+    private final String scheme;
+    private final FHEBackend backend;
+    private final String records_directory;
+    private final String crypto_params;
+    private final Jobs jobs;
+    private final byte[] token;
+    private final boolean decrypt;
+    // taken to write catalog.json, and to read it, so that no reader sees it half replaced
+    private final ReadWriteLock catalog_lock = new ReentrantReadWriteLock();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private HttpServer server;
+    private ExecutorService threads;
+
+    // a cached dataset, with the time it was registered to notice when it is registered again
+    private static class CachedDataset {
+        final CiphertextCache cache;
+        final long registered_at;
+
+        CachedDataset(CiphertextCache cache, long registered_at) {
+            this.cache = cache;
+            this.registered_at = registered_at;
+        }
+    }
+
+    /**
+     * The jobs of {@link FHEJobs}, on the datasets cached in the session.
+     */
+    private static class SparkJobs implements Jobs {
+        private final SparkSession spark;
+        private final JavaSparkContext jsc;
+        private final FHEContext context;
+        private final PartitionPlanner planner;
+        private final Map<String, CachedDataset> caches = new ConcurrentHashMap<String, CachedDataset>();
+
+        SparkJobs(SparkSession spark, FHEContext context, String crypto_params) throws IOException {
+            this.spark = spark;
+            this.jsc = JavaSparkContext.fromSparkContext(spark.sparkContext());
+            this.context = context;
+            this.planner = PartitionPlanner.for_context(jsc, CostProfile.load(Config.get_profiles_directory(), crypto_params));
+        }
+
+        @Override
+        public String total_sum(CatalogEntry entry) {
+            return FHEJobs.total_sum(dataset(entry), context, planner.plan(entry, planner.get_cores(), HomomorphicOp.ADD));
+        }
+
+        @Override
+        public String dot_product(CatalogEntry entry_a, CatalogEntry entry_b) {
+            return FHEJobs.dot_product(dataset(entry_a), dataset(entry_b), context, planner,
+                    planner.plan(entry_a, planner.get_cores(), HomomorphicOp.DOT_PRODUCT));
+        }
+
+        @Override
+        public List<String> elementwise_product(CatalogEntry entry_a, CatalogEntry entry_b) {
+            return FHEJobs.elementwise_product(dataset(entry_a), dataset(entry_b), context, planner,
+                    planner.plan(entry_a, planner.get_cores(), HomomorphicOp.MULTIPLY));
+        }
+
+        // the ciphertexts of a dataset, cached until it is registered again
+        private JavaRDD<SerializedCiphertext> dataset(CatalogEntry entry) {
+            return caches.compute(entry.getName(), (name, cached) -> {
+                if (cached != null && cached.registered_at == entry.getRegisteredAt()) {
+                    return cached;
+                }
+                if (cached != null) {
+                    cached.cache.unpersist();
+                }
+                return new CachedDataset(CiphertextCache.of(jsc, name,
+                        CiphertextStore.read_ciphertexts(spark, entry.getPath()), CiphertextCodec.Compression.NONE),
+                        entry.getRegisteredAt());
+            }).cache.rdd();
+        }
+
+        @Override
+        public void describe(Map<String, Object> status) {
+            status.put("cores", planner.get_cores());
+            Map<String, String> cached = new LinkedHashMap<String, String>();
+            for (Map.Entry<String, CachedDataset> entry : caches.entrySet()) {
+                cached.put(entry.getKey(), entry.getValue().cache.report());
+            }
+            status.put("cached", cached);
+        }
+
+        @Override
+        public void close() {
+            for (CachedDataset cached : caches.values()) {
+                cached.cache.unpersist();
+            }
+        }
+    }
+
+    /**
+     * @param token the token the requests must carry
+     * @param decrypt whether jobs may answer decrypted values
+     */
+    public FHEServer(SparkSession spark, String library, String scheme, Broadcast<String> pk_b, Broadcast<String> sk_b,
+                     String token, boolean decrypt) throws IOException {
+        this(library, scheme, new FHEContext(library, scheme, pk_b, sk_b), spark, token, decrypt);
+    }
+
+    private FHEServer(String library, String scheme, FHEContext context, SparkSession spark, String token, boolean decrypt) throws IOException {
+        this(library, scheme, context.get(), Config.get_records_directory(),
+                new SparkJobs(spark, context, context.get().generate_crypto_params_suffix()), token, decrypt);
+    }
+
+    /**
+     * @param backend the backend of the driver, initialized with the keys
+     * @param records_directory the directory of catalog.json and of the datasets written
+     * @param jobs runs the jobs
+     * @param token the token the requests must carry
+     * @param decrypt whether jobs may answer decrypted values
+     */
+    FHEServer(String library, String scheme, FHEBackend backend, String records_directory, Jobs jobs,
+              String token, boolean decrypt) {
+        this.library = library;
+        this.scheme = scheme;
+        this.backend = backend;
+        this.records_directory = records_directory;
+        this.crypto_params = backend.generate_crypto_params_suffix();
+        this.jobs = jobs;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        this.decrypt = decrypt;
+    }
+
+    /**
+     * Start listening, requests are served by a pool of threads.
+     * @param host the address to bind, 127.0.0.1 to only accept local clients
+     * @param port the port, 0 for any free one
+     * @param threads the number of requests served at once
+     * @return the port listened on
+     * @throws IOException if the port cannot be bound
+     */
+    public int start(String host, int port, int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        route("GET", "/status", params -> status());
+        route("GET", "/datasets", params -> catalog().list().stream()
+                .filter(entry -> crypto_params.equals(entry.getParams().getCryptoParams())).toArray());
+        route("POST", "/jobs/total_sum", this::total_sum);
+        route("POST", "/jobs/dot_product", this::dot_product);
+        route("POST", "/jobs/elementwise_product", this::elementwise_product);
+        route("POST", "/shutdown", params -> {
+            stopped.countDown();
+            return "stopping";
+        });
+        this.threads = Executors.newFixedThreadPool(threads);
+        server.setExecutor(this.threads);
+        server.start();
+        System.out.println("FHEServer listening on http://" + host + ":" + server.getAddress().getPort()
+                + " for " + library + " " + scheme + " (" + crypto_params + ")");
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Wait for a shutdown request, then stop the server and drop the cached datasets.
+     */
+    public void await_shutdown() throws InterruptedException {
+        stopped.await();
+        server.stop(1);
+        jobs.close();
+        threads.shutdown();
+    }
+
+    private Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<String, Object>();
+        status.put("library", library);
+        status.put("scheme", scheme);
+        status.put("crypto_params", crypto_params);
+        jobs.describe(status);
+        return status;
+    }
+
+    private Map<String, Object> total_sum(Map<String, String> params) throws IOException {
+        long start = System.nanoTime();
+        String ctxt = jobs.total_sum(lookup(required(params, "dataset")));
+        return result("total_sum", ctxt, start, params);
+    }
+
+    private Map<String, Object> dot_product(Map<String, String> params) throws IOException {
+        long start = System.nanoTime();
+        CatalogEntry entry_a = lookup(required(params, "a")), entry_b = lookup(required(params, "b"));
+        String ctxt = jobs.dot_product(entry_a, entry_b);
+        return result("dot_product", ctxt, start, params);
+    }
+
+    private Map<String, Object> elementwise_product(Map<String, String> params) throws IOException {
+        long start = System.nanoTime();
+        CatalogEntry entry_a = lookup(required(params, "a")), entry_b = lookup(required(params, "b"));
+        // the output names a file of the records directory
+        String output = CiphertextCatalog.check_name(required(params, "output"));
+        List<String> products = jobs.elementwise_product(entry_a, entry_b);
+
+        // written next to the output dataset, if any, and renamed over it, so that the jobs reading
+        // the previous version meanwhile never see it missing or half written
+        String path = catalog().default_path(output, crypto_params);
+        String tmp = path + "." + UUID.randomUUID() + ".tmp";
+        CatalogEntry registered;
+        try {
+            try (CiphertextWriter writer = CiphertextWriter.open(tmp, Config.Ciphertext_Label, CiphertextCodec.Compression.NONE)) {
+                for (String product : products) {
+                    writer.write(product);
+                }
+            }
+            // registered once in place, one job at a time
+            catalog_lock.writeLock().lock();
+            try {
+                CiphertextStore.replace_file(tmp, path);
+                registered = CiphertextCatalog.open(records_directory).register(output, path, CatalogEntry.FORMAT_JSONL,
+                        new CiphertextParams(crypto_params, library, scheme));
+            } finally {
+                catalog_lock.writeLock().unlock();
+            }
+        } finally {
+            // left behind if the job failed
+            Path file = new Path(tmp);
+            file.getFileSystem(new Configuration()).delete(file, false);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("job", "elementwise_product");
+        result.put("millis", (System.nanoTime() - start) / 1000000);
+        result.put("dataset", registered);
+        return result;
+    }
+
+    private Map<String, Object> result(String job, String ctxt, long start, Map<String, String> params) {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("job", job);
+        result.put("millis", (System.nanoTime() - start) / 1000000);
+        result.put(Config.Ciphertext_Label, ctxt);
+        if (Boolean.parseBoolean(params.get("decrypt"))) {
+            if (!decrypt) {
+                throw new IllegalArgumentException("Decryption is disabled, start the server with -D" + DECRYPT_PROPERTY + "=true");
+            }
+            result.put("values", backend.decrypt(ctxt));
+        }
+        return result;
+    }
+
+    // the catalog is read for every job, to see the datasets registered since the server started
+    private CiphertextCatalog catalog() throws IOException {
+        catalog_lock.readLock().lock();
+        try {
+            return CiphertextCatalog.open(records_directory);
+        } finally {
+            catalog_lock.readLock().unlock();
+        }
+    }
+
+    private CatalogEntry lookup(String name) throws IOException {
+        CatalogEntry entry = catalog().lookup(name, crypto_params);
+        if (entry == null) {
+            throw new IllegalArgumentException("No dataset " + name + " registered for " + crypto_params);
+        }
+        return entry;
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+
+    private void route(String method, String path, Route route) {
+        server.createContext(path, exchange -> {
+            int status = 200;
+            Object body;
+            try {
+                if (!authorized(exchange)) {
+                    status = 401;
+                    body = error("Missing or wrong token");
+                } else if (!method.equals(exchange.getRequestMethod())) {
+                    status = 405;
+                    body = error(method + " expected");
+                } else {
+                    body = route.handle(parse_query(exchange.getRequestURI().getRawQuery()));
+                }
+            } catch (IllegalArgumentException e) {
+                status = 400;
+                body = error(e.getMessage());
+            } catch (Exception e) {
+                e.printStackTrace();
+                status = 500;
+                body = error(e.toString());
+            }
+            respond(exchange, status, body);
+        });
+    }
+
+    private boolean authorized(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        return authorization != null && authorization.startsWith(BEARER) && MessageDigest.isEqual(token,
+                authorization.substring(BEARER.length()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, String> error(String message) {
+        Map<String, String> error = new LinkedHashMap<String, String>();
+        error.put("error", message);
+        return error;
+    }
+
+    private static void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @param query the raw query of a URI, may be null
+     * @return its decoded parameters, the last value of a repeated parameter wins
+     */
+    static Map<String, String> parse_query(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int separator = pair.indexOf('=');
+            String name = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return params;
+    }
+
+    /**
+     * Generate a token and write it to a file only the current user can read, replacing the
+     * token of a previous server.
+     * @param file the file, its directory is created if missing
+     * @return the token
+     * @throws IOException if the file cannot be written
+     */
+    static String write_token(java.nio.file.Path file) throws IOException {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        StringBuilder token = new StringBuilder();
+        for (byte b : secret) {
+            token.append(String.format("%02x", b));
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Files.deleteIfExists(file);
+        try {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system
+            Files.createFile(file);
+        }
+        Files.write(file, token.toString().getBytes(StandardCharsets.UTF_8));
+        return token.toString();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String scheme="", library = "", pk="", sk="";
+        int port = DEFAULT_PORT;
+
+        // Create a SparkConf that loads defaults from system properties and the classpath
+        SparkConf sparkConf = new SparkConf();
+        //Provides the Spark driver application a name for easy identification in the Spark or Yarn UI
+        sparkConf.setAppName("FHEServer");
+        // concurrent requests share the executors instead of queueing behind each other
+        sparkConf.setIfMissing("spark.scheduler.mode", "FAIR");
+
+        // Decide whether to run the task locally or on the clusters
+        Config.setExecutionEnvironment(args[0]);
+        switch (Config.currentExecutionEnvironment) {
+            case CLUSTER:
+                Config.set_HDFS_NAME_NODE(args[1]);
+                library = args[2];
+                scheme = args[3];
+                pk = args[4];
+                sk = args[5];
+                if (args.length > 6) port = Integer.parseInt(args[6]);
+                break;
+            case LOCAL:
+                sparkConf.setMaster("local[*]");
+                library = args[1];
+                scheme = args[2];
+                pk = args[3];
+                sk = args[4];
+                if (args.length > 5) port = Integer.parseInt(args[5]);
+                break;
+            default:
+                break;
+        }
+        System.out.println("CURRENT_DIRECTORY = "+Config.get_current_directory());
+
+        // Creating a session to Spark. The session allows the creation of the
+        // various data abstractions such as RDDs, DataFrame, and more.
+        SparkSession spark = SparkSession.builder().config(sparkConf).getOrCreate();
+
+        // Creating spark context which allows the communication with worker nodes
+        JavaSparkContext jsc = new JavaSparkContext(spark.sparkContext());
+
+        // load our shared library and create the SparkFHE object, or select the plaintext backend
+        FHEBackends.init(library, scheme, pk, sk);
+
+        Broadcast<String> pk_b = jsc.broadcast(pk);
+        Broadcast<String> sk_b = jsc.broadcast(sk);
+
+        // the driver is local, the token is written next to the keys of the current directory
+        java.nio.file.Path token_file = Paths.get(System.getProperty("user.dir"), TOKEN_FILE);
+        String token = write_token(token_file);
+        FHEServer server = new FHEServer(spark, library, scheme, pk_b, sk_b, token, Boolean.getBoolean(DECRYPT_PROPERTY));
+        server.start("127.0.0.1", port, DEFAULT_THREADS);
+        System.out.println("The token of the requests is in " + token_file);
+        server.await_shutdown();
+
+        // Stop existing spark context
+        jsc.close();
+
+        // Stop existing spark session
+        spark.close();
+    }
+}
@@ -0,0 +1,92 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.sql;
+
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoder;
+import org.apache.spark.sql.Encoders;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.DataTypes;
+import spiritlab.sparkfhe.api.SerializedCiphertext;
+import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.storage.CiphertextStore;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Ciphertext columns for DataFrames. Ciphertexts are kept as BinaryType holding the bytes of
+ * their serialized form, so Spark moves them around as opaque byte arrays: no UTF-8 handling
+ * when rows are copied, shuffled or joined, and no java.lang.String until the native call that
+ * needs it. {@link FHEFunctions} operate on these columns, and turn the bytes into a String at
+ * the native call only.
+ *
+ * JSON-lines ciphertext files hold text: {@link #read_ciphertexts} converts them to a binary
+ * column as they are read, and {@link #to_ciphertexts} converts a binary column back, to write
+ * it as JSON lines. ParquetLayoutExample.convert stores them as binary once and for all.
+ */
+public class CiphertextColumns {
+
+    // serialized ciphertexts are text, the bytes are those of their UTF-8 encoding, as with CAST(ctxt AS BINARY)
+    public static final Encoder<byte[]> ENCODER = Encoders.BINARY();
+
+    /**
+     * @param ctxt a serialized ciphertext
+     * @return the value stored in a ciphertext column
+     */
+    public static byte[] to_bytes(String ctxt) {
+        return ctxt == null ? null : ctxt.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param ctxt the value of a ciphertext column
+     * @return the serialized ciphertext, as expected by the native library
+     */
+    public static String to_string(byte[] ctxt) {
+        return ctxt == null ? null : new String(ctxt, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param ctxt a ciphertext column, either binary or still holding the serialized text
+     * @return the column as a binary ciphertext column; a no-op for binary columns
+     */
+    public static Column as_binary(Column ctxt) {
+        return ctxt.cast(DataTypes.BinaryType);
+    }
+
+    /**
+     * Convert ciphertexts read from JSON into a single binary ciphertext column.
+     * @param ctxts the ciphertexts
+     * @param name the name of the resulting column
+     * @return a DataFrame with one BinaryType column
+     */
+    public static Dataset<Row> to_binary(Dataset<SerializedCiphertext> ctxts, String name) {
+        return ctxts.select(as_binary(ctxts.col(Config.Ciphertext_Label)).as(name));
+    }
+
+    /**
+     * Convert a binary ciphertext column back into the ciphertexts of JSON-lines files, e.g. to
+     * write them with write().json().
+     * @param ctxts the DataFrame
+     * @param name the name of its binary ciphertext column
+     * @return the ciphertexts, with the serialized text named after Config.Ciphertext_Label
+     */
+    public static Dataset<SerializedCiphertext> to_ciphertexts(Dataset<Row> ctxts, String name) {
+        return ctxts.select(ctxts.col(name).cast(DataTypes.StringType).as(Config.Ciphertext_Label))
+                .as(Encoders.bean(SerializedCiphertext.class));
+    }
+
+    /**
+     * Read JSON-lines ciphertext files into a binary ciphertext column named after Config.Ciphertext_Label.
+     * @param spark the spark session
+     * @param files the files (or directories, or globs) to read
+     * @return a DataFrame with one BinaryType column
+     */
+    public static Dataset<Row> read_ciphertexts(SparkSession spark, String... files) {
+        return to_binary(CiphertextStore.read_ciphertexts(spark, files), Config.Ciphertext_Label);
+    }
+}
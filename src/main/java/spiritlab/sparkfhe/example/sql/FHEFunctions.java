@@ -0,0 +1,96 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.sql;
+
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.api.java.UDF1;
+import org.apache.spark.sql.api.java.UDF2;
+import org.apache.spark.sql.functions;
+import org.apache.spark.sql.types.DataTypes;
+import spiritlab.sparkfhe.example.FHEContext;
+
+import static spiritlab.sparkfhe.example.sql.CiphertextColumns.as_binary;
+import static spiritlab.sparkfhe.example.sql.CiphertextColumns.to_bytes;
+import static spiritlab.sparkfhe.example.sql.CiphertextColumns.to_string;
+
+/**
+ * Ciphertext arithmetic for DataFrames and SQL. Once {@link #register} has been called, the
+ * functions can be used in SQL text (SELECT fhe_add(ctxt_a, ctxt_b) FROM ...) or through the
+ * Column helpers below, e.g. df.select(fhe_sum(fhe_mul(col("ctxt_a"), col("ctxt_b")))).
+ *
+ * They are registered as UDFs, so they stay in the query plan: columns that are not needed are
+ * pruned before the native calls, and the calls are fused into the surrounding stage instead of
+ * breaking it with a mapPartitions. A null operand gives a null result.
+ *
+ * Operands and results are binary ciphertext columns, see {@link CiphertextColumns}. The Column
+ * helpers also accept the string columns read from JSON and cast them; in SQL text, use binary
+ * columns or CAST(ctxt AS BINARY).
+ */
+public class FHEFunctions {
+
+    public static final String FHE_ADD = "fhe_add";
+    public static final String FHE_MUL = "fhe_mul";
+    public static final String FHE_SUB = "fhe_sub";
+    public static final String FHE_TOTAL_SUM = "fhe_total_sum";
+
+    /**
+     * Register the ciphertext functions, and the {@link FHESumAggregator} aggregate, with a session.
+     * @param spark the spark session
+     * @param library the HE library name
+     * @param scheme  the HE scheme name
+     * @param pk_b broadcast variable for public key
+     * @param sk_b broadcast variable for secret key
+     */
+    public static void register(SparkSession spark, String library, String scheme, Broadcast<String> pk_b, Broadcast<String> sk_b) {
+        FHEContext context = new FHEContext(library, scheme, pk_b, sk_b);
+        spark.udf().register(FHE_ADD, (UDF2<byte[], byte[], byte[]>) (a, b) -> a == null || b == null ? null
+                : to_bytes(context.get().fhe_add(to_string(a), to_string(b))), DataTypes.BinaryType);
+        spark.udf().register(FHE_MUL, (UDF2<byte[], byte[], byte[]>) (a, b) -> a == null || b == null ? null
+                : to_bytes(context.get().fhe_multiply(to_string(a), to_string(b))), DataTypes.BinaryType);
+        spark.udf().register(FHE_SUB, (UDF2<byte[], byte[], byte[]>) (a, b) -> a == null || b == null ? null
+                : to_bytes(context.get().fhe_subtract(to_string(a), to_string(b))), DataTypes.BinaryType);
+        spark.udf().register(FHE_TOTAL_SUM, (UDF1<byte[], byte[]>) a -> a == null ? null
+                : to_bytes(context.get().fhe_total_sum(to_string(a))), DataTypes.BinaryType);
+        spark.udf().register(FHESumAggregator.NAME, functions.udaf(new FHESumAggregator(context), CiphertextColumns.ENCODER));
+    }
+
+    /**
+     * @return the homomorphic sum of two ciphertext columns
+     */
+    public static Column fhe_add(Column a, Column b) {
+        return functions.callUDF(FHE_ADD, as_binary(a), as_binary(b));
+    }
+
+    /**
+     * @return the homomorphic product of two ciphertext columns
+     */
+    public static Column fhe_mul(Column a, Column b) {
+        return functions.callUDF(FHE_MUL, as_binary(a), as_binary(b));
+    }
+
+    /**
+     * @return the homomorphic difference of two ciphertext columns
+     */
+    public static Column fhe_sub(Column a, Column b) {
+        return functions.callUDF(FHE_SUB, as_binary(a), as_binary(b));
+    }
+
+    /**
+     * @return the sum of the slots of each packed ciphertext of a column
+     */
+    public static Column fhe_total_sum(Column a) {
+        return functions.callUDF(FHE_TOTAL_SUM, as_binary(a));
+    }
+
+    /**
+     * @return the aggregate homomorphic sum of a ciphertext column
+     */
+    public static Column fhe_sum(Column a) {
+        return functions.callUDF(FHESumAggregator.NAME, as_binary(a));
+    }
+}
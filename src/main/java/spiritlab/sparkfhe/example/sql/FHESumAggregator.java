@@ -0,0 +1,141 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.sql;
+
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.sql.Encoder;
+import org.apache.spark.sql.Encoders;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.expressions.Aggregator;
+import org.apache.spark.sql.functions;
+import spiritlab.sparkfhe.example.CiphertextBatches;
+import spiritlab.sparkfhe.example.FHEContext;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * Homomorphic sum of a ciphertext column, usable from SQL once registered, e.g.
+ * SELECT fhe_sum(ctxt) FROM records GROUP BY key, over a binary ciphertext column (see {@link CiphertextColumns}).
+ *
+ * Each task folds its rows into a ciphertext buffer and the partial buffers are merged after
+ * the shuffle, so Spark plans it as a regular partial/final aggregation and only one ciphertext
+ * per group and partition leaves the executor. Rows are collected and added up with one native
+ * call per batch of ciphertexts instead of one per row. A buffer is flushed once its pending
+ * ciphertexts reach {@link CiphertextBatches#default_max_batch_bytes()}, counted in bytes of the
+ * binary column, i.e. the bytes copied into the native vector: a flush is one native batch, and
+ * the buffers of many groups fit in memory at once.
+ * The result is null for groups without ciphertexts.
+ */
+public class FHESumAggregator extends Aggregator<byte[], FHESumAggregator.Buffer, byte[]> {
+
+    public static final String NAME = "fhe_sum";
+
+    private final FHEContext context;
+    // the pending ciphertext bytes of a buffer after which they are added up, read on the executor
+    private transient long flush_bytes;
+
+    /**
+     * @param context the settings used to init the FHE backend on the executors
+     */
+    public FHESumAggregator(FHEContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Register the aggregate as a SQL function named {@value #NAME}.
+     * @param spark the spark session
+     * @param library the HE library name
+     * @param scheme  the HE scheme name
+     * @param pk_b broadcast variable for public key
+     * @param sk_b broadcast variable for secret key
+     */
+    public static void register(SparkSession spark, String library, String scheme, Broadcast<String> pk_b, Broadcast<String> sk_b) {
+        spark.udf().register(NAME, functions.udaf(new FHESumAggregator(new FHEContext(library, scheme, pk_b, sk_b)), CiphertextColumns.ENCODER));
+    }
+
+    @Override
+    public Buffer zero() {
+        return new Buffer();
+    }
+
+    @Override
+    public Buffer reduce(Buffer buffer, byte[] ctxt) {
+        if (ctxt == null) {
+            return buffer;
+        }
+        buffer.add(ctxt);
+        if (buffer.pending_bytes >= get_flush_bytes()) {
+            flush(buffer);
+        }
+        return buffer;
+    }
+
+    @Override
+    public Buffer merge(Buffer b1, Buffer b2) {
+        if (b2.partial != null) {
+            b1.add(b2.partial);
+        }
+        for (byte[] ctxt : b2.pending) {
+            b1.add(ctxt);
+        }
+        if (b1.pending_bytes >= get_flush_bytes()) {
+            flush(b1);
+        }
+        return b1;
+    }
+
+    @Override
+    public byte[] finish(Buffer reduction) {
+        flush(reduction);
+        return reduction.partial;
+    }
+
+    @Override
+    public Encoder<Buffer> bufferEncoder() {
+        return Encoders.kryo(Buffer.class);
+    }
+
+    @Override
+    public Encoder<byte[]> outputEncoder() {
+        return CiphertextColumns.ENCODER;
+    }
+
+    private long get_flush_bytes() {
+        if (flush_bytes == 0) {
+            flush_bytes = CiphertextBatches.default_max_batch_bytes();
+        }
+        return flush_bytes;
+    }
+
+    // fold the pending ciphertexts into the partial sum with one native call
+    private void flush(Buffer buffer) {
+        if (buffer.pending.isEmpty()) {
+            return;
+        }
+        // the partial sum and all pending ciphertexts in one native call, with the keys held for the task
+        String sum = CiphertextBatches.sum(context.get(), CiphertextColumns.to_string(buffer.partial),
+                buffer.pending.iterator(), CiphertextColumns::to_string, Long.MAX_VALUE);
+        buffer.partial = CiphertextColumns.to_bytes(sum);
+        buffer.pending.clear();
+        buffer.pending_bytes = 0;
+    }
+
+    /**
+     * The aggregation buffer: the sum so far, and the ciphertexts not yet added to it.
+     */
+    public static class Buffer implements Serializable {
+        private byte[] partial;
+        private final ArrayList<byte[]> pending = new ArrayList<byte[]>();
+        // the length of the pending binary ciphertexts, in bytes
+        private long pending_bytes;
+
+        private void add(byte[] ctxt) {
+            pending.add(ctxt);
+            pending_bytes += ctxt.length;
+        }
+    }
+}
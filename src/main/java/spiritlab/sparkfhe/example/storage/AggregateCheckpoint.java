@@ -0,0 +1,185 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.storage;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A persisted, encrypted partial aggregate over an append-only directory of ciphertext files.
+ *
+ * The checkpoint directory holds a manifest.json listing the input files already folded into
+ * the aggregate (with their length, to detect files rewritten in place), and the aggregate
+ * ciphertext itself in aggregate_[version].jsonl. A new aggregate file is written first and the
+ * manifest is swapped afterwards, so a run interrupted at any point leaves the previous
+ * checkpoint usable.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class AggregateCheckpoint {
+
+    public static final String MANIFEST_FILE = "manifest.json";
+    private static final String INPUT_SUFFIX = ".jsonl";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private String cryptoParams;
+    private long version;
+    private String aggregateFile;
+    private Map<String, Long> files = new TreeMap<>();
+
+    public AggregateCheckpoint() {
+    }
+
+    public String getCryptoParams() {
+        return cryptoParams;
+    }
+
+    public void setCryptoParams(String cryptoParams) {
+        this.cryptoParams = cryptoParams;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public String getAggregateFile() {
+        return aggregateFile;
+    }
+
+    public void setAggregateFile(String aggregateFile) {
+        this.aggregateFile = aggregateFile;
+    }
+
+    public Map<String, Long> getFiles() {
+        return files;
+    }
+
+    public void setFiles(Map<String, Long> files) {
+        this.files = new TreeMap<>(files);
+    }
+
+    /**
+     * Load the checkpoint kept in a directory.
+     * @param directory the checkpoint directory, either a local path or a Hadoop URI
+     * @return the checkpoint, or an empty one if nothing was committed yet
+     * @throws IOException if the manifest cannot be read
+     */
+    public static AggregateCheckpoint load(String directory) throws IOException {
+        Path dir = new Path(directory);
+        FileSystem fs = dir.getFileSystem(new Configuration());
+        Path manifest = new Path(dir, MANIFEST_FILE);
+        if (!fs.exists(manifest)) {
+            // a commit may have been interrupted between removing the old manifest and renaming the new one
+            manifest = new Path(dir, MANIFEST_FILE + ".tmp");
+            if (!fs.exists(manifest)) {
+                return new AggregateCheckpoint();
+            }
+        }
+        try (InputStream in = fs.open(manifest)) {
+            return mapper.readValue(in, AggregateCheckpoint.class);
+        }
+    }
+
+    /**
+     * List the ciphertext files currently in an input directory.
+     * @param input_directory the directory holding the JSON-lines ciphertext files
+     * @return the fully qualified file paths, with their lengths
+     * @throws IOException if the directory cannot be listed
+     */
+    public static Map<String, Long> list_inputs(String input_directory) throws IOException {
+        Path dir = new Path(input_directory);
+        FileSystem fs = dir.getFileSystem(new Configuration());
+        Map<String, Long> inputs = new TreeMap<>();
+        for (FileStatus status : fs.listStatus(dir)) {
+            if (status.isFile() && status.getPath().getName().endsWith(INPUT_SUFFIX)) {
+                inputs.put(status.getPath().toString(), status.getLen());
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * Work out which inputs still have to be folded into the aggregate.
+     * @param inputs the current content of the input directory, see {@link #list_inputs(String)}
+     * @return the files not covered by this checkpoint, in path order
+     * @throws IllegalStateException if a file already aggregated was modified or removed,
+     *         in which case the dataset is no longer append-only and the checkpoint must be reset
+     */
+    public List<String> pending_files(Map<String, Long> inputs) {
+        for (Map.Entry<String, Long> seen : files.entrySet()) {
+            Long length = inputs.get(seen.getKey());
+            if (!seen.getValue().equals(length)) {
+                throw new IllegalStateException("Input " + seen.getKey() + (length == null ? " was removed" : " was modified")
+                        + " after being aggregated, delete the checkpoint to recompute from scratch");
+            }
+        }
+        List<String> pending = new ArrayList<>();
+        for (String file : inputs.keySet()) {
+            if (!files.containsKey(file)) {
+                pending.add(file);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Persist a new aggregate covering the files of this checkpoint plus the newly folded ones.
+     * @param directory the checkpoint directory, either a local path or a Hadoop URI
+     * @param label the JSON field holding the ciphertext, usually Config.Ciphertext_Label
+     * @param aggregate_ctxt the serialized aggregate
+     * @param folded the files folded into the aggregate since the last commit, with their lengths
+     * @param compression the compression to apply to the stored aggregate
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public void commit(String directory, String label, String aggregate_ctxt, Map<String, Long> folded,
+                       CiphertextCodec.Compression compression) throws IOException {
+        Path dir = new Path(directory);
+        FileSystem fs = dir.getFileSystem(new Configuration());
+        fs.mkdirs(dir);
+
+        String previous_file = aggregateFile;
+        long next_version = version + 1;
+        String next_file = "aggregate_" + next_version + ".jsonl";
+        Path next_path = new Path(dir, next_file);
+        // left over by an interrupted run, the store appends so it has to go first
+        fs.delete(next_path, false);
+        CiphertextStore.store_ciphertext_to_file(label, aggregate_ctxt, next_path.toString(), compression);
+
+        version = next_version;
+        aggregateFile = next_file;
+        files.putAll(folded);
+
+        Path manifest = new Path(dir, MANIFEST_FILE);
+        Path tmp = new Path(dir, MANIFEST_FILE + ".tmp");
+        try (OutputStream out = fs.create(tmp, true)) {
+            mapper.writerWithDefaultPrettyPrinter().writeValue(out, this);
+        }
+        fs.delete(manifest, false);
+        if (!fs.rename(tmp, manifest)) {
+            throw new IOException("Failed to rename " + tmp + " to " + manifest);
+        }
+
+        if (previous_file != null) {
+            fs.delete(new Path(dir, previous_file), false);
+        }
+    }
+}
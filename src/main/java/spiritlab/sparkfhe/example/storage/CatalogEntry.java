@@ -0,0 +1,113 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.storage;
+
+/**
+ * A ciphertext dataset registered in the {@link CiphertextCatalog}: where it is, how it is
+ * stored, what it was encrypted with, and how big it is.
+ */
+public class CatalogEntry {
+
+    public static final String FORMAT_JSONL = "jsonl";
+    public static final String FORMAT_PARQUET = "parquet";
+
+    private String name;
+    private String path;
+    private String format;
+    private CiphertextParams params;
+    private int files;
+    private long sizeBytes;
+    private long minCtxtBytes = CiphertextParams.UNKNOWN;
+    private long maxCtxtBytes = CiphertextParams.UNKNOWN;
+    private long registeredAt;
+
+    public CatalogEntry() {
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public CiphertextParams getParams() {
+        return params;
+    }
+
+    public void setParams(CiphertextParams params) {
+        this.params = params;
+    }
+
+    public int getFiles() {
+        return files;
+    }
+
+    public void setFiles(int files) {
+        this.files = files;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public void setSizeBytes(long sizeBytes) {
+        this.sizeBytes = sizeBytes;
+    }
+
+    public long getMinCtxtBytes() {
+        return minCtxtBytes;
+    }
+
+    public void setMinCtxtBytes(long minCtxtBytes) {
+        this.minCtxtBytes = minCtxtBytes;
+    }
+
+    public long getMaxCtxtBytes() {
+        return maxCtxtBytes;
+    }
+
+    public void setMaxCtxtBytes(long maxCtxtBytes) {
+        this.maxCtxtBytes = maxCtxtBytes;
+    }
+
+    public long getRegisteredAt() {
+        return registeredAt;
+    }
+
+    public void setRegisteredAt(long registeredAt) {
+        this.registeredAt = registeredAt;
+    }
+
+    /**
+     * @return the number of ciphertexts in the dataset, or -1 if unknown
+     */
+    public long elements() {
+        return params == null ? CiphertextParams.UNKNOWN : params.getElements();
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + format + ", " + elements() + " ciphertexts, " + sizeBytes + " bytes in " + files + " files) at " + path;
+    }
+}
@@ -0,0 +1,196 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.storage;
+
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoders;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.storage.RDDInfo;
+import org.apache.spark.storage.StorageLevel;
+import org.apache.spark.util.LongAccumulator;
+import scala.Tuple2;
+import spiritlab.sparkfhe.api.SerializedCiphertext;
+
+/**
+ * Caches an RDD of ciphertexts, or of pairs of ciphertexts, that several operators read.
+ *
+ * RDD.cache() keeps the SerializedCiphertext objects on the heap, where a ciphertext string
+ * takes twice its size as UTF-16 chars, and drops the partitions that do not fit, which are
+ * then read and parsed again. Here every ciphertext is kept in the binary form of
+ * {@link CiphertextCodec#to_bytes}, optionally compressed, at MEMORY_AND_DISK_SER so that
+ * the partitions that do not fit in memory are spilled to the local disks of the executors.
+ *
+ * Accumulators count the records encoded into the cache, each one a miss, and the records
+ * read from it, which {@link #report()} prints along with the size of the cached blocks. A
+ * block evicted from memory is spilled, not dropped, so records are only encoded again when
+ * their block was lost, e.g. with its executor, and each such record is a miss again: the hits
+ * are the reads minus the encodes. Retried and speculative tasks count again, so the counts are
+ * approximate; the cached partitions of the report come from the block manager and are exact.
+ */
+public class CiphertextCache {
+
+    private final JavaSparkContext jsc;
+    private final String name;
+    private final JavaRDD<byte[][]> stored;
+    private final LongAccumulator encoded_records;
+    private final LongAccumulator encoded_bytes;
+    private final LongAccumulator reads;
+
+    private CiphertextCache(JavaSparkContext jsc, String name, JavaRDD<String[]> records, CiphertextCodec.Compression compression) {
+        this.jsc = jsc;
+        this.name = name;
+        this.encoded_records = jsc.sc().longAccumulator(name + ".encoded_records");
+        this.encoded_bytes = jsc.sc().longAccumulator(name + ".encoded_bytes");
+        this.reads = jsc.sc().longAccumulator(name + ".reads");
+
+        // local copies, the closure must not capture the cache itself
+        LongAccumulator encoded_records = this.encoded_records, encoded_bytes = this.encoded_bytes;
+        this.stored = records.map(ctxts -> {
+            byte[][] record = new byte[ctxts.length][];
+            for (int i = 0; i < ctxts.length; i++) {
+                record[i] = CiphertextCodec.to_bytes(ctxts[i], compression);
+                encoded_bytes.add(record[i].length);
+            }
+            encoded_records.add(1);
+            return record;
+        });
+        this.stored.setName(name).persist(StorageLevel.MEMORY_AND_DISK_SER());
+    }
+
+    /**
+     * @param jsc the spark context
+     * @param name the name of the cached RDD, shown in the Spark UI and the report
+     * @param rdd the ciphertexts
+     * @param compression the compression of the cached ciphertexts
+     * @return the cache, filled by the first job reading it
+     */
+    public static CiphertextCache of(JavaSparkContext jsc, String name, JavaRDD<SerializedCiphertext> rdd,
+                                     CiphertextCodec.Compression compression) {
+        return new CiphertextCache(jsc, name, rdd.map(ctxt -> new String[]{ctxt.getCtxt()}), compression);
+    }
+
+    /**
+     * @param jsc the spark context
+     * @param name the name of the cached RDD, shown in the Spark UI and the report
+     * @param dataset the ciphertexts, e.g. from CiphertextStore.read_ciphertexts
+     * @param compression the compression of the cached ciphertexts
+     * @return the cache, filled by the first job reading it
+     */
+    public static CiphertextCache of(JavaSparkContext jsc, String name, Dataset<SerializedCiphertext> dataset,
+                                     CiphertextCodec.Compression compression) {
+        return of(jsc, name, dataset.javaRDD(), compression);
+    }
+
+    /**
+     * @param jsc the spark context
+     * @param name the name of the cached RDD, shown in the Spark UI and the report
+     * @param pairs the pairs of ciphertexts, e.g. two zipped RDDs
+     * @param compression the compression of the cached ciphertexts
+     * @return the cache, filled by the first job reading it
+     */
+    public static CiphertextCache of_pairs(JavaSparkContext jsc, String name,
+                                           JavaPairRDD<SerializedCiphertext, SerializedCiphertext> pairs,
+                                           CiphertextCodec.Compression compression) {
+        return new CiphertextCache(jsc, name,
+                pairs.map(pair -> new String[]{pair._1().getCtxt(), pair._2().getCtxt()}), compression);
+    }
+
+    /**
+     * @return the cached ciphertexts, decoded as they are read
+     * @throws IllegalStateException when read, for a cache of pairs, see {@link #pairs()}
+     */
+    public JavaRDD<SerializedCiphertext> rdd() {
+        LongAccumulator reads = this.reads;
+        return stored.map(record -> {
+            if (record.length != 1) {
+                throw new IllegalStateException("Not a cache of single ciphertexts, read pairs with pairs()");
+            }
+            reads.add(1);
+            return new SerializedCiphertext(CiphertextCodec.from_bytes(record[0]));
+        });
+    }
+
+    /**
+     * @param spark the spark session
+     * @return the cached ciphertexts as a dataset, decoded as they are read
+     */
+    public Dataset<SerializedCiphertext> dataset(SparkSession spark) {
+        return spark.createDataset(rdd().rdd(), Encoders.bean(SerializedCiphertext.class));
+    }
+
+    /**
+     * @return the cached pairs of ciphertexts, decoded as they are read
+     * @throws IllegalStateException when read, for a cache of single ciphertexts
+     */
+    public JavaPairRDD<SerializedCiphertext, SerializedCiphertext> pairs() {
+        LongAccumulator reads = this.reads;
+        return stored.mapToPair(record -> {
+            if (record.length != 2) {
+                throw new IllegalStateException("Not a cache of pairs of ciphertexts");
+            }
+            reads.add(1);
+            return new Tuple2<SerializedCiphertext, SerializedCiphertext>(
+                    new SerializedCiphertext(CiphertextCodec.from_bytes(record[0])),
+                    new SerializedCiphertext(CiphertextCodec.from_bytes(record[1])));
+        });
+    }
+
+    /**
+     * @return the number of records read from the cache
+     */
+    public long get_reads() {
+        return reads.value();
+    }
+
+    /**
+     * @return the number of records encoded into the cache, on the first read or after their block was lost
+     */
+    public long get_misses() {
+        return encoded_records.value();
+    }
+
+    /**
+     * @return the number of records read without being encoded again, the reads minus the encodes
+     */
+    public long get_hits() {
+        return Math.max(0, get_reads() - get_misses());
+    }
+
+    /**
+     * @return the fraction of the reads that were hits, 0 before any read
+     */
+    public double get_hit_rate() {
+        return get_reads() == 0 ? 0 : (double) get_hits() / get_reads();
+    }
+
+    /**
+     * @return the report of the reads of the cache and of its blocks in memory and on disk
+     */
+    public String report() {
+        long mem_bytes = 0, disk_bytes = 0;
+        int cached_partitions = 0;
+        for (RDDInfo info : jsc.sc().getRDDStorageInfo()) {
+            if (info.id() == stored.id()) {
+                mem_bytes = info.memSize();
+                disk_bytes = info.diskSize();
+                cached_partitions = info.numCachedPartitions();
+            }
+        }
+        return String.format("Cache %s: %d reads, %d hits (%.1f%%), %d records encoded (%.1f MB), cached %.1f MB in memory and %.1f MB on disk, %d/%d partitions",
+                name, get_reads(), get_hits(), 100 * get_hit_rate(), get_misses(), encoded_bytes.value() / 1e6,
+                mem_bytes / 1e6, disk_bytes / 1e6, cached_partitions, stored.getNumPartitions());
+    }
+
+    /**
+     * Drop the cached blocks, from memory and disk.
+     */
+    public void unpersist() {
+        stored.unpersist(false);
+    }
+}
@@ -0,0 +1,427 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.storage;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileContext;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.fs.UnsupportedFileSystemException;
+import spiritlab.sparkfhe.example.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A file-based catalog of ciphertext datasets, kept as catalog.json next to the datasets
+ * (gen/records, locally or on HDFS). Writers register what they produce, with its params and
+ * sizes, and jobs resolve their inputs by dataset name and crypto params instead of assembling
+ * file names. Datasets written before the catalog existed resolve to the file name convention
+ * the examples have always used, name_[crypto params suffix].jsonl.
+ *
+ * Registrations hold a lock file next to the catalog, re-read it and write it back with their
+ * entry, so concurrent writers, in this process or others, do not lose each other's entries.
+ * The lock file holds a token of its writer, which only removes it if it still holds its token,
+ * i.e. if it was not taken over as stale meanwhile. The catalog is replaced by renaming a
+ * complete copy over it, which readers see at once.
+ *
+ * The catalog holds its format version and its entries; catalogs written before it had a
+ * version, a map of the entries only, are read as version 0. A catalog of a later version is
+ * not read, rather than rewritten without what this version does not know of.
+ */
+public class CiphertextCatalog {
+
+    public static final String CATALOG_FILE = "catalog.json";
+    public static final String LOCK_FILE = CATALOG_FILE + ".lock";
+    private static final String TMP_SUFFIX = ".tmp";
+    // the format of catalog.json
+    public static final int VERSION = 1;
+    private static final String VERSION_FIELD = "version";
+    private static final String ENTRIES_FIELD = "entries";
+    private static final TypeReference<Map<String, CatalogEntry>> ENTRIES = new TypeReference<Map<String, CatalogEntry>>() {};
+
+    // the ciphertexts of every JSON-lines file whose sizes are measured, the others are only counted
+    static final int SAMPLED_CTXTS = 16;
+    // a lock file older than this was left by a writer that died
+    static final long STALE_LOCK_MS = 60000;
+    private static final long LOCK_TIMEOUT_MS = 120000;
+    private static final long LOCK_RETRY_MS = 20;
+
+    // a dataset name is part of a file name in the records directory, it cannot name another directory
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9._-]+");
+
+    // the writers of this process wait here, the lock file orders them with the other processes
+    private static final ConcurrentHashMap<String, Object> local_locks = new ConcurrentHashMap<String, Object>();
+
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final String directory;
+    // keyed by name@crypto params, the same name is usually written once per set of params
+    private final Map<String, CatalogEntry> entries;
+
+    private CiphertextCatalog(String directory, Map<String, CatalogEntry> entries) {
+        this.directory = directory;
+        this.entries = entries;
+    }
+
+    /**
+     * Open the catalog of a records directory.
+     * @param directory the records directory, usually Config.get_records_directory()
+     * @return the catalog, empty if nothing was registered yet
+     * @throws IOException if the catalog cannot be read
+     */
+    public static CiphertextCatalog open(String directory) throws IOException {
+        return new CiphertextCatalog(directory, read(file_system(directory), directory));
+    }
+
+    // the local file system without its checksum files, whose rename replaces the target at once
+    static FileSystem file_system(String path) throws IOException {
+        FileSystem fs = new Path(path).getFileSystem(new Configuration());
+        return fs instanceof LocalFileSystem ? ((LocalFileSystem) fs).getRawFileSystem() : fs;
+    }
+
+    private static Map<String, CatalogEntry> read(FileSystem fs, String directory) throws IOException {
+        Map<String, CatalogEntry> entries = new TreeMap<String, CatalogEntry>();
+        Path file = new Path(directory, CATALOG_FILE);
+        try (InputStream in = fs.open(file)) {
+            entries.putAll(parse(in));
+            return entries;
+        } catch (FileNotFoundException e) {
+            // nothing registered yet, or a writer without atomic rename is between deleting the
+            // catalog and renaming its copy, the newest complete copy is the catalog then
+        }
+        FileStatus[] copies = fs.globStatus(new Path(directory, CATALOG_FILE + ".*" + TMP_SUFFIX));
+        if (copies != null) {
+            Arrays.sort(copies, Comparator.comparingLong(FileStatus::getModificationTime).reversed());
+            for (FileStatus copy : copies) {
+                try (InputStream in = fs.open(copy.getPath())) {
+                    entries.putAll(parse(in));
+                    return entries;
+                } catch (IOException e) {
+                    // still being written, or renamed meanwhile
+                }
+            }
+        }
+        if (fs.exists(file)) {
+            return read(fs, directory);
+        }
+        return entries;
+    }
+
+    private static Map<String, CatalogEntry> parse(InputStream in) throws IOException {
+        JsonNode catalog = mapper.readTree(in);
+        if (catalog == null || !catalog.isObject()) {
+            throw new IOException("Not a catalog: " + catalog);
+        }
+        // the keys of the entries are name@crypto params, never the version
+        if (!catalog.has(VERSION_FIELD)) {
+            return mapper.convertValue(catalog, ENTRIES);
+        }
+        int version = catalog.get(VERSION_FIELD).asInt();
+        if (version > VERSION) {
+            throw new IOException("The catalog has version " + version + ", this code reads up to version " + VERSION);
+        }
+        return mapper.convertValue(catalog.get(ENTRIES_FIELD), ENTRIES);
+    }
+
+    /**
+     * @param name the dataset name, e.g. packed_ctxt_100
+     * @param crypto_params the crypto params suffix
+     * @return the conventional location of a JSON-lines dataset in the records directory
+     * @throws IllegalArgumentException if the name is not a valid file name, see {@link #check_name}
+     */
+    public String default_path(String name, String crypto_params) {
+        return directory + "/" + check_name(name) + "_" + crypto_params + ".jsonl";
+    }
+
+    /**
+     * @param name a dataset name, e.g. given by a client
+     * @return the name, if made of letters, digits, '.', '_' and '-' only, and not "." or ".."
+     * @throws IllegalArgumentException otherwise
+     */
+    public static String check_name(String name) {
+        if (name == null || !NAME.matcher(name).matches() || name.equals(".") || name.equals("..")) {
+            throw new IllegalArgumentException("Invalid dataset name '" + name + "', expected letters, digits, '.', '_' and '-'");
+        }
+        return name;
+    }
+
+    /**
+     * @param name the dataset name
+     * @param crypto_params the crypto params suffix
+     * @return the registered dataset, or null
+     */
+    public CatalogEntry lookup(String name, String crypto_params) {
+        return entries.get(key(name, crypto_params));
+    }
+
+    /**
+     * @return every registered dataset
+     */
+    public List<CatalogEntry> list() {
+        return new ArrayList<CatalogEntry>(entries.values());
+    }
+
+    /**
+     * Locate the input of a job.
+     * @param name the dataset name
+     * @param crypto_params the crypto params suffix
+     * @return the path of the registered dataset, or the conventional path if it was not registered
+     */
+    public String resolve(String name, String crypto_params) {
+        CatalogEntry entry = lookup(name, crypto_params);
+        if (entry == null) {
+            return default_path(name, crypto_params);
+        }
+        System.out.println("Resolved " + entry);
+        return entry.getPath();
+    }
+
+    /**
+     * Register a dataset, measuring its files. For JSON-lines datasets the ciphertexts are counted
+     * from the lines, and the smallest and largest of the first {@value #SAMPLED_CTXTS} of every
+     * file recorded, in bytes; for Parquet datasets the counts come from the footers.
+     * Registering a name again with the same params replaces the previous entry.
+     * @param name the dataset name
+     * @param path the file or directory holding the dataset
+     * @param format CatalogEntry.FORMAT_JSONL or CatalogEntry.FORMAT_PARQUET
+     * @param params the params of the ciphertexts, copied into the entry with the elements counted
+     * @return the registered entry
+     * @throws IOException if the dataset cannot be measured or the catalog cannot be written
+     */
+    public CatalogEntry register(String name, String path, String format, CiphertextParams params) throws IOException {
+        Configuration conf = new Configuration();
+        Path dataset = new Path(path);
+        FileSystem fs = dataset.getFileSystem(conf);
+
+        CatalogEntry entry = new CatalogEntry();
+        entry.setName(name);
+        entry.setPath(path);
+        entry.setFormat(format);
+        // the caller may register other datasets with the same params
+        CiphertextParams measured = new CiphertextParams(params);
+        entry.setParams(measured);
+        entry.setRegisteredAt(System.currentTimeMillis());
+
+        long elements = 0;
+        for (FileStatus status : fs.listStatus(dataset)) {
+            String file_name = status.getPath().getName();
+            if (!status.isFile() || file_name.startsWith("_") || file_name.startsWith(".")) {
+                continue;
+            }
+            entry.setFiles(entry.getFiles() + 1);
+            entry.setSizeBytes(entry.getSizeBytes() + status.getLen());
+            if (CatalogEntry.FORMAT_PARQUET.equals(format)) {
+                CiphertextParams file_params = CiphertextParquet.read_params(conf, status.getPath());
+                elements += file_params == null ? 0 : file_params.getElements();
+            } else {
+                elements += measure_jsonl(fs, status.getPath(), entry);
+            }
+        }
+        measured.setElements(elements);
+
+        update(key(name, measured.getCryptoParams()), entry);
+        System.out.println("Registered " + entry);
+        return entry;
+    }
+
+    // count the ciphertexts of a JSON-lines file, one per non-blank line, without parsing them,
+    // and track the smallest and largest of the first ones
+    private static long measure_jsonl(FileSystem fs, Path file, CatalogEntry entry) throws IOException {
+        long count = 0;
+        boolean blank = true;
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 << 10];
+        try (InputStream in = fs.open(file)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    if (b == '\n') {
+                        if (!blank) {
+                            if (count < SAMPLED_CTXTS) {
+                                measure_ctxt(line, entry);
+                            }
+                            count++;
+                        }
+                        blank = true;
+                        line.reset();
+                    } else {
+                        blank &= Character.isWhitespace(b);
+                        if (count < SAMPLED_CTXTS) {
+                            line.write(b);
+                        }
+                    }
+                }
+            }
+        }
+        if (!blank) {
+            if (count < SAMPLED_CTXTS) {
+                measure_ctxt(line, entry);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private static void measure_ctxt(ByteArrayOutputStream line, CatalogEntry entry) throws IOException {
+        JsonNode ctxt = mapper.readTree(line.toByteArray()).get(Config.Ciphertext_Label);
+        long bytes = ctxt == null ? 0 : CiphertextCodec.decode(ctxt.asText()).getBytes(StandardCharsets.UTF_8).length;
+        entry.setMinCtxtBytes(entry.getMinCtxtBytes() < 0 ? bytes : Math.min(entry.getMinCtxtBytes(), bytes));
+        entry.setMaxCtxtBytes(Math.max(entry.getMaxCtxtBytes(), bytes));
+    }
+
+    // add an entry to the catalog as written by the others meanwhile, and write it back
+    private void update(String key, CatalogEntry entry) throws IOException {
+        FileSystem fs = file_system(directory);
+        Object local_lock = local_locks.computeIfAbsent(fs.makeQualified(new Path(directory)).toString(), d -> new Object());
+        synchronized (local_lock) {
+            Path lock = new Path(directory, LOCK_FILE);
+            String token = UUID.randomUUID().toString();
+            acquire(fs, lock, token);
+            try {
+                Map<String, CatalogEntry> latest = read(fs, directory);
+                latest.put(key, entry);
+                write(fs, directory, latest);
+                entries.clear();
+                entries.putAll(latest);
+            } finally {
+                release(fs, lock, token);
+            }
+        }
+    }
+
+    private static void acquire(FileSystem fs, Path lock, String token) throws IOException {
+        long deadline = System.currentTimeMillis() + LOCK_TIMEOUT_MS;
+        while (!create_new(fs, lock, token)) {
+            try {
+                if (System.currentTimeMillis() - fs.getFileStatus(lock).getModificationTime() > STALE_LOCK_MS) {
+                    String stale = read_token(fs, lock);
+                    System.out.println("Removing the stale lock " + lock);
+                    release(fs, lock, stale);
+                    continue;
+                }
+            } catch (FileNotFoundException e) {
+                // released meanwhile
+                continue;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Timed out waiting for the lock " + lock);
+            }
+            try {
+                Thread.sleep(LOCK_RETRY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the lock " + lock);
+            }
+        }
+    }
+
+    // remove the lock if it still holds the token, another writer may have taken it over
+    private static void release(FileSystem fs, Path lock, String token) throws IOException {
+        if (token != null && token.equals(read_token(fs, lock))) {
+            fs.delete(lock, false);
+        } else {
+            System.out.println("The lock " + lock + " was taken over, leaving it");
+        }
+    }
+
+    // the token of the lock, empty while it is being written, null if there is no lock
+    private static String read_token(FileSystem fs, Path lock) throws IOException {
+        try (InputStream in = fs.open(lock)) {
+            ByteArrayOutputStream token = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                token.write(buffer, 0, read);
+            }
+            return new String(token.toByteArray(), StandardCharsets.UTF_8);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    // create the file with the token if it does not exist, as one step, as HDFS does it
+    private static boolean create_new(FileSystem fs, Path file, String token) throws IOException {
+        byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+        if (fs instanceof RawLocalFileSystem) {
+            try {
+                Files.write(((RawLocalFileSystem) fs).pathToFile(file).toPath(), bytes, StandardOpenOption.CREATE_NEW);
+                return true;
+            } catch (java.nio.file.FileAlreadyExistsException e) {
+                return false;
+            }
+        }
+        try (OutputStream out = fs.create(file, false)) {
+            out.write(bytes);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    private static void write(FileSystem fs, String directory, Map<String, CatalogEntry> entries) throws IOException {
+        Path file = new Path(directory, CATALOG_FILE);
+        // unique, so that a writer that lost the lock cannot clobber the copy of another
+        Path tmp = new Path(directory, CATALOG_FILE + "." + UUID.randomUUID() + TMP_SUFFIX);
+        Map<String, Object> catalog = new LinkedHashMap<String, Object>();
+        catalog.put(VERSION_FIELD, VERSION);
+        catalog.put(ENTRIES_FIELD, entries);
+        try (OutputStream out = fs.create(tmp, false)) {
+            mapper.writerWithDefaultPrettyPrinter().writeValue(out, catalog);
+        }
+        // readers fall back to the copy while the catalog is missing, if the rename is not atomic
+        replace(fs, tmp, file);
+    }
+
+    // rename a file over another one, at once where the file system allows it
+    static void replace(FileSystem fs, Path tmp, Path file) throws IOException {
+        // replaces the target at once locally
+        if (fs.rename(tmp, file)) {
+            return;
+        }
+        try {
+            // HDFS does not rename over an existing file, unless asked to, which is atomic too
+            FileContext.getFileContext(fs.getUri(), fs.getConf()).rename(tmp, file, Options.Rename.OVERWRITE);
+        } catch (UnsupportedFileSystemException | UnsupportedOperationException e) {
+            fs.delete(file, false);
+            if (!fs.rename(tmp, file)) {
+                throw new IOException("Failed to rename " + tmp + " to " + file);
+            }
+        }
+    }
+
+    private static String key(String name, String crypto_params) {
+        return name + "@" + crypto_params;
+    }
+}
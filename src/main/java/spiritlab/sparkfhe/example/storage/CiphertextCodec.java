@@ -0,0 +1,155 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.storage;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Encodes serialized ciphertexts for storage. A stored ciphertext is either the plain string
+ * produced by the native library, or a compressed payload tagged with a short prefix, so
+ * readers can tell them apart without any side information.
+ *
+ * Ciphertexts are close to random, only their text form compresses. The text encoding pays
+ * base64 on top of zstd, a third more, which ciphertexts already serialized as base64 (e.g.
+ * by SEAL) never win back: a ciphertext is compressed only if that makes it smaller, so
+ * ZSTD never costs space. Where the stored value can be binary, to_bytes skips the base64.
+ */
+public class CiphertextCodec {
+
+    public static enum Compression {NONE, ZSTD;}
+
+    static final String ZSTD_PREFIX = "zstd:";
+
+    // tags of the binary form, see to_bytes
+    private static final byte TAG_NONE = 0;
+    private static final byte TAG_ZSTD = 1;
+
+    // level 3 is zstd's default; higher levels barely help on ciphertext text and cost a lot of CPU
+    static final int DEFAULT_ZSTD_LEVEL = 3;
+
+    /**
+     * Parse a compression name given on the command line.
+     * @param name "none" or "zstd", case insensitive; null means none
+     * @return the matching compression
+     */
+    public static Compression parse_compression(String name) {
+        if (name == null || name.isEmpty() || "none".equalsIgnoreCase(name)) {
+            return Compression.NONE;
+        } else if ("zstd".equalsIgnoreCase(name)) {
+            return Compression.ZSTD;
+        }
+        throw new IllegalArgumentException("Unknown ciphertext compression '" + name + "', expected one of: none, zstd");
+    }
+
+    /**
+     * Encode a serialized ciphertext for storage.
+     * @param ctxt the serialized ciphertext as returned by the native library
+     * @param compression the compression to apply, skipped if it does not shrink the ciphertext
+     * @return the string to store
+     */
+    public static String encode(String ctxt, Compression compression) {
+        switch (compression) {
+            case ZSTD:
+                byte[] compressed = Zstd.compress(ctxt.getBytes(StandardCharsets.UTF_8), DEFAULT_ZSTD_LEVEL);
+                // base64 takes 4 chars for every 3 bytes
+                if (ZSTD_PREFIX.length() + 4L * ((compressed.length + 2) / 3) < ctxt.length()) {
+                    return ZSTD_PREFIX + Base64.getEncoder().encodeToString(compressed);
+                }
+                return ctxt;
+            case NONE:
+            default:
+                return ctxt;
+        }
+    }
+
+    /**
+     * Decode a stored ciphertext back to the string the native library expects.
+     * Uncompressed ciphertexts are returned as is.
+     * @param stored the stored string
+     * @return the serialized ciphertext
+     */
+    public static String decode(String stored) {
+        if (!is_compressed(stored)) {
+            return stored;
+        }
+        byte[] compressed = Base64.getDecoder().decode(stored.substring(ZSTD_PREFIX.length()));
+        return decompress(compressed, 0, compressed.length);
+    }
+
+    // streamed, so that neither the content size in the frame header nor its absence matters
+    private static String decompress(byte[] compressed, int offset, int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, 4 * length));
+        try (InputStream in = new ZstdInputStream(new ByteArrayInputStream(compressed, offset, length))) {
+            byte[] buffer = new byte[64 << 10];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Corrupted compressed ciphertext", e);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param stored the stored string
+     * @return true if the stored ciphertext carries a compressed payload
+     */
+    public static boolean is_compressed(String stored) {
+        return stored != null && stored.startsWith(ZSTD_PREFIX);
+    }
+
+    /**
+     * Encode a serialized ciphertext in binary form, for in-memory or local use where the
+     * stored value need not be text: a tag byte, then the UTF-8 bytes, compressed or not.
+     * Unlike encode, compressed payloads are not base64 encoded.
+     * @param ctxt the serialized ciphertext as returned by the native library
+     * @param compression the compression to apply, skipped if it does not shrink the ciphertext
+     * @return the binary form
+     */
+    public static byte[] to_bytes(String ctxt, Compression compression) {
+        byte[] raw = ctxt.getBytes(StandardCharsets.UTF_8);
+        byte tag = TAG_NONE;
+        if (compression == Compression.ZSTD) {
+            byte[] compressed = Zstd.compress(raw, DEFAULT_ZSTD_LEVEL);
+            if (compressed.length < raw.length) {
+                raw = compressed;
+                tag = TAG_ZSTD;
+            }
+        }
+        byte[] stored = new byte[raw.length + 1];
+        stored[0] = tag;
+        System.arraycopy(raw, 0, stored, 1, raw.length);
+        return stored;
+    }
+
+    /**
+     * Decode the binary form of a ciphertext, see to_bytes.
+     * @param stored the binary form
+     * @return the serialized ciphertext
+     */
+    public static String from_bytes(byte[] stored) {
+        if (stored.length == 0) {
+            throw new IllegalArgumentException("Corrupted binary ciphertext, missing tag");
+        }
+        switch (stored[0]) {
+            case TAG_NONE:
+                return new String(stored, 1, stored.length - 1, StandardCharsets.UTF_8);
+            case TAG_ZSTD:
+                return decompress(stored, 1, stored.length - 1);
+            default:
+                throw new IllegalArgumentException("Corrupted binary ciphertext, unknown tag " + stored[0]);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.storage;
+
+import org.apache.spark.sql.types.Metadata;
+import org.apache.spark.sql.types.MetadataBuilder;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Describes the ciphertexts of a dataset: the crypto params they were encrypted with (as given by
+ * generate_crypto_params_suffix), the HE library and scheme, the number of plaintext slots,
+ * the level and the number of ciphertexts. Slots and level are not exposed by the SparkFHE API,
+ * they are recorded when the writer knows them and are -1 otherwise.
+ */
+public class CiphertextParams implements Serializable {
+
+    public static final String KEY_PREFIX = "sparkfhe.";
+    public static final int UNKNOWN = -1;
+
+    private String cryptoParams;
+    private String library;
+    private String scheme;
+    private int slots = UNKNOWN;
+    private int level = UNKNOWN;
+    private long elements = UNKNOWN;
+
+    public CiphertextParams() {
+    }
+
+    public CiphertextParams(String cryptoParams, String library, String scheme) {
+        this.cryptoParams = cryptoParams;
+        this.library = library;
+        this.scheme = scheme;
+    }
+
+    public CiphertextParams(CiphertextParams other) {
+        this.cryptoParams = other.cryptoParams;
+        this.library = other.library;
+        this.scheme = other.scheme;
+        this.slots = other.slots;
+        this.level = other.level;
+        this.elements = other.elements;
+    }
+
+    public String getCryptoParams() {
+        return cryptoParams;
+    }
+
+    public void setCryptoParams(String cryptoParams) {
+        this.cryptoParams = cryptoParams;
+    }
+
+    public String getLibrary() {
+        return library;
+    }
+
+    public void setLibrary(String library) {
+        this.library = library;
+    }
+
+    public String getScheme() {
+        return scheme;
+    }
+
+    public void setScheme(String scheme) {
+        this.scheme = scheme;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    public void setSlots(int slots) {
+        this.slots = slots;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public long getElements() {
+        return elements;
+    }
+
+    public void setElements(long elements) {
+        this.elements = elements;
+    }
+
+    /**
+     * Ciphertexts can be combined with each other only if they share the crypto params and scheme,
+     * and the slot layout when both sides know it.
+     * @param other the params of another dataset
+     * @return true if ciphertexts of both datasets can be combined
+     */
+    public boolean is_compatible(CiphertextParams other) {
+        return other != null
+                && Objects.equals(cryptoParams, other.cryptoParams)
+                && (scheme == null || other.scheme == null || scheme.equalsIgnoreCase(other.scheme))
+                && (slots == UNKNOWN || other.slots == UNKNOWN || slots == other.slots);
+    }
+
+    /**
+     * @return the params as column metadata, which Spark keeps in the Parquet footer
+     */
+    public Metadata to_metadata() {
+        MetadataBuilder builder = new MetadataBuilder()
+                .putLong(KEY_PREFIX + "slots", slots)
+                .putLong(KEY_PREFIX + "level", level)
+                .putLong(KEY_PREFIX + "elements", elements);
+        if (cryptoParams != null) builder.putString(KEY_PREFIX + "crypto_params", cryptoParams);
+        if (library != null) builder.putString(KEY_PREFIX + "library", library);
+        if (scheme != null) builder.putString(KEY_PREFIX + "scheme", scheme);
+        return builder.build();
+    }
+
+    /**
+     * @param metadata column metadata written by {@link #to_metadata()}
+     * @return the params, or null if the metadata does not describe ciphertexts
+     */
+    public static CiphertextParams from_metadata(Metadata metadata) {
+        if (!metadata.contains(KEY_PREFIX + "crypto_params")) {
+            return null;
+        }
+        CiphertextParams params = new CiphertextParams(metadata.getString(KEY_PREFIX + "crypto_params"),
+                metadata.contains(KEY_PREFIX + "library") ? metadata.getString(KEY_PREFIX + "library") : null,
+                metadata.contains(KEY_PREFIX + "scheme") ? metadata.getString(KEY_PREFIX + "scheme") : null);
+        if (metadata.contains(KEY_PREFIX + "slots")) params.setSlots((int) metadata.getLong(KEY_PREFIX + "slots"));
+        if (metadata.contains(KEY_PREFIX + "level")) params.setLevel((int) metadata.getLong(KEY_PREFIX + "level"));
+        if (metadata.contains(KEY_PREFIX + "elements")) params.setElements(metadata.getLong(KEY_PREFIX + "elements"));
+        return params;
+    }
+
+    @Override
+    public String toString() {
+        return library + "/" + scheme + " " + cryptoParams + " (slots " + slots + ", level " + level + ", " + elements + " elements)";
+    }
+}
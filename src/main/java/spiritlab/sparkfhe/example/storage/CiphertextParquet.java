@@ -0,0 +1,143 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.storage;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SaveMode;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import spiritlab.sparkfhe.example.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parquet layout for ciphertext datasets: a directory of Parquet files with a single binary
+ * ciphertext column, whose column metadata holds the {@link CiphertextParams} of the dataset.
+ * Spark stores that metadata in the key-value metadata of every file footer, so a reader can
+ * tell which files hold ciphertexts it can combine by reading footers only, and skip the others
+ * without opening their ciphertext column.
+ *
+ * Ciphertexts are MB-sized and incompressible by dictionary, so dictionary encoding is off and
+ * row groups are kept small enough for a typical dataset of a few hundred ciphertexts to be
+ * split into several tasks.
+ */
+public class CiphertextParquet {
+
+    // where Spark keeps the schema of the rows, with their column metadata, in the footer
+    public static final String SPARK_ROW_METADATA_KEY = "org.apache.spark.sql.parquet.row.metadata";
+
+    public static final long DEFAULT_ROW_GROUP_BYTES = 32L * 1024 * 1024;
+    public static final long DEFAULT_PAGE_BYTES = 4L * 1024 * 1024;
+
+    /**
+     * Write a binary ciphertext column as a Parquet dataset.
+     * @param ctxts a DataFrame with a binary ciphertext column named after Config.Ciphertext_Label
+     * @param directory the dataset directory, overwritten if it exists
+     * @param params the params of the ciphertexts, stored in the footers
+     */
+    public static void write(Dataset<Row> ctxts, String directory, CiphertextParams params) {
+        ctxts.select(ctxts.col(Config.Ciphertext_Label).cast(DataTypes.BinaryType).as(Config.Ciphertext_Label, params.to_metadata()))
+                .write()
+                .mode(SaveMode.Overwrite)
+                .option("parquet.block.size", DEFAULT_ROW_GROUP_BYTES)
+                .option("parquet.page.size", DEFAULT_PAGE_BYTES)
+                .option("parquet.enable.dictionary", false)
+                .parquet(directory);
+    }
+
+    /**
+     * Read the params recorded in the footer of a Parquet file.
+     * @param conf the hadoop configuration
+     * @param file the Parquet file
+     * @return the params, or null if the file was not written by {@link #write}
+     * @throws IOException if the footer cannot be read
+     */
+    public static CiphertextParams read_params(Configuration conf, Path file) throws IOException {
+        ParquetMetadata footer;
+        try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(file, conf))) {
+            footer = reader.getFooter();
+        }
+        String row_metadata = footer.getFileMetaData().getKeyValueMetaData().get(SPARK_ROW_METADATA_KEY);
+        if (row_metadata == null) {
+            return null;
+        }
+        StructType schema = (StructType) DataType.fromJson(row_metadata);
+        for (StructField field : schema.fields()) {
+            if (field.name().equals(Config.Ciphertext_Label)) {
+                CiphertextParams params = CiphertextParams.from_metadata(field.metadata());
+                if (params != null) {
+                    // the recorded count is for the whole dataset, the footer knows the file's own
+                    long rows = 0;
+                    for (BlockMetaData block : footer.getBlocks()) {
+                        rows += block.getRowCount();
+                    }
+                    params.setElements(rows);
+                }
+                return params;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * List the files of a Parquet dataset holding ciphertexts compatible with the expected params.
+     * @param spark the spark session
+     * @param directory the dataset directory
+     * @param expected the params the ciphertexts must be compatible with
+     * @return the paths of the compatible files
+     * @throws IOException if the directory or a footer cannot be read
+     */
+    public static List<String> compatible_files(SparkSession spark, String directory, CiphertextParams expected) throws IOException {
+        Configuration conf = spark.sparkContext().hadoopConfiguration();
+        Path dir = new Path(directory);
+        FileSystem fs = dir.getFileSystem(conf);
+        List<String> compatible = new ArrayList<String>();
+        for (FileStatus status : fs.listStatus(dir)) {
+            String name = status.getPath().getName();
+            if (!status.isFile() || !name.endsWith(".parquet") || name.startsWith("_") || name.startsWith(".")) {
+                continue;
+            }
+            CiphertextParams params = read_params(conf, status.getPath());
+            if (expected.is_compatible(params)) {
+                compatible.add(status.getPath().toString());
+            } else {
+                System.out.println("Skipping " + status.getPath() + ", written with " + params);
+            }
+        }
+        return compatible;
+    }
+
+    /**
+     * Read the ciphertexts of a Parquet dataset that are compatible with the expected params.
+     * @param spark the spark session
+     * @param directory the dataset directory
+     * @param expected the params the ciphertexts must be compatible with
+     * @return a DataFrame with a binary ciphertext column, empty if no file is compatible
+     * @throws IOException if the directory or a footer cannot be read
+     */
+    public static Dataset<Row> read_ciphertexts(SparkSession spark, String directory, CiphertextParams expected) throws IOException {
+        List<String> files = compatible_files(spark, directory, expected);
+        if (files.isEmpty()) {
+            StructType schema = new StructType().add(Config.Ciphertext_Label, DataTypes.BinaryType, false);
+            return spark.createDataFrame(new ArrayList<Row>(), schema);
+        }
+        return spark.read().parquet(files.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,148 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.api.java.function.MapFunction;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoder;
+import org.apache.spark.sql.Encoders;
+import org.apache.spark.sql.SparkSession;
+import spiritlab.sparkfhe.api.SerializedCiphertext;
+import spiritlab.sparkfhe.api.SparkFHE;
+import spiritlab.sparkfhe.api.StringVector;
+import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.metrics.CiphertextIOEvent;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stores and reads ciphertext JSON-lines files, optionally compressed with {@link CiphertextCodec}.
+ * Uncompressed ciphertexts are written by the native library exactly as before, and readers
+ * accept both layouts, so existing files under gen/records keep working.
+ */
+public class CiphertextStore {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Append a ciphertext to a JSON-lines file.
+     * @param label the JSON field holding the ciphertext, usually Config.Ciphertext_Label
+     * @param ctxt the serialized ciphertext
+     * @param file the file to append to, either a local path or a Hadoop URI
+     * @param compression the compression to apply
+     */
+    public static void store_ciphertext_to_file(String label, String ctxt, String file, CiphertextCodec.Compression compression) {
+        if (compression == CiphertextCodec.Compression.NONE) {
+            CiphertextIOEvent event = CiphertextIOEvent.start();
+            SparkFHE.getInstance().store_ciphertext_to_file(label, ctxt, file);
+            event.complete(CiphertextIOEvent.STORE, file, 1, ctxt.length());
+        } else {
+            // the writer records its own event
+            try (CiphertextWriter writer = CiphertextWriter.open(file, label, compression)) {
+                writer.write(ctxt);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to store ciphertext to " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Append a vector of ciphertexts to a JSON-lines file, one ciphertext per line.
+     * @param label the JSON field holding the ciphertext, usually Config.Ciphertext_Label
+     * @param ctxts the serialized ciphertexts
+     * @param file the file to append to, either a local path or a Hadoop URI
+     * @param compression the compression to apply
+     */
+    public static void store_ciphertexts_to_file(String label, StringVector ctxts, String file, CiphertextCodec.Compression compression) {
+        if (compression == CiphertextCodec.Compression.NONE) {
+            CiphertextIOEvent event = CiphertextIOEvent.start();
+            SparkFHE.getInstance().store_ciphertexts_to_file(label, ctxts, file);
+            // sizing the ciphertexts of the native path means copying them out of the vector, only do it when recording
+            long bytes = 0;
+            if (event.isEnabled()) {
+                for (int i = 0; i < ctxts.size(); i++) {
+                    bytes += ctxts.get(i).length();
+                }
+            }
+            event.complete(CiphertextIOEvent.STORE, file, ctxts.size(), bytes);
+        } else {
+            // the writer records its own event
+            try (CiphertextWriter writer = CiphertextWriter.open(file, label, compression)) {
+                writer.write(ctxts);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to store ciphertexts to " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Replace a file with a complete copy written next to it, e.g. a dataset rewritten while jobs
+     * may read it: readers see the old file or the new one, at once on local file systems and
+     * HDFS, never a missing or partial one.
+     * @param tmp the copy, in the same directory, renamed to file
+     * @param file the file to replace, either a local path or a Hadoop URI
+     * @throws IOException if the copy cannot be renamed
+     */
+    public static void replace_file(String tmp, String file) throws IOException {
+        CiphertextCatalog.replace(CiphertextCatalog.file_system(file), new Path(tmp), new Path(file));
+    }
+
+    /**
+     * Read the first ciphertext of a JSON-lines file, decompressing it if needed.
+     * @param label the JSON field holding the ciphertext, usually Config.Ciphertext_Label
+     * @param file the file to read from, either a local path or a Hadoop URI
+     * @return the serialized ciphertext
+     */
+    public static String read_ciphertext_from_file_as_string(String label, String file) {
+        CiphertextIOEvent event = CiphertextIOEvent.start();
+        Path path = new Path(file);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                path.getFileSystem(new Configuration()).open(path), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                JsonNode ctxt = mapper.readTree(line).get(label);
+                if (ctxt == null) {
+                    throw new IllegalArgumentException("Record in " + file + " has no '" + label + "' field");
+                }
+                String decoded = CiphertextCodec.decode(ctxt.asText());
+                event.complete(CiphertextIOEvent.READ, file, 1, decoded.length());
+                return decoded;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read ciphertext from " + file, e);
+        }
+        throw new IllegalArgumentException("No ciphertext found in " + file);
+    }
+
+    /**
+     * Read JSON-lines ciphertext files as a dataset, decompressing the ciphertexts that need it.
+     * In local mode, local files are memory-mapped and sliced by {@link MappedCiphertextStore}
+     * instead of being parsed by the JSON reader on every read.
+     * @param spark the spark session
+     * @param files the files (or directories, or globs) to read
+     * @return the ciphertexts, ready to be handed to the native library
+     */
+    public static Dataset<SerializedCiphertext> read_ciphertexts(SparkSession spark, String... files) {
+        if (MappedCiphertextStore.can_map(spark, files)) {
+            return MappedCiphertextStore.read_ciphertexts(spark, Config.Ciphertext_Label, files);
+        }
+        Encoder<SerializedCiphertext> ctxtJSONEncoder = Encoders.bean(SerializedCiphertext.class);
+        return spark.read().json(files).as(ctxtJSONEncoder).map((MapFunction<SerializedCiphertext, SerializedCiphertext>) rec ->
+                CiphertextCodec.is_compressed(rec.getCtxt()) ? new SerializedCiphertext(CiphertextCodec.decode(rec.getCtxt())) : rec,
+                ctxtJSONEncoder);
+    }
+}
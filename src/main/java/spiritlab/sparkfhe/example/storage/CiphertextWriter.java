@@ -0,0 +1,314 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.storage;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import spiritlab.sparkfhe.api.StringVector;
+import spiritlab.sparkfhe.example.metrics.CiphertextIOEvent;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Appends ciphertexts to a JSON-lines file through a single open, buffered stream, where
+ * CiphertextStore.store_ciphertext_to_file opens and closes the file for every ciphertext.
+ * The records are the same as those of CiphertextStore, readers cannot tell them apart.
+ *
+ * Each ciphertext is encoded straight into the output buffer, without building the JSON record
+ * or the UTF-8 bytes of the ciphertext first; compression goes through {@link CiphertextCodec#encode}. Whether and when the data is forced to the disk,
+ * or to the datanodes for HDFS, is set by its {@link SyncPolicy}. A writer is not thread-safe.
+ */
+public class CiphertextWriter implements Closeable, Flushable {
+
+    /**
+     * When the written ciphertexts are forced to stable storage.
+     */
+    public static final class SyncPolicy {
+        // left to the OS, as the native library does
+        public static final SyncPolicy NONE = new SyncPolicy(false, 0);
+        // once, when the writer is closed
+        public static final SyncPolicy ON_CLOSE = new SyncPolicy(true, 0);
+
+        private final boolean on_close;
+        private final int every;
+
+        private SyncPolicy(boolean on_close, int every) {
+            this.on_close = on_close;
+            this.every = every;
+        }
+
+        /**
+         * @param ciphertexts the number of ciphertexts between syncs
+         * @return the policy syncing every so many ciphertexts, and when the writer is closed
+         */
+        public static SyncPolicy every(int ciphertexts) {
+            if (ciphertexts <= 0) {
+                throw new IllegalArgumentException("The sync interval must be positive, got " + ciphertexts);
+            }
+            return new SyncPolicy(true, ciphertexts);
+        }
+
+        /**
+         * Parse a sync policy given on the command line.
+         * @param name "none", "close", or a number of ciphertexts between syncs; null means none
+         * @return the matching policy
+         */
+        public static SyncPolicy parse(String name) {
+            if (name == null || name.isEmpty() || "none".equalsIgnoreCase(name)) {
+                return NONE;
+            } else if ("close".equalsIgnoreCase(name)) {
+                return ON_CLOSE;
+            }
+            try {
+                return every(Integer.parseInt(name));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Unknown sync policy '" + name + "', expected one of: none, close, or a number of ciphertexts");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return !on_close ? "none" : every == 0 ? "close" : String.valueOf(every);
+        }
+    }
+
+    public static final int DEFAULT_BUFFER_BYTES = 1 << 20;
+
+    private final String file;
+    private final CiphertextCodec.Compression compression;
+    private final SyncPolicy sync;
+    private final OutputStream out;
+    // records are encoded here rather than through a BufferedOutputStream, whose writes are synchronized
+    private final byte[] buffer;
+    private int position;
+    // one of the two is set, to force the data out
+    private final FileChannel local_channel;
+    private final FSDataOutputStream hdfs_out;
+    private final byte[] prefix;
+    private final CiphertextIOEvent event = CiphertextIOEvent.start();
+    private int ciphertexts;
+    private int unsynced;
+    private long bytes;
+    private boolean closed;
+
+    CiphertextWriter(String file, String label, CiphertextCodec.Compression compression, SyncPolicy sync,
+                             int buffer_bytes) throws IOException {
+        this.file = file;
+        this.compression = compression;
+        this.sync = sync;
+        this.prefix = ("{\"" + label + "\":\"").getBytes(StandardCharsets.UTF_8);
+        this.buffer = new byte[buffer_bytes];
+
+        Path path = new Path(file);
+        URI uri = path.toUri();
+        if (uri.getScheme() == null || "file".equals(uri.getScheme())) {
+            // the local Hadoop file system does not support append, go through the channel instead
+            FileOutputStream local = new FileOutputStream(uri.getPath(), true);
+            this.local_channel = local.getChannel();
+            this.hdfs_out = null;
+            this.out = local;
+        } else {
+            FileSystem fs = path.getFileSystem(new Configuration());
+            this.hdfs_out = fs.exists(path) ? fs.append(path, buffer_bytes) : fs.create(path, true, buffer_bytes);
+            this.local_channel = null;
+            this.out = hdfs_out;
+        }
+    }
+
+    /**
+     * Open a file for appending ciphertexts, without forcing them to stable storage.
+     * @param file the file to append to, either a local path or a Hadoop URI
+     * @param label the JSON field holding the ciphertext, usually Config.Ciphertext_Label
+     * @param compression the compression to apply
+     * @return the writer, to be closed
+     * @throws IOException if the file cannot be opened
+     */
+    public static CiphertextWriter open(String file, String label, CiphertextCodec.Compression compression) throws IOException {
+        return open(file, label, compression, SyncPolicy.NONE);
+    }
+
+    /**
+     * Open a file for appending ciphertexts.
+     * @param file the file to append to, either a local path or a Hadoop URI
+     * @param label the JSON field holding the ciphertext, usually Config.Ciphertext_Label
+     * @param compression the compression to apply
+     * @param sync when the ciphertexts are forced to stable storage
+     * @return the writer, to be closed
+     * @throws IOException if the file cannot be opened
+     */
+    public static CiphertextWriter open(String file, String label, CiphertextCodec.Compression compression,
+                                        SyncPolicy sync) throws IOException {
+        return new CiphertextWriter(file, label, compression, sync, DEFAULT_BUFFER_BYTES);
+    }
+
+    /**
+     * Append a ciphertext.
+     * @param ctxt the serialized ciphertext
+     * @throws IOException if it cannot be written
+     */
+    public void write(String ctxt) throws IOException {
+        if (closed) {
+            throw new IOException("Writer of " + file + " is closed");
+        }
+        put(prefix);
+        // compressed only where it saves space, as CiphertextStore does
+        put_escaped(compression == CiphertextCodec.Compression.NONE ? ctxt : CiphertextCodec.encode(ctxt, compression));
+        put('"');
+        put('}');
+        put('\n');
+        ciphertexts++;
+        bytes += ctxt.length();
+        if (sync.every > 0 && ++unsynced >= sync.every) {
+            sync();
+        }
+    }
+
+    /**
+     * Append a vector of ciphertexts, one per line.
+     * @param ctxts the serialized ciphertexts
+     * @throws IOException if they cannot be written
+     */
+    public void write(StringVector ctxts) throws IOException {
+        for (int i = 0; i < ctxts.size(); i++) {
+            write(ctxts.get(i));
+        }
+    }
+
+    /**
+     * @return the number of ciphertexts written
+     */
+    public int get_ciphertexts() {
+        return ciphertexts;
+    }
+
+    /**
+     * @return the size of the ciphertexts written, before compression and encoding
+     */
+    public long get_bytes() {
+        return bytes;
+    }
+
+    /**
+     * Hand the buffered ciphertexts to the OS, or to HDFS, without forcing them to stable storage.
+     */
+    @Override
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Flush the buffered ciphertexts and force them to the disk, or to the datanodes for HDFS.
+     */
+    public void sync() throws IOException {
+        flush();
+        if (local_channel != null) {
+            local_channel.force(false);
+        } else {
+            hdfs_out.hsync();
+        }
+        unsynced = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (sync.on_close) {
+                sync();
+            } else {
+                flush();
+            }
+        } finally {
+            out.close();
+        }
+        event.complete(CiphertextIOEvent.STORE, file, ciphertexts, bytes);
+    }
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Write a string as the content of a JSON string, UTF-8 encoded, escaping what JSON requires.
+     */
+    private void put_escaped(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                put('\\');
+                put(c);
+            } else if (c < 0x20) {
+                put('\\');
+                switch (c) {
+                    case '\n': put('n'); break;
+                    case '\r': put('r'); break;
+                    case '\t': put('t'); break;
+                    case '\b': put('b'); break;
+                    case '\f': put('f'); break;
+                    default:
+                        put('u');
+                        put('0');
+                        put('0');
+                        put(HEX[c >> 4]);
+                        put(HEX[c & 0xF]);
+                }
+            } else if (c < 0x80) {
+                put(c);
+            } else if (c < 0x800) {
+                put(0xC0 | (c >> 6));
+                put(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                put(0xF0 | (cp >> 18));
+                put(0x80 | ((cp >> 12) & 0x3F));
+                put(0x80 | ((cp >> 6) & 0x3F));
+                put(0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired, replaced like String.getBytes does
+                put('?');
+            } else {
+                put(0xE0 | (c >> 12));
+                put(0x80 | ((c >> 6) & 0x3F));
+                put(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void put(int b) throws IOException {
+        if (position == buffer.length) {
+            drain();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length - position) {
+            drain();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void drain() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+}
@@ -0,0 +1,343 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoders;
+import org.apache.spark.sql.SparkSession;
+import spiritlab.sparkfhe.api.SerializedCiphertext;
+import spiritlab.sparkfhe.example.Config;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read-only view of a local JSON-lines ciphertext file, memory-mapped and indexed by the
+ * offset of every ciphertext in the file.
+ *
+ * Opening a file scans it once for the records, without parsing any JSON, after which a
+ * ciphertext is sliced out of the mapping on demand. The pages are the OS page cache, shared
+ * by every job of the process, and by later runs as long as the file stays cached. Stores are
+ * kept per process by {@link #shared(String, String)} and reopened when their file changes.
+ *
+ * Ciphertexts containing JSON escapes are indexed by their whole line and parsed when read.
+ */
+public class MappedCiphertextStore implements Closeable {
+
+    // a mapping cannot exceed 2GB, larger files are mapped in segments starting on a record
+    static final int MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final ConcurrentHashMap<String, MappedCiphertextStore> stores = new ConcurrentHashMap<String, MappedCiphertextStore>();
+
+    private final Path path;
+    private final String label;
+    private final long file_size;
+    private final long modified;
+    private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+    // per record: its segment, and the offset and length of the ciphertext, or of the line if escaped
+    private int[] segment_of = new int[64];
+    private int[] offset = new int[64];
+    private int[] length = new int[64];
+    private final BitSet escaped = new BitSet();
+    private int count;
+
+    MappedCiphertextStore(Path path, String label, int segment_bytes) throws IOException {
+        this.path = path;
+        this.label = label;
+        byte[] key = ("\"" + label + "\"").getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.file_size = channel.size();
+            this.modified = Files.getLastModifiedTime(path).toMillis();
+            long start = 0;
+            while (start < file_size) {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(segment_bytes, file_size - start));
+                int end = index(segment, segments.size(), key, start + segment.limit() == file_size);
+                if (end == 0) {
+                    throw new IOException("Record at offset " + start + " of " + path + " exceeds " + segment_bytes + " bytes");
+                }
+                segments.add(segment);
+                start += end;
+            }
+        }
+    }
+
+    /**
+     * Map a local JSON-lines ciphertext file.
+     * @param file the path of the file, or a file: URI
+     * @param label the JSON field holding the ciphertext, usually Config.Ciphertext_Label
+     * @return the store
+     * @throws IOException if the file cannot be mapped
+     */
+    public static MappedCiphertextStore open(String file, String label) throws IOException {
+        return new MappedCiphertextStore(local_path(file), label, MAX_SEGMENT_BYTES);
+    }
+
+    /**
+     * @param file the path of the file, or a file: URI
+     * @param label the JSON field holding the ciphertext, usually Config.Ciphertext_Label
+     * @return the store of the file shared in the process, reopened if the file was modified since
+     */
+    public static MappedCiphertextStore shared(String file, String label) {
+        Path path = local_path(file).toAbsolutePath();
+        return stores.compute(path + "#" + label, (key, store) -> {
+            try {
+                if (store != null && store.file_size == Files.size(path) && store.modified == Files.getLastModifiedTime(path).toMillis()) {
+                    return store;
+                }
+                return new MappedCiphertextStore(path, label, MAX_SEGMENT_BYTES);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to map ciphertexts of " + path, e);
+            }
+        });
+    }
+
+    /**
+     * @param spark the spark session
+     * @param files the files to read
+     * @return true if the job runs in local mode and every file is a local regular file, which can be mapped
+     */
+    public static boolean can_map(SparkSession spark, String... files) {
+        if (Config.getExecutionEnvironment() != Config.ExecutionEnvironment.LOCAL || !spark.sparkContext().isLocal()) {
+            return false;
+        }
+        for (String file : files) {
+            if (file.contains("://") && !file.startsWith("file:")) {
+                return false;
+            }
+            try {
+                // directories and globs are left to Spark
+                if (!Files.isRegularFile(local_path(file))) {
+                    return false;
+                }
+            } catch (InvalidPathException e) {
+                return false;
+            }
+        }
+        return files.length > 0;
+    }
+
+    /**
+     * Read local JSON-lines ciphertext files as a dataset, sliced out of the shared mappings by
+     * the tasks. The files are split in as many partitions as the default parallelism, the
+     * ciphertexts of a file keeping their order.
+     * @param spark the spark session, in local mode
+     * @param label the JSON field holding the ciphertext, usually Config.Ciphertext_Label
+     * @param files the files to read
+     * @return the ciphertexts, ready to be handed to the native library
+     */
+    public static Dataset<SerializedCiphertext> read_ciphertexts(SparkSession spark, String label, String... files) {
+        int parallelism = spark.sparkContext().defaultParallelism();
+        List<Range> ranges = new ArrayList<Range>();
+        for (String file : files) {
+            int size = shared(file, label).size();
+            int slices = Math.max(1, Math.min(parallelism, size));
+            for (int i = 0; i < slices; i++) {
+                ranges.add(new Range(file, (int) ((long) size * i / slices), (int) ((long) size * (i + 1) / slices)));
+            }
+        }
+        JavaRDD<SerializedCiphertext> rdd = JavaSparkContext.fromSparkContext(spark.sparkContext())
+                .parallelize(ranges, Math.max(1, ranges.size()))
+                .flatMap(range -> {
+                    MappedCiphertextStore store = shared(range.file, label);
+                    List<SerializedCiphertext> ctxts = new ArrayList<SerializedCiphertext>(range.to - range.from);
+                    for (int i = range.from; i < range.to; i++) {
+                        ctxts.add(new SerializedCiphertext(store.get(i)));
+                    }
+                    return ctxts.iterator();
+                });
+        return spark.createDataset(rdd.rdd(), Encoders.bean(SerializedCiphertext.class));
+    }
+
+    /**
+     * @return the number of ciphertexts in the file
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the size of the mapped file
+     */
+    public long get_file_size() {
+        return file_size;
+    }
+
+    /**
+     * @param i the index of a ciphertext
+     * @return a read-only view of the ciphertext as stored, without copying it, or of its whole
+     * JSON line if it holds escapes, see {@link #is_escaped(int)}
+     */
+    public ByteBuffer slice(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Ciphertext " + i + " of " + count + " in " + path);
+        }
+        ByteBuffer view = segments.get(segment_of[i]).duplicate();
+        view.position(offset[i]);
+        view.limit(offset[i] + length[i]);
+        return view.slice();
+    }
+
+    /**
+     * @param i the index of a ciphertext
+     * @return true if the slice of the ciphertext is its JSON line, the ciphertext holding escapes
+     */
+    public boolean is_escaped(int i) {
+        return escaped.get(i);
+    }
+
+    /**
+     * @param i the index of a ciphertext
+     * @return the ciphertext, decompressed if needed
+     */
+    public String get(int i) {
+        ByteBuffer view = slice(i);
+        byte[] bytes = new byte[view.remaining()];
+        view.get(bytes);
+        if (!escaped.get(i)) {
+            return CiphertextCodec.decode(new String(bytes, StandardCharsets.UTF_8));
+        }
+        try {
+            JsonNode ctxt = mapper.readTree(bytes).get(label);
+            if (ctxt == null) {
+                throw new IllegalArgumentException("Record " + i + " in " + path + " has no '" + label + "' field");
+            }
+            return CiphertextCodec.decode(ctxt.asText());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to parse record " + i + " of " + path, e);
+        }
+    }
+
+    /**
+     * Drop the references to the mappings, which are unmapped once garbage collected.
+     */
+    @Override
+    public void close() {
+        segments.clear();
+        count = 0;
+    }
+
+    /**
+     * Index the records of a segment.
+     * @return the offset of the end of the last complete record, where the next segment starts
+     */
+    private int index(ByteBuffer segment, int segment_index, byte[] key, boolean last) {
+        int limit = segment.limit();
+        int line_start = 0;
+        for (int i = 0; i < limit; i++) {
+            if (segment.get(i) == '\n') {
+                add_record(segment, segment_index, line_start, i, key);
+                line_start = i + 1;
+            }
+        }
+        if (last && line_start < limit) {
+            // no newline after the last record
+            add_record(segment, segment_index, line_start, limit, key);
+            line_start = limit;
+        }
+        return line_start;
+    }
+
+    private void add_record(ByteBuffer segment, int segment_index, int start, int end, byte[] key) {
+        int first = start;
+        while (first < end && Character.isWhitespace(segment.get(first))) {
+            first++;
+        }
+        if (first == end) {
+            return;
+        }
+        if (count == offset.length) {
+            segment_of = Arrays.copyOf(segment_of, count * 2);
+            offset = Arrays.copyOf(offset, count * 2);
+            length = Arrays.copyOf(length, count * 2);
+        }
+        segment_of[count] = segment_index;
+        int value = value_start(segment, first, end, key);
+        int value_end = value < 0 ? -1 : value_end(segment, value, end);
+        if (value_end < 0) {
+            // escapes, or a layout the scan does not know, left to the JSON parser
+            escaped.set(count);
+            offset[count] = first;
+            length[count] = end - first;
+        } else {
+            offset[count] = value;
+            length[count] = value_end - value;
+        }
+        count++;
+    }
+
+    // the offset after the opening quote of the value of the key, -1 if not found
+    private static int value_start(ByteBuffer segment, int start, int end, byte[] key) {
+        outer:
+        for (int i = start; i + key.length <= end; i++) {
+            for (int j = 0; j < key.length; j++) {
+                if (segment.get(i + j) != key[j]) {
+                    continue outer;
+                }
+            }
+            int k = i + key.length;
+            while (k < end && Character.isWhitespace(segment.get(k))) k++;
+            if (k == end || segment.get(k) != ':') continue;
+            k++;
+            while (k < end && Character.isWhitespace(segment.get(k))) k++;
+            return k < end && segment.get(k) == '"' ? k + 1 : -1;
+        }
+        return -1;
+    }
+
+    // the offset of the closing quote of a value without escapes, -1 if it has any
+    private static int value_end(ByteBuffer segment, int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = segment.get(i);
+            if (b == '"') {
+                return i;
+            } else if (b == '\\') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static Path local_path(String file) {
+        return file.startsWith("file:") ? Paths.get(URI.create(file)) : Paths.get(file);
+    }
+
+    // the records [from, to) of a file, read by a task
+    private static class Range implements Serializable {
+        final String file;
+        final int from;
+        final int to;
+
+        Range(String file, int from, int to) {
+            this.file = file;
+            this.from = from;
+            this.to = to;
+        }
+    }
+}
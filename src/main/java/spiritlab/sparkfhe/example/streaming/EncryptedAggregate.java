@@ -0,0 +1,55 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.streaming;
+
+import java.io.Serializable;
+
+/**
+ * A running homomorphic aggregate kept in the streaming state store. It is a Java bean so
+ * that Spark can encode it with Encoders.bean, both as state and as query output.
+ */
+public class EncryptedAggregate implements Serializable {
+
+    // the grouping key, e.g. a sensor id
+    private String key;
+    // the serialized ciphertext holding the aggregate
+    private String ctxt;
+    // the number of records folded into the aggregate so far
+    private long count;
+
+    public EncryptedAggregate() {
+    }
+
+    public EncryptedAggregate(String key, String ctxt, long count) {
+        this.key = key;
+        this.ctxt = ctxt;
+        this.count = count;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getCtxt() {
+        return ctxt;
+    }
+
+    public void setCtxt(String ctxt) {
+        this.ctxt = ctxt;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+}
@@ -0,0 +1,65 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.streaming;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The per-key streaming state of a windowed aggregation: the partial ciphertext sum of every
+ * pane that still belongs to an open window. It is a Java bean so that Spark can encode it
+ * with Encoders.bean.
+ */
+public class PaneState implements Serializable {
+
+    private String key;
+    // pane start (epoch ms) -> serialized ciphertext holding the sum of the pane
+    private Map<Long, String> panes = new HashMap<Long, String>();
+    // pane start (epoch ms) -> number of records folded into the pane
+    private Map<Long, Long> paneCounts = new HashMap<Long, Long>();
+    // windows ending at or before this time (epoch ms) have been emitted
+    private long emittedUntil = Long.MIN_VALUE;
+
+    public PaneState() {
+    }
+
+    public PaneState(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public Map<Long, String> getPanes() {
+        return panes;
+    }
+
+    public void setPanes(Map<Long, String> panes) {
+        this.panes = panes;
+    }
+
+    public Map<Long, Long> getPaneCounts() {
+        return paneCounts;
+    }
+
+    public void setPaneCounts(Map<Long, Long> paneCounts) {
+        this.paneCounts = paneCounts;
+    }
+
+    public long getEmittedUntil() {
+        return emittedUntil;
+    }
+
+    public void setEmittedUntil(long emittedUntil) {
+        this.emittedUntil = emittedUntil;
+    }
+}
@@ -0,0 +1,98 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.streaming;
+
+import java.io.Serializable;
+
+/**
+ * Pane arithmetic for sliding and tumbling event-time windows. Time is cut into panes of
+ * gcd(window, slide) milliseconds; every window is the union of window/pane consecutive panes,
+ * so overlapping windows share the partial sums of their common panes instead of recomputing them.
+ * All times are epoch milliseconds, windows start at multiples of the slide.
+ */
+public class PaneWindows implements Serializable {
+
+    private final long window_ms;
+    private final long slide_ms;
+    private final long pane_ms;
+
+    public PaneWindows(long window_ms, long slide_ms) {
+        if (window_ms <= 0 || slide_ms <= 0 || slide_ms > window_ms) {
+            throw new IllegalArgumentException("Invalid window (" + window_ms + " ms) and slide (" + slide_ms
+                    + " ms), both must be positive and the slide cannot exceed the window");
+        }
+        this.window_ms = window_ms;
+        this.slide_ms = slide_ms;
+        this.pane_ms = gcd(window_ms, slide_ms);
+    }
+
+    public long get_window_ms() {
+        return window_ms;
+    }
+
+    public long get_slide_ms() {
+        return slide_ms;
+    }
+
+    public long get_pane_ms() {
+        return pane_ms;
+    }
+
+    /**
+     * @param event_time_ms the event time of a record
+     * @return the start of the pane the record belongs to
+     */
+    public long pane_of(long event_time_ms) {
+        return Math.floorDiv(event_time_ms, pane_ms) * pane_ms;
+    }
+
+    /**
+     * @param pane_start the start of a pane
+     * @return the start of the earliest window containing the pane
+     */
+    public long first_window_start(long pane_start) {
+        // windows [w, w+window) contain [p, p+pane) iff p+pane-window <= w <= p
+        return ceil_div(pane_start + pane_ms - window_ms, slide_ms) * slide_ms;
+    }
+
+    /**
+     * @param pane_start the start of a pane
+     * @return the start of the latest window containing the pane
+     */
+    public long last_window_start(long pane_start) {
+        return Math.floorDiv(pane_start, slide_ms) * slide_ms;
+    }
+
+    /**
+     * @param pane_start the start of a pane
+     * @return the end of the latest window containing the pane; once the watermark passes it,
+     *         the pane is no longer needed
+     */
+    public long last_window_end(long pane_start) {
+        return last_window_start(pane_start) + window_ms;
+    }
+
+    /**
+     * @param watermark_ms the current watermark
+     * @return the end of the first window that is still open at the given watermark
+     */
+    public long next_window_end(long watermark_ms) {
+        return ceil_div(watermark_ms + 1 - window_ms, slide_ms) * slide_ms + window_ms;
+    }
+
+    private static long ceil_div(long a, long b) {
+        return -Math.floorDiv(-a, b);
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,223 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.streaming;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.MapFunction;
+import org.apache.spark.api.java.function.MapGroupsWithStateFunction;
+import org.apache.spark.api.java.function.VoidFunction2;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoder;
+import org.apache.spark.sql.Encoders;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.streaming.GroupStateTimeout;
+import org.apache.spark.sql.streaming.OutputMode;
+import org.apache.spark.sql.streaming.StreamingQuery;
+import org.apache.spark.sql.streaming.StreamingQueryException;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import spiritlab.sparkfhe.example.CiphertextBatches;
+import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.backend.FHEBackends;
+import spiritlab.sparkfhe.example.storage.CiphertextCodec;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This is an example for SparkFHE project. Created to show continuous aggregation of encrypted
+ * data with Structured Streaming. New JSON-lines ciphertext files dropped into a directory are
+ * folded into a running homomorphic sum (or dot product) per key. The running aggregates live
+ * in the state store, so each micro-batch only touches the newly arrived ciphertexts, and the
+ * checkpoint lets a restarted query resume where it stopped.
+ *
+ * Input records look like {"key": "sensor-1", "ctxt": "..."} for sums, and
+ * {"key": "sensor-1", "ctxt_a": "...", "ctxt_b": "..."} for dot products. The key is optional.
+ * Ciphertexts are packed ones, as produced by batching.EncDecExample.
+ */
+public class StreamingAggregationExample {
+
+    public static final String MODE_SUM = "sum";
+    public static final String MODE_DOT_PRODUCT = "dot";
+
+    // records without a key are all folded into this one
+    public static final String DEFAULT_KEY = "total";
+
+    // bounds the work of a single micro-batch, so a backlog of files does not create one huge batch
+    private static final int MAX_FILES_PER_TRIGGER = 16;
+
+    /**
+     * Describe the JSON records expected in the input directory.
+     * @param mode either MODE_SUM or MODE_DOT_PRODUCT
+     * @return the schema used to read the stream
+     */
+    public static StructType input_schema(String mode) {
+        StructType structType = new StructType().add("key", DataTypes.StringType, true);
+        if (MODE_DOT_PRODUCT.equalsIgnoreCase(mode)) {
+            return structType.add("ctxt_a", DataTypes.StringType, false).add("ctxt_b", DataTypes.StringType, false);
+        }
+        return structType.add(Config.Ciphertext_Label, DataTypes.StringType, false);
+    }
+
+    /**
+     * Fold the ciphertexts of one micro-batch into a single ciphertext, using one native call for
+     * the micro-batch unless it exceeds {@link CiphertextBatches#default_max_batch_bytes()}.
+     * @param mode either MODE_SUM or MODE_DOT_PRODUCT
+     * @param rows the rows of the micro-batch, read with {@link #input_schema(String)}
+     * @param counter receives the number of rows folded, may be null
+     * @return the serialized result, or null if there were no rows
+     */
+    public static String fold_batch(String mode, Iterator<Row> rows, long[] counter) {
+        long[] n = new long[1];
+        String folded;
+        if (MODE_DOT_PRODUCT.equalsIgnoreCase(mode)) {
+            folded = CiphertextBatches.dot_product(rows, row -> {
+                n[0]++;
+                return CiphertextCodec.decode(row.getAs("ctxt_a"));
+            }, row -> CiphertextCodec.decode(row.getAs("ctxt_b")));
+        } else {
+            folded = CiphertextBatches.sum(rows, row -> {
+                n[0]++;
+                return CiphertextCodec.decode(row.getAs(Config.Ciphertext_Label));
+            });
+        }
+        if (counter != null) {
+            counter[0] = n[0];
+        }
+        return folded;
+    }
+
+    /**
+     * Start a query that keeps running encrypted aggregates over a directory of ciphertext files.
+     * @param spark the spark session
+     * @param input_directory the directory to watch for new JSON-lines files
+     * @param checkpoint_directory where the query keeps its offsets and state
+     * @param mode either MODE_SUM or MODE_DOT_PRODUCT
+     * @param library the HE library name
+     * @param scheme  the HE scheme name
+     * @param pk_b broadcast variable for public key
+     * @param sk_b broadcast variable for secret key
+     * @return the running query
+     * @throws TimeoutException if the query could not be started in time
+     */
+    public static StreamingQuery start_running_aggregate(SparkSession spark, String input_directory, String checkpoint_directory,
+                                                         String mode, String library, String scheme,
+                                                         Broadcast<String> pk_b, Broadcast<String> sk_b) throws TimeoutException {
+        Dataset<Row> records = spark.readStream()
+                .schema(input_schema(mode))
+                .option("maxFilesPerTrigger", MAX_FILES_PER_TRIGGER)
+                .json(input_directory);
+
+        Encoder<EncryptedAggregate> aggregateEncoder = Encoders.bean(EncryptedAggregate.class);
+
+        // groupByKey + mapGroupsWithState - fold each key's new ciphertexts into its stored running aggregate
+        Dataset<EncryptedAggregate> aggregates = records
+                .groupByKey((MapFunction<Row, String>) row -> row.isNullAt(0) ? DEFAULT_KEY : row.getString(0), Encoders.STRING())
+                .mapGroupsWithState((MapGroupsWithStateFunction<String, Row, EncryptedAggregate, EncryptedAggregate>) (key, rows, state) -> {
+                    // we need to load the shared library and init a copy of SparkFHE on the executor
+                    FHEBackends.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+
+                    long[] counter = new long[1];
+                    String batch_ctxt = fold_batch(mode, rows, counter);
+                    EncryptedAggregate aggregate = state.exists() ? state.get() : new EncryptedAggregate(key, null, 0);
+                    if (batch_ctxt != null) {
+                        aggregate.setCtxt(aggregate.getCtxt() == null ? batch_ctxt
+                                : FHEBackends.get().fhe_add(aggregate.getCtxt(), batch_ctxt));
+                        aggregate.setCount(aggregate.getCount() + counter[0]);
+                        state.update(aggregate);
+                    }
+                    return aggregate;
+                }, aggregateEncoder, aggregateEncoder, GroupStateTimeout.NoTimeout());
+
+        return aggregates.writeStream()
+                .outputMode(OutputMode.Update())
+                .option("checkpointLocation", checkpoint_directory)
+                .foreachBatch((VoidFunction2<Dataset<EncryptedAggregate>, Long>) (updated, batch_id) -> {
+                    // only the keys updated in this micro-batch are emitted, there are few of them
+                    List<EncryptedAggregate> rows = updated.collectAsList();
+                    for (EncryptedAggregate aggregate : rows) {
+                        // sum up the slots of the aggregate and display it to verify it
+                        String total_ctxt = FHEBackends.get().fhe_total_sum(aggregate.getCtxt());
+                        FHEBackends.get().decrypt_and_print(scheme, "Batch " + batch_id + ", " + aggregate.getKey()
+                                + " (" + aggregate.getCount() + " records)", total_ctxt, false, 0);
+                    }
+                })
+                .start();
+    }
+
+    public static void main(String[] args) throws StreamingQueryException, TimeoutException {
+        String scheme="", library = "", pk="", sk="";
+        String input_directory = null, mode = MODE_SUM;
+
+        // Create a SparkConf that loads defaults from system properties and the classpath
+        SparkConf sparkConf = new SparkConf();
+        //Provides the Spark driver application a name for easy identification in the Spark or Yarn UI
+        sparkConf.setAppName("StreamingAggregationExample");
+
+        // Decide whether to run the task locally or on the clusters
+        Config.setExecutionEnvironment(args[0]);
+        switch (Config.currentExecutionEnvironment) {
+            case CLUSTER:
+                Config.set_HDFS_NAME_NODE(args[1]);
+                library = args[2];
+                scheme = args[3];
+                pk = args[4];
+                sk = args[5];
+                if (args.length > 6) input_directory = args[6];
+                if (args.length > 7) mode = args[7];
+                break;
+            case LOCAL:
+                sparkConf.setMaster("local[*]");
+                library = args[1];
+                scheme = args[2];
+                pk = args[3];
+                sk = args[4];
+                if (args.length > 5) input_directory = args[5];
+                if (args.length > 6) mode = args[6];
+                break;
+            default:
+                break;
+        }
+        System.out.println("CURRENT_DIRECTORY = "+ Config.get_current_directory());
+
+        if (input_directory == null) {
+            input_directory = Config.get_records_directory() + "/incoming";
+        }
+        System.out.println("Watching " + input_directory + " for new ciphertext files (" + mode + ")");
+
+        // Creating a session to Spark. The session allows the creation of the
+        // various data abstractions such as RDDs, DataFrame, and more.
+        SparkSession spark = SparkSession.builder().config(sparkConf).getOrCreate();
+
+        // Creating spark context which allows the communication with worker nodes
+        JavaSparkContext jsc = new JavaSparkContext(spark.sparkContext());
+
+        // load our shared library and create the SparkFHE object, or select the plaintext backend
+        FHEBackends.init(library, scheme, pk, sk);
+
+        Broadcast<String> pk_b = jsc.broadcast(pk);
+        Broadcast<String> sk_b = jsc.broadcast(sk);
+
+        // one checkpoint per crypto params and mode, state written with other keys cannot be reused
+        String checkpoint_directory = Config.get_checkpoints_directory() + "/streaming_" + mode + "_"
+                + FHEBackends.get().generate_crypto_params_suffix();
+
+        StreamingQuery query = start_running_aggregate(spark, input_directory, checkpoint_directory, mode,
+                library, scheme, pk_b, sk_b);
+        // runs until the query is stopped or fails
+        query.awaitTermination();
+
+        // Stop existing spark context
+        jsc.close();
+
+        // Stop existing spark session
+        spark.close();
+    }
+}
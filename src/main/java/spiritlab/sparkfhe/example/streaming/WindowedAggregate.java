@@ -0,0 +1,75 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.streaming;
+
+import java.io.Serializable;
+
+/**
+ * The homomorphic sum of one key over one event-time window, emitted once the watermark
+ * has passed the end of the window.
+ */
+public class WindowedAggregate implements Serializable {
+
+    private String key;
+    // window bounds in epoch ms, [windowStart, windowEnd)
+    private long windowStart;
+    private long windowEnd;
+    // the serialized ciphertext holding the window sum
+    private String ctxt;
+    // the number of records in the window
+    private long count;
+
+    public WindowedAggregate() {
+    }
+
+    public WindowedAggregate(String key, long windowStart, long windowEnd, String ctxt, long count) {
+        this.key = key;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.ctxt = ctxt;
+        this.count = count;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    public void setWindowStart(long windowStart) {
+        this.windowStart = windowStart;
+    }
+
+    public long getWindowEnd() {
+        return windowEnd;
+    }
+
+    public void setWindowEnd(long windowEnd) {
+        this.windowEnd = windowEnd;
+    }
+
+    public String getCtxt() {
+        return ctxt;
+    }
+
+    public void setCtxt(String ctxt) {
+        this.ctxt = ctxt;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+}
@@ -0,0 +1,289 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.streaming;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.FlatMapGroupsWithStateFunction;
+import org.apache.spark.api.java.function.MapFunction;
+import org.apache.spark.api.java.function.VoidFunction2;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.spiritlab.sparkfhe.SparkFHEPlugin;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoders;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.streaming.GroupState;
+import org.apache.spark.sql.streaming.GroupStateTimeout;
+import org.apache.spark.sql.streaming.OutputMode;
+import org.apache.spark.sql.streaming.StreamingQuery;
+import org.apache.spark.sql.streaming.StreamingQueryException;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import spiritlab.sparkfhe.api.Ciphertext;
+import spiritlab.sparkfhe.api.SparkFHE;
+import spiritlab.sparkfhe.api.StringVector;
+import spiritlab.sparkfhe.api.Util;
+import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.memory.NativeArena;
+import spiritlab.sparkfhe.example.storage.CiphertextCodec;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This is an example for SparkFHE project. Created to show sliding and tumbling event-time window
+ * sums over encrypted data with Structured Streaming, e.g. 5-minute encrypted sums per sensor.
+ *
+ * Every key keeps the partial ciphertext sums of its panes (see {@link PaneWindows}) in the state
+ * store. New records are added to their pane, and a window is emitted as the sum of its panes once
+ * the watermark passes its end, so overlapping windows reuse the pane sums. Panes are dropped as
+ * soon as the last window containing them has been emitted, which bounds the state per key to the
+ * panes of the open windows.
+ *
+ * Input records look like {"key": "sensor-1", "event_time": "2020-01-01T00:00:00Z", "ctxt": "..."},
+ * where ctxt is a packed ciphertext as produced by batching.EncDecExample.
+ */
+public class WindowedAggregationExample {
+
+    private static final String EVENT_TIME_COLUMN = "event_time";
+
+    /**
+     * Describe the JSON records expected in the input directory.
+     * @return the schema used to read the stream
+     */
+    public static StructType input_schema() {
+        return new StructType()
+                .add("key", DataTypes.StringType, true)
+                .add(EVENT_TIME_COLUMN, DataTypes.TimestampType, false)
+                .add(Config.Ciphertext_Label, DataTypes.StringType, false);
+    }
+
+    /**
+     * Fold new records into the panes of a key, emit the windows closed by the watermark and
+     * evict the panes no open window needs anymore. Called once per key and micro-batch,
+     * or on timeout when the watermark moves past the next window end.
+     * @param key the grouping key
+     * @param rows the new records of the key, empty on timeout
+     * @param state the pane state of the key
+     * @param windows the window definition
+     * @return the windows closed by the current watermark
+     */
+    public static Iterator<WindowedAggregate> update_panes(String key, Iterator<Row> rows, GroupState<PaneState> state,
+                                                           PaneWindows windows) {
+        PaneState panes = state.exists() ? state.get() : new PaneState(key);
+        long watermark = state.getCurrentWatermarkMs();
+
+        // the vectors of this micro-batch are freed when it is done, rather than by the finalizers
+        List<WindowedAggregate> emitted = new ArrayList<WindowedAggregate>();
+        TreeSet<Long> closed_windows = new TreeSet<Long>();
+        try (NativeArena arena = new NativeArena()) {
+            // group the new ciphertexts by pane, so each pane costs one native call per micro-batch
+            Map<Long, StringVector> arrivals = new HashMap<Long, StringVector>();
+            Map<Long, Long> arrival_counts = new HashMap<Long, Long>();
+            while (rows.hasNext()) {
+                Row row = rows.next();
+                long pane = windows.pane_of(row.<Timestamp>getAs(EVENT_TIME_COLUMN).getTime());
+                // too late, every window containing this pane has already been emitted
+                if (windows.last_window_end(pane) <= panes.getEmittedUntil()) {
+                    continue;
+                }
+                StringVector vec = arrivals.get(pane);
+                if (vec == null) {
+                    vec = arena.track(new StringVector());
+                    arrivals.put(pane, vec);
+                }
+                String ctxt = CiphertextCodec.decode(row.getAs(Config.Ciphertext_Label));
+                vec.add(ctxt);
+                arena.account(ctxt.length());
+                arrival_counts.merge(pane, 1L, Long::sum);
+            }
+            for (Map.Entry<Long, StringVector> arrival : arrivals.entrySet()) {
+                long pane = arrival.getKey();
+                String pane_sum = arrival.getValue().size() == 1 ? arrival.getValue().get(0)
+                        : SparkFHE.getInstance().fhe_total_sum(arrival.getValue());
+                String previous = panes.getPanes().get(pane);
+                panes.getPanes().put(pane, previous == null ? pane_sum : SparkFHE.getInstance().fhe_add(previous, pane_sum));
+                panes.getPaneCounts().merge(pane, arrival_counts.get(pane), Long::sum);
+            }
+
+            // find the windows closed by the watermark that still have to be emitted
+            for (long pane : panes.getPanes().keySet()) {
+                for (long start = windows.first_window_start(pane); start <= windows.last_window_start(pane); start += windows.get_slide_ms()) {
+                    long end = start + windows.get_window_ms();
+                    if (end <= watermark && end > panes.getEmittedUntil()) {
+                        closed_windows.add(start);
+                    }
+                }
+            }
+
+            // each window is the sum of its panes, shared with the overlapping windows
+            for (long start : closed_windows) {
+                long end = start + windows.get_window_ms();
+                StringVector vec = arena.track(new StringVector());
+                long count = 0;
+                for (long pane = start; pane < end; pane += windows.get_pane_ms()) {
+                    String pane_sum = panes.getPanes().get(pane);
+                    if (pane_sum != null) {
+                        vec.add(pane_sum);
+                        arena.account(pane_sum.length());
+                        count += panes.getPaneCounts().get(pane);
+                    }
+                }
+                String window_sum = vec.size() == 1 ? vec.get(0) : SparkFHE.getInstance().fhe_total_sum(vec);
+                emitted.add(new WindowedAggregate(key, start, end, window_sum, count));
+            }
+        }
+        if (!closed_windows.isEmpty()) {
+            panes.setEmittedUntil(Math.max(panes.getEmittedUntil(), closed_windows.last() + windows.get_window_ms()));
+        }
+
+        // evict the panes whose windows are all emitted, each one holds a large ciphertext
+        panes.getPanes().keySet().removeIf(pane -> windows.last_window_end(pane) <= watermark);
+        panes.getPaneCounts().keySet().retainAll(panes.getPanes().keySet());
+
+        if (panes.getPanes().isEmpty()) {
+            state.remove();
+        } else {
+            state.update(panes);
+            // wake up when the next window closes, even if the key receives no new records
+            state.setTimeoutTimestamp(windows.next_window_end(watermark));
+        }
+        return emitted.iterator();
+    }
+
+    /**
+     * Start a query that emits encrypted window sums per key over a directory of ciphertext files.
+     * @param spark the spark session
+     * @param input_directory the directory to watch for new JSON-lines files
+     * @param checkpoint_directory where the query keeps its offsets and state
+     * @param windows the window definition
+     * @param watermark_delay how late records may arrive, e.g. "10 minutes"
+     * @param library the HE library name
+     * @param scheme  the HE scheme name
+     * @param pk_b broadcast variable for public key
+     * @param sk_b broadcast variable for secret key
+     * @return the running query
+     * @throws TimeoutException if the query could not be started in time
+     */
+    public static StreamingQuery start_windowed_aggregate(SparkSession spark, String input_directory, String checkpoint_directory,
+                                                          PaneWindows windows, String watermark_delay, String library, String scheme,
+                                                          Broadcast<String> pk_b, Broadcast<String> sk_b) throws TimeoutException {
+        Dataset<Row> records = spark.readStream()
+                .schema(input_schema())
+                .json(input_directory)
+                .withWatermark(EVENT_TIME_COLUMN, watermark_delay);
+
+        Dataset<WindowedAggregate> window_sums = records
+                .groupByKey((MapFunction<Row, String>) row -> row.isNullAt(0) ? StreamingAggregationExample.DEFAULT_KEY : row.getString(0), Encoders.STRING())
+                .flatMapGroupsWithState((FlatMapGroupsWithStateFunction<String, Row, PaneState, WindowedAggregate>) (key, rows, state) -> {
+                    // we need to load the shared library and init a copy of SparkFHE on the executor
+                    SparkFHEPlugin.setup();
+                    SparkFHE.init(library, scheme, pk_b.getValue(), sk_b.getValue());
+                    return update_panes(key, rows, state, windows);
+                }, OutputMode.Append(), Encoders.bean(PaneState.class), Encoders.bean(WindowedAggregate.class),
+                        GroupStateTimeout.EventTimeTimeout());
+
+        return window_sums.writeStream()
+                .outputMode(OutputMode.Append())
+                .option("checkpointLocation", checkpoint_directory)
+                .foreachBatch((VoidFunction2<Dataset<WindowedAggregate>, Long>) (closed, batch_id) -> {
+                    for (WindowedAggregate window : closed.collectAsList()) {
+                        // sum up the slots of the window sum and display it to verify it
+                        try (NativeArena arena = new NativeArena()) {
+                            Ciphertext total_ctxt = arena.track(new Ciphertext(SparkFHE.getInstance().fhe_total_sum(window.getCtxt())), window.getCtxt().length());
+                            Util.decrypt_and_print(scheme, window.getKey() + " [" + new Timestamp(window.getWindowStart()) + ", "
+                                    + new Timestamp(window.getWindowEnd()) + ") (" + window.getCount() + " records)", total_ctxt, false, 0);
+                        }
+                    }
+                })
+                .start();
+    }
+
+    public static void main(String[] args) throws StreamingQueryException, TimeoutException {
+        String scheme="", library = "", pk="", sk="";
+        String input_directory = null, watermark_delay = "10 minutes";
+        long window_seconds = 300, slide_seconds = 60;
+
+        // Create a SparkConf that loads defaults from system properties and the classpath
+        SparkConf sparkConf = new SparkConf();
+        //Provides the Spark driver application a name for easy identification in the Spark or Yarn UI
+        sparkConf.setAppName("WindowedAggregationExample");
+
+        // Decide whether to run the task locally or on the clusters
+        Config.setExecutionEnvironment(args[0]);
+        int next_arg = 0;
+        switch (Config.currentExecutionEnvironment) {
+            case CLUSTER:
+                Config.set_HDFS_NAME_NODE(args[1]);
+                library = args[2];
+                scheme = args[3];
+                pk = args[4];
+                sk = args[5];
+                next_arg = 6;
+                break;
+            case LOCAL:
+                sparkConf.setMaster("local[*]");
+                library = args[1];
+                scheme = args[2];
+                pk = args[3];
+                sk = args[4];
+                next_arg = 5;
+                break;
+            default:
+                break;
+        }
+        // optional: input directory, window length (s), slide (s), watermark delay
+        if (args.length > next_arg) input_directory = args[next_arg];
+        if (args.length > next_arg + 1) window_seconds = Long.parseLong(args[next_arg + 1]);
+        if (args.length > next_arg + 2) slide_seconds = Long.parseLong(args[next_arg + 2]);
+        if (args.length > next_arg + 3) watermark_delay = args[next_arg + 3];
+        System.out.println("CURRENT_DIRECTORY = "+ Config.get_current_directory());
+
+        if (input_directory == null) {
+            input_directory = Config.get_records_directory() + "/incoming";
+        }
+        PaneWindows windows = new PaneWindows(window_seconds * 1000, slide_seconds * 1000);
+        System.out.println("Watching " + input_directory + " with " + window_seconds + "s windows every " + slide_seconds
+                + "s (panes of " + windows.get_pane_ms() / 1000 + "s), watermark delay " + watermark_delay);
+
+        // Creating a session to Spark. The session allows the creation of the
+        // various data abstractions such as RDDs, DataFrame, and more.
+        SparkSession spark = SparkSession.builder().config(sparkConf).getOrCreate();
+
+        // Creating spark context which allows the communication with worker nodes
+        JavaSparkContext jsc = new JavaSparkContext(spark.sparkContext());
+
+        // required to load our shared library
+        SparkFHEPlugin.setup();
+        // create SparkFHE object
+        SparkFHE.init(library, scheme, pk, sk);
+
+        Broadcast<String> pk_b = jsc.broadcast(pk);
+        Broadcast<String> sk_b = jsc.broadcast(sk);
+
+        // the pane layout is part of the state, so each window definition gets its own checkpoint
+        String checkpoint_directory = Config.get_checkpoints_directory() + "/windowed_" + window_seconds + "_" + slide_seconds
+                + "_" + SparkFHE.getInstance().generate_crypto_params_suffix();
+
+        StreamingQuery query = start_windowed_aggregate(spark, input_directory, checkpoint_directory, windows, watermark_delay,
+                library, scheme, pk_b, sk_b);
+        // runs until the query is stopped or fails
+        query.awaitTermination();
+
+        // Stop existing spark context
+        jsc.close();
+
+        // Stop existing spark session
+        spark.close();
+    }
+}
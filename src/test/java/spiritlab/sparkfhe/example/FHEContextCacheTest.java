@@ -0,0 +1,203 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import spiritlab.sparkfhe.example.backend.PlaintextBackend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for the FHE context cache")
+public class FHEContextCacheTest {
+
+    // stands in for the native context of a key set, in this JVM or in a child one
+    private static class FakeContext extends PlaintextBackend implements AutoCloseable {
+        final String pk;
+        final boolean in_process;
+        boolean closed;
+
+        FakeContext(String pk, boolean in_process) {
+            super("PLAINTEXT", "BGV", 0);
+            this.pk = pk;
+            this.in_process = in_process;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static FHEContextCache.Loader fake_loader(List<FakeContext> loaded) {
+        return (library, scheme, pk, sk, in_process) -> {
+            FakeContext context = new FakeContext(pk, in_process);
+            synchronized (loaded) {
+                loaded.add(context);
+            }
+            return context;
+        };
+    }
+
+    private static String id(String tenant) {
+        return FHEContextCache.key_id("HELIB", "BGV", tenant + "_pk", tenant + "_sk");
+    }
+
+    private static FHEContextCache.Lease lease(FHEContextCache cache, String tenant) {
+        return cache.lease(id(tenant), "HELIB", "BGV", tenant + "_pk", tenant + "_sk");
+    }
+
+    private static void use(FHEContextCache cache, String tenant) {
+        try (FHEContextCache.Lease lease = lease(cache, tenant)) {
+            assertEquals(tenant + "_pk", ((FakeContext) lease.backend()).pk);
+        }
+    }
+
+    @Test
+    @DisplayName("Test switching key sets reuses their contexts and evicts the least recently used one")
+    public void test_reuse_and_evict() {
+        List<FakeContext> loaded = new ArrayList<FakeContext>();
+        FHEContextCache cache = new FHEContextCache(2, true, fake_loader(loaded));
+
+        use(cache, "a");
+        use(cache, "b");
+        use(cache, "a");
+        assertEquals(2, cache.get_loads());
+        assertEquals(1, cache.get_hits());
+        assertEquals(2, cache.get_load_time().getCount());
+        // every key set gets a context of its own, the SparkFHE of this JVM is left alone
+        assertFalse(loaded.get(0).in_process);
+        assertFalse(loaded.get(1).in_process);
+
+        // b is the least recently used
+        use(cache, "c");
+        assertEquals(3, cache.get_loads());
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.get_evictions());
+        assertTrue(loaded.get(1).closed);
+        assertFalse(cache.contains(id("b")));
+        assertFalse(loaded.get(0).closed);
+
+        assertNotEquals(id("a"), FHEContextCache.key_id("HELIB", "BGV", "a_pk", "other_sk"));
+        assertThrows(IllegalArgumentException.class, () -> new FHEContextCache(0, true, fake_loader(loaded)));
+    }
+
+    @Test
+    @DisplayName("Test without child JVMs the key sets take turns in the SparkFHE of this JVM")
+    public void test_in_process() throws Exception {
+        List<FakeContext> loaded = new ArrayList<FakeContext>();
+        FHEContextCache cache = new FHEContextCache(4, false, fake_loader(loaded));
+
+        use(cache, "a");
+        use(cache, "a");
+        assertTrue(loaded.get(0).in_process);
+        assertEquals(1, cache.get_loads());
+        // b replaces a, once a has no leases
+        use(cache, "b");
+        assertTrue(loaded.get(0).closed);
+        assertTrue(loaded.get(1).in_process);
+        assertEquals(1, cache.size());
+        // PLAINTEXT key sets need no SparkFHE
+        cache.lease("plain", "PLAINTEXT", "BGV", "", "").close();
+        assertEquals(2, cache.size());
+
+        ExecutorService pool = Executors.newFixedThreadPool(1);
+        try {
+            FHEContextCache.Lease lease_b = lease(cache, "b");
+            Future<?> c = pool.submit(() -> use(cache, "c"));
+            Thread.sleep(200);
+            // c waits for the task of b
+            assertFalse(c.isDone());
+            assertEquals(1, cache.get_waits());
+            lease_b.close();
+            c.get(10, TimeUnit.SECONDS);
+            assertTrue(loaded.get(1).closed);
+            assertTrue(loaded.get(3).in_process);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // the driver holds its leases, a second key set would wait for itself
+        cache.task_backend(id("d"), "HELIB", "BGV", "d_pk", "d_sk");
+        assertThrows(IllegalStateException.class, () -> cache.task_backend(id("e"), "HELIB", "BGV", "e_pk", "e_sk"));
+    }
+
+    @Test
+    @DisplayName("Test a leased context is not evicted until the lease is closed")
+    public void test_lease() throws Exception {
+        List<FakeContext> loaded = new ArrayList<FakeContext>();
+        FHEContextCache cache = new FHEContextCache(1, true, fake_loader(loaded));
+
+        FHEContextCache.Lease lease_a = lease(cache, "a");
+        ExecutorService pool = Executors.newFixedThreadPool(1);
+        try {
+            // the cache is full, b waits for a
+            Future<?> b = pool.submit(() -> use(cache, "b"));
+            Thread.sleep(200);
+            assertFalse(b.isDone());
+            assertEquals(1, cache.size());
+            assertEquals("a_pk", ((FakeContext) lease_a.backend()).pk);
+
+            lease_a.close();
+            // closing twice releases once
+            lease_a.close();
+            b.get(10, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, cache.size());
+        assertTrue(loaded.get(0).closed);
+        assertFalse(loaded.get(1).closed);
+
+        use(cache, "a");
+        assertEquals(3, cache.get_loads());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    @DisplayName("Test concurrent leases of a key set load it once")
+    public void test_concurrent_load() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        List<FakeContext> loaded = new ArrayList<FakeContext>();
+        FHEContextCache.Loader loader = fake_loader(loaded);
+        FHEContextCache cache = new FHEContextCache(4, true, (library, scheme, pk, sk, in_process) -> {
+            loading.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return loader.load(library, scheme, pk, sk, in_process);
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> first = pool.submit(() -> use(cache, "a"));
+            loading.await();
+            Future<?> second = pool.submit(() -> use(cache, "a"));
+            Thread.sleep(200);
+            // the second one waits for the load of the first
+            assertFalse(second.isDone());
+            proceed.countDown();
+            first.get(10, TimeUnit.SECONDS);
+            second.get(10, TimeUnit.SECONDS);
+            assertEquals(1, cache.get_loads());
+            assertEquals(1, cache.get_waits());
+            assertEquals(1, cache.get_hits());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.backend;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for the plaintext backend")
+public class PlaintextBackendTest {
+
+    @Test
+    @DisplayName("Operators are applied slot-wise, missing slots count as zeros")
+    public void test_operators() {
+        PlaintextBackend backend = PlaintextBackend.parse("PLAINTEXT", "BGV");
+        String a = backend.encrypt(new long[]{1, 2, 3});
+        String b = backend.encrypt(new long[]{4, 5});
+
+        assertArrayEquals(new double[]{5, 7, 3}, PlaintextBackend.parse_slots(backend.fhe_add(a, b)));
+        assertArrayEquals(new double[]{4, 10, 0}, PlaintextBackend.parse_slots(backend.fhe_multiply(a, b)));
+        assertArrayEquals(new double[]{-3, -3, 3}, PlaintextBackend.parse_slots(backend.fhe_subtract(a, b)));
+        assertArrayEquals(new double[]{6, 6, 6}, PlaintextBackend.parse_slots(backend.fhe_total_sum(a)));
+        assertEquals("[1, 2, 3]", backend.decrypt(a));
+    }
+
+    @Test
+    @DisplayName("Batched operators match the pairwise ones")
+    public void test_batches() {
+        PlaintextBackend backend = PlaintextBackend.parse("PLAINTEXT", "CKKS");
+        List<String> a = backend.new_batch(2);
+        List<String> b = backend.new_batch(2);
+        a.addAll(Arrays.asList(backend.encrypt(new double[]{1, 2}), backend.encrypt(new double[]{3, 4})));
+        b.addAll(Arrays.asList(backend.encrypt(new double[]{0.5, 1}), backend.encrypt(new double[]{2, 0})));
+
+        assertArrayEquals(new double[]{4, 6}, PlaintextBackend.parse_slots(backend.fhe_total_sum(a)));
+        assertArrayEquals(new double[]{6.5, 2}, PlaintextBackend.parse_slots(backend.do_FHE_dot_product(a, b)));
+        assertEquals("[6.5, 2.0]", backend.decrypt(backend.do_FHE_dot_product(a, b)));
+        assertThrows(IllegalArgumentException.class, () -> backend.do_FHE_dot_product(a, b.subList(0, 1)));
+    }
+
+    @Test
+    @DisplayName("Ciphertexts are padded to the size in the library name")
+    public void test_padding() {
+        assertTrue(FHEBackends.is_plaintext("plaintext:2048"));
+        assertFalse(FHEBackends.is_plaintext("HELIB"));
+
+        PlaintextBackend backend = PlaintextBackend.parse("PLAINTEXT:2048", "BGV");
+        assertEquals(2048, backend.get_ciphertext_bytes());
+        assertEquals("PLAINTEXT_BGV_2048", backend.generate_crypto_params_suffix());
+        String a = backend.encrypt("7");
+        assertEquals(2048, a.length());
+        assertEquals(2048, backend.fhe_multiply(a, a).length());
+        assertArrayEquals(new double[]{49}, PlaintextBackend.parse_slots(backend.fhe_multiply(a, a)));
+
+        FHEBackends.init("PLAINTEXT:2048", "BGV", null, null);
+        assertEquals("PLAINTEXT:2048", FHEBackends.get().get_library());
+    }
+}
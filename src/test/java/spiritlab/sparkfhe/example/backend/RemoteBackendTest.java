@@ -0,0 +1,68 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.backend;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for the backend served to other processes")
+public class RemoteBackendTest {
+
+    @Test
+    @DisplayName("Test the remote calls return what the served backend returns")
+    public void test_calls() throws Exception {
+        PlaintextBackend local = new PlaintextBackend("PLAINTEXT", "BGV", 64);
+        try (BackendServer server = new BackendServer(local, "secret")) {
+            int port = server.start();
+            try (RemoteBackend remote = new RemoteBackend("PLAINTEXT", "BGV", port, "secret")) {
+                assertEquals(local.generate_crypto_params_suffix(), remote.generate_crypto_params_suffix());
+                String a = remote.encrypt(new long[]{1, 2, 3});
+                String b = remote.encrypt(new double[]{4, 5, 6});
+                assertEquals(local.decrypt(local.fhe_add(a, b)), remote.decrypt(remote.fhe_add(a, b)));
+                assertEquals(local.fhe_multiply(a, b), remote.fhe_multiply(a, b));
+                assertEquals(local.fhe_subtract(a, b), remote.fhe_subtract(a, b));
+                assertEquals(local.fhe_total_sum(a), remote.fhe_total_sum(a));
+                List<String> batch = remote.new_batch(2);
+                batch.addAll(Arrays.asList(a, b));
+                assertEquals(local.fhe_total_sum(batch), remote.fhe_total_sum(batch));
+                assertEquals(local.do_FHE_dot_product(batch, batch), remote.do_FHE_dot_product(batch, batch));
+
+                // a failing call is reported, and the connection stays usable
+                assertThrows(IllegalStateException.class, () -> remote.fhe_add("not a ciphertext", a));
+                assertEquals(local.decrypt(a), remote.decrypt(a));
+
+                // parallel callers get a connection each
+                ExecutorService pool = Executors.newFixedThreadPool(4);
+                try {
+                    List<Future<String>> sums = new ArrayList<Future<String>>();
+                    for (int i = 0; i < 16; i++) {
+                        sums.add(pool.submit(() -> remote.decrypt(remote.fhe_add(a, a))));
+                    }
+                    for (Future<String> sum : sums) {
+                        assertEquals(local.decrypt(local.fhe_add(a, a)), sum.get(10, TimeUnit.SECONDS));
+                    }
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+
+            try (RemoteBackend intruder = new RemoteBackend("PLAINTEXT", "BGV", port, "guess")) {
+                assertThrows(IllegalStateException.class, intruder::generate_crypto_params_suffix);
+            }
+        }
+    }
+}
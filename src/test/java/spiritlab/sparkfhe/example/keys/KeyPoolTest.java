@@ -0,0 +1,112 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.keys;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import spiritlab.sparkfhe.example.storage.CiphertextParams;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for the key pool")
+public class KeyPoolTest {
+
+    // stands in for generate_key_pair, slow enough for the generations to overlap
+    private static KeyPool.Generator fake_generator(AtomicInteger running, AtomicInteger max_running) {
+        return (library, scheme, params_file, directory) -> {
+            max_running.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(100);
+            Files.write(directory.resolve(KeySet.PUBLIC_KEY_FILE), "pk".getBytes(StandardCharsets.UTF_8));
+            Files.write(directory.resolve(KeySet.SECRET_KEY_FILE), "sk".getBytes(StandardCharsets.UTF_8));
+            KeySet key_set = new KeySet();
+            key_set.setParams(new CiphertextParams("HELIB_BGV_m1000", library, scheme));
+            KeyPool.write(directory, key_set);
+            running.decrementAndGet();
+        };
+    }
+
+    @Test
+    @DisplayName("Key sets are generated in parallel and each is acquired once")
+    public void test_fill_and_acquire() throws Exception {
+        AtomicInteger running = new AtomicInteger(), max_running = new AtomicInteger();
+        KeyPool pool = new KeyPool(Files.createTempDirectory("pool"), "HELIB", "BGV", "params.txt",
+                fake_generator(running, max_running));
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+        assertEquals(4, pool.fill(4, 4).size());
+        assertEquals(4, pool.available());
+        assertTrue(max_running.get() > 1);
+        assertEquals(0, pool.fill(4, 4).size());
+
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        List<Future<KeySet>> futures = new ArrayList<Future<KeySet>>();
+        for (int i = 0; i < 8; i++) {
+            String tenant = "tenant" + i;
+            futures.add(threads.submit(() -> pool.acquire(tenant)));
+        }
+        Set<String> ids = new HashSet<String>();
+        int empty = 0;
+        for (Future<KeySet> future : futures) {
+            KeySet key_set = future.get();
+            if (key_set == null) {
+                empty++;
+                continue;
+            }
+            assertTrue(ids.add(key_set.getId()));
+            assertNotNull(key_set.getTenant());
+            assertEquals("params.txt", key_set.getParamsFile());
+            assertEquals("HELIB_BGV_m1000", key_set.getParams().getCryptoParams());
+            assertEquals("pk", new String(Files.readAllBytes(Paths.get(key_set.get_public_key_file())), StandardCharsets.UTF_8));
+            if (posix) {
+                assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(Paths.get(key_set.get_secret_key_file()))));
+                assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(key_set.get_directory())));
+            }
+        }
+        threads.shutdown();
+        assertEquals(4, ids.size());
+        assertEquals(4, empty);
+        assertEquals(0, pool.available());
+
+        assertNotNull(pool.acquire_or_generate("late"));
+
+        // a tenant names a file under acquired, not a path
+        for (String tenant : new String[]{"../ready", "a/b", "..", ".", "", "tenant 1"}) {
+            assertThrows(IllegalArgumentException.class, () -> pool.acquire(tenant), tenant);
+        }
+        assertThrows(IllegalArgumentException.class, () -> pool.acquire_or_generate("../../etc"));
+        assertNotNull(pool.acquire_or_generate("tenant-1.eu_west"));
+    }
+
+    @Test
+    @DisplayName("Failed generations leave nothing behind")
+    public void test_failed_generation() throws IOException {
+        Path directory = Files.createTempDirectory("pool");
+        KeyPool pool = new KeyPool(directory, "SEAL", "CKKS", "params.txt", (library, scheme, params_file, key_directory) -> {
+            Files.write(key_directory.resolve(KeySet.PUBLIC_KEY_FILE), new byte[1]);
+            throw new IOException("no shared library");
+        });
+        assertThrows(IOException.class, () -> pool.fill(2, 2));
+        assertEquals(0, pool.available());
+        assertEquals(0, Files.list(directory.resolve("SEAL_CKKS").resolve(KeyPool.STAGING)).count());
+    }
+}
@@ -0,0 +1,79 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.memory;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+
+@DisplayName("TestCase for the accounting of native memory")
+public class NativeMemoryTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    @DisplayName("Arenas account the bytes they hold until they are closed")
+    public void test_arena_accounting() {
+        NativeMemory.thread_usage().reset();
+        long live = NativeMemory.get_live_bytes();
+        try (NativeArena arena = new NativeArena()) {
+            arena.account(3000);
+            arena.account(2000);
+            arena.unaccount(4000);
+            assertEquals(1000, arena.get_bytes());
+            assertEquals(live + 1000, NativeMemory.get_live_bytes());
+        }
+        assertEquals(live, NativeMemory.get_live_bytes());
+        assertEquals(5000, NativeMemory.thread_usage().get_allocated_bytes());
+        assertEquals(5000, NativeMemory.thread_usage().get_peak_bytes());
+        assertEquals(0, NativeMemory.thread_usage().get_live_bytes());
+        assertTrue(NativeMemory.get_peak_bytes() >= 5000);
+    }
+
+    @Test
+    @DisplayName("Only the SWIG objects of SparkFHE can be tracked")
+    public void test_track_rejects_java_objects() {
+        try (NativeArena arena = new NativeArena()) {
+            assertFalse(NativeArena.is_native("ctxt"));
+            assertThrows(IllegalArgumentException.class, () -> arena.track("ctxt"));
+            assertEquals(0, arena.size());
+        }
+    }
+
+    @Test
+    @DisplayName("The RSS is sampled periodically once an arena is opened, where /proc is available")
+    public void test_rss_sampling() {
+        assumeTrue(NativeMemory.rss_bytes() >= 0);
+        new NativeArena().close();
+        boolean sampler = false;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            sampler |= thread.getName().equals("native-memory-rss") && thread.isDaemon();
+        }
+        assertTrue(sampler);
+        assertTrue(NativeMemory.get_peak_rss_bytes() > 0);
+    }
+
+    @Test
+    @DisplayName("The suggested overhead covers the RSS outside the heap, with headroom")
+    public void test_suggested_memory_overhead() {
+        assertEquals(NativeMemory.MIN_MEMORY_OVERHEAD_MB, NativeMemory.suggested_memory_overhead_mb(-1, 4096 * MB));
+        assertEquals(NativeMemory.MIN_MEMORY_OVERHEAD_MB, NativeMemory.suggested_memory_overhead_mb(4096 * MB, 4096 * MB));
+        assertEquals(1229, NativeMemory.suggested_memory_overhead_mb(5120 * MB, 4096 * MB));
+
+        NativeMemory.Usage usage = new NativeMemory.Usage();
+        usage.allocated_bytes = 10 * MB;
+        usage.peak_bytes = 4 * MB;
+        usage.live_bytes = MB;
+        usage.objects_created = 3;
+        usage.objects_deleted = 2;
+        String report = TaskNativeMemory.report(2, 5, 42, usage, 1000 * MB, 1100 * MB, 1229);
+        assertEquals("Native memory of task 2.5 (TID 42): allocated 10.0 MB in 3 objects, peak 4.0 MB, 1 objects (1.0 MB) not freed, "
+                + "RSS 1000.0 -> 1100.0 MB, suggested spark.executor.memoryOverhead=1229m", report);
+    }
+}
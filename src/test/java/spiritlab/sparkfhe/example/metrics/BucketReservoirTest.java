@@ -0,0 +1,88 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for the lock-free operation metrics")
+public class BucketReservoirTest {
+
+    @Test
+    @DisplayName("Every value falls in a bucket whose bounds contain it")
+    public void test_buckets() {
+        for (long value : new long[]{0, 1, 15, 16, 17, 31, 32, 1000, 123456789L, Long.MAX_VALUE}) {
+            int bucket = BucketReservoir.bucket(value);
+            assertTrue(BucketReservoir.lower_bound(bucket) <= value, "lower bound of " + value);
+            if (bucket + 1 < 16 * 60) {
+                assertTrue(BucketReservoir.lower_bound(bucket + 1) > value, "upper bound of " + value);
+            }
+        }
+        assertEquals(15, BucketReservoir.bucket(15));
+        assertEquals(16, BucketReservoir.bucket(16));
+    }
+
+    @Test
+    @DisplayName("Quantiles are within a sixteenth of the exact ones, extremes are exact")
+    public void test_quantiles() {
+        BucketReservoir reservoir = new BucketReservoir();
+        for (long i = 1; i <= 10000; i++) {
+            reservoir.update(i);
+        }
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertEquals(10000, snapshot.size());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(10000, snapshot.getMax());
+        assertEquals(5000, snapshot.getMedian(), 5000 / 16.0);
+        assertEquals(9900, snapshot.get99thPercentile(), 9900 / 16.0);
+        assertEquals(5000.5, snapshot.getMean(), 5000 / 16.0);
+        assertEquals(0, new BucketReservoir().getSnapshot().getMax());
+    }
+
+    @Test
+    @DisplayName("Concurrent updates are all counted")
+    public void test_concurrent_updates() throws InterruptedException {
+        Histogram histogram = new Histogram(new BucketReservoir());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final long offset = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.update(i + offset);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(40000, histogram.getSnapshot().size());
+        assertEquals(10002, histogram.getSnapshot().getMax());
+    }
+
+    @Test
+    @DisplayName("Operations are recorded under their SparkFHE names")
+    public void test_registry() {
+        MetricRegistry registry = new MetricRegistry();
+        FHEMetrics.register(registry);
+        long count = FHEMetrics.latency(FHEOperation.FHE_ADD).getCount();
+        FHEMetrics.record(FHEOperation.FHE_ADD, FHEMetrics.start(), 2048);
+        assertEquals(count + 1, registry.histogram("fhe_add.latency_us").getCount());
+        assertEquals(2048, registry.histogram("fhe_add.output_bytes").getSnapshot().getMax());
+        assertTrue(registry.getHistograms().containsKey("do_FHE_dot_product.latency_us"));
+    }
+}
@@ -0,0 +1,64 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.metrics;
+
+import jdk.jfr.Recording;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for the summary of Flight Recorder files")
+public class JfrSummaryTest {
+
+    @Test
+    @DisplayName("Events are grouped by operation with their sizes")
+    public void test_summarize() throws IOException {
+        Path file = Files.createTempFile("sparkfhe", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(FHEOperationEvent.class);
+            recording.enable(CiphertextIOEvent.class);
+            recording.start();
+            for (int i = 0; i < 3; i++) {
+                FHEOperationEvent.start().complete(FHEOperation.FHE_ADD, "HELIB", "BGV", 200, 100);
+            }
+            FHEOperationEvent.start().complete(FHEOperation.DO_FHE_DOT_PRODUCT, "HELIB", "BGV", 400, 100);
+            CiphertextIOEvent.start().complete(CiphertextIOEvent.READ, "gen/records/a.jsonl", 1, 100);
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<JfrSummary.OpSummary> summaries = JfrSummary.summarize(file);
+        assertEquals(3, summaries.size());
+        JfrSummary.OpSummary add = summaries.stream().filter(s -> s.get_operation().equals("fhe_add")).findFirst().get();
+        assertEquals(3, add.get_count());
+        assertEquals(600, add.get_input_bytes());
+        assertEquals(300, add.get_output_bytes());
+        JfrSummary.OpSummary read = summaries.stream().filter(s -> s.get_operation().equals(CiphertextIOEvent.READ)).findFirst().get();
+        assertEquals(100, read.get_output_bytes());
+        assertTrue(JfrSummary.format(summaries).contains("do_FHE_dot_product"));
+        Files.delete(file);
+    }
+
+    @Test
+    @DisplayName("Pauses are merged and intersected with the operations")
+    public void test_overlap() {
+        long[][] merged = JfrSummary.merge(Arrays.asList(new long[]{50, 60}, new long[]{10, 20}, new long[]{15, 30}));
+        assertEquals(2, merged.length);
+        assertArrayEquals(new long[]{10, 30}, merged[0]);
+        assertEquals(30, JfrSummary.overlap_nanos(merged, 0, 100));
+        assertEquals(5, JfrSummary.overlap_nanos(merged, 25, 40));
+        assertEquals(0, JfrSummary.overlap_nanos(merged, 30, 50));
+        assertEquals(10, JfrSummary.overlap_nanos(merged, 25, 55));
+    }
+}
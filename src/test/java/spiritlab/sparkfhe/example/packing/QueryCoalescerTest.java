@@ -0,0 +1,113 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.packing;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import spiritlab.sparkfhe.example.backend.FHEBackend;
+import spiritlab.sparkfhe.example.backend.PlaintextBackend;
+import spiritlab.sparkfhe.example.planning.HomomorphicOp;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for packing queries into shared ciphertexts")
+public class QueryCoalescerTest {
+
+    private final FHEBackend backend = new PlaintextBackend("PLAINTEXT", "BGV", 0);
+
+    @Test
+    @DisplayName("Test the queries are packed into disjoint slot ranges")
+    public void test_drain() {
+        QueryCoalescer coalescer = new QueryCoalescer(HomomorphicOp.ADD, "BGV", 16);
+        for (int i = 0; i < 10; i++) {
+            coalescer.submit("q" + i, new double[5], new double[5]);
+        }
+        coalescer.submit("long", new double[12], new double[12]);
+        assertEquals(11, coalescer.pending());
+
+        List<PackedBatch> batches = coalescer.drain();
+        assertEquals(0, coalescer.pending());
+        // the long query first, then three queries of 5 per batch
+        assertEquals(5, batches.size());
+        assertEquals("long", batches.get(0).get_ids().get(0));
+        Set<String> ids = new HashSet<String>();
+        for (PackedBatch batch : batches) {
+            ids.addAll(batch.get_ids());
+            assertTrue(batch.get_used_slots() <= 16);
+            int end = 0;
+            for (SlotRange range : batch.get_ranges()) {
+                assertEquals(end, range.get_offset());
+                end = range.get_end();
+            }
+        }
+        assertEquals(11, ids.size());
+
+        assertThrows(IllegalArgumentException.class, () -> coalescer.submit("too_long", new double[17], new double[17]));
+        assertThrows(IllegalArgumentException.class, () -> coalescer.submit("mismatch", new double[3], new double[4]));
+        assertThrows(IllegalArgumentException.class, () -> new QueryCoalescer(HomomorphicOp.ENCRYPT, "BGV", 16));
+    }
+
+    @Test
+    @DisplayName("Test the results are demultiplexed per query")
+    public void test_run() {
+        QueryCoalescer dot_products = new QueryCoalescer(HomomorphicOp.DOT_PRODUCT, "BGV", 8);
+        QueryCoalescer products = new QueryCoalescer(HomomorphicOp.MULTIPLY, "BGV", 8);
+        List<double[][]> queries = new ArrayList<double[][]>();
+        for (int i = 0; i < 5; i++) {
+            double[] a = {i, i + 1, i + 2}, b = {2, 3, i};
+            queries.add(new double[][]{a, b});
+            dot_products.submit(String.valueOf(i), a, b);
+            products.submit(String.valueOf(i), a, b);
+        }
+
+        List<PackedBatch> batches = dot_products.drain();
+        assertEquals(3, batches.size());
+        for (PackedBatch batch : batches) {
+            List<PackedResult> shared = batch.run(backend, false);
+            List<PackedResult> isolated = batch.run(backend, true);
+            for (int i = 0; i < shared.size(); i++) {
+                double[][] query = queries.get(Integer.parseInt(shared.get(i).get_id()));
+                double expected = 0;
+                for (int j = 0; j < 3; j++) {
+                    expected += query[0][j] * query[1][j];
+                }
+                // one packed product for the batch, summed per query once decrypted
+                assertTrue(shared.get(i).is_summed());
+                assertFalse(shared.get(i).is_isolated());
+                assertSame(shared.get(0).get_ctxt(), shared.get(i).get_ctxt());
+                assertArrayEquals(new double[]{expected}, shared.get(i).decrypt(backend));
+
+                assertEquals(shared.get(i).get_id(), isolated.get(i).get_id());
+                assertTrue(isolated.get(i).is_isolated());
+                assertArrayEquals(new double[]{expected}, isolated.get(i).decrypt(backend));
+            }
+        }
+
+        for (PackedBatch batch : products.drain()) {
+            for (PackedResult result : batch.run(backend, true)) {
+                double[][] query = queries.get(Integer.parseInt(result.get_id()));
+                double[] expected = new double[3];
+                for (int j = 0; j < 3; j++) {
+                    expected[j] = query[0][j] * query[1][j];
+                }
+                assertArrayEquals(expected, result.decrypt(backend));
+                // masked, the slots of the other queries are zeros
+                double[] slots = PackedResult.parse_values(backend.decrypt(result.get_ctxt()));
+                for (int j = 0; j < slots.length; j++) {
+                    if (j < result.get_range().get_offset() || j >= result.get_range().get_end()) {
+                        assertEquals(0, slots[j]);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.planning;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for the cost-balanced partitioner")
+public class CostBalancedPartitionerTest {
+
+    @Test
+    @DisplayName("Elements of equal cost are split evenly")
+    public void test_equal_costs() {
+        CostBalancedPartitioner partitioner = CostBalancedPartitioner.from_costs(new double[]{1, 1, 1, 1, 1, 1, 1, 1}, 4);
+        assertArrayEquals(new long[]{2, 4, 6, 8}, partitioner.get_upper_bounds());
+        assertEquals(4, partitioner.numPartitions());
+        assertEquals(0, partitioner.getPartition(0L));
+        assertEquals(0, partitioner.getPartition(1L));
+        assertEquals(1, partitioner.getPartition(2L));
+        assertEquals(3, partitioner.getPartition(7L));
+    }
+
+    @Test
+    @DisplayName("Costly elements get partitions of their own")
+    public void test_skewed_costs() {
+        // one large ciphertext followed by six small ones
+        CostBalancedPartitioner partitioner = CostBalancedPartitioner.from_costs(new double[]{6, 1, 1, 1, 1, 1, 1}, 2);
+        assertArrayEquals(new long[]{1, 7}, partitioner.get_upper_bounds());
+
+        // the ranges are contiguous and cover every element
+        partitioner = CostBalancedPartitioner.from_costs(new double[]{1, 1, 10, 1, 1, 1, 1, 1, 1}, 3);
+        int previous = 0;
+        for (long i = 0; i < 9; i++) {
+            int partition = partitioner.getPartition(i);
+            assertTrue(partition >= previous && partition < 3);
+            previous = partition;
+        }
+        assertEquals(1, partitioner.getPartition(2L));
+    }
+
+    @Test
+    @DisplayName("Partitioners with the same ranges are equal")
+    public void test_equality() {
+        double[] costs = {3, 1, 2, 5};
+        assertEquals(CostBalancedPartitioner.from_costs(costs, 2), CostBalancedPartitioner.from_costs(costs, 2));
+        assertNotEquals(CostBalancedPartitioner.from_costs(costs, 2), CostBalancedPartitioner.from_costs(costs, 3));
+        assertThrows(IllegalArgumentException.class, () -> CostBalancedPartitioner.from_costs(costs, 0));
+    }
+}
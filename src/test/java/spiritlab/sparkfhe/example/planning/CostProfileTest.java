@@ -0,0 +1,66 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.planning;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for calibrated operator costs")
+public class CostProfileTest {
+
+    private static CostProfile profile() {
+        CostProfile profile = new CostProfile("HELIB", "BGV", "HELIB_BGV_m1000");
+        profile.record(HomomorphicOp.ADD, 0.5, 1000, 10);
+        profile.record(HomomorphicOp.MULTIPLY, 20, 1500, 10);
+        profile.record(HomomorphicOp.DOT_PRODUCT, 10, 1500, 10);
+        return profile;
+    }
+
+    @Test
+    @DisplayName("Profiles survive the round trip through the profiles directory")
+    public void test_save_and_load() throws IOException {
+        String directory = Files.createTempDirectory("profiles").toString();
+        assertNull(CostProfile.load(directory, "HELIB_BGV_m1000"));
+
+        profile().save(directory);
+        CostProfile read = CostProfile.load(directory, "HELIB_BGV_m1000");
+        assertNotNull(read);
+        assertEquals("BGV", read.getScheme());
+        assertEquals(20, read.get(HomomorphicOp.MULTIPLY).getLatencyMs());
+        assertEquals(1500, read.get(HomomorphicOp.MULTIPLY).getOutputBytes());
+        assertNull(read.get(HomomorphicOp.TOTAL_SUM));
+    }
+
+    @Test
+    @DisplayName("Costs are relative to fhe_add, with defaults for operators not calibrated")
+    public void test_relative_costs() {
+        CostProfile profile = profile();
+        assertEquals(40, profile.relative_cost(HomomorphicOp.MULTIPLY));
+        assertEquals(HomomorphicOp.TOTAL_SUM.default_cost(), profile.relative_cost(HomomorphicOp.TOTAL_SUM));
+        assertEquals(0.5 * HomomorphicOp.TOTAL_SUM.default_cost(), profile.latency_ms(HomomorphicOp.TOTAL_SUM));
+        assertEquals(-1, new CostProfile().latency_ms(HomomorphicOp.ADD));
+
+        assertEquals(40, new PartitionPlanner(4, profile).cost(HomomorphicOp.MULTIPLY));
+        assertEquals(HomomorphicOp.MULTIPLY.default_cost(), new PartitionPlanner(4).cost(HomomorphicOp.MULTIPLY));
+    }
+
+    @Test
+    @DisplayName("Pipelines are estimated in waves over the cores")
+    public void test_pipeline_estimate() {
+        PipelineEstimate estimate = new PipelineEstimate(profile(), 4)
+                .stage(HomomorphicOp.DOT_PRODUCT, 100, 8)
+                .stage(HomomorphicOp.ADD, 7, 1);
+        assertEquals(100 * 10 + 7 * 0.5, estimate.cpu_ms(), 1e-9);
+        // 25 waves of dot products on 4 cores, then the additions one after the other
+        assertEquals(25 * 10 + 7 * 0.5, estimate.wall_ms(), 1e-9);
+    }
+}
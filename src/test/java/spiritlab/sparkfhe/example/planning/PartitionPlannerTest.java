@@ -0,0 +1,60 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.planning;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import spiritlab.sparkfhe.example.storage.CatalogEntry;
+import spiritlab.sparkfhe.example.storage.CiphertextParams;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for the partition planner")
+public class PartitionPlannerTest {
+
+    private static final long MB = 1024L * 1024;
+
+    @Test
+    @DisplayName("Partitions follow the work of the stage")
+    public void test_plan_by_work() {
+        PartitionPlanner planner = new PartitionPlanner(8);
+
+        // 100 additions are not worth more than two tasks
+        assertEquals(2, planner.plan(100, 100 * MB, HomomorphicOp.ADD));
+        // 100 dot products are, up to three tasks per core
+        assertEquals(24, planner.plan(100, 100 * MB, HomomorphicOp.DOT_PRODUCT));
+        // and never more than there are ciphertexts, however large they are
+        assertEquals(3, planner.plan(3, 3000 * MB, HomomorphicOp.DOT_PRODUCT));
+        assertEquals(1, planner.plan(1, MB, HomomorphicOp.MULTIPLY));
+    }
+
+    @Test
+    @DisplayName("Partitions fill whole waves and bound the memory of a task")
+    public void test_plan_waves_and_memory() {
+        PartitionPlanner planner = new PartitionPlanner(8);
+
+        // 10 partitions worth of work are rounded up to two waves of 8
+        assertEquals(16, planner.plan(32, 32 * MB, HomomorphicOp.MULTIPLY));
+        // 1000 large ciphertexts need more partitions than the additions alone would ask for
+        assertEquals(40, planner.plan(1000, 5000 * MB, HomomorphicOp.ADD));
+    }
+
+    @Test
+    @DisplayName("Datasets of unknown size use the fallback")
+    public void test_plan_catalog_entry() {
+        PartitionPlanner planner = new PartitionPlanner(4);
+        assertEquals(3, planner.plan((CatalogEntry) null, 3, HomomorphicOp.ADD));
+
+        CatalogEntry entry = new CatalogEntry();
+        entry.setParams(new CiphertextParams("HELIB_BGV_m1000", "HELIB", "BGV"));
+        assertEquals(3, planner.plan(entry, 3, HomomorphicOp.ADD));
+
+        entry.getParams().setElements(100);
+        entry.setSizeBytes(100 * MB);
+        assertEquals(12, planner.plan(entry, 3, HomomorphicOp.MULTIPLY));
+    }
+}
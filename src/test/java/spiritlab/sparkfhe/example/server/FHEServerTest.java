@@ -0,0 +1,232 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import spiritlab.sparkfhe.example.Config;
+import spiritlab.sparkfhe.example.backend.FHEBackend;
+import spiritlab.sparkfhe.example.backend.PlaintextBackend;
+import spiritlab.sparkfhe.example.storage.CatalogEntry;
+import spiritlab.sparkfhe.example.storage.CiphertextCatalog;
+import spiritlab.sparkfhe.example.storage.CiphertextParams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for the FHE server")
+public class FHEServerTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final String TOKEN = "0123456789abcdef";
+
+    @Test
+    @DisplayName("Test the query parameters are decoded")
+    public void test_parse_query() throws UnsupportedEncodingException {
+        Map<String, String> params = FHEServer.parse_query("a=vec_a_5&b=vec%20b&decrypt&&a=vec_c_5");
+        assertEquals(3, params.size());
+        assertEquals("vec_c_5", params.get("a"));
+        assertEquals("vec b", params.get("b"));
+        assertEquals("", params.get("decrypt"));
+
+        assertTrue(FHEServer.parse_query(null).isEmpty());
+        assertTrue(FHEServer.parse_query("").isEmpty());
+    }
+
+    // the jobs of the server on the files of the datasets, without Spark
+    private static class LocalJobs implements FHEServer.Jobs {
+        private final FHEBackend backend;
+
+        LocalJobs(FHEBackend backend) {
+            this.backend = backend;
+        }
+
+        private static List<String> read(CatalogEntry entry) throws IOException {
+            List<String> ctxts = new ArrayList<String>();
+            for (String line : Files.readAllLines(Paths.get(entry.getPath()), StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) {
+                    ctxts.add(mapper.readTree(line).get(Config.Ciphertext_Label).asText());
+                }
+            }
+            return ctxts;
+        }
+
+        @Override
+        public String total_sum(CatalogEntry entry) throws IOException {
+            return backend.fhe_total_sum(backend.fhe_total_sum(read(entry)));
+        }
+
+        @Override
+        public String dot_product(CatalogEntry entry_a, CatalogEntry entry_b) throws IOException {
+            return backend.fhe_total_sum(backend.do_FHE_dot_product(read(entry_a), read(entry_b)));
+        }
+
+        @Override
+        public List<String> elementwise_product(CatalogEntry entry_a, CatalogEntry entry_b) throws IOException {
+            List<String> a = read(entry_a), b = read(entry_b), products = new ArrayList<String>();
+            for (int i = 0; i < a.size(); i++) {
+                products.add(backend.fhe_multiply(a.get(i), b.get(i)));
+            }
+            return products;
+        }
+
+        @Override
+        public void describe(Map<String, Object> status) {
+            status.put("cores", 1);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static int request(String method, String url, JsonNode[] body) throws IOException {
+        return request(method, url, TOKEN, body);
+    }
+
+    private static int request(String method, String url, String token, JsonNode[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        if (token != null) {
+            connection.setRequestProperty("Authorization", "Bearer " + token);
+        }
+        int status = connection.getResponseCode();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            body[0] = mapper.readTree(in);
+        }
+        return status;
+    }
+
+    private static void register(CiphertextCatalog catalog, Path records, String name, FHEBackend backend, long... values) throws IOException {
+        String path = catalog.default_path(name, backend.generate_crypto_params_suffix());
+        StringBuilder lines = new StringBuilder();
+        for (long value : values) {
+            lines.append(mapper.writeValueAsString(Collections.singletonMap(Config.Ciphertext_Label,
+                    backend.encrypt(new long[]{value})))).append('\n');
+        }
+        Files.write(records.resolve(Paths.get(path).getFileName()), lines.toString().getBytes(StandardCharsets.UTF_8));
+        catalog.register(name, path, CatalogEntry.FORMAT_JSONL,
+                new CiphertextParams(backend.generate_crypto_params_suffix(), backend.get_library(), "BGV"));
+    }
+
+    @Test
+    @DisplayName("Test the routes run the jobs, and concurrent jobs all register their outputs")
+    public void test_routes() throws Exception {
+        Path records = Files.createTempDirectory("server");
+        PlaintextBackend backend = new PlaintextBackend("PLAINTEXT", "BGV", 0);
+        FHEServer server = new FHEServer("PLAINTEXT", "BGV", backend, records.toString(), new LocalJobs(backend), TOKEN, true);
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            CiphertextCatalog catalog = CiphertextCatalog.open(records.toString());
+            register(catalog, records, "vec_a", backend, 1, 2, 3);
+            register(catalog, records, "vec_b", backend, 4, 5, 6);
+
+            String base = "http://127.0.0.1:" + server.start("127.0.0.1", 0, 4);
+            JsonNode[] body = new JsonNode[1];
+
+            assertEquals(200, request("GET", base + "/status", body));
+            assertEquals(backend.generate_crypto_params_suffix(), body[0].get("crypto_params").asText());
+            assertEquals(200, request("POST", base + "/jobs/total_sum?dataset=vec_a&decrypt=true", body));
+            assertEquals(6, PlaintextBackend.parse_slots(body[0].get(Config.Ciphertext_Label).asText())[0]);
+            assertTrue(body[0].has("values"));
+            assertEquals(200, request("POST", base + "/jobs/dot_product?a=vec_a&b=vec_b", body));
+            assertEquals(32, PlaintextBackend.parse_slots(body[0].get(Config.Ciphertext_Label).asText())[0]);
+
+            assertEquals(405, request("GET", base + "/jobs/total_sum?dataset=vec_a", body));
+            assertEquals(400, request("POST", base + "/jobs/total_sum", body));
+            assertEquals(400, request("POST", base + "/jobs/total_sum?dataset=missing", body));
+            for (String output : new String[]{"../outside", "a%2Fb", "..", "."}) {
+                assertEquals(400, request("POST", base + "/jobs/elementwise_product?a=vec_a&b=vec_b&output=" + output, body), output);
+            }
+            assertFalse(Files.exists(records.getParent().resolve("outside_" + backend.generate_crypto_params_suffix() + ".jsonl")));
+
+            // concurrent registrations, with lookups running meanwhile
+            List<Future<Integer>> responses = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 8; i++) {
+                String output = "product_" + i;
+                responses.add(clients.submit(() -> request("POST",
+                        base + "/jobs/elementwise_product?a=vec_a&b=vec_b&output=" + output, new JsonNode[1])));
+                responses.add(clients.submit(() -> request("POST", base + "/jobs/total_sum?dataset=vec_a", new JsonNode[1])));
+            }
+            for (Future<Integer> response : responses) {
+                assertEquals(200, (int) response.get(30, TimeUnit.SECONDS));
+            }
+            CiphertextCatalog after = CiphertextCatalog.open(records.toString());
+            for (int i = 0; i < 8; i++) {
+                CatalogEntry entry = after.lookup("product_" + i, backend.generate_crypto_params_suffix());
+                assertNotNull(entry, "product_" + i);
+                assertEquals(3, entry.elements());
+            }
+            assertEquals(200, request("GET", base + "/datasets", body));
+            assertEquals(10, body[0].size());
+
+            assertEquals(200, request("POST", base + "/shutdown", body));
+            server.await_shutdown();
+        } finally {
+            clients.shutdownNow();
+            try (Stream<Path> files = Files.walk(records)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test requests without the token are refused, and decryption is opt-in")
+    public void test_token() throws Exception {
+        Path records = Files.createTempDirectory("server");
+        PlaintextBackend backend = new PlaintextBackend("PLAINTEXT", "BGV", 0);
+        FHEServer server = new FHEServer("PLAINTEXT", "BGV", backend, records.toString(), new LocalJobs(backend), TOKEN, false);
+        try {
+            register(CiphertextCatalog.open(records.toString()), records, "vec_a", backend, 1, 2, 3);
+            String base = "http://127.0.0.1:" + server.start("127.0.0.1", 0, 1);
+            JsonNode[] body = new JsonNode[1];
+
+            assertEquals(401, request("GET", base + "/status", null, body));
+            assertEquals(401, request("POST", base + "/jobs/total_sum?dataset=vec_a", TOKEN + "0", body));
+            assertEquals(401, request("POST", base + "/shutdown", "", body));
+            assertEquals(200, request("POST", base + "/jobs/total_sum?dataset=vec_a", body));
+            assertFalse(body[0].has("values"));
+            assertEquals(400, request("POST", base + "/jobs/total_sum?dataset=vec_a&decrypt=true", body));
+
+            assertEquals(200, request("POST", base + "/shutdown", body));
+            server.await_shutdown();
+
+            Path file = records.resolve("keys").resolve("fheserver.token");
+            String token = FHEServer.write_token(file);
+            assertEquals(64, token.length());
+            assertEquals(token, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            assertNotEquals(token, FHEServer.write_token(file));
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+        } finally {
+            try (Stream<Path> files = Files.walk(records)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.storage;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for incremental aggregate checkpoints")
+public class AggregateCheckpointTest {
+
+    private static AggregateCheckpoint checkpoint_of(String... files) {
+        AggregateCheckpoint checkpoint = new AggregateCheckpoint();
+        Map<String, Long> seen = new TreeMap<>();
+        for (String file : files) {
+            seen.put(file, 100L);
+        }
+        checkpoint.setFiles(seen);
+        return checkpoint;
+    }
+
+    @Test
+    @DisplayName("Only the files not covered by the checkpoint are pending")
+    public void test_pending_files() {
+        Map<String, Long> inputs = new TreeMap<>();
+        inputs.put("file:/in/a.jsonl", 100L);
+        inputs.put("file:/in/c.jsonl", 100L);
+        inputs.put("file:/in/b.jsonl", 100L);
+
+        assertEquals(Arrays.asList("file:/in/a.jsonl", "file:/in/b.jsonl", "file:/in/c.jsonl"),
+                new AggregateCheckpoint().pending_files(inputs));
+        assertEquals(Collections.singletonList("file:/in/c.jsonl"),
+                checkpoint_of("file:/in/a.jsonl", "file:/in/b.jsonl").pending_files(inputs));
+    }
+
+    @Test
+    @DisplayName("Aggregated files cannot be modified or removed")
+    public void test_not_append_only() {
+        Map<String, Long> inputs = new TreeMap<>();
+        inputs.put("file:/in/a.jsonl", 150L);
+        assertThrows(IllegalStateException.class, () -> checkpoint_of("file:/in/a.jsonl").pending_files(inputs));
+        assertThrows(IllegalStateException.class, () -> checkpoint_of("file:/in/b.jsonl").pending_files(inputs));
+    }
+}
@@ -0,0 +1,164 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.storage;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for the ciphertext dataset catalog")
+public class CiphertextCatalogTest {
+
+    private static final String PARAMS = "HELIB_BGV_m1000";
+
+    private static String write(CiphertextCatalog catalog, Path records, String name, String... ctxts) throws IOException {
+        String file = catalog.default_path(name, PARAMS);
+        StringBuilder lines = new StringBuilder();
+        for (String ctxt : ctxts) {
+            lines.append("{\"ctxt\":\"").append(ctxt).append("\"}\n");
+        }
+        Files.write(records.resolve(name + "_" + PARAMS + ".jsonl"), lines.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    @DisplayName("Registered datasets are measured, persisted and resolved by name and params")
+    public void test_register_and_resolve(@TempDir Path records) throws IOException {
+        String directory = records.toString();
+
+        CiphertextCatalog catalog = CiphertextCatalog.open(directory);
+        String file = write(catalog, records, "vec_ctxt_100", "aaaa", "bb", "", "cccccc");
+        catalog.register("vec_ctxt_100", file, CatalogEntry.FORMAT_JSONL, new CiphertextParams(PARAMS, "HELIB", "BGV"));
+
+        CatalogEntry entry = CiphertextCatalog.open(directory).lookup("vec_ctxt_100", PARAMS);
+        assertNotNull(entry);
+        assertEquals(4, entry.elements());
+        assertEquals(1, entry.getFiles());
+        assertEquals(0, entry.getMinCtxtBytes());
+        assertEquals(6, entry.getMaxCtxtBytes());
+        assertEquals("BGV", entry.getParams().getScheme());
+        assertEquals(file, CiphertextCatalog.open(directory).resolve("vec_ctxt_100", PARAMS));
+
+        // the params given are left as they were, for the next dataset
+        CiphertextParams params = new CiphertextParams(PARAMS, "HELIB", "BGV");
+        catalog.register("vec_b", write(catalog, records, "vec_b", "aa", "bb"), CatalogEntry.FORMAT_JSONL, params);
+        assertEquals(CiphertextParams.UNKNOWN, params.getElements());
+        assertEquals(2, CiphertextCatalog.open(directory).lookup("vec_b", PARAMS).elements());
+
+        // not registered with these params, falls back to the file name convention
+        assertNull(catalog.lookup("vec_ctxt_100", "SEAL_BFV_n4096"));
+        assertEquals(directory + "/vec_ctxt_100_SEAL_BFV_n4096.jsonl", catalog.resolve("vec_ctxt_100", "SEAL_BFV_n4096"));
+    }
+
+    @Test
+    @DisplayName("Sizes are measured on the first ciphertexts of a file, all of them are counted")
+    public void test_sampled_sizes(@TempDir Path records) throws IOException {
+        CiphertextCatalog catalog = CiphertextCatalog.open(records.toString());
+        String[] ctxts = new String[CiphertextCatalog.SAMPLED_CTXTS + 2];
+        for (int i = 0; i < ctxts.length; i++) {
+            ctxts[i] = i < CiphertextCatalog.SAMPLED_CTXTS ? "éé" : "a";
+        }
+        String file = write(catalog, records, "vec_a", ctxts);
+        CatalogEntry entry = catalog.register("vec_a", file, CatalogEntry.FORMAT_JSONL, new CiphertextParams(PARAMS, "HELIB", "BGV"));
+
+        assertEquals(ctxts.length, entry.elements());
+        // in bytes, not chars
+        assertEquals(4, entry.getMinCtxtBytes());
+        assertEquals(4, entry.getMaxCtxtBytes());
+    }
+
+    @Test
+    @DisplayName("Concurrent registrations keep each other's entries, and readers see a complete catalog")
+    public void test_concurrent_register(@TempDir Path records) throws Exception {
+        String directory = records.toString();
+        ExecutorService writers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> registrations = new ArrayList<Future<?>>();
+            for (int i = 0; i < 16; i++) {
+                String name = "vec_" + i;
+                // every writer starts from the catalog as it was before the others registered
+                CiphertextCatalog catalog = CiphertextCatalog.open(directory);
+                String file = write(catalog, records, name, "aa");
+                registrations.add(writers.submit(() -> catalog.register(name, file, CatalogEntry.FORMAT_JSONL,
+                        new CiphertextParams(PARAMS, "HELIB", "BGV"))));
+                registrations.add(writers.submit(() -> CiphertextCatalog.open(directory).list()));
+            }
+            for (Future<?> registration : registrations) {
+                registration.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            writers.shutdownNow();
+        }
+
+        CiphertextCatalog catalog = CiphertextCatalog.open(directory);
+        assertEquals(16, catalog.list().size());
+        for (int i = 0; i < 16; i++) {
+            assertNotNull(catalog.lookup("vec_" + i, PARAMS));
+        }
+        assertFalse(Files.exists(records.resolve(CiphertextCatalog.LOCK_FILE)));
+    }
+
+    @Test
+    @DisplayName("A catalog being replaced without atomic rename is read from its new copy")
+    public void test_read_copy(@TempDir Path records) throws IOException {
+        String directory = records.toString();
+        CiphertextCatalog catalog = CiphertextCatalog.open(directory);
+        String file = write(catalog, records, "vec_a", "aa");
+        catalog.register("vec_a", file, CatalogEntry.FORMAT_JSONL, new CiphertextParams(PARAMS, "HELIB", "BGV"));
+
+        Files.move(records.resolve(CiphertextCatalog.CATALOG_FILE), records.resolve(CiphertextCatalog.CATALOG_FILE + ".1234.tmp"));
+        assertNotNull(CiphertextCatalog.open(directory).lookup("vec_a", PARAMS));
+    }
+
+    @Test
+    @DisplayName("The catalog is versioned, catalogs written before the version are still read")
+    public void test_version(@TempDir Path records) throws IOException {
+        String directory = records.toString();
+        Path catalog_file = records.resolve(CiphertextCatalog.CATALOG_FILE);
+        Files.write(catalog_file, ("{\"vec_a@" + PARAMS + "\":{\"name\":\"vec_a\",\"path\":\"vec_a.jsonl\","
+                + "\"params\":{\"cryptoParams\":\"" + PARAMS + "\"}}}").getBytes(StandardCharsets.UTF_8));
+        CiphertextCatalog catalog = CiphertextCatalog.open(directory);
+        assertEquals("vec_a.jsonl", catalog.lookup("vec_a", PARAMS).getPath());
+
+        // registering writes the version, and keeps the entries read
+        catalog.register("vec_b", write(catalog, records, "vec_b", "aa"), CatalogEntry.FORMAT_JSONL, new CiphertextParams(PARAMS, "HELIB", "BGV"));
+        String written = new String(Files.readAllBytes(catalog_file), StandardCharsets.UTF_8);
+        assertTrue(written.contains("\"version\" : " + CiphertextCatalog.VERSION), written);
+        assertEquals(2, CiphertextCatalog.open(directory).list().size());
+
+        Files.write(catalog_file, ("{\"version\":" + (CiphertextCatalog.VERSION + 1) + ",\"entries\":{}}").getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> CiphertextCatalog.open(directory));
+    }
+
+    @Test
+    @DisplayName("A stale lock is taken over, and the lock of a writer is removed once it registered")
+    public void test_stale_lock(@TempDir Path records) throws IOException {
+        String directory = records.toString();
+        Path lock = records.resolve(CiphertextCatalog.LOCK_FILE);
+        Files.write(lock, "a writer that died".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(lock, FileTime.fromMillis(System.currentTimeMillis() - 2 * CiphertextCatalog.STALE_LOCK_MS));
+
+        CiphertextCatalog catalog = CiphertextCatalog.open(directory);
+        catalog.register("vec_a", write(catalog, records, "vec_a", "aa"), CatalogEntry.FORMAT_JSONL, new CiphertextParams(PARAMS, "HELIB", "BGV"));
+        assertNotNull(CiphertextCatalog.open(directory).lookup("vec_a", PARAMS));
+        assertFalse(Files.exists(lock));
+    }
+}
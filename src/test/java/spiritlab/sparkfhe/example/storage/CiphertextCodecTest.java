@@ -0,0 +1,103 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.storage;
+
+import com.github.luben.zstd.Zstd;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import spiritlab.sparkfhe.example.backend.PlaintextBackend;
+
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for ciphertext storage encoding")
+public class CiphertextCodecTest {
+
+    // stands in for a ciphertext serialized as random decimal coefficients, as in the text form of HElib
+    private static String fake_ctxt() {
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 4096; i++) {
+            builder.append(Math.abs(random.nextLong()) % 1000000007L).append(' ');
+        }
+        return builder.toString();
+    }
+
+    // stands in for a ciphertext serialized as base64, as by SEAL, which zstd barely shrinks
+    private static String padded_ctxt() {
+        return new PlaintextBackend("PLAINTEXT", "BGV", 16384).encrypt(new long[]{1, 2, 3});
+    }
+
+    @Test
+    @DisplayName("Uncompressed ciphertexts are stored and read as is")
+    public void test_none_round_trip() {
+        String ctxt = fake_ctxt();
+        assertEquals(ctxt, CiphertextCodec.encode(ctxt, CiphertextCodec.Compression.NONE));
+        assertFalse(CiphertextCodec.is_compressed(ctxt));
+        assertEquals(ctxt, CiphertextCodec.decode(ctxt));
+    }
+
+    @Test
+    @DisplayName("Zstd compressed ciphertexts round trip and are smaller")
+    public void test_zstd_round_trip() {
+        String ctxt = fake_ctxt();
+        String stored = CiphertextCodec.encode(ctxt, CiphertextCodec.Compression.ZSTD);
+        assertTrue(CiphertextCodec.is_compressed(stored));
+        assertTrue(stored.length() < ctxt.length());
+        assertEquals(ctxt, CiphertextCodec.decode(stored));
+    }
+
+    @Test
+    @DisplayName("Ciphertexts that do not compress are stored as is")
+    public void test_zstd_incompressible() {
+        String ctxt = padded_ctxt();
+        // the base64 of the compressed bytes would be larger than the ciphertext
+        assertEquals(ctxt, CiphertextCodec.encode(ctxt, CiphertextCodec.Compression.ZSTD));
+
+        // without base64, compressing still pays
+        byte[] compressed = CiphertextCodec.to_bytes(ctxt, CiphertextCodec.Compression.ZSTD);
+        assertTrue(compressed.length < ctxt.length());
+        assertEquals(ctxt, CiphertextCodec.from_bytes(compressed));
+    }
+
+    @Test
+    @DisplayName("Empty ciphertexts round trip")
+    public void test_empty() {
+        assertEquals("", CiphertextCodec.decode(CiphertextCodec.encode("", CiphertextCodec.Compression.ZSTD)));
+        assertEquals("", CiphertextCodec.from_bytes(CiphertextCodec.to_bytes("", CiphertextCodec.Compression.ZSTD)));
+        // written by a version that compressed every ciphertext
+        assertEquals("", CiphertextCodec.decode(CiphertextCodec.ZSTD_PREFIX + Base64.getEncoder().encodeToString(Zstd.compress(new byte[0]))));
+        assertThrows(IllegalArgumentException.class, () -> CiphertextCodec.decode(CiphertextCodec.ZSTD_PREFIX + "AAAA"));
+    }
+
+    @Test
+    @DisplayName("Compression names are parsed case insensitively")
+    public void test_parse_compression() {
+        assertEquals(CiphertextCodec.Compression.NONE, CiphertextCodec.parse_compression(null));
+        assertEquals(CiphertextCodec.Compression.NONE, CiphertextCodec.parse_compression("none"));
+        assertEquals(CiphertextCodec.Compression.ZSTD, CiphertextCodec.parse_compression("ZSTD"));
+        assertThrows(IllegalArgumentException.class, () -> CiphertextCodec.parse_compression("gzip"));
+    }
+
+    @Test
+    @DisplayName("Binary ciphertexts round trip, compressed or not")
+    public void test_bytes_round_trip() {
+        String ctxt = fake_ctxt();
+        byte[] raw = CiphertextCodec.to_bytes(ctxt, CiphertextCodec.Compression.NONE);
+        assertEquals(ctxt.length() + 1, raw.length);
+        assertEquals(ctxt, CiphertextCodec.from_bytes(raw));
+
+        byte[] compressed = CiphertextCodec.to_bytes(ctxt, CiphertextCodec.Compression.ZSTD);
+        assertTrue(compressed.length < raw.length);
+        assertEquals(ctxt, CiphertextCodec.from_bytes(compressed));
+
+        assertThrows(IllegalArgumentException.class, () -> CiphertextCodec.from_bytes(new byte[0]));
+        assertThrows(IllegalArgumentException.class, () -> CiphertextCodec.from_bytes(new byte[]{7, 'a'}));
+    }
+}
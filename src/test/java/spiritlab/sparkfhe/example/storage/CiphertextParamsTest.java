@@ -0,0 +1,52 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.storage;
+
+import org.apache.spark.sql.types.Metadata;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for ciphertext dataset params")
+public class CiphertextParamsTest {
+
+    @Test
+    @DisplayName("Params survive the round trip through column metadata")
+    public void test_metadata_round_trip() {
+        CiphertextParams params = new CiphertextParams("HELIB_BGV_m1000", "HELIB", "BGV");
+        params.setSlots(500);
+        params.setElements(100);
+
+        CiphertextParams read = CiphertextParams.from_metadata(Metadata.fromJson(params.to_metadata().json()));
+        assertNotNull(read);
+        assertEquals("HELIB_BGV_m1000", read.getCryptoParams());
+        assertEquals("HELIB", read.getLibrary());
+        assertEquals("BGV", read.getScheme());
+        assertEquals(500, read.getSlots());
+        assertEquals(CiphertextParams.UNKNOWN, read.getLevel());
+        assertEquals(100, read.getElements());
+
+        assertNull(CiphertextParams.from_metadata(Metadata.empty()));
+    }
+
+    @Test
+    @DisplayName("Only ciphertexts with the same params can be combined")
+    public void test_compatibility() {
+        CiphertextParams expected = new CiphertextParams("HELIB_BGV_m1000", "HELIB", "BGV");
+        CiphertextParams same = new CiphertextParams("HELIB_BGV_m1000", "HELIB", "bgv");
+        same.setSlots(500);
+        assertTrue(expected.is_compatible(same));
+
+        CiphertextParams other_slots = new CiphertextParams("HELIB_BGV_m1000", "HELIB", "BGV");
+        other_slots.setSlots(250);
+        assertFalse(same.is_compatible(other_slots));
+
+        assertFalse(expected.is_compatible(new CiphertextParams("HELIB_BGV_m2000", "HELIB", "BGV")));
+        assertFalse(expected.is_compatible(null));
+    }
+}
@@ -0,0 +1,73 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for the streaming ciphertext writer")
+public class CiphertextWriterTest {
+
+    private static final String[] CTXTS = {"plain ciphertext", "with \"quotes\", \\ and\nnewlines\u0001", "unicode é中😀"};
+    private static final String COMPRESSIBLE = String.join(" ", Collections.nCopies(16, "compressed"));
+
+    @Test
+    @DisplayName("Written records are the JSON lines CiphertextStore writes, appended to the file")
+    public void test_write_and_append() throws IOException {
+        Path file = Files.createTempFile("ctxts", ".jsonl");
+        ObjectMapper mapper = new ObjectMapper();
+        // a small buffer, drained many times per record
+        try (CiphertextWriter writer = new CiphertextWriter(file.toString(), "ctxt", CiphertextCodec.Compression.NONE,
+                CiphertextWriter.SyncPolicy.every(2), 8)) {
+            for (String ctxt : CTXTS) {
+                writer.write(ctxt);
+            }
+            assertEquals(3, writer.get_ciphertexts());
+        }
+        try (CiphertextWriter writer = CiphertextWriter.open(file.toString(), "ctxt", CiphertextCodec.Compression.ZSTD)) {
+            writer.write(COMPRESSIBLE);
+            // too short to shrink, stored as is
+            writer.write(CTXTS[0]);
+        }
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(5, lines.size());
+        for (int i = 0; i < CTXTS.length; i++) {
+            assertEquals(CTXTS[i], mapper.readTree(lines.get(i)).get("ctxt").asText());
+        }
+        assertTrue(CiphertextCodec.is_compressed(mapper.readTree(lines.get(3)).get("ctxt").asText()));
+        assertEquals(CTXTS[0], mapper.readTree(lines.get(4)).get("ctxt").asText());
+        assertEquals(CTXTS[0], CiphertextStore.read_ciphertext_from_file_as_string("ctxt", file.toString()));
+
+        try (MappedCiphertextStore store = MappedCiphertextStore.open(file.toString(), "ctxt")) {
+            assertEquals(CTXTS[1], store.get(1));
+            assertEquals(CTXTS[2], store.get(2));
+            assertEquals(COMPRESSIBLE, store.get(3));
+            assertEquals(CTXTS[0], store.get(4));
+        }
+    }
+
+    @Test
+    @DisplayName("Sync policies are parsed from the command line")
+    public void test_parse_sync() {
+        assertSame(CiphertextWriter.SyncPolicy.NONE, CiphertextWriter.SyncPolicy.parse(null));
+        assertSame(CiphertextWriter.SyncPolicy.ON_CLOSE, CiphertextWriter.SyncPolicy.parse("CLOSE"));
+        assertEquals("100", CiphertextWriter.SyncPolicy.parse("100").toString());
+        assertThrows(IllegalArgumentException.class, () -> CiphertextWriter.SyncPolicy.parse("0"));
+        assertThrows(IllegalArgumentException.class, () -> CiphertextWriter.SyncPolicy.parse("always"));
+    }
+}
@@ -0,0 +1,82 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.storage;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+@DisplayName("TestCase for the memory-mapped ciphertext store")
+public class MappedCiphertextStoreTest {
+
+    // long enough for compressing to pay, so that it is stored compressed
+    private static final String COMPRESSED = String.join(" ", Collections.nCopies(16, "compressed"));
+
+    private static Path write_records() throws IOException {
+        Path file = Files.createTempFile("ctxts", ".jsonl");
+        String records = "{\"ctxt\":\"aaaa\"}\n"
+                + "\n"
+                + "{\"ctxt\":\"" + CiphertextCodec.encode(COMPRESSED, CiphertextCodec.Compression.ZSTD) + "\"}\n"
+                + "{\"ctxt\" : \"with \\\"quotes\\\"\"}\n"
+                + "{\"ctxt\":\"last, without a newline\"}";
+        Files.write(file, records.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    @DisplayName("Records are indexed and read back, compressed and escaped ones included")
+    public void test_index_and_read() throws IOException {
+        try (MappedCiphertextStore store = MappedCiphertextStore.open(write_records().toString(), "ctxt")) {
+            assertEquals(4, store.size());
+            assertEquals("aaaa", store.get(0));
+            assertTrue(CiphertextCodec.is_compressed(CiphertextCodec.encode(COMPRESSED, CiphertextCodec.Compression.ZSTD)));
+            assertEquals(COMPRESSED, store.get(1));
+            assertEquals("with \"quotes\"", store.get(2));
+            assertEquals("last, without a newline", store.get(3));
+
+            ByteBuffer slice = store.slice(0);
+            assertTrue(slice.isReadOnly());
+            assertEquals(4, slice.remaining());
+            assertFalse(store.is_escaped(0));
+            assertTrue(store.is_escaped(2));
+            assertThrows(IndexOutOfBoundsException.class, () -> store.slice(4));
+        }
+    }
+
+    @Test
+    @DisplayName("Files larger than a segment are mapped in segments starting on a record")
+    public void test_segments() throws IOException {
+        Path file = write_records();
+        MappedCiphertextStore store = new MappedCiphertextStore(file, "ctxt", 100);
+        assertEquals(4, store.size());
+        assertEquals("with \"quotes\"", store.get(2));
+        assertEquals("last, without a newline", store.get(3));
+
+        assertThrows(IOException.class, () -> new MappedCiphertextStore(file, "ctxt", 10));
+    }
+
+    @Test
+    @DisplayName("Shared stores are reused until their file changes")
+    public void test_shared() throws IOException {
+        Path file = write_records();
+        MappedCiphertextStore store = MappedCiphertextStore.shared(file.toString(), "ctxt");
+        assertSame(store, MappedCiphertextStore.shared(file.toString(), "ctxt"));
+
+        Files.write(file, "{\"ctxt\":\"b\"}\n".getBytes(StandardCharsets.UTF_8));
+        MappedCiphertextStore reopened = MappedCiphertextStore.shared(file.toString(), "ctxt");
+        assertEquals(1, reopened.size());
+        assertEquals("b", reopened.get(0));
+    }
+}
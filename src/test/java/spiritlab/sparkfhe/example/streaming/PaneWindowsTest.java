@@ -0,0 +1,53 @@
+//
+// Copyright SpiRITlab - The SparkFHE project.
+// https://github.com/SpiRITlab
+//
+
+package spiritlab.sparkfhe.example.streaming;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+@DisplayName("TestCase for pane based event-time windows")
+public class PaneWindowsTest {
+
+    @Test
+    @DisplayName("Sliding windows share panes of gcd(window, slide)")
+    public void test_sliding_windows() {
+        // 5 minute windows every 2 minutes -> 1 minute panes
+        PaneWindows windows = new PaneWindows(300000, 120000);
+        assertEquals(60000, windows.get_pane_ms());
+        assertEquals(180000, windows.pane_of(185000));
+
+        // the pane [180000, 240000) is in the windows starting at 0 and 120000
+        assertEquals(0, windows.first_window_start(180000));
+        assertEquals(120000, windows.last_window_start(180000));
+        assertEquals(420000, windows.last_window_end(180000));
+
+        // windows end at ..., 60000, 180000, 300000, 420000, ...
+        assertEquals(60000, windows.next_window_end(0));
+        assertEquals(300000, windows.next_window_end(180000));
+        assertEquals(420000, windows.next_window_end(300000));
+    }
+
+    @Test
+    @DisplayName("Tumbling windows have a single pane")
+    public void test_tumbling_windows() {
+        PaneWindows windows = new PaneWindows(300000, 300000);
+        assertEquals(300000, windows.get_pane_ms());
+        assertEquals(300000, windows.first_window_start(300000));
+        assertEquals(300000, windows.last_window_start(300000));
+        assertEquals(600000, windows.last_window_end(300000));
+    }
+
+    @Test
+    @DisplayName("The slide cannot exceed the window")
+    public void test_invalid_windows() {
+        assertThrows(IllegalArgumentException.class, () -> new PaneWindows(60000, 120000));
+        assertThrows(IllegalArgumentException.class, () -> new PaneWindows(0, 0));
+    }
+}